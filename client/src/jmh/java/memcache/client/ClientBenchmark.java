@@ -0,0 +1,116 @@
+package memcache.client;
+
+import memcache.MemoryCacheApp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The client against a server started in the same JVM on an ephemeral port, with half of
+ * {@code size} addresses cached. Lookups are run with and without a near cache; writes leave the
+ * cache's contents unchanged, adding addresses that are already cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ClientBenchmark {
+
+    private static final int PIPELINE_DEPTH = 16;
+
+    @Param({"false", "true"})
+    boolean nearCache;
+
+    @Param({"1000"})
+    int size;
+
+    private ConfigurableApplicationContext server;
+    private AddressCacheClient client;
+    private String[] addresses;
+
+    @Setup
+    public void setUp() {
+        server = SpringApplication.run(MemoryCacheApp.class, "--server.port=0", "--max.age.of.entry=1",
+                "--time.unit=hours", "--admission.enabled=false", "--logging.level.root=WARN");
+        int port = ((EmbeddedWebApplicationContext) server).getEmbeddedServletContainer().getPort();
+        client = new AddressCacheClient(new ClientSettings()
+                .port(port)
+                .maxIdleConnections(16)
+                .nearCacheMaxEntries(nearCache ? size : 0)
+                .nearCacheTtl(1, TimeUnit.SECONDS));
+        addresses = new String[size];
+        for (int i = 0; i < size; i++)
+            addresses[i] = "10.0." + (i >>> 8) + "." + (i & 0xFF);
+        List<String> cached = new ArrayList<>(size / 2);
+        for (int i = 0; i < size; i += 2)
+            cached.add(addresses[i]);
+        client.addAll(cached);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return client.contains(addresses[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public List<Boolean> pipelinedContains() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Pipeline pipeline = client.pipeline();
+        for (int i = 0; i < PIPELINE_DEPTH; i++)
+            pipeline.contains(addresses[random.nextInt(size)]);
+        return pipeline.execute();
+    }
+
+    @Benchmark
+    public void add() {
+        client.add(cachedAddress());
+    }
+
+    @Benchmark
+    public boolean addAsync() {
+        return client.addAsync(cachedAddress()).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public boolean[] addAll() {
+        String[] batch = new String[PIPELINE_DEPTH];
+        for (int i = 0; i < PIPELINE_DEPTH; i++)
+            batch[i] = cachedAddress();
+        return client.addAll(Arrays.asList(batch));
+    }
+
+    private String cachedAddress() {
+        return addresses[ThreadLocalRandom.current().nextInt(size / 2) * 2];
+    }
+}
@@ -0,0 +1,252 @@
+package memcache.client;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client for the address cache REST API. Requests go over a pool of keep-alive connections;
+ * several can share a round trip through a {@link Pipeline}, and asynchronous adds and removes
+ * are collected into batch requests. With a near cache configured, lookups of recently seen
+ * addresses are answered in process.
+ * <p>
+ * Addresses are ip addresses or hostnames, resolved by the server. Methods throw
+ * {@link IllegalArgumentException} for an address the server cannot resolve,
+ * {@link CacheServerException} when the server is busy or a cluster peer is unavailable, and
+ * {@link java.io.UncheckedIOException} when the server cannot be reached. The client is thread
+ * safe.
+ */
+public final class AddressCacheClient implements AutoCloseable {
+
+    private final ConnectionPool pool;
+    private final WriteBatcher batcher;
+    private final NearCache nearCache;
+    private final LongAdder nearCacheHits = new LongAdder();
+    private volatile boolean closed;
+
+    public AddressCacheClient(ClientSettings settings) {
+        this.pool = new ConnectionPool(new InetSocketAddress(settings.getHost(), settings.getPort()),
+                settings.getMaxIdleConnections(), settings.getConnectTimeoutMillis(), settings.getReadTimeoutMillis(),
+                settings.getIdleTimeoutMillis());
+        this.batcher = new WriteBatcher(pool, settings.getBatchSize(), settings.getLingerMillis());
+        this.nearCache = settings.getNearCacheMaxEntries() > 0
+                ? new NearCache(settings.getNearCacheMaxEntries(), settings.getNearCacheTtlMillis(),
+                settings.getNearCacheNegativeTtlMillis())
+                : null;
+    }
+
+    public void add(String address) {
+        invalidate(address);
+        Responses.check(pool.exchange(HttpRequest.of("PUT", HttpRequest.addressPath(address))), 200);
+    }
+
+    /**
+     * @return whether the address was cached
+     */
+    public boolean remove(String address) {
+        invalidate(address);
+        return Responses.check(pool.exchange(HttpRequest.of("DELETE", HttpRequest.addressPath(address))), 200, 404)
+                .status == 200;
+    }
+
+    /**
+     * @return whether the address is cached, from the near cache while its answer is fresh
+     */
+    public boolean contains(String address) {
+        long now = System.currentTimeMillis();
+        Boolean cached = nearCacheAnswer(address, now);
+        if (cached != null)
+            return cached;
+        long stamp = nearCacheStamp();
+        HttpRequest request = lookupRequest(address);
+        return lookupResult(address, request, stamp, now, pool.exchange(request));
+    }
+
+    /**
+     * @return the address that would be taken next, or null if the cache is empty
+     */
+    public String peek() {
+        HttpResponse response = Responses.check(pool.exchange(HttpRequest.of("GET", "/address/peek")), 200, 404);
+        return response.status == 200 ? Responses.address(response) : null;
+    }
+
+    /**
+     * Takes an address, waiting for one to be added if the cache is empty.
+     *
+     * @return the address taken, or null if none was added in time
+     */
+    public String take(long timeout, TimeUnit unit) {
+        long timeoutMillis = unit.toMillis(timeout);
+        HttpResponse response = Responses.check(
+                pool.exchange(HttpRequest.waiting("/address/take?timeout=" + timeoutMillis, timeoutMillis)), 200, 404);
+        if (response.status != 200)
+            return null;
+        String address = Responses.address(response);
+        invalidate(address);
+        return address;
+    }
+
+    /**
+     * Adds the addresses in one batch request.
+     *
+     * @return for each address, whether it was added rather than already cached or invalid
+     */
+    public boolean[] addAll(Collection<String> addresses) {
+        for (String address : addresses)
+            invalidate(address);
+        return outcomes(pool.exchange(HttpRequest.batch("PUT", "/address", addresses)), "added");
+    }
+
+    /**
+     * Removes the addresses in one batch request.
+     *
+     * @return for each address, whether it was cached
+     */
+    public boolean[] removeAll(Collection<String> addresses) {
+        for (String address : addresses)
+            invalidate(address);
+        return outcomes(pool.exchange(HttpRequest.batch("DELETE", "/address", addresses)), "removed");
+    }
+
+    /**
+     * Looks the addresses up in one batch request, bypassing the near cache.
+     *
+     * @return for each address, whether it is cached
+     */
+    public boolean[] containsAll(Collection<String> addresses) {
+        return outcomes(pool.exchange(HttpRequest.batch("POST", "/address/lookup", addresses)), "cached");
+    }
+
+    /**
+     * Queues an add to be sent in a batch with others.
+     *
+     * @return completes with whether the address was added rather than already cached or invalid
+     */
+    public CompletableFuture<Boolean> addAsync(String address) {
+        checkOpen();
+        invalidate(address);
+        return batcher.submit(true, address);
+    }
+
+    /**
+     * Queues a remove to be sent in a batch with others.
+     *
+     * @return completes with whether the address was cached
+     */
+    public CompletableFuture<Boolean> removeAsync(String address) {
+        checkOpen();
+        invalidate(address);
+        return batcher.submit(false, address);
+    }
+
+    /**
+     * @return a pipeline whose requests are written together and answered in one round trip
+     */
+    public Pipeline pipeline() {
+        return new Pipeline(this);
+    }
+
+    /**
+     * @return lookups answered by the near cache without a request
+     */
+    public long getNearCacheHits() {
+        return nearCacheHits.sum();
+    }
+
+    public int getNearCacheSize() {
+        return nearCache != null ? nearCache.size() : 0;
+    }
+
+    /**
+     * Sends any queued asynchronous writes and closes the connections.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        batcher.close();
+        pool.close();
+    }
+
+    List<HttpResponse> exchange(List<HttpRequest> requests) {
+        return pool.exchange(requests);
+    }
+
+    void invalidate(String address) {
+        if (nearCache != null)
+            nearCache.invalidate(address);
+    }
+
+    /**
+     * @return the near cache's answer while it is fresh, or null to ask the server
+     */
+    Boolean nearCacheAnswer(String address, long now) {
+        if (nearCache == null)
+            return null;
+        NearCache.Entry entry = nearCache.get(address);
+        if (entry == null || !entry.isFresh(now))
+            return null;
+        nearCacheHits.increment();
+        return entry.present;
+    }
+
+    long nearCacheStamp() {
+        return nearCache != null ? nearCache.stamp() : 0;
+    }
+
+    /**
+     * @return a lookup, made conditional on the ETag of a stale positive answer
+     */
+    HttpRequest lookupRequest(String address) {
+        String path = HttpRequest.addressPath(address);
+        NearCache.Entry stale = nearCache != null ? nearCache.get(address) : null;
+        return stale != null && stale.eTag != null ? HttpRequest.conditional(path, stale.eTag) : HttpRequest.of("GET", path);
+    }
+
+    boolean lookupResult(String address, HttpRequest request, long stamp, long sentAt, HttpResponse response) {
+        Responses.check(response, 200, 304, 404);
+        boolean present = response.status != 404;
+        if (nearCache == null)
+            return present;
+        if (present) {
+            String eTag = response.header("etag");
+            nearCache.putPresent(address, stamp, sentAt, expiresIn(response),
+                    eTag != null ? eTag : request.ifNoneMatch);
+        } else {
+            nearCache.putAbsent(address, stamp, sentAt);
+        }
+        return present;
+    }
+
+    /**
+     * HTTP dates have whole seconds, so the server's expiry is read as up to a second earlier
+     * than it is, never later.
+     *
+     * @return how long the server will keep the entry, measured on its own clock, or -1 if it
+     * expires only when taken or removed
+     */
+    private static long expiresIn(HttpResponse response) {
+        long expires = response.dateHeader("expires");
+        if (expires < 0)
+            return -1;
+        long date = response.dateHeader("date");
+        if (date < 0)
+            date = System.currentTimeMillis();
+        return Math.max(0, expires - date - 1000);
+    }
+
+    private static boolean[] outcomes(HttpResponse response, String success) {
+        List<String> statuses = Responses.batchStatuses(response);
+        boolean[] outcomes = new boolean[statuses.size()];
+        for (int i = 0; i < outcomes.length; i++)
+            outcomes[i] = Responses.outcome(statuses.get(i), success);
+        return outcomes;
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Client is closed");
+    }
+}
@@ -0,0 +1,31 @@
+package memcache.client;
+
+/**
+ * The server answered with an error that says nothing about the request itself: it is over its
+ * admission limit, its resolver is busy, or a cluster peer is unavailable. Such requests can be
+ * retried, after {@link #getRetryAfterSeconds()} if the server gave one.
+ */
+public class CacheServerException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final int retryAfterSeconds;
+
+    public CacheServerException(int status, String message, int retryAfterSeconds) {
+        super("Cache server answered " + status + ": " + message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the server's Retry-After in seconds, or -1 if it gave none
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
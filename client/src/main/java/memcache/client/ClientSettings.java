@@ -0,0 +1,148 @@
+package memcache.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunables for an {@link AddressCacheClient}. Setters return {@code this} so settings can be chained.
+ */
+public class ClientSettings {
+
+    private String host = "localhost";
+    private int port = 10001;
+    private int maxIdleConnections = 8;
+    private int connectTimeoutMillis = 1000;
+    private int readTimeoutMillis = 5000;
+    private long idleTimeoutMillis = 15000;
+    private int batchSize = 256;
+    private long lingerMillis = 5;
+    private int nearCacheMaxEntries;
+    private long nearCacheTtlMillis = 1000;
+    private long nearCacheNegativeTtlMillis;
+
+    public ClientSettings host(String host) {
+        this.host = host;
+        return this;
+    }
+
+    public ClientSettings port(int port) {
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * @param maxIdleConnections keep-alive connections kept open between requests; more are
+     *                           opened while more requests are in flight and closed afterwards
+     */
+    public ClientSettings maxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = Math.max(1, maxIdleConnections);
+        return this;
+    }
+
+    public ClientSettings connectTimeout(long connectTimeout, TimeUnit unit) {
+        this.connectTimeoutMillis = (int) unit.toMillis(connectTimeout);
+        return this;
+    }
+
+    /**
+     * @param readTimeout how long to wait for a response, on top of the wait asked for by a take
+     */
+    public ClientSettings readTimeout(long readTimeout, TimeUnit unit) {
+        this.readTimeoutMillis = (int) unit.toMillis(readTimeout);
+        return this;
+    }
+
+    /**
+     * @param idleTimeout idle connections older than this are closed instead of reused; keep it
+     *                    below the server's keep-alive timeout
+     */
+    public ClientSettings idleTimeout(long idleTimeout, TimeUnit unit) {
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+        return this;
+    }
+
+    /**
+     * @param batchSize most asynchronous adds or removes sent in one batch request
+     */
+    public ClientSettings batchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * @param linger how long an asynchronous add or remove may wait for others to share its batch
+     */
+    public ClientSettings linger(long linger, TimeUnit unit) {
+        this.lingerMillis = Math.max(1, unit.toMillis(linger));
+        return this;
+    }
+
+    /**
+     * @param nearCacheMaxEntries number of lookup answers kept in process, 0 for no near cache
+     */
+    public ClientSettings nearCacheMaxEntries(int nearCacheMaxEntries) {
+        this.nearCacheMaxEntries = Math.max(0, nearCacheMaxEntries);
+        return this;
+    }
+
+    /**
+     * @param nearCacheTtl longest a cached answer is trusted before asking the server again; an
+     *                     entry is never trusted past the expiry the server gave for it
+     */
+    public ClientSettings nearCacheTtl(long nearCacheTtl, TimeUnit unit) {
+        this.nearCacheTtlMillis = Math.max(0, unit.toMillis(nearCacheTtl));
+        return this;
+    }
+
+    /**
+     * @param nearCacheNegativeTtl how long an answer that an address is not cached is trusted, 0
+     *                             to always ask the server
+     */
+    public ClientSettings nearCacheNegativeTtl(long nearCacheNegativeTtl, TimeUnit unit) {
+        this.nearCacheNegativeTtlMillis = Math.max(0, unit.toMillis(nearCacheNegativeTtl));
+        return this;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public int getNearCacheMaxEntries() {
+        return nearCacheMaxEntries;
+    }
+
+    public long getNearCacheTtlMillis() {
+        return nearCacheTtlMillis;
+    }
+
+    public long getNearCacheNegativeTtlMillis() {
+        return nearCacheNegativeTtlMillis;
+    }
+}
@@ -0,0 +1,101 @@
+package memcache.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keep-alive connections to one server. An exchange borrows an idle connection or opens a new
+ * one, pipelines its requests on it, and returns it afterwards unless the pool already holds
+ * {@code maxIdle} idle ones. A connection that fails is discarded and the failure surfaces as an
+ * {@link UncheckedIOException}.
+ */
+final class ConnectionPool implements AutoCloseable {
+
+    private final InetSocketAddress address;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final BlockingQueue<HttpConnection> idle;
+    private volatile boolean closed;
+
+    ConnectionPool(InetSocketAddress address, int maxIdle, int connectTimeoutMillis, int readTimeoutMillis,
+                   long idleTimeoutMillis) {
+        this.address = address;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+    }
+
+    HttpResponse exchange(HttpRequest request) {
+        return exchange(Collections.singletonList(request)).get(0);
+    }
+
+    /**
+     * Writes every request before reading any response, so they cost one round trip between
+     * them. Requests the server did not get to before closing the connection are sent again on
+     * another one, as is the whole lot once if a reused connection turns out to have been closed
+     * while idle.
+     *
+     * @return the responses, in the order of the requests
+     */
+    List<HttpResponse> exchange(List<HttpRequest> requests) {
+        List<HttpResponse> responses = new ArrayList<>(requests.size());
+        boolean retried = false;
+        while (responses.size() < requests.size()) {
+            if (closed)
+                throw new IllegalStateException("Client is closed");
+            HttpConnection connection = null;
+            int answered = responses.size();
+            boolean reused = false;
+            try {
+                connection = borrow();
+                reused = connection.isUsed();
+                for (int i = answered; i < requests.size(); i++)
+                    connection.write(requests.get(i));
+                connection.flush();
+                for (int i = answered; i < requests.size() && connection.isReusable(); i++)
+                    responses.add(connection.read(requests.get(i)));
+                release(connection);
+            } catch (IOException e) {
+                if (connection != null)
+                    connection.close();
+                if (!reused || retried || responses.size() > answered)
+                    throw new UncheckedIOException("Cache server " + address + " is unavailable", e);
+                retried = true;
+            }
+        }
+        return responses;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        HttpConnection connection;
+        while ((connection = idle.poll()) != null)
+            connection.close();
+    }
+
+    private HttpConnection borrow() throws IOException {
+        long now = System.currentTimeMillis();
+        HttpConnection connection;
+        while ((connection = idle.poll()) != null) {
+            if (now - connection.idleSince() < idleTimeoutMillis)
+                return connection;
+            connection.close();
+        }
+        return new HttpConnection(address, connectTimeoutMillis, readTimeoutMillis);
+    }
+
+    private void release(HttpConnection connection) {
+        connection.idle(System.currentTimeMillis());
+        if (closed || !connection.isReusable() || !idle.offer(connection))
+            connection.close();
+    }
+}
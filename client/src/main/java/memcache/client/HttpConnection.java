@@ -0,0 +1,194 @@
+package memcache.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A keep-alive HTTP/1.1 connection. Requests are buffered by {@link #write} and sent together by
+ * {@link #flush}, so several can be in flight at once; their responses are then read back in the
+ * order the requests were written.
+ */
+final class HttpConnection {
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final InputStream in;
+    private final String host;
+    private final int readTimeoutMillis;
+    private boolean reusable = true;
+    private boolean used;
+    private long idleSince;
+
+    HttpConnection(InetSocketAddress address, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        this.host = address.getHostString() + ":" + address.getPort();
+        this.readTimeoutMillis = readTimeoutMillis;
+        socket = new Socket();
+        try {
+            socket.connect(address, connectTimeoutMillis);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            in = new BufferedInputStream(socket.getInputStream());
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    void write(HttpRequest request) throws IOException {
+        StringBuilder head = new StringBuilder(128)
+                .append(request.method).append(' ').append(request.target).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(host).append("\r\n");
+        if (request.ifNoneMatch != null)
+            head.append("If-None-Match: ").append(request.ifNoneMatch).append("\r\n");
+        if (request.body != null) {
+            head.append("Content-Type: ").append(request.contentType).append("\r\n")
+                    .append("Content-Length: ").append(request.body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (request.body != null)
+            out.write(request.body);
+        used = true;
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    HttpResponse read(HttpRequest request) throws IOException {
+        socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, readTimeoutMillis + request.waitMillis));
+        int status;
+        Map<String, String> headers;
+        do {
+            status = parseStatus(readLine());
+            headers = readHeaders();
+        } while (status / 100 == 1);
+
+        if ("close".equalsIgnoreCase(headers.get("connection")))
+            reusable = false;
+        byte[] body;
+        if (status == 204 || status == 304 || request.method.equals("HEAD")) {
+            body = new byte[0];
+        } else if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            body = readChunked();
+        } else if (headers.containsKey("content-length")) {
+            body = readFully(Integer.parseInt(headers.get("content-length").trim()));
+        } else {
+            body = readToEnd();
+            reusable = false;
+        }
+        return new HttpResponse(status, headers, body);
+    }
+
+    /**
+     * @return whether the server will take another request on this connection
+     */
+    boolean isReusable() {
+        return reusable;
+    }
+
+    /**
+     * @return whether a request was written before; only such a connection can have been closed
+     * by the server while it sat idle
+     */
+    boolean isUsed() {
+        return used;
+    }
+
+    void idle(long now) {
+        idleSince = now;
+    }
+
+    long idleSince() {
+        return idleSince;
+    }
+
+    void close() {
+        reusable = false;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Discarding the connection anyway.
+        }
+    }
+
+    private static int parseStatus(String statusLine) throws IOException {
+        if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12)
+            throw new IOException("Malformed status line: " + statusLine);
+        try {
+            return Integer.parseInt(statusLine.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0)
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+        return headers;
+    }
+
+    private byte[] readChunked() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine();
+            int extension = sizeLine.indexOf(';');
+            int size = Integer.parseInt((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+            if (size == 0)
+                break;
+            body.write(readFully(size));
+            readLine();
+        }
+        // Trailers, if any, end with an empty line.
+        readHeaders();
+        return body.toByteArray();
+    }
+
+    private byte[] readFully(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        for (int read = 0; read < length; ) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0)
+                throw new EOFException("Connection closed mid-response");
+            read += n;
+        }
+        return bytes;
+    }
+
+    private byte[] readToEnd() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) >= 0)
+            body.write(buffer, 0, n);
+        return body.toByteArray();
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0)
+                throw new EOFException("Connection closed by server");
+            if (b != '\r')
+                line.append((char) b);
+        }
+        return line.toString();
+    }
+}
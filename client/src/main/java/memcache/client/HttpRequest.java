@@ -0,0 +1,89 @@
+package memcache.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * One HTTP/1.1 request to the cache server, written as is onto a pooled connection.
+ */
+final class HttpRequest {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    final String method;
+    final String target;
+    final String contentType;
+    final String ifNoneMatch;
+    final byte[] body;
+    /**
+     * How long the server may hold the request on purpose, added to the read timeout.
+     */
+    final long waitMillis;
+
+    private HttpRequest(String method, String target, String contentType, String ifNoneMatch, byte[] body,
+                        long waitMillis) {
+        this.method = method;
+        this.target = target;
+        this.contentType = contentType;
+        this.ifNoneMatch = ifNoneMatch;
+        this.body = body;
+        this.waitMillis = waitMillis;
+    }
+
+    static HttpRequest of(String method, String target) {
+        return new HttpRequest(method, target, null, null, null, 0);
+    }
+
+    static HttpRequest conditional(String target, String ifNoneMatch) {
+        return new HttpRequest("GET", target, null, ifNoneMatch, null, 0);
+    }
+
+    static HttpRequest waiting(String target, long waitMillis) {
+        return new HttpRequest("GET", target, null, null, null, waitMillis);
+    }
+
+    private static HttpRequest withBody(String method, String target, String contentType, byte[] body) {
+        return new HttpRequest(method, target, contentType, null, body, 0);
+    }
+
+    /**
+     * @return a batch request whose body is the addresses as a JSON array
+     */
+    static HttpRequest batch(String method, String target, Collection<String> addresses) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(addresses.size() * 18 + 2);
+        try (JsonGenerator generator = JSON.createGenerator(body)) {
+            generator.writeStartArray();
+            for (String address : addresses)
+                generator.writeString(address);
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return withBody(method, target, "application/json", body.toByteArray());
+    }
+
+    /**
+     * @return the path for one address, percent-encoding anything that is not safe in a path
+     * segment
+     */
+    static String addressPath(String address) {
+        StringBuilder path = new StringBuilder("/address/");
+        for (byte b : address.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '-' || c == '_' || c == '~' || c == ':') {
+                path.append(c);
+            } else {
+                path.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return path.toString();
+    }
+}
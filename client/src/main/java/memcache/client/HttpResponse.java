@@ -0,0 +1,45 @@
+package memcache.client;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
+/**
+ * A response read in full from a pooled connection. Header names are lower case.
+ */
+final class HttpResponse {
+
+    final int status;
+    final Map<String, String> headers;
+    final byte[] body;
+
+    HttpResponse(int status, Map<String, String> headers, byte[] body) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    String header(String name) {
+        return headers.get(name);
+    }
+
+    String bodyText() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the header as epoch milliseconds, or -1 if it is missing or not an HTTP date
+     */
+    long dateHeader(String name) {
+        String value = headers.get(name);
+        if (value == null)
+            return -1;
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
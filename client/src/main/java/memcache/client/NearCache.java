@@ -0,0 +1,112 @@
+package memcache.client;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lookup answers kept in process, keyed by the address as the caller spelled it. Each answer is
+ * trusted until the earlier of the client's own TTL and the expiry the server gave for the entry,
+ * so it can never claim an entry the server has already expired. Past that a positive answer is
+ * kept with its ETag to be revalidated, which costs the server no body.
+ * <p>
+ * Answers are evicted oldest first once there are more than {@code maxEntries}.
+ */
+final class NearCache {
+
+    static final class Entry {
+        final String address;
+        final boolean present;
+        final long freshUntil;
+        final String eTag;
+
+        Entry(String address, boolean present, long freshUntil, String eTag) {
+            this.address = address;
+            this.present = present;
+            this.freshUntil = freshUntil;
+            this.eTag = eTag;
+        }
+
+        boolean isFresh(long now) {
+            return now < freshUntil;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    NearCache(int maxEntries, long ttlMillis, long negativeTtlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /**
+     * @return the answer held for the address, fresh or not, or null
+     */
+    Entry get(String address) {
+        return entries.get(address);
+    }
+
+    /**
+     * Taken before asking the server, and handed back with its answer: an answer that raced
+     * with this client's own write to the address is dropped rather than cached.
+     */
+    long stamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * @param sentAt     when the request was sent; the server's expiry is counted from here, so
+     *                   time spent on the way back only shortens it
+     * @param expiresIn  how long the server will keep the entry, or -1 if it did not say
+     */
+    void putPresent(String address, long stamp, long sentAt, long expiresIn, String eTag) {
+        long freshFor = expiresIn < 0 ? ttlMillis : Math.min(ttlMillis, expiresIn);
+        put(new Entry(address, true, sentAt + freshFor, eTag), stamp);
+    }
+
+    void putAbsent(String address, long stamp, long sentAt) {
+        if (negativeTtlMillis > 0)
+            put(new Entry(address, false, sentAt + negativeTtlMillis, null), stamp);
+        else
+            entries.remove(address);
+    }
+
+    void invalidate(String address) {
+        invalidations.incrementAndGet();
+        entries.remove(address);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void put(Entry entry, long stamp) {
+        if (invalidations.get() != stamp)
+            return;
+        entries.put(entry.address, entry);
+        if (invalidations.get() != stamp) {
+            entries.remove(entry.address, entry);
+            return;
+        }
+        insertionOrder.offer(entry);
+        // Replaced answers keep their place in the queue until they reach its head, so the map
+        // never holds more than the queue does.
+        if (queued.incrementAndGet() > maxEntries) {
+            Entry oldest;
+            while (queued.get() > maxEntries && (oldest = insertionOrder.poll()) != null) {
+                queued.decrementAndGet();
+                entries.remove(oldest.address, oldest);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package memcache.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Requests written back to back on one connection and answered in a single round trip, for
+ * callers that need several independent answers at once. Lookups the near cache can answer
+ * are not sent at all. Build one with {@link AddressCacheClient#pipeline()}, queue operations,
+ * then {@link #execute()} it once.
+ */
+public final class Pipeline {
+
+    private static final int ADD = 0;
+    private static final int REMOVE = 1;
+    private static final int CONTAINS = 2;
+
+    private final AddressCacheClient client;
+    private final List<Integer> operations = new ArrayList<>();
+    private final List<String> addresses = new ArrayList<>();
+
+    Pipeline(AddressCacheClient client) {
+        this.client = client;
+    }
+
+    public Pipeline add(String address) {
+        return queue(ADD, address);
+    }
+
+    public Pipeline remove(String address) {
+        return queue(REMOVE, address);
+    }
+
+    public Pipeline contains(String address) {
+        return queue(CONTAINS, address);
+    }
+
+    /**
+     * Sends the queued operations. The server applies them in order.
+     *
+     * @return one answer per operation, in the order they were queued: true for an add once it
+     * is applied, whether the address was cached for a remove or a lookup
+     */
+    public List<Boolean> execute() {
+        int size = operations.size();
+        Boolean[] answers = new Boolean[size];
+        HttpRequest[] sent = new HttpRequest[size];
+        List<HttpRequest> requests = new ArrayList<>(size);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            String address = addresses.get(i);
+            switch (operations.get(i)) {
+                case ADD:
+                    client.invalidate(address);
+                    sent[i] = HttpRequest.of("PUT", HttpRequest.addressPath(address));
+                    break;
+                case REMOVE:
+                    client.invalidate(address);
+                    sent[i] = HttpRequest.of("DELETE", HttpRequest.addressPath(address));
+                    break;
+                default:
+                    answers[i] = client.nearCacheAnswer(address, now);
+                    if (answers[i] == null)
+                        sent[i] = client.lookupRequest(address);
+            }
+            if (sent[i] != null)
+                requests.add(sent[i]);
+        }
+        long stamp = client.nearCacheStamp();
+        try {
+            return results(answers, sent, stamp, now,
+                    requests.isEmpty() ? Collections.<HttpResponse>emptyList() : client.exchange(requests));
+        } finally {
+            // A lookup answered before a later write to the same address must not outlive it.
+            for (int i = 0; i < size; i++) {
+                if (operations.get(i) != CONTAINS)
+                    client.invalidate(addresses.get(i));
+            }
+        }
+    }
+
+    private List<Boolean> results(Boolean[] answers, HttpRequest[] sent, long stamp, long sentAt,
+                                  List<HttpResponse> responses) {
+        List<Boolean> results = new ArrayList<>(answers.length);
+        for (int i = 0, next = 0; i < answers.length; i++) {
+            if (sent[i] == null) {
+                results.add(answers[i]);
+                continue;
+            }
+            HttpResponse response = responses.get(next++);
+            switch (operations.get(i)) {
+                case ADD:
+                    Responses.check(response, 200);
+                    results.add(true);
+                    break;
+                case REMOVE:
+                    results.add(Responses.check(response, 200, 404).status == 200);
+                    break;
+                default:
+                    results.add(client.lookupResult(addresses.get(i), sent[i], stamp, sentAt, response));
+            }
+        }
+        return results;
+    }
+
+    private Pipeline queue(int operation, String address) {
+        operations.add(operation);
+        addresses.add(address);
+        return this;
+    }
+}
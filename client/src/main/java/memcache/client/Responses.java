@@ -0,0 +1,84 @@
+package memcache.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns server responses into results, and error responses into exceptions.
+ */
+final class Responses {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private Responses() {
+    }
+
+    /**
+     * @return the response, if its status is one of {@code expected}
+     * @throws IllegalArgumentException if the server could not resolve the address
+     * @throws CacheServerException     for any other status
+     */
+    static HttpResponse check(HttpResponse response, int... expected) {
+        for (int status : expected) {
+            if (response.status == status)
+                return response;
+        }
+        if (response.status == 400)
+            throw new IllegalArgumentException(response.bodyText());
+        String retryAfter = response.header("retry-after");
+        int retryAfterSeconds = -1;
+        if (retryAfter != null) {
+            try {
+                retryAfterSeconds = Integer.parseInt(retryAfter.trim());
+            } catch (NumberFormatException e) {
+                // An HTTP date, which the cache server never sends.
+            }
+        }
+        throw new CacheServerException(response.status, response.bodyText(), retryAfterSeconds);
+    }
+
+    /**
+     * @return the status of each address in a batch response, in the order of the request
+     */
+    static List<String> batchStatuses(HttpResponse response) {
+        check(response, 200);
+        List<String> statuses = new ArrayList<>();
+        try (JsonParser parser = JSON.createParser(response.body)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && parser.getCurrentName().equals("status")) {
+                    parser.nextToken();
+                    statuses.add(parser.getText());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed batch response", e);
+        }
+        return statuses;
+    }
+
+    /**
+     * @return whether a batch status is {@code success}; invalid addresses count as failures
+     * @throws CacheServerException if the server was too busy to resolve the address
+     */
+    static boolean outcome(String status, String success) {
+        if (status.equals("busy"))
+            throw new CacheServerException(503, "Address resolver is busy", -1);
+        return status.equals(success);
+    }
+
+    /**
+     * @return the address in a peek or take response, without the hostname the server may put
+     * in front of it
+     */
+    static String address(HttpResponse response) {
+        String text = response.bodyText().trim();
+        return text.substring(text.indexOf('/') + 1);
+    }
+}
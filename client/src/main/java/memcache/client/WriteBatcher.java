@@ -0,0 +1,145 @@
+package memcache.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects asynchronous adds and removes into batch requests. Writes are sent every
+ * {@code lingerMillis}, or as soon as {@code batchSize} of them are waiting. Consecutive writes
+ * of the same kind share one request, and the requests of one flush are pipelined on a single
+ * connection in the order the writes were made, so writes to the same address apply in order.
+ */
+final class WriteBatcher implements AutoCloseable {
+
+    private static final class Write {
+        final boolean add;
+        final String address;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Write(boolean add, String address) {
+            this.add = add;
+            this.address = address;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private final Queue<Write> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ScheduledExecutorService flusher;
+
+    WriteBatcher(ConnectionPool pool, int batchSize, long lingerMillis) {
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "address-cache-client-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return completes with whether the address was added or removed; invalid addresses
+     * complete with false
+     */
+    CompletableFuture<Boolean> submit(boolean add, String address) {
+        Write write = new Write(add, address);
+        pending.offer(write);
+        if (waiting.incrementAndGet() == batchSize) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // Closed meanwhile; its final flush may already have run.
+                flush();
+            }
+        }
+        return write.result;
+    }
+
+    /**
+     * Sends everything submitted so far. Runs on the flusher thread until the batcher is closed.
+     */
+    private void flush() {
+        List<Write> writes = new ArrayList<>();
+        Write write;
+        while ((write = pending.poll()) != null)
+            writes.add(write);
+        if (writes.isEmpty())
+            return;
+        waiting.addAndGet(-writes.size());
+
+        List<List<Write>> runs = new ArrayList<>();
+        for (Write next : writes) {
+            List<Write> run = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (run == null || run.get(0).add != next.add || run.size() == batchSize) {
+                run = new ArrayList<>();
+                runs.add(run);
+            }
+            run.add(next);
+        }
+        List<HttpRequest> requests = new ArrayList<>(runs.size());
+        for (List<Write> run : runs) {
+            List<String> addresses = new ArrayList<>(run.size());
+            for (Write each : run)
+                addresses.add(each.address);
+            requests.add(HttpRequest.batch(run.get(0).add ? "PUT" : "DELETE", "/address", addresses));
+        }
+
+        List<HttpResponse> responses;
+        try {
+            responses = pool.exchange(requests);
+        } catch (RuntimeException e) {
+            for (Write failed : writes)
+                failed.result.completeExceptionally(e);
+            return;
+        }
+        for (int i = 0; i < runs.size(); i++)
+            complete(runs.get(i), responses.get(i));
+    }
+
+    private static void complete(List<Write> run, HttpResponse response) {
+        List<String> statuses;
+        try {
+            statuses = Responses.batchStatuses(response);
+        } catch (RuntimeException e) {
+            for (Write failed : run)
+                failed.result.completeExceptionally(e);
+            return;
+        }
+        for (int i = 0; i < run.size(); i++) {
+            Write write = run.get(i);
+            if (i >= statuses.size()) {
+                write.result.completeExceptionally(new IllegalStateException("No result for " + write.address));
+                continue;
+            }
+            try {
+                write.result.complete(Responses.outcome(statuses.get(i), write.add ? "added" : "removed"));
+            } catch (RuntimeException e) {
+                write.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Stops the flusher and sends whatever is still waiting.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
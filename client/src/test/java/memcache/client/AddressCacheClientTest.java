@@ -0,0 +1,284 @@
+package memcache.client;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class AddressCacheClientTest {
+
+    private StubServer server;
+    private AddressCacheClient client;
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null)
+            client.close();
+        if (server != null)
+            server.close();
+    }
+
+    @Test
+    public void testOperationsMapToEndpoints() throws IOException {
+        start(request -> {
+            switch (request.method + " " + request.target) {
+                case "PUT /address/10.0.0.1":
+                    return StubServer.response(200, "Address added successfully");
+                case "DELETE /address/10.0.0.1":
+                    return StubServer.response(200, "Address removed successfully");
+                case "GET /address/peek":
+                    return StubServer.response(200, "localhost/127.0.0.1");
+                case "GET /address/take?timeout=50":
+                    return StubServer.response(200, "/10.0.0.2");
+                default:
+                    return StubServer.response(404, "Address not present in cache");
+            }
+        }, new ClientSettings());
+
+        client.add("10.0.0.1");
+        assertTrue(client.remove("10.0.0.1"));
+        assertFalse(client.remove("10.0.0.9"));
+        assertFalse(client.contains("10.0.0.9"));
+        assertEquals("127.0.0.1", client.peek());
+        assertEquals("10.0.0.2", client.take(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAddressesAreEncodedIntoThePath() throws IOException {
+        start(request -> StubServer.response(200, "Address present in cache"), new ClientSettings());
+
+        client.contains("2001:db8::1");
+        client.contains("fe80::1%eth0");
+
+        assertEquals("/address/2001:db8::1", server.requests.get(0).target);
+        assertEquals("/address/fe80::1%25eth0", server.requests.get(1).target);
+    }
+
+    @Test
+    public void testConnectionsAreKeptAlive() throws IOException {
+        start(request -> StubServer.response(200, "Address added successfully"), new ClientSettings());
+
+        for (int i = 0; i < 10; i++)
+            client.add("10.0.0." + i);
+
+        assertEquals(1, server.connections());
+    }
+
+    @Test
+    public void testPipelineAnswersInOrderOnOneConnection() throws IOException {
+        start(request -> request.target.endsWith(".2")
+                ? StubServer.response(404, "Address not present in cache")
+                : StubServer.response(200, "ok"), new ClientSettings());
+
+        List<Boolean> results = client.pipeline()
+                .add("10.0.0.1")
+                .remove("10.0.0.2")
+                .contains("10.0.0.3")
+                .contains("10.0.0.2")
+                .execute();
+
+        assertEquals(Arrays.asList(true, false, true, false), results);
+        assertEquals("[PUT /address/10.0.0.1, DELETE /address/10.0.0.2, GET /address/10.0.0.3, GET /address/10.0.0.2]",
+                server.requests.toString());
+        assertEquals(1, server.connections());
+    }
+
+    @Test
+    public void testRequestsAfterConnectionCloseAreResent() throws IOException {
+        start(request -> request.target.endsWith(".2")
+                ? StubServer.response(200, "ok", "Connection: close")
+                : StubServer.response(200, "ok"), new ClientSettings());
+
+        List<Boolean> results = client.pipeline()
+                .add("10.0.0.1").add("10.0.0.2").add("10.0.0.3").add("10.0.0.4")
+                .execute();
+
+        assertEquals(Arrays.asList(true, true, true, true), results);
+        assertEquals(2, server.connections());
+        assertEquals(1, server.requests.get(1).connection);
+        assertEquals(2, server.requests.get(server.requests.size() - 1).connection);
+    }
+
+    @Test
+    public void testIdleConnectionClosedByServerIsReplaced() throws Exception {
+        start(request -> StubServer.response(200, "ok"), new ClientSettings());
+        client.add("10.0.0.1");
+
+        server.sockets.get(0).close();
+        client.add("10.0.0.2");
+
+        assertEquals(2, server.connections());
+    }
+
+    @Test
+    public void testNearCacheAnswersRepeatedLookups() throws IOException {
+        start(request -> present(TimeUnit.MINUTES.toMillis(1)), nearCache().nearCacheTtl(1, TimeUnit.MINUTES));
+
+        assertTrue(client.contains("10.0.0.1"));
+        assertTrue(client.contains("10.0.0.1"));
+        assertTrue(client.contains("10.0.0.1"));
+
+        assertEquals(1, server.requests.size());
+        assertEquals(2, client.getNearCacheHits());
+    }
+
+    @Test
+    public void testNearCacheNeverOutlivesServerExpiry() throws IOException {
+        // Expires one second after Date: with whole-second dates that may be no time at all.
+        start(request -> present(1000), nearCache().nearCacheTtl(1, TimeUnit.MINUTES));
+
+        client.contains("10.0.0.1");
+        client.contains("10.0.0.1");
+
+        assertEquals(2, server.requests.size());
+        assertEquals(0, client.getNearCacheHits());
+    }
+
+    @Test
+    public void testStaleAnswerIsRevalidatedWithETag() throws Exception {
+        start(request -> request.headers.containsKey("if-none-match")
+                ? notModified(request.headers.get("if-none-match"))
+                : present(TimeUnit.MINUTES.toMillis(1)), nearCache().nearCacheTtl(200, TimeUnit.MILLISECONDS));
+
+        assertTrue(client.contains("10.0.0.1"));
+        Thread.sleep(300);
+        assertTrue(client.contains("10.0.0.1"));
+
+        assertEquals("\"1\"", server.requests.get(1).headers.get("if-none-match"));
+        assertTrue(client.contains("10.0.0.1"));
+        assertEquals(2, server.requests.size());
+    }
+
+    @Test
+    public void testOwnWritesInvalidateNearCache() throws IOException {
+        start(request -> request.method.equals("GET")
+                ? present(TimeUnit.MINUTES.toMillis(1))
+                : StubServer.response(200, "ok"), nearCache().nearCacheTtl(1, TimeUnit.MINUTES));
+
+        client.contains("10.0.0.1");
+        assertEquals(1, client.getNearCacheSize());
+        client.remove("10.0.0.1");
+        assertEquals(0, client.getNearCacheSize());
+
+        client.contains("10.0.0.1");
+        client.removeAsync("10.0.0.1");
+        assertEquals(0, client.getNearCacheSize());
+    }
+
+    @Test
+    public void testNegativeAnswersAreOnlyCachedWhenAsked() throws IOException {
+        start(request -> StubServer.response(404, "Address not present in cache"),
+                nearCache().nearCacheNegativeTtl(1, TimeUnit.MINUTES));
+
+        assertFalse(client.contains("10.0.0.1"));
+        assertFalse(client.contains("10.0.0.1"));
+
+        assertEquals(1, server.requests.size());
+    }
+
+    @Test
+    public void testBatchResultsAreReadFromChunkedStream() throws IOException {
+        start(request -> StubServer.chunked(200,
+                "{\"address\":\"10.0.0.1\",\"status\":\"added\"}\n",
+                "{\"address\":\"10.0.0.2\",\"status\":\"exists\"}\n{\"address\":\"bad\",\"status\":\"invalid\"}\n"),
+                new ClientSettings());
+
+        boolean[] added = client.addAll(Arrays.asList("10.0.0.1", "10.0.0.2", "bad"));
+
+        assertArrayEquals(new boolean[]{true, false, false}, added);
+        assertEquals("[\"10.0.0.1\",\"10.0.0.2\",\"bad\"]", server.requests.get(0).body);
+        assertEquals("application/json", server.requests.get(0).headers.get("content-type"));
+    }
+
+    @Test
+    public void testAsyncWritesShareBatchesInOrder() throws Exception {
+        start(request -> {
+            StringBuilder body = new StringBuilder();
+            String status = request.method.equals("PUT") ? "added" : "removed";
+            for (String address : request.body.replaceAll("[\\[\\]\"]", "").split(","))
+                body.append("{\"address\":\"").append(address).append("\",\"status\":\"").append(status).append("\"}\n");
+            return StubServer.response(200, body.toString());
+        }, new ClientSettings().linger(1, TimeUnit.HOURS).batchSize(5));
+
+        CompletableFuture<Boolean> first = client.addAsync("10.0.0.1");
+        client.addAsync("10.0.0.2");
+        client.removeAsync("10.0.0.1");
+        client.addAsync("10.0.0.3");
+        CompletableFuture<Boolean> last = client.addAsync("10.0.0.4");
+
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(last.get(5, TimeUnit.SECONDS));
+        assertEquals("[PUT /address, DELETE /address, PUT /address]", server.requests.toString());
+        assertEquals("[\"10.0.0.1\",\"10.0.0.2\"]", server.requests.get(0).body);
+        assertEquals("[\"10.0.0.3\",\"10.0.0.4\"]", server.requests.get(2).body);
+    }
+
+    @Test
+    public void testCloseSendsQueuedWrites() throws Exception {
+        start(request -> StubServer.response(200, "{\"address\":\"10.0.0.1\",\"status\":\"added\"}\n"),
+                new ClientSettings().linger(1, TimeUnit.HOURS));
+
+        CompletableFuture<Boolean> added = client.addAsync("10.0.0.1");
+        client.close();
+
+        assertTrue(added.get(5, TimeUnit.SECONDS));
+        client = null;
+    }
+
+    @Test
+    public void testErrorsMapToExceptions() throws IOException {
+        start(request -> request.target.endsWith("bad")
+                ? StubServer.response(400, "Address not found for the given ip  address")
+                : StubServer.response(503, "", "Retry-After: 2"), new ClientSettings());
+
+        try {
+            client.add("bad");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Address not found for the given ip  address", e.getMessage());
+        }
+        try {
+            client.contains("10.0.0.1");
+            fail();
+        } catch (CacheServerException e) {
+            assertEquals(503, e.getStatus());
+            assertEquals(2, e.getRetryAfterSeconds());
+        }
+    }
+
+    private void start(Function<StubServer.Request, String> handler, ClientSettings settings) throws IOException {
+        server = new StubServer(handler);
+        ClientSettings stub = server.settings();
+        client = new AddressCacheClient(settings.host(stub.getHost()).port(stub.getPort()));
+    }
+
+    private static ClientSettings nearCache() {
+        return new ClientSettings().nearCacheMaxEntries(100);
+    }
+
+    private static String present(long expiresInMillis) {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        return StubServer.response(200, "Address present in cache", "ETag: \"1\"",
+                "Date: " + httpDate(now), "Expires: " + httpDate(now + expiresInMillis));
+    }
+
+    private static String notModified(String eTag) {
+        long now = System.currentTimeMillis();
+        return "HTTP/1.1 304 \r\nETag: " + eTag + "\r\nDate: " + httpDate(now) + "\r\nExpires: "
+                + httpDate(now + TimeUnit.MINUTES.toMillis(1)) + "\r\n\r\n";
+    }
+
+    private static String httpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,57 @@
+package memcache.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NearCacheTest {
+
+    @Test
+    public void testFreshForTheShorterOfTtlAndServerExpiry() {
+        NearCache nearCache = new NearCache(10, 1000, 0);
+        long stamp = nearCache.stamp();
+
+        nearCache.putPresent("a", stamp, 0, 200, "\"1\"");
+        nearCache.putPresent("b", stamp, 0, 5000, "\"2\"");
+        nearCache.putPresent("c", stamp, 0, -1, "\"3\"");
+
+        assertTrue(nearCache.get("a").isFresh(199));
+        assertFalse(nearCache.get("a").isFresh(200));
+        assertFalse(nearCache.get("b").isFresh(1000));
+        assertTrue(nearCache.get("c").isFresh(999));
+    }
+
+    @Test
+    public void testAnswerRacingAnInvalidationIsDropped() {
+        NearCache nearCache = new NearCache(10, 1000, 1000);
+        long stamp = nearCache.stamp();
+
+        nearCache.invalidate("a");
+        nearCache.putPresent("a", stamp, 0, -1, null);
+        nearCache.putAbsent("b", stamp, 0);
+
+        assertEquals(0, nearCache.size());
+    }
+
+    @Test
+    public void testOldestAnswersAreEvicted() {
+        NearCache nearCache = new NearCache(3, 1000, 0);
+        for (int i = 0; i < 5; i++)
+            nearCache.putPresent("10.0.0." + i, nearCache.stamp(), 0, -1, null);
+
+        assertEquals(3, nearCache.size());
+        assertNull(nearCache.get("10.0.0.0"));
+        assertNull(nearCache.get("10.0.0.1"));
+        assertNotNull(nearCache.get("10.0.0.4"));
+    }
+
+    @Test
+    public void testNegativeAnswersNeedTheirOwnTtl() {
+        NearCache nearCache = new NearCache(10, 1000, 0);
+
+        nearCache.putPresent("a", nearCache.stamp(), 0, -1, null);
+        nearCache.putAbsent("a", nearCache.stamp(), 0);
+
+        assertNull(nearCache.get("a"));
+    }
+}
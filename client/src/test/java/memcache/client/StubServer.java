@@ -0,0 +1,155 @@
+package memcache.client;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A minimal HTTP/1.1 server for client tests: it reads requests off each connection in turn,
+ * records them, and writes whatever response the handler returns, verbatim.
+ */
+class StubServer implements AutoCloseable {
+
+    static final class Request {
+        final String method;
+        final String target;
+        final Map<String, String> headers;
+        final String body;
+        final int connection;
+
+        Request(String method, String target, Map<String, String> headers, String body, int connection) {
+            this.method = method;
+            this.target = target;
+            this.headers = headers;
+            this.body = body;
+            this.connection = connection;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + target;
+        }
+    }
+
+    /**
+     * Returned by a handler to close the connection without answering.
+     */
+    static final String HANG_UP = "";
+
+    final List<Request> requests = new CopyOnWriteArrayList<>();
+    final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ServerSocket serverSocket;
+    private final Function<Request, String> handler;
+
+    StubServer(Function<Request, String> handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "stub-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    static String response(int status, String body, String... headers) {
+        StringBuilder response = new StringBuilder("HTTP/1.1 ").append(status).append(" \r\n");
+        for (String header : headers)
+            response.append(header).append("\r\n");
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return response.append("Content-Length: ").append(bytes.length).append("\r\n\r\n").append(body).toString();
+    }
+
+    static String chunked(int status, String... chunks) {
+        StringBuilder response = new StringBuilder("HTTP/1.1 ").append(status).append(" \r\n")
+                .append("Transfer-Encoding: chunked\r\n\r\n");
+        for (String chunk : chunks)
+            response.append(Integer.toHexString(chunk.length())).append("\r\n").append(chunk).append("\r\n");
+        return response.append("0\r\n\r\n").toString();
+    }
+
+    ClientSettings settings() {
+        return new ClientSettings().host("127.0.0.1").port(serverSocket.getLocalPort());
+    }
+
+    int connections() {
+        return connections.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets)
+            socket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                int connection = connections.incrementAndGet();
+                Thread worker = new Thread(() -> serve(socket, connection), "stub-connection-" + connection);
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket, int connection) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                }
+                byte[] body = new byte[Integer.parseInt(headers.getOrDefault("content-length", "0"))];
+                for (int read = 0; read < body.length; )
+                    read += in.read(body, read, body.length - read);
+                Request request = new Request(parts[0], parts[1], headers, new String(body, StandardCharsets.UTF_8),
+                        connection);
+                requests.add(request);
+                String response = handler.apply(request);
+                if (response.equals(HANG_UP))
+                    return;
+                out.write(response.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (response.contains("Connection: close"))
+                    return;
+            }
+        } catch (IOException e) {
+            // Client went away.
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0)
+                return null;
+            if (b != '\r')
+                line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+}
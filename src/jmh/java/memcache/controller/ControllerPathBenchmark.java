@@ -0,0 +1,76 @@
+package memcache.controller;
+
+import memcache.service.AddressCache;
+import memcache.service.CacheSettings;
+import memcache.service.CachingAddressResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller methods called directly, without the servlet container and Spring dispatch: input
+ * parsing, resolution and building the response. Hostnames hit a warm resolver cache, so no
+ * lookup is timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerPathBenchmark {
+
+    @Param({"1", "16"})
+    int shards;
+
+    private AddressCache cache;
+    private CachingAddressResolver resolver;
+    private CacheController controller;
+    private String[] literals;
+
+    @Setup
+    public void setUp() {
+        cache = new AddressCache(new CacheSettings().maxAge(1, TimeUnit.HOURS).shards(shards));
+        resolver = new CachingAddressResolver(host -> InetAddress.getByAddress(host, new byte[]{10, 0, 0, 1}),
+                1, 16, 1, 1, TimeUnit.HOURS, 16);
+        resolver.resolve("cache.example").join();
+        controller = new CacheController(cache, resolver);
+        literals = new String[1024];
+        for (int i = 0; i < literals.length; i++)
+            literals[i] = "10.0." + (i >>> 8) + "." + (i & 0xFF);
+    }
+
+    @TearDown
+    public void tearDown() {
+        resolver.close();
+        cache.close();
+    }
+
+    @Benchmark
+    public Object addLiteral() {
+        return controller.add(literals[ThreadLocalRandom.current().nextInt(literals.length)], null).getResult();
+    }
+
+    @Benchmark
+    public Object addHostname() {
+        return controller.add("cache.example", null).getResult();
+    }
+
+    @Benchmark
+    public Object peek() throws Exception {
+        return controller.peek();
+    }
+}
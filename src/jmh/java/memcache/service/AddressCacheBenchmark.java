@@ -0,0 +1,85 @@
+package memcache.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single operations against a cache preloaded with {@code size} entries. Every benchmark leaves
+ * the size unchanged, so results do not drift over an iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressCacheBenchmark {
+
+    @Param
+    CacheImplementation implementation;
+
+    @Param({"1000", "100000"})
+    int size;
+
+    private BenchmarkedCache cache;
+    private InetAddress[] cached;
+    private InetAddress[] absent;
+
+    @Setup
+    public void setUp() {
+        cache = implementation.create(new CacheSettings().maxAge(1, TimeUnit.HOURS));
+        cached = BenchmarkAddresses.ipv4(0x0A000000, size);
+        absent = BenchmarkAddresses.ipv4(0x0B000000, size);
+        for (InetAddress address : cached)
+            cache.add(address);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Benchmark
+    public boolean addExisting() {
+        return cache.add(cached[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public boolean addThenRemove() {
+        InetAddress address = absent[ThreadLocalRandom.current().nextInt(size)];
+        cache.add(address);
+        return cache.remove(address);
+    }
+
+    @Benchmark
+    public boolean removeMissing() {
+        return cache.remove(absent[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public InetAddress peek() {
+        return cache.peek();
+    }
+
+    @Benchmark
+    public InetAddress takeThenAdd() {
+        InetAddress address = cache.poll();
+        if (address != null)
+            cache.add(address);
+        return address;
+    }
+}
@@ -0,0 +1,29 @@
+package memcache.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Distinct IPv4 addresses for filling caches, built without DNS.
+ */
+public final class BenchmarkAddresses {
+
+    private BenchmarkAddresses() {
+    }
+
+    public static InetAddress ipv4(int index) {
+        byte[] bytes = {(byte) (index >>> 24), (byte) (index >>> 16), (byte) (index >>> 8), (byte) index};
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static InetAddress[] ipv4(int first, int count) {
+        InetAddress[] addresses = new InetAddress[count];
+        for (int i = 0; i < count; i++)
+            addresses[i] = ipv4(first + i);
+        return addresses;
+    }
+}
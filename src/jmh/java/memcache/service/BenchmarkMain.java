@@ -0,0 +1,48 @@
+package memcache.service;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks selected on the command line once per thread count in the
+ * {@code jmh.threads} system property, with the GC profiler reporting allocation per operation.
+ * {@link CleanupBenchmark} fills caches of up to ten million entries and
+ * {@link FootprintBenchmark} measures the heap of the whole process, so both always run on one
+ * thread.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        String singleThreaded = Pattern.quote(CleanupBenchmark.class.getName()) + "|"
+                + Pattern.quote(FootprintBenchmark.class.getName());
+
+        for (String threads : System.getProperty("jmh.threads", "1").split(",")) {
+            run(new OptionsBuilder()
+                    .parent(commandLine)
+                    .exclude(singleThreaded)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .addProfiler(GCProfiler.class));
+        }
+        run(new OptionsBuilder()
+                .parent(commandLine)
+                .exclude("^(?!" + singleThreaded + ")")
+                .threads(1)
+                .addProfiler(GCProfiler.class));
+    }
+
+    private static void run(ChainedOptionsBuilder options) throws RunnerException {
+        try {
+            new Runner(options.build()).run();
+        } catch (NoBenchmarksException e) {
+            // The selection on the command line excludes this run.
+        }
+    }
+}
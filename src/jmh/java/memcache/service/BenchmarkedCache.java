@@ -0,0 +1,34 @@
+package memcache.service;
+
+import java.net.InetAddress;
+
+/**
+ * The operations the benchmarks drive. Alternative cache implementations are compared against
+ * {@link AddressCache} by adapting them to this interface and adding a
+ * {@link CacheImplementation} constant.
+ */
+public interface BenchmarkedCache extends AutoCloseable {
+
+    boolean add(InetAddress inetAddress);
+
+    boolean remove(InetAddress inetAddress);
+
+    InetAddress peek();
+
+    /**
+     * Takes an entry without waiting, or returns null if the cache is empty.
+     */
+    InetAddress poll();
+
+    int size();
+
+    /**
+     * Runs one expiry pass.
+     *
+     * @return the number of entries removed
+     */
+    int cleanup();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,70 @@
+package memcache.service;
+
+import java.net.InetAddress;
+
+/**
+ * The implementations every benchmark is run against, selected with the
+ * {@code implementation} parameter.
+ */
+public enum CacheImplementation {
+
+    SINGLE_SEGMENT {
+        @Override
+        public BenchmarkedCache create(CacheSettings settings) {
+            return new AddressCacheAdapter(new AddressCache(settings.shards(1)));
+        }
+    },
+
+    SHARDED {
+        @Override
+        public BenchmarkedCache create(CacheSettings settings) {
+            return new AddressCacheAdapter(new AddressCache(settings.shards(16)));
+        }
+    };
+
+    public abstract BenchmarkedCache create(CacheSettings settings);
+
+    private static class AddressCacheAdapter implements BenchmarkedCache {
+
+        private final AddressCache cache;
+
+        AddressCacheAdapter(AddressCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public boolean add(InetAddress inetAddress) {
+            return cache.add(inetAddress);
+        }
+
+        @Override
+        public boolean remove(InetAddress inetAddress) {
+            return cache.remove(inetAddress);
+        }
+
+        @Override
+        public InetAddress peek() {
+            return cache.peek();
+        }
+
+        @Override
+        public InetAddress poll() {
+            return cache.poll();
+        }
+
+        @Override
+        public int size() {
+            return cache.size();
+        }
+
+        @Override
+        public int cleanup() {
+            return cache.cleanup();
+        }
+
+        @Override
+        public void close() {
+            cache.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package memcache.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@code cleanup()} at different cache sizes. Background expiry is switched off, so each
+ * measured pass does all of the work itself.
+ * <p>
+ * {@link #expireAll} times one pass over a cache whose entries have all expired, refilled before
+ * every iteration. {@link #idlePass} times the pass every maintenance tick pays when nothing is
+ * due, which should not grow with the number of entries held.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CleanupBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ExpiredCache {
+
+        @Param
+        CacheImplementation implementation;
+
+        @Param({"10000", "1000000", "10000000"})
+        int entries;
+
+        BenchmarkedCache cache;
+
+        @Setup(Level.Iteration)
+        public void fill() throws InterruptedException {
+            cache = implementation.create(new CacheSettings()
+                    .maxAge(1, TimeUnit.MILLISECONDS)
+                    .tickMillis(1)
+                    .maintenanceThreads(0));
+            for (int i = 0; i < entries; i++)
+                cache.add(BenchmarkAddresses.ipv4(0x0A000000 + i));
+            Thread.sleep(5);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            cache.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LiveCache {
+
+        @Param
+        CacheImplementation implementation;
+
+        @Param({"10000", "1000000", "10000000"})
+        int entries;
+
+        BenchmarkedCache cache;
+
+        @Setup
+        public void fill() {
+            cache = implementation.create(new CacheSettings()
+                    .maxAge(1, TimeUnit.HOURS)
+                    .tickMillis(1)
+                    .maintenanceThreads(0));
+            for (int i = 0; i < entries; i++)
+                cache.add(BenchmarkAddresses.ipv4(0x0A000000 + i));
+        }
+
+        @TearDown
+        public void tearDown() {
+            cache.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public int expireAll(ExpiredCache state) {
+        return state.cache.cleanup();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public int idlePass(LiveCache state) {
+        return state.cache.cleanup();
+    }
+}
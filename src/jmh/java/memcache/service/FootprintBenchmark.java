@@ -0,0 +1,113 @@
+package memcache.service;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap retained per cached entry, reported as the {@code heapBytesPerEntry} counter next to the
+ * time to fill. Each iteration fills a fresh cache and compares the heap in use after a full
+ * collection before and after; {@link AddressCache#ENTRY_BYTES} is the bounded figure.
+ * <p>
+ * Hot entries are objects, since every index they sit in is a lock-free structure linking them;
+ * the primitive, off-heap layout is the cold tier's, which {@link Layout#COLD} measures.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FootprintBenchmark {
+
+    public enum Layout {
+
+        UNBOUNDED {
+            @Override
+            CacheSettings settings(int entries) {
+                return new CacheSettings().maxAge(1, TimeUnit.HOURS);
+            }
+        },
+
+        LRU {
+            @Override
+            CacheSettings settings(int entries) {
+                return UNBOUNDED.settings(entries).maxEntries(entries).evictionPolicy(EvictionPolicy.LRU);
+            }
+        },
+
+        TINY_LFU {
+            @Override
+            CacheSettings settings(int entries) {
+                return UNBOUNDED.settings(entries).maxEntries(entries).evictionPolicy(EvictionPolicy.TINY_LFU);
+            }
+        },
+
+        /**
+         * All but a thousand entries demoted off the heap.
+         */
+        COLD {
+            @Override
+            CacheSettings settings(int entries) {
+                return UNBOUNDED.settings(entries).hotMaxEntries(1000);
+            }
+        };
+
+        abstract CacheSettings settings(int entries);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Fill {
+
+        @Param
+        CacheImplementation implementation;
+
+        @Param
+        Layout layout;
+
+        @Param({"1000000"})
+        int entries;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        public double heapBytesPerEntry;
+    }
+
+    /**
+     * Average time rather than single shot, which reports no counters. Filling takes longer than
+     * an iteration, so each iteration is one fill, and there is one measured iteration since
+     * counters are summed over iterations.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1, time = 1)
+    @Measurement(iterations = 1, time = 1)
+    public int fill(Fill fill, Footprint footprint) {
+        long before = usedHeap();
+        BenchmarkedCache cache = fill.implementation.create(fill.layout.settings(fill.entries).maintenanceThreads(0));
+        for (int i = 0; i < fill.entries; i++)
+            cache.add(BenchmarkAddresses.ipv4(0x0A000000 + i));
+        // Lets go of what demotion left in the expiry wheel, as the next maintenance tick would.
+        cache.cleanup();
+        footprint.heapBytesPerEntry = (usedHeap() - before) / (double) fill.entries;
+        int size = cache.size();
+        cache.close();
+        return size;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
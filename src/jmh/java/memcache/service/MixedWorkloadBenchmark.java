@@ -0,0 +1,67 @@
+package memcache.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Peeks mixed with adds and removes over a key space twice the initial size, so about half the
+ * writes hit a cached address. {@code readPercent} of operations are peeks, the rest are split
+ * evenly between adds and removes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixedWorkloadBenchmark {
+
+    @Param
+    CacheImplementation implementation;
+
+    @Param({"1000", "100000"})
+    int size;
+
+    @Param({"50", "90", "99"})
+    int readPercent;
+
+    private BenchmarkedCache cache;
+    private InetAddress[] keys;
+
+    @Setup
+    public void setUp() {
+        cache = implementation.create(new CacheSettings().maxAge(1, TimeUnit.HOURS));
+        keys = BenchmarkAddresses.ipv4(0x0A000000, size * 2);
+        for (int i = 0; i < size; i++)
+            cache.add(keys[i * 2]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Benchmark
+    public Object mixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int operation = random.nextInt(100);
+        if (operation < readPercent)
+            return cache.peek();
+        InetAddress address = keys[random.nextInt(keys.length)];
+        return (operation & 1) == 0 ? cache.add(address) : cache.remove(address);
+    }
+}
@@ -0,0 +1,560 @@
+package memcache.cluster;
+
+import memcache.domain.AddressEntry;
+import memcache.domain.AddressKey;
+import memcache.service.AddressCache;
+import memcache.service.AddressStore;
+import memcache.service.CacheAnalytics;
+import memcache.service.CacheMetrics;
+import memcache.service.ChangeFeed;
+import memcache.service.RemovalListener;
+
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * One node of a cluster of caches sharing a static peer list. Every address has an owner on a
+ * {@link HashRing}; operations on addresses this node owns go to its local cache, the rest are
+ * forwarded to the owner's TCP listener over pooled connections. The local cache is what the
+ * node's own TCP listener must serve, so forwarded operations are never forwarded again.
+ * <p>
+ * Peek and take try the local cache first and then each peer in turn, without waiting on peers;
+ * a take that finds the whole cluster empty parks on the local cache. Size is fanned out to all
+ * peers in parallel and summed. Batches are split by owner, and each owner's share is pipelined
+ * over one connection, to all owners in parallel. Forwarding is synchronous, and an unreachable
+ * owner fails the operation with an {@link UncheckedIOException}.
+ * <p>
+ * This is a store of its own wrapping the local cache, not a kind of {@link AddressCache}, so
+ * every operation is routed here explicitly.
+ */
+public class ClusteredAddressCache implements AddressStore {
+
+    /**
+     * Local entries read at a time while handing them over to their new owners.
+     */
+    private static final int REBALANCE_PAGE = 1024;
+
+    private final AddressCache local;
+    private final String self;
+    private final int virtualNodes;
+    private final int connectionsPerPeer;
+    private final int timeoutMillis;
+    private final ExecutorService fanOut;
+    private volatile List<Peer> peers;
+    private volatile HashRing ring;
+
+    /**
+     * @param self  host:port of this node's TCP listener, as it appears in {@code peers}
+     * @param peers host:port of every node's TCP listener
+     */
+    public ClusteredAddressCache(AddressCache local, String self, List<String> peers, int virtualNodes,
+                                 int connectionsPerPeer, int timeoutMillis) {
+        this.local = local;
+        this.self = self;
+        this.virtualNodes = virtualNodes;
+        this.connectionsPerPeer = connectionsPerPeer;
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.fanOut = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "address-cache-cluster-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        setPeers(peers);
+    }
+
+    /**
+     * @return the part of the cluster's entries held by this node
+     */
+    public AddressCache local() {
+        return local;
+    }
+
+    /**
+     * @return host:port of every node in the ring, which leaves out this node once it is leaving
+     */
+    public List<String> getPeers() {
+        List<String> ids = new ArrayList<>();
+        for (Peer peer : peers)
+            ids.add(peer.getId());
+        return ids;
+    }
+
+    /**
+     * Switches to a new peer list and moves local entries the new ring assigns elsewhere to
+     * their owners.
+     *
+     * @return the number of entries moved
+     */
+    public synchronized int updatePeers(List<String> peers) {
+        setPeers(peers);
+        return rebalance();
+    }
+
+    /**
+     * Hands every local entry the ring assigns to another peer over to its owner, which stores it
+     * with its created time, deadline, time to live and version as they were here. Moving an
+     * entry neither extends nor shortens its life, and it keeps its place in take order. Entries
+     * are read a page at a time by {@link AddressCache#scan}, which does not count as an access
+     * under sliding expiration, and each owner's share of a page is pipelined over one
+     * connection. An entry handed over leaves this node by {@link AddressCache#handOff}, so the
+     * move is not seen as a removal.
+     * <p>
+     * A peer that fails is skipped for the rest of the pass. Its entries stay here, still
+     * served, until the next rebalance moves them; any it stored before failing are then
+     * answered as already present and dropped here.
+     *
+     * @return the number of entries moved
+     */
+    public int rebalance() {
+        HashRing ring = this.ring;
+        Set<Peer> failed = new HashSet<>();
+        int moved = 0;
+        InetAddress after = null;
+        List<AddressEntry> page;
+        do {
+            page = local.scan(after, REBALANCE_PAGE);
+            long now = System.currentTimeMillis();
+            Map<Peer, List<AddressEntry>> byOwner = new HashMap<>();
+            for (AddressEntry entry : page) {
+                Peer owner = ring.owner(AddressKey.of(entry.address));
+                // One that expired since the page was read is left for this node's expiry.
+                if (owner.isSelf() || entry.expiresAt <= now || failed.contains(owner))
+                    continue;
+                byOwner.computeIfAbsent(owner, peer -> new ArrayList<>()).add(entry);
+            }
+            for (Map.Entry<Peer, List<AddressEntry>> share : byOwner.entrySet()) {
+                Peer owner = share.getKey();
+                try {
+                    owner.getClient().handOverAll(share.getValue());
+                } catch (UncheckedIOException e) {
+                    failed.add(owner);
+                    continue;
+                }
+                for (AddressEntry entry : share.getValue())
+                    local.handOff(entry.address);
+                moved += share.getValue().size();
+            }
+            if (!page.isEmpty())
+                after = page.get(page.size() - 1).address;
+        } while (page.size() == REBALANCE_PAGE);
+        return moved;
+    }
+
+    @Override
+    public boolean add(InetAddress inetAddress) {
+        Peer owner = ownerOf(inetAddress);
+        return owner.isSelf() ? local.add(inetAddress) : owner.getClient().add(inetAddress);
+    }
+
+    @Override
+    public boolean add(InetAddress inetAddress, long ttl, TimeUnit unit) {
+        Peer owner = ownerOf(inetAddress);
+        return owner.isSelf() ? local.add(inetAddress, ttl, unit) : owner.getClient().add(inetAddress, unit.toMillis(ttl));
+    }
+
+    @Override
+    public boolean[] addAll(List<InetAddress> inetAddresses) {
+        return forEachOwner(inetAddresses, local::addAll, PeerClient::addAll);
+    }
+
+    /**
+     * A hand-over is meant for this node, so it is stored locally whatever the ring says.
+     */
+    @Override
+    public boolean handOver(AddressEntry entry) {
+        return local.handOver(entry);
+    }
+
+    @Override
+    public boolean remove(InetAddress inetAddress) {
+        Peer owner = ownerOf(inetAddress);
+        return owner.isSelf() ? local.remove(inetAddress) : owner.getClient().remove(inetAddress);
+    }
+
+    @Override
+    public boolean[] removeAll(List<InetAddress> inetAddresses) {
+        return forEachOwner(inetAddresses, local::removeAll, PeerClient::removeAll);
+    }
+
+    @Override
+    public boolean contains(InetAddress inetAddress) {
+        Peer owner = ownerOf(inetAddress);
+        return owner.isSelf() ? local.contains(inetAddress) : owner.getClient().contains(inetAddress);
+    }
+
+    @Override
+    public AddressEntry get(InetAddress inetAddress) {
+        Peer owner = ownerOf(inetAddress);
+        return owner.isSelf() ? local.get(inetAddress) : owner.getClient().get(inetAddress);
+    }
+
+    @Override
+    public boolean[] containsAll(List<InetAddress> inetAddresses) {
+        return forEachOwner(inetAddresses, local::containsAll, PeerClient::containsAll);
+    }
+
+    @Override
+    public InetAddress peek() {
+        InetAddress peeked = local.peek();
+        for (Iterator<Peer> it = remotePeers().iterator(); peeked == null && it.hasNext(); )
+            peeked = it.next().getClient().peek();
+        return peeked;
+    }
+
+    /**
+     * Local entries are taken through the local cache, so one declined goes back as it was. An
+     * entry taken from a peer and declined is added back to its owner, and starts a new max age
+     * there, since peers hand out addresses only.
+     */
+    @Override
+    public CompletableFuture<InetAddress> takeAsync(Predicate<? super InetAddress> handoff) {
+        if (local.size() == 0) {
+            InetAddress taken = null;
+            for (Iterator<Peer> it = remotePeers().iterator(); taken == null && it.hasNext(); )
+                taken = it.next().getClient().take();
+            if (taken != null) {
+                if (!handoff.test(taken))
+                    add(taken);
+                return CompletableFuture.completedFuture(taken);
+            }
+        }
+        return local.takeAsync(handoff);
+    }
+
+    @Override
+    public InetAddress poll() {
+        InetAddress taken = local.poll();
+        for (Iterator<Peer> it = remotePeers().iterator(); taken == null && it.hasNext(); )
+            taken = it.next().getClient().take();
+        return taken;
+    }
+
+    @Override
+    public List<InetAddress> take(int count) {
+        List<InetAddress> taken = new ArrayList<>(local.take(count));
+        for (Iterator<Peer> it = remotePeers().iterator(); taken.size() < count && it.hasNext(); ) {
+            PeerClient client = it.next().getClient();
+            InetAddress address;
+            while (taken.size() < count && (address = client.take()) != null)
+                taken.add(address);
+        }
+        return taken;
+    }
+
+    @Override
+    public int waitingTakers() {
+        return local.waitingTakers();
+    }
+
+    /**
+     * @return the local entries, oldest first
+     */
+    @Override
+    public Iterator<InetAddress> addresses() {
+        return local.addresses();
+    }
+
+    /**
+     * Scans the local entries only. Every node orders its entries the same way, so a full export
+     * of the cluster is one scan per node.
+     */
+    @Override
+    public List<AddressEntry> scan(InetAddress after, int count) {
+        return local.scan(after, count);
+    }
+
+    /**
+     * Merges this node's addresses in the subnet with every peer's, in address order. Peers are
+     * asked for their first page in parallel and for later pages only as the merge reaches them,
+     * so a large subnet is never held in memory at once.
+     */
+    @Override
+    public Iterator<InetAddress> subnet(InetAddress prefix, int length, InetAddress after) {
+        // Asking the local cache first rejects an invalid prefix before any peer sees it.
+        Iterator<InetAddress> localAddresses = local.subnet(prefix, length, after);
+        List<CompletableFuture<Iterator<InetAddress>>> remote = new ArrayList<>();
+        for (Peer peer : remotePeers())
+            remote.add(CompletableFuture.supplyAsync(() -> peer.getClient().subnet(prefix, length, after), fanOut));
+        List<Iterator<InetAddress>> sorted = new ArrayList<>(remote.size() + 1);
+        sorted.add(localAddresses);
+        for (CompletableFuture<Iterator<InetAddress>> peerAddresses : remote)
+            sorted.add(join(peerAddresses));
+        return merge(sorted);
+    }
+
+    @Override
+    public int removeSubnet(InetAddress prefix, int length) {
+        long removed = local.removeSubnet(prefix, length);
+        List<CompletableFuture<Long>> remote = new ArrayList<>();
+        for (Peer peer : remotePeers())
+            remote.add(CompletableFuture.supplyAsync(() -> peer.getClient().removeSubnet(prefix, length), fanOut));
+        for (CompletableFuture<Long> peerRemoved : remote)
+            removed += join(peerRemoved);
+        return (int) Math.min(Integer.MAX_VALUE, removed);
+    }
+
+    @Override
+    public InetAddress longestPrefixMatch(InetAddress inetAddress) {
+        List<CompletableFuture<InetAddress>> remote = new ArrayList<>();
+        for (Peer peer : remotePeers())
+            remote.add(CompletableFuture.supplyAsync(() -> peer.getClient().closest(inetAddress), fanOut));
+        AddressKey key = AddressKey.of(inetAddress);
+        InetAddress best = local.longestPrefixMatch(inetAddress);
+        for (CompletableFuture<InetAddress> peerClosest : remote) {
+            InetAddress candidate = join(peerClosest);
+            if (candidate != null && (best == null || key.commonPrefixLength(AddressKey.of(candidate))
+                    > key.commonPrefixLength(AddressKey.of(best))))
+                best = candidate;
+        }
+        return best;
+    }
+
+    /**
+     * Listens to removals from the local cache only.
+     */
+    @Override
+    public void addRemovalListener(RemovalListener listener) {
+        local.addRemovalListener(listener);
+    }
+
+    @Override
+    public boolean removeRemovalListener(RemovalListener listener) {
+        return local.removeRemovalListener(listener);
+    }
+
+    /**
+     * @return changes to the local cache only
+     */
+    @Override
+    public ChangeFeed getChangeFeed() {
+        return local.getChangeFeed();
+    }
+
+    /**
+     * @return statistics of the local cache only
+     */
+    @Override
+    public CacheAnalytics getAnalytics() {
+        return local.getAnalytics();
+    }
+
+    /**
+     * @return counters of the local cache only
+     */
+    @Override
+    public CacheMetrics getMetrics() {
+        return local.getMetrics();
+    }
+
+    /**
+     * @return the number of entries across the cluster
+     */
+    @Override
+    public int size() {
+        List<CompletableFuture<Long>> sizes = new ArrayList<>();
+        for (Peer peer : remotePeers())
+            sizes.add(CompletableFuture.supplyAsync(peer.getClient()::size, fanOut));
+        long size = local.size();
+        for (CompletableFuture<Long> peerSize : sizes)
+            size += join(peerSize);
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    @Override
+    public void close() {
+        fanOut.shutdownNow();
+        for (Peer peer : peers) {
+            if (!peer.isSelf())
+                peer.getClient().close();
+        }
+        local.close();
+    }
+
+    private Peer ownerOf(InetAddress inetAddress) {
+        return ring.owner(AddressKey.of(inetAddress));
+    }
+
+    /**
+     * Waits for a peer call made on the fan-out pool, rethrowing its failure as is.
+     */
+    private static <T> T join(CompletableFuture<T> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Merges iterators that are each in address order.
+     */
+    private static Iterator<InetAddress> merge(List<Iterator<InetAddress>> sorted) {
+        PriorityQueue<Head> heads = new PriorityQueue<>(sorted.size(), Comparator.comparing(head -> head.key));
+        for (Iterator<InetAddress> addresses : sorted) {
+            if (addresses.hasNext())
+                heads.add(new Head(addresses));
+        }
+        return new Iterator<InetAddress>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public InetAddress next() {
+                Head head = heads.poll();
+                if (head == null)
+                    throw new NoSuchElementException();
+                InetAddress next = head.address;
+                if (head.advance())
+                    heads.add(head);
+                return next;
+            }
+        };
+    }
+
+    private List<Peer> remotePeers() {
+        List<Peer> remote = new ArrayList<>(peers.size());
+        for (Peer peer : peers) {
+            if (!peer.isSelf())
+                remote.add(peer);
+        }
+        return remote;
+    }
+
+    /**
+     * The next address of one of the iterators being merged, with its key to order by.
+     */
+    private static final class Head {
+
+        private final Iterator<InetAddress> addresses;
+        InetAddress address;
+        AddressKey key;
+
+        Head(Iterator<InetAddress> addresses) {
+            this.addresses = addresses;
+            advance();
+        }
+
+        /**
+         * @return false once the iterator is exhausted
+         */
+        boolean advance() {
+            if (!addresses.hasNext())
+                return false;
+            address = addresses.next();
+            key = AddressKey.of(address);
+            return true;
+        }
+    }
+
+    private interface LocalBatch {
+        boolean[] apply(List<InetAddress> inetAddresses);
+    }
+
+    private interface RemoteBatch {
+        boolean[] apply(PeerClient client, List<InetAddress> inetAddresses);
+    }
+
+    /**
+     * Applies the local share of a batch in one call, and forwards each owner's share in one
+     * pipelined call, to every owner in parallel.
+     */
+    private boolean[] forEachOwner(List<InetAddress> inetAddresses, LocalBatch localBatch, RemoteBatch remote) {
+        boolean[] results = new boolean[inetAddresses.size()];
+        HashRing ring = this.ring;
+        Map<Peer, List<Integer>> indexesByOwner = new HashMap<>();
+        for (int i = 0; i < results.length; i++) {
+            Peer owner = ring.owner(AddressKey.of(inetAddresses.get(i)));
+            indexesByOwner.computeIfAbsent(owner, peer -> new ArrayList<>()).add(i);
+        }
+        Map<Peer, CompletableFuture<boolean[]>> forwarded = new HashMap<>();
+        List<Integer> ownedIndexes = Collections.emptyList();
+        for (Map.Entry<Peer, List<Integer>> share : indexesByOwner.entrySet()) {
+            Peer owner = share.getKey();
+            if (owner.isSelf()) {
+                ownedIndexes = share.getValue();
+                continue;
+            }
+            List<InetAddress> addresses = select(inetAddresses, share.getValue());
+            forwarded.put(owner,
+                    CompletableFuture.supplyAsync(() -> remote.apply(owner.getClient(), addresses), fanOut));
+        }
+        scatter(results, ownedIndexes, localBatch.apply(select(inetAddresses, ownedIndexes)));
+        for (Map.Entry<Peer, CompletableFuture<boolean[]>> share : forwarded.entrySet())
+            scatter(results, indexesByOwner.get(share.getKey()), join(share.getValue()));
+        return results;
+    }
+
+    private static List<InetAddress> select(List<InetAddress> inetAddresses, List<Integer> indexes) {
+        List<InetAddress> selected = new ArrayList<>(indexes.size());
+        for (int index : indexes)
+            selected.add(inetAddresses.get(index));
+        return selected;
+    }
+
+    private static void scatter(boolean[] results, List<Integer> indexes, boolean[] shareResults) {
+        for (int i = 0; i < shareResults.length; i++)
+            results[indexes.get(i)] = shareResults[i];
+    }
+
+    private void setPeers(List<String> ids) {
+        Map<String, Peer> existing = new HashMap<>();
+        if (peers != null) {
+            for (Peer peer : peers)
+                existing.put(peer.getId(), peer);
+        }
+        List<Peer> updated = new ArrayList<>();
+        for (String id : ids) {
+            id = id.trim();
+            if (id.isEmpty())
+                continue;
+            Peer peer = existing.remove(id);
+            if (peer == null)
+                peer = new Peer(id, id.equals(self) ? null : new PeerClient(parse(id), connectionsPerPeer, timeoutMillis));
+            updated.add(peer);
+        }
+        // A list without this node means it is leaving: it owns nothing and rebalance drains it.
+        if (updated.isEmpty())
+            updated.add(new Peer(self, null));
+
+        ring = new HashRing(updated, virtualNodes);
+        peers = updated;
+        for (Peer removed : existing.values()) {
+            if (!removed.isSelf())
+                removed.getClient().close();
+        }
+    }
+
+    private static InetSocketAddress parse(String id) {
+        int colon = id.lastIndexOf(':');
+        if (colon < 0)
+            throw new IllegalArgumentException("Peer must be host:port, got " + id);
+        String host = id.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]"))
+            host = host.substring(1, host.length() - 1);
+        return new InetSocketAddress(host, Integer.parseInt(id.substring(colon + 1)));
+    }
+}
@@ -0,0 +1,69 @@
+package memcache.cluster;
+
+import memcache.domain.AddressKey;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash ring. Each peer is placed at {@code virtualNodes} points and a key belongs to
+ * the first point at or after its {@link AddressKey#hash64()}, so adding or removing a peer only
+ * moves the keys next to its own points. Every node builds the same ring from the same peer
+ * list, whatever order it is given in.
+ */
+final class HashRing {
+
+    private final long[] points;
+    private final Peer[] owners;
+
+    HashRing(List<Peer> peers, int virtualNodes) {
+        List<Peer> sorted = new ArrayList<>(peers);
+        sorted.sort(Comparator.comparing(Peer::getId));
+        TreeMap<Long, Peer> ring = new TreeMap<>();
+        for (Peer peer : sorted) {
+            for (int i = 0; i < virtualNodes; i++)
+                ring.putIfAbsent(hash(peer.getId() + "#" + i), peer);
+        }
+        points = new long[ring.size()];
+        owners = new Peer[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Peer> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i++] = point.getValue();
+        }
+    }
+
+    Peer owner(AddressKey key) {
+        long hash = key.hash64();
+        int low = 0;
+        int high = points.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (points[middle] < hash)
+                low = middle + 1;
+            else
+                high = middle - 1;
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+
+    /**
+     * 64-bit FNV-1a followed by the MurmurHash3 finalizer, so nearby ids land far apart.
+     */
+    private static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,33 @@
+package memcache.cluster;
+
+/**
+ * A member of the cluster, identified by the host and port of its TCP listener. The node's own
+ * entry has no client; its keys are served from the local cache.
+ */
+final class Peer {
+
+    private final String id;
+    private final PeerClient client;
+
+    Peer(String id, PeerClient client) {
+        this.id = id;
+        this.client = client;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    boolean isSelf() {
+        return client == null;
+    }
+
+    PeerClient getClient() {
+        return client;
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
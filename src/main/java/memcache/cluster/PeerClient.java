@@ -0,0 +1,374 @@
+package memcache.cluster;
+
+import memcache.domain.AddressEntry;
+import memcache.protocol.BinaryProtocol;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Sends operations to a peer's TCP listener in the binary protocol. Connections are pooled: a
+ * call borrows an idle connection or opens a new one, and returns it afterwards unless the pool
+ * already holds {@code connections} idle ones. A connection that fails is discarded and the
+ * failure surfaces as an {@link UncheckedIOException}. Batches are pipelined over one connection.
+ */
+final class PeerClient implements AutoCloseable {
+
+    /**
+     * Requests of a batch sent before reading their responses. Their responses fit in the socket
+     * buffers, so the peer never stalls writing them while this side is still sending.
+     */
+    static final int PIPELINE_WINDOW = 128;
+
+    private final InetSocketAddress address;
+    private final int timeoutMillis;
+    private final BlockingQueue<PooledConnection> idle;
+    private volatile boolean closed;
+
+    PeerClient(InetSocketAddress address, int connections, int timeoutMillis) {
+        this.address = address;
+        this.timeoutMillis = timeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, connections));
+    }
+
+    boolean add(InetAddress inetAddress) {
+        return call(BinaryProtocol.ADD, inetAddress.getAddress()).status == BinaryProtocol.OK;
+    }
+
+    boolean add(InetAddress inetAddress, long ttlMillis) {
+        byte[] address = inetAddress.getAddress();
+        byte[] payload = ByteBuffer.allocate(address.length + Long.BYTES).put(address).putLong(ttlMillis).array();
+        return call(BinaryProtocol.ADD, payload).status == BinaryProtocol.OK;
+    }
+
+    /**
+     * Hands an entry over to the peer as it is here, with its times and version.
+     */
+    boolean handOver(AddressEntry entry) {
+        return call(BinaryProtocol.ADD, handOverPayload(entry)).status == BinaryProtocol.OK;
+    }
+
+    /**
+     * Hands entries over like {@link #handOver}, pipelined over one connection.
+     */
+    boolean[] handOverAll(List<AddressEntry> entries) {
+        List<byte[]> payloads = new ArrayList<>(entries.size());
+        for (AddressEntry entry : entries)
+            payloads.add(handOverPayload(entry));
+        return pipeline(BinaryProtocol.ADD, payloads);
+    }
+
+    boolean[] addAll(List<InetAddress> inetAddresses) {
+        return pipeline(BinaryProtocol.ADD, addresses(inetAddresses));
+    }
+
+    boolean remove(InetAddress inetAddress) {
+        return call(BinaryProtocol.REMOVE, inetAddress.getAddress()).status == BinaryProtocol.OK;
+    }
+
+    boolean[] removeAll(List<InetAddress> inetAddresses) {
+        return pipeline(BinaryProtocol.REMOVE, addresses(inetAddresses));
+    }
+
+    boolean contains(InetAddress inetAddress) {
+        return call(BinaryProtocol.GET, inetAddress.getAddress()).status == BinaryProtocol.OK;
+    }
+
+    boolean[] containsAll(List<InetAddress> inetAddresses) {
+        return pipeline(BinaryProtocol.GET, addresses(inetAddresses));
+    }
+
+    AddressEntry get(InetAddress inetAddress) {
+        Response response = call(BinaryProtocol.LOOKUP, inetAddress.getAddress());
+        if (response.status != BinaryProtocol.OK)
+            return null;
+        ByteBuffer entry = ByteBuffer.wrap(response.payload);
+        long createdTime = entry.getLong();
+        long expiresAt = entry.getLong();
+        long version = entry.getLong();
+        return new AddressEntry(inetAddress, createdTime, expiresAt, entry.getLong(), version);
+    }
+
+    InetAddress peek() {
+        return toAddress(call(BinaryProtocol.PEEK, null));
+    }
+
+    /**
+     * Takes an entry from the peer without waiting.
+     */
+    InetAddress take() {
+        return toAddress(call(BinaryProtocol.TAKE, null));
+    }
+
+    long size() {
+        return toLong(call(BinaryProtocol.SIZE, null));
+    }
+
+    InetAddress closest(InetAddress inetAddress) {
+        return toAddress(call(BinaryProtocol.CLOSEST, inetAddress.getAddress()));
+    }
+
+    /**
+     * Lists the peer's subnet a page at a time. The first page is fetched right away, so an
+     * invalid prefix or an unreachable peer fails here; the rest are fetched as the iterator
+     * reaches them, each in a call of its own.
+     *
+     * @param after the last address already handed out, or null to start from the lowest
+     * @return the peer's addresses in the subnet after {@code after}, in address order
+     */
+    Iterator<InetAddress> subnet(InetAddress prefix, int length, InetAddress after) {
+        return new Iterator<InetAddress>() {
+            private List<InetAddress> page = subnetPage(prefix, length, after);
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                if (position == page.size() && page.size() == BinaryProtocol.SUBNET_PAGE) {
+                    page = subnetPage(prefix, length, page.get(position - 1));
+                    position = 0;
+                }
+                return position < page.size();
+            }
+
+            @Override
+            public InetAddress next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return page.get(position++);
+            }
+        };
+    }
+
+    /**
+     * @return up to {@link BinaryProtocol#SUBNET_PAGE} addresses; fewer only at the end
+     */
+    private List<InetAddress> subnetPage(InetAddress prefix, int length, InetAddress after) {
+        byte[] payload = prefixed(prefix, length);
+        if (after != null) {
+            byte[] cursor = inFamily(after.getAddress(), payload.length - 1);
+            payload = Arrays.copyOf(payload, payload.length + cursor.length);
+            System.arraycopy(cursor, 0, payload, payload.length - cursor.length, cursor.length);
+        }
+        List<InetAddress> addresses = new ArrayList<>(BinaryProtocol.SUBNET_PAGE);
+        for (Response response : callStreaming(BinaryProtocol.SUBNET, payload))
+            addresses.add(toAddress(response));
+        return addresses;
+    }
+
+    long removeSubnet(InetAddress prefix, int length) {
+        return toLong(call(BinaryProtocol.REMOVE_SUBNET, prefixed(prefix, length)));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idle.poll()) != null)
+            connection.close();
+    }
+
+    private static byte[] handOverPayload(AddressEntry entry) {
+        byte[] address = entry.address.getAddress();
+        return ByteBuffer.allocate(address.length + 4 * Long.BYTES).put(address)
+                .putLong(entry.createdTime).putLong(entry.expiresAt).putLong(entry.ttl).putLong(entry.version)
+                .array();
+    }
+
+    private static List<byte[]> addresses(List<InetAddress> inetAddresses) {
+        List<byte[]> payloads = new ArrayList<>(inetAddresses.size());
+        for (InetAddress inetAddress : inetAddresses)
+            payloads.add(inetAddress.getAddress());
+        return payloads;
+    }
+
+    private static byte[] prefixed(InetAddress prefix, int length) {
+        byte[] address = prefix.getAddress();
+        byte[] payload = Arrays.copyOf(address, address.length + 1);
+        payload[address.length] = (byte) length;
+        return payload;
+    }
+
+    /**
+     * @return {@code address} in its IPv4-mapped form if the prefix it is sent with is IPv6
+     */
+    private static byte[] inFamily(byte[] address, int familyBytes) {
+        if (address.length == familyBytes)
+            return address;
+        byte[] mapped = new byte[familyBytes];
+        mapped[10] = (byte) 0xFF;
+        mapped[11] = (byte) 0xFF;
+        System.arraycopy(address, 0, mapped, 12, address.length);
+        return mapped;
+    }
+
+    private static long toLong(Response response) {
+        long value = 0;
+        for (byte b : response.payload)
+            value = value << 8 | (b & 0xFF);
+        return value;
+    }
+
+    private static InetAddress toAddress(Response response) {
+        if (response.status != BinaryProtocol.OK)
+            return null;
+        try {
+            return InetAddress.getByAddress(response.payload);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Response call(byte opcode, byte[] payload) {
+        return exchange(opcode, payload, false).get(0);
+    }
+
+    /**
+     * Reads {@link BinaryProtocol#OK} responses up to the {@link BinaryProtocol#NOT_FOUND} that
+     * ends them.
+     */
+    private List<Response> callStreaming(byte opcode, byte[] payload) {
+        return exchange(opcode, payload, true);
+    }
+
+    /**
+     * Sends the requests over one connection, {@link #PIPELINE_WINDOW} at a time before reading
+     * their responses, so a batch waits on a round trip per window rather than per request.
+     *
+     * @return for each request, whether it was answered {@link BinaryProtocol#OK}
+     */
+    private boolean[] pipeline(byte opcode, List<byte[]> payloads) {
+        boolean[] ok = new boolean[payloads.size()];
+        if (ok.length == 0)
+            return ok;
+        PooledConnection connection = idle.poll();
+        try {
+            if (connection == null)
+                connection = new PooledConnection(address, timeoutMillis);
+            for (int start = 0; start < ok.length; start += PIPELINE_WINDOW) {
+                int end = Math.min(ok.length, start + PIPELINE_WINDOW);
+                for (int i = start; i < end; i++)
+                    connection.write(opcode, payloads.get(i));
+                connection.flush();
+                for (int i = start; i < end; i++)
+                    ok[i] = connection.receive().status == BinaryProtocol.OK;
+            }
+            release(connection);
+            return ok;
+        } catch (IOException e) {
+            if (connection != null)
+                connection.close();
+            throw new UncheckedIOException("Peer " + address + " is unavailable", e);
+        }
+    }
+
+    private List<Response> exchange(byte opcode, byte[] payload, boolean streaming) {
+        PooledConnection connection = idle.poll();
+        try {
+            if (connection == null)
+                connection = new PooledConnection(address, timeoutMillis);
+            connection.write(opcode, payload);
+            connection.flush();
+            List<Response> responses = new ArrayList<>(1);
+            Response response = connection.receive();
+            while (streaming && response.status == BinaryProtocol.OK) {
+                responses.add(response);
+                response = connection.receive();
+            }
+            if (!streaming)
+                responses.add(response);
+            release(connection);
+            return responses;
+        } catch (IOException e) {
+            if (connection != null)
+                connection.close();
+            throw new UncheckedIOException("Peer " + address + " is unavailable", e);
+        }
+    }
+
+    private void release(PooledConnection connection) {
+        if (closed || !idle.offer(connection))
+            connection.close();
+    }
+
+    private static final class Response {
+
+        final byte status;
+        final byte[] payload;
+
+        Response(byte status, byte[] payload) {
+            this.status = status;
+            this.payload = payload;
+        }
+    }
+
+    private static final class PooledConnection {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final DataInputStream in;
+        private final byte[] request = new byte[BinaryProtocol.HEADER_BYTES + BinaryProtocol.MAX_PAYLOAD_BYTES];
+
+        PooledConnection(InetSocketAddress address, int timeoutMillis) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address, timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                out = new BufferedOutputStream(socket.getOutputStream(),
+                        PIPELINE_WINDOW * (BinaryProtocol.HEADER_BYTES + BinaryProtocol.MAX_PAYLOAD_BYTES));
+                in = new DataInputStream(socket.getInputStream());
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void write(byte opcode, byte[] payload) throws IOException {
+            int length = payload == null ? 0 : payload.length;
+            request[0] = BinaryProtocol.MAGIC;
+            request[1] = opcode;
+            request[2] = (byte) length;
+            if (length > 0)
+                System.arraycopy(payload, 0, request, BinaryProtocol.HEADER_BYTES, length);
+            out.write(request, 0, BinaryProtocol.HEADER_BYTES + length);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        Response receive() throws IOException {
+            if (in.readByte() != BinaryProtocol.MAGIC)
+                throw new IOException("Unexpected response from peer");
+            byte status = in.readByte();
+            byte[] payload = new byte[in.readUnsignedByte()];
+            in.readFully(payload);
+            if (status == BinaryProtocol.INVALID)
+                throw new IOException("Peer rejected request");
+            return new Response(status, payload);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Discarding the connection anyway.
+            }
+        }
+    }
+}
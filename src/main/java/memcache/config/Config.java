@@ -1,16 +1,37 @@
 package memcache.config;
 
 import io.swagger.annotations.Api;
+import memcache.cluster.ClusteredAddressCache;
+import memcache.controller.AdmissionControl;
+import memcache.controller.AdmissionFilter;
+import memcache.controller.RequestEventFilter;
+import memcache.controller.RequestLatencies;
+import memcache.protocol.TcpListener;
 import memcache.service.AddressCache;
+import memcache.service.AddressStore;
+import memcache.service.AddressResolver;
+import memcache.service.CachePersistence;
+import memcache.service.CacheSettings;
+import memcache.service.CachingAddressResolver;
+import memcache.service.EvictionPolicy;
+import memcache.service.NamedCaches;
+import memcache.service.TakeOrder;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import springfox.documentation.builders.RequestHandlerSelectors;
 import springfox.documentation.service.ApiInfo;
 import springfox.documentation.spi.DocumentationType;
 import springfox.documentation.spring.web.plugins.Docket;
 import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 
@@ -24,6 +45,126 @@ public class Config {
     @Value("${time.unit:seconds}")
     String unit;
 
+    @Value("${sliding.expiration:false}")
+    boolean slidingExpiration;
+
+    @Value("${take.order:lifo}")
+    String takeOrder;
+
+    @Value("${expiry.tick.millis:100}")
+    long expiryTickMillis;
+
+    @Value("${max.entries:0}")
+    long maxEntries;
+
+    @Value("${max.bytes:0}")
+    long maxBytes;
+
+    @Value("${eviction.policy:lru}")
+    String evictionPolicy;
+
+    @Value("${cache.shards:1}")
+    int shards;
+
+    @Value("${maintenance.threads:2}")
+    int maintenanceThreads;
+
+    @Value("${caches.names:}")
+    String cacheNames;
+
+    @Value("${resolver.threads:4}")
+    int resolverThreads;
+
+    @Value("${resolver.queue.size:1024}")
+    int resolverQueueSize;
+
+    @Value("${resolver.positive.ttl:60}")
+    long resolverPositiveTtl;
+
+    @Value("${resolver.negative.ttl:5}")
+    long resolverNegativeTtl;
+
+    @Value("${resolver.max.names:10000}")
+    int resolverMaxNames;
+
+    @Value("${feed.capacity:65536}")
+    int feedCapacity;
+
+    @Value("${listener.queue.size:8192}")
+    int listenerQueueSize;
+
+    @Value("${listener.interval.millis:10}")
+    long listenerIntervalMillis;
+
+    @Value("${filter.expected.entries:1000000}")
+    long filterExpectedEntries;
+
+    @Value("${tier.hot.max.entries:0}")
+    long tierHotMaxEntries;
+
+    @Value("${tier.directory:}")
+    String tierDirectory;
+
+    @Value("${analytics.window.seconds:60}")
+    long analyticsWindowSeconds;
+
+    @Value("${analytics.top.k:20}")
+    int analyticsTopK;
+
+    @Value("${admission.initial.limit:64}")
+    int admissionInitialLimit;
+
+    @Value("${admission.max.limit:1024}")
+    int admissionMaxLimit;
+
+    @Value("${admission.max.streams:64}")
+    int admissionMaxStreams;
+
+    @Value("${admission.max.takes:1024}")
+    int admissionMaxTakes;
+
+    @Value("${admission.tolerance:2.0}")
+    double admissionTolerance;
+
+    @Value("${admission.retry.after.seconds:1}")
+    int admissionRetryAfterSeconds;
+
+    @Value("${persistence.directory:}")
+    String persistenceDirectory;
+
+    @Value("${persistence.log.file.bytes:67108864}")
+    long persistenceLogFileBytes;
+
+    @Value("${persistence.commit.interval.millis:10}")
+    long persistenceCommitIntervalMillis;
+
+    @Value("${persistence.snapshot.interval.seconds:300}")
+    long persistenceSnapshotIntervalSeconds;
+
+    @Value("${cluster.peers:}")
+    String clusterPeers;
+
+    @Value("${cluster.self:}")
+    String clusterSelf;
+
+    @Value("${cluster.virtual.nodes:160}")
+    int clusterVirtualNodes;
+
+    @Value("${cluster.connections.per.peer:4}")
+    int clusterConnectionsPerPeer;
+
+    @Value("${cluster.timeout.millis:1000}")
+    int clusterTimeoutMillis;
+
+    @Value("${tcp.port:0}")
+    int tcpPort;
+
+    @Value("${tcp.threads:1}")
+    int tcpThreads;
+
+    @Autowired
+    Environment environment;
+
     @Bean
     public Docket customImplementation() {
         return new Docket(DocumentationType.SWAGGER_2)
@@ -35,8 +176,117 @@ public class Config {
     }
 
     @Bean
-    public AddressCache getAddressCache() {
-        return new AddressCache(maxAge, TimeUnit.valueOf(unit.toUpperCase()));
+    public AddressStore getAddressCache(NamedCaches namedCaches) {
+        AddressCache local = new AddressCache(settings(maxAge, unit, slidingExpiration, takeOrder, maxEntries, maxBytes,
+                evictionPolicy, shards).maintenance(namedCaches.getMaintenance()));
+        if (clusterPeers.trim().isEmpty())
+            return local;
+        if (clusterSelf.isEmpty() || tcpPort == 0)
+            throw new IllegalStateException("cluster.peers requires cluster.self and tcp.port");
+        return new ClusteredAddressCache(local, clusterSelf, Arrays.asList(clusterPeers.split(",")),
+                clusterVirtualNodes, clusterConnectionsPerPeer, clusterTimeoutMillis);
+    }
+
+    /**
+     * The caches listed in {@code caches.names}. Each takes its {@code caches.<name>.*} properties,
+     * falling back to the default cache's, and all of them, the default cache included, share one
+     * expiry scheduler of {@code maintenance.threads}.
+     */
+    @Bean
+    public NamedCaches getNamedCaches() {
+        NamedCaches namedCaches = new NamedCaches(maintenanceThreads);
+        for (String name : cacheNames.split(",")) {
+            name = name.trim();
+            if (name.isEmpty())
+                continue;
+            String prefix = "caches." + name + ".";
+            namedCaches.create(name, settings(
+                    environment.getProperty(prefix + "max.age.of.entry", Integer.class, maxAge),
+                    environment.getProperty(prefix + "time.unit", unit),
+                    environment.getProperty(prefix + "sliding.expiration", Boolean.class, slidingExpiration),
+                    environment.getProperty(prefix + "take.order", takeOrder),
+                    environment.getProperty(prefix + "max.entries", Long.class, maxEntries),
+                    environment.getProperty(prefix + "max.bytes", Long.class, maxBytes),
+                    environment.getProperty(prefix + "eviction.policy", evictionPolicy),
+                    environment.getProperty(prefix + "shards", Integer.class, shards)));
+        }
+        return namedCaches;
+    }
+
+    private CacheSettings settings(int maxAge, String unit, boolean slidingExpiration, String takeOrder,
+                                   long maxEntries, long maxBytes, String evictionPolicy, int shards) {
+        return new CacheSettings()
+                .maxAge(maxAge, TimeUnit.valueOf(unit.toUpperCase()))
+                .slidingExpiration(slidingExpiration)
+                .takeOrder(TakeOrder.valueOf(takeOrder.toUpperCase()))
+                .tickMillis(expiryTickMillis)
+                .maxEntries(maxEntries)
+                .maxBytes(maxBytes)
+                .evictionPolicy(EvictionPolicy.valueOf(evictionPolicy.toUpperCase().replace('-', '_')))
+                .shards(shards)
+                .maintenanceThreads(maintenanceThreads)
+                .changeFeedCapacity(feedCapacity)
+                .listenerQueueSize(listenerQueueSize)
+                .listenerIntervalMillis(listenerIntervalMillis)
+                .filterExpectedEntries(filterExpectedEntries)
+                .hotMaxEntries(tierHotMaxEntries)
+                .tierDirectory(tierDirectory.isEmpty() ? null : new File(tierDirectory))
+                .analyticsWindow(analyticsWindowSeconds, TimeUnit.SECONDS)
+                .analyticsTopK(analyticsTopK);
+    }
+
+    @Bean
+    public AddressResolver getAddressResolver() {
+        return new CachingAddressResolver(InetAddress::getByName, resolverThreads, resolverQueueSize,
+                resolverPositiveTtl, resolverNegativeTtl, TimeUnit.SECONDS, resolverMaxNames);
+    }
+
+    @Bean
+    @ConditionalOnProperty("persistence.directory")
+    public CachePersistence getCachePersistence(AddressStore addressCache) throws IOException {
+        CachePersistence persistence = new CachePersistence(localPart(addressCache), new File(persistenceDirectory),
+                persistenceLogFileBytes, persistenceCommitIntervalMillis,
+                TimeUnit.SECONDS.toMillis(persistenceSnapshotIntervalSeconds));
+        persistence.start();
+        return persistence;
+    }
+
+    @Bean
+    @ConditionalOnProperty("tcp.port")
+    public TcpListener getTcpListener(AddressStore addressCache) throws IOException {
+        return new TcpListener(localPart(addressCache), tcpPort, tcpThreads);
+    }
+
+    /**
+     * In cluster mode, the entries this node holds itself; peers are served and persisted from
+     * these alone.
+     */
+    private static AddressCache localPart(AddressStore addressCache) {
+        return addressCache instanceof ClusteredAddressCache
+                ? ((ClusteredAddressCache) addressCache).local()
+                : (AddressCache) addressCache;
+    }
+
+    @Bean
+    public RequestLatencies getRequestLatencies() {
+        return new RequestLatencies();
+    }
+
+    @Bean
+    public AdmissionControl getAdmissionControl() {
+        return new AdmissionControl(admissionInitialLimit, admissionMaxLimit, admissionMaxStreams, admissionMaxTakes,
+                admissionTolerance, admissionRetryAfterSeconds);
+    }
+
+    @Bean
+    public RequestEventFilter getRequestEventFilter() {
+        return new RequestEventFilter();
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "admission.enabled", matchIfMissing = true)
+    public AdmissionFilter getAdmissionFilter(AdmissionControl admissionControl) {
+        return new AdmissionFilter(admissionControl);
     }
 
     private ApiInfo apiInfo() {
@@ -0,0 +1,33 @@
+package memcache.controller;
+
+import memcache.domain.AddressKey;
+import memcache.service.AddressResolver;
+
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Turns request input into addresses. IP literals are parsed in place; only hostnames go through
+ * the resolver.
+ */
+final class Addresses {
+
+    private Addresses() {
+    }
+
+    static CompletableFuture<InetAddress> resolve(String input, AddressResolver addressResolver) {
+        AddressKey literal = AddressKey.parse(input);
+        return literal != null
+                ? CompletableFuture.completedFuture(literal.toInetAddress())
+                : addressResolver.resolve(input);
+    }
+
+    static Throwable unwrap(Throwable failure) {
+        if ((failure instanceof CompletionException || failure instanceof ExecutionException)
+                && failure.getCause() != null)
+            return failure.getCause();
+        return failure;
+    }
+}
@@ -0,0 +1,49 @@
+package memcache.controller;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Separate concurrency budgets for reads, writes, streams and blocking takes, so a flood of one
+ * kind of request cannot starve the others. Reads and writes adapt to their own latency. Takes
+ * are held for as long as they wait, and streams for as long as their body is, so their
+ * durations say nothing about load and their budgets are fixed.
+ */
+public class AdmissionControl {
+
+    public enum Budget {
+        READ, WRITE, STREAM, TAKE
+    }
+
+    private final Map<Budget, ConcurrencyLimit> limits = new EnumMap<>(Budget.class);
+    private final int retryAfterSeconds;
+
+    public AdmissionControl() {
+        this(64, 1024, 64, 1024, 2.0, 1);
+    }
+
+    /**
+     * @param initialLimit read and write requests let in at once before any latency is seen
+     * @param maxLimit     most read or write requests ever let in at once
+     * @param maxStreams   most batch, subnet and export streams open at once
+     * @param maxTakes     most blocking takes waiting at once
+     * @param tolerance    how many times their baseline latency reads and writes may take
+     *                     before their limit backs off
+     */
+    public AdmissionControl(int initialLimit, int maxLimit, int maxStreams, int maxTakes, double tolerance,
+                            int retryAfterSeconds) {
+        limits.put(Budget.READ, ConcurrencyLimit.adaptive(initialLimit, 1, maxLimit, tolerance));
+        limits.put(Budget.WRITE, ConcurrencyLimit.adaptive(initialLimit, 1, maxLimit, tolerance));
+        limits.put(Budget.STREAM, ConcurrencyLimit.fixed(maxStreams));
+        limits.put(Budget.TAKE, ConcurrencyLimit.fixed(maxTakes));
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public ConcurrencyLimit limit(Budget budget) {
+        return limits.get(budget);
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,174 @@
+package memcache.controller;
+
+import memcache.controller.AdmissionControl.Budget;
+import memcache.domain.AddressKey;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets cache requests through only while their {@link AdmissionControl} budget has room, and
+ * turns the rest away at once with a Retry-After hint: 503 for reads, writes and streams, and
+ * 429 for blocking takes beyond the number allowed to wait. An async request keeps its place
+ * until its response completes.
+ * <p>
+ * Only requests whose duration is the server's own work feed the adaptive read and write limits.
+ * Batches, lookups, subnet listings and exports stream for as long as the client sends or reads,
+ * so they draw on a fixed budget of their own. A single address given as a hostname waits on the
+ * resolver, so it holds its place but is left out of the latency samples. The change feed is not
+ * limited at all, since a subscriber stays connected for as long as it likes.
+ */
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    /**
+     * Endpoints directly under /address whose name is not an address.
+     */
+    private static final Set<String> NAMED_ENDPOINTS = new HashSet<>(
+            Arrays.asList("peek", "take", "lookup", "export", "events"));
+
+    private final AdmissionControl admission;
+
+    public AdmissionFilter(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Budget budget = budgetFor(request);
+        if (budget == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        ConcurrencyLimit limit = admission.limit(budget);
+        if (!limit.tryAcquire()) {
+            HttpStatus status = budget == Budget.TAKE ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+            response.setStatus(status.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(admission.getRetryAfterSeconds()));
+            response.setContentType("text/plain");
+            response.getWriter().write("Server is busy, retry later");
+            return;
+        }
+
+        long start = System.nanoTime();
+        Release release = new Release(limit, start, !resolvesHostname(request));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted())
+                request.getAsyncContext().addListener(release);
+            else
+                release.run();
+        }
+    }
+
+    /**
+     * @return the budget a request draws on, or null if it is not limited. Requests to a named
+     * cache draw on the same budgets as those to the default one.
+     */
+    static Budget budgetFor(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith("/cache/")) {
+            int name = path.indexOf('/', "/cache/".length());
+            if (name > 0)
+                path = path.substring(name);
+        }
+        if (!path.equals("/address") && !path.startsWith("/address/"))
+            return null;
+        if (path.equals("/address/events"))
+            return null;
+        if (path.equals("/address/export"))
+            return Budget.STREAM;
+        switch (request.getMethod()) {
+            case "GET":
+                if (path.startsWith("/address/subnet/"))
+                    return Budget.STREAM;
+                if (path.equals("/address/take"))
+                    return request.getParameter("n") == null ? Budget.TAKE : Budget.WRITE;
+                return Budget.READ;
+            case "HEAD":
+                return Budget.READ;
+            case "POST":
+                return path.equals("/address/lookup") ? Budget.STREAM : Budget.WRITE;
+            case "PUT":
+            case "DELETE":
+                return path.equals("/address") ? Budget.STREAM : Budget.WRITE;
+            default:
+                return Budget.WRITE;
+        }
+    }
+
+    /**
+     * @return whether the request names a single address by hostname, which is resolved before
+     * the cache is touched
+     */
+    static boolean resolvesHostname(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        int address = path.indexOf("/address/");
+        if (address < 0)
+            return false;
+        String segment = path.substring(address + "/address/".length());
+        if (segment.isEmpty() || segment.indexOf('/') >= 0 || NAMED_ENDPOINTS.contains(segment))
+            return false;
+        return AddressKey.parse(segment) == null;
+    }
+
+    /**
+     * Gives the place back once, whichever of completion, timeout or error comes first.
+     */
+    private static final class Release implements AsyncListener, Runnable {
+
+        private final ConcurrencyLimit limit;
+        private final long start;
+        private final boolean sampled;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Release(ConcurrencyLimit limit, long start, boolean sampled) {
+            this.limit = limit;
+            this.start = start;
+            this.sampled = sampled;
+        }
+
+        @Override
+        public void run() {
+            if (!released.compareAndSet(false, true))
+                return;
+            if (sampled)
+                limit.release(System.nanoTime() - start);
+            else
+                limit.release();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Still the same request.
+        }
+    }
+}
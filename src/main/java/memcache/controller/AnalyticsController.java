@@ -0,0 +1,44 @@
+package memcache.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import memcache.service.AddressStore;
+import memcache.service.CacheAnalytics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping(value = "/admin")
+@Api(value = "Analytics",
+        description = "API for traffic statistics used to tune max age and capacity")
+public class AnalyticsController {
+
+    private AddressStore addressCache;
+
+    @Autowired
+    public AnalyticsController(AddressStore addressCache) {
+        this.addressCache = addressCache;
+    }
+
+    @RequestMapping(value = "/analytics", method = RequestMethod.GET)
+    @ApiOperation(value = "Get traffic statistics",
+            notes = "For the window in progress and the last complete one: accesses, estimated distinct "
+                    + "addresses, re-adds of addresses that had expired, been taken or been evicted, and the "
+                    + "hottest and most re-added addresses with estimated counts. In cluster mode, this node only",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 404, message = "Analytics are off")})
+    public ResponseEntity<?> analytics() {
+        CacheAnalytics.Report report = addressCache.getAnalytics().report();
+        if (report == null)
+            return new ResponseEntity<>("Analytics are off", HttpStatus.NOT_FOUND);
+        return new ResponseEntity<>(report, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,215 @@
+package memcache.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import memcache.controller.RequestLatencies.Operation;
+import memcache.service.AddressStore;
+import memcache.service.AddressResolver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+@RestController
+@RequestMapping(value = "/address")
+@Api(value = "Address Cache batch",
+        description = "API for performing batch actions on in memory cache")
+public class BatchController {
+
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    /**
+     * Addresses are resolved and applied to the cache this many at a time, and each chunk's
+     * results are flushed before the next chunk is read.
+     */
+    private static final int CHUNK_SIZE = 256;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private AddressStore addressCache;
+    private AddressResolver addressResolver;
+    private RequestLatencies latencies;
+
+    @Autowired
+    public BatchController(AddressStore addressCache, AddressResolver addressResolver, RequestLatencies latencies) {
+        this.addressCache = addressCache;
+        this.addressResolver = addressResolver;
+        this.latencies = latencies;
+    }
+
+    @RequestMapping(method = RequestMethod.PUT)
+    @ApiOperation(value = "Add a batch of entries to address cache",
+            notes = "Body is a JSON array of ip addresses or hostnames, or one per line. "
+                    + "Streams one JSON result per address: added, exists, invalid or busy",
+            produces = "application/x-ndjson",
+            httpMethod = "PUT")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success")})
+    public ResponseEntity<StreamingResponseBody> addAll(HttpServletRequest request) {
+        return stream(Operation.BATCH_ADD, request,
+                addresses -> statuses(addressCache.addAll(addresses), "added", "exists"));
+    }
+
+    @RequestMapping(method = RequestMethod.DELETE)
+    @ApiOperation(value = "Remove a batch of entries from address cache",
+            notes = "Body is a JSON array of ip addresses or hostnames, or one per line. "
+                    + "Streams one JSON result per address: removed, not_found, invalid or busy",
+            produces = "application/x-ndjson",
+            httpMethod = "DELETE")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success")})
+    public ResponseEntity<StreamingResponseBody> removeAll(HttpServletRequest request) {
+        return stream(Operation.BATCH_REMOVE, request,
+                addresses -> statuses(addressCache.removeAll(addresses), "removed", "not_found"));
+    }
+
+    @RequestMapping(value = "/lookup", method = RequestMethod.POST)
+    @ApiOperation(value = "Look up a batch of entries in address cache",
+            notes = "Body is a JSON array of ip addresses or hostnames, or one per line. "
+                    + "Streams one JSON result per address: cached, not_found, invalid or busy",
+            produces = "application/x-ndjson",
+            httpMethod = "POST")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success")})
+    public ResponseEntity<StreamingResponseBody> containsAll(HttpServletRequest request) {
+        return stream(Operation.BATCH_GET, request,
+                addresses -> statuses(addressCache.containsAll(addresses), "cached", "not_found"));
+    }
+
+    @RequestMapping(value = "/take", params = "n", method = RequestMethod.GET)
+    @ApiOperation(value = "Remove up to n entries from address cache",
+            notes = "Takes up to n addresses that are cached right now, without waiting",
+            produces = "application/x-ndjson",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success")})
+    public ResponseEntity<StreamingResponseBody> take(@RequestParam("n") int n) {
+        long start = System.nanoTime();
+        List<InetAddress> taken = addressCache.take(Math.max(0, n));
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = ndjsonGenerator(out);
+            for (InetAddress address : taken)
+                writeResult(generator, address.getHostAddress(), null);
+            generator.flush();
+            latencies.record(Operation.BATCH_TAKE, start);
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Checks that the body starts the way its content type says before answering 200, so a body
+     * that is not a JSON array at all is refused with 400. One that goes wrong later ends the
+     * stream with an {@code {"error":...}} line after the results of the addresses before it.
+     */
+    private ResponseEntity<StreamingResponseBody> stream(Operation operation, HttpServletRequest request,
+                                                         Function<List<InetAddress>, String[]> apply) {
+        long start = System.nanoTime();
+        BatchReader reader;
+        try {
+            reader = BatchReader.of(request.getInputStream(), request.getContentType());
+        } catch (IOException e) {
+            byte[] message = (e instanceof JsonProcessingException
+                    ? ((JsonProcessingException) e).getOriginalMessage() : "Could not read the request body")
+                    .getBytes(StandardCharsets.UTF_8);
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(out -> out.write(message));
+        }
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = ndjsonGenerator(out);
+            List<String> inputs = new ArrayList<>(CHUNK_SIZE);
+            String input;
+            do {
+                try {
+                    input = reader.next();
+                } catch (JsonProcessingException e) {
+                    if (!inputs.isEmpty())
+                        applyChunk(inputs, apply, generator, out);
+                    writeError(generator, e.getOriginalMessage());
+                    break;
+                }
+                if (input != null)
+                    inputs.add(input);
+                if (inputs.size() == CHUNK_SIZE || (input == null && !inputs.isEmpty())) {
+                    applyChunk(inputs, apply, generator, out);
+                    inputs.clear();
+                }
+            } while (input != null);
+            generator.flush();
+            latencies.record(operation, start);
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    private void applyChunk(List<String> inputs, Function<List<InetAddress>, String[]> apply,
+                            JsonGenerator generator, OutputStream out) throws IOException {
+        List<CompletableFuture<InetAddress>> lookups = new ArrayList<>(inputs.size());
+        for (String input : inputs)
+            lookups.add(Addresses.resolve(input, addressResolver));
+
+        String[] statuses = new String[inputs.size()];
+        List<InetAddress> resolved = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            try {
+                resolved.add(lookups.get(i).join());
+            } catch (RuntimeException e) {
+                statuses[i] = Addresses.unwrap(e) instanceof RejectedExecutionException ? "busy" : "invalid";
+            }
+        }
+
+        String[] applied = apply.apply(resolved);
+        for (int i = 0, next = 0; i < inputs.size(); i++) {
+            writeResult(generator, inputs.get(i), statuses[i] != null ? statuses[i] : applied[next++]);
+        }
+        generator.flush();
+        out.flush();
+    }
+
+    private static String[] statuses(boolean[] outcomes, String success, String failure) {
+        String[] statuses = new String[outcomes.length];
+        for (int i = 0; i < outcomes.length; i++)
+            statuses[i] = outcomes[i] ? success : failure;
+        return statuses;
+    }
+
+    static JsonGenerator ndjsonGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = JSON.createGenerator(out);
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+
+    private static void writeError(JsonGenerator generator, String message) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("error", message);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    static void writeResult(JsonGenerator generator, String address, String status) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("address", address);
+        if (status != null)
+            generator.writeStringField("status", status);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+}
@@ -0,0 +1,89 @@
+package memcache.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads addresses one at a time from a batch request body, either a JSON array of strings or
+ * one address per line, without buffering the whole body. A body that is not what its content
+ * type says fails with a {@link JsonParseException}: at once if it does not start a JSON array,
+ * so the request can still be refused, otherwise where it goes wrong.
+ */
+abstract class BatchReader {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    /**
+     * @param contentType the request's content type; only {@code application/json} is read as an
+     *                    array, so {@code application/x-ndjson} and the like are read as lines
+     */
+    static BatchReader of(InputStream body, String contentType) throws IOException {
+        if (isJson(contentType))
+            return new JsonArrayReader(JSON.createParser(body));
+        return new LineReader(new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8)));
+    }
+
+    private static boolean isJson(String contentType) {
+        if (contentType == null)
+            return false;
+        try {
+            return MediaType.APPLICATION_JSON.includes(MediaType.parseMediaType(contentType));
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the next address, or null at the end of the body
+     */
+    abstract String next() throws IOException;
+
+    private static final class LineReader extends BatchReader {
+        private final BufferedReader reader;
+
+        LineReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        String next() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty())
+                    return line;
+            }
+            return null;
+        }
+    }
+
+    private static final class JsonArrayReader extends BatchReader {
+        private final JsonParser parser;
+
+        JsonArrayReader(JsonParser parser) throws IOException {
+            this.parser = parser;
+            if (parser.nextToken() != JsonToken.START_ARRAY)
+                throw new JsonParseException(parser, "Expected a JSON array of addresses");
+        }
+
+        @Override
+        String next() throws IOException {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.END_ARRAY)
+                return null;
+            if (token != JsonToken.VALUE_STRING)
+                throw new JsonParseException(parser, "Expected a string address but found " + token);
+            return parser.getText();
+        }
+    }
+}
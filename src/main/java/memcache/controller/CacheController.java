@@ -4,17 +4,32 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
-import memcache.service.AddressCache;
+import memcache.controller.RequestLatencies.Operation;
+import memcache.domain.AddressEntry;
+import memcache.service.AddressStore;
+import memcache.service.AddressResolver;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping(value = "/address")
@@ -22,31 +37,49 @@ import java.net.UnknownHostException;
         description = "API for performing actions on in memory cache")
 public class CacheController {
 
-    private AddressCache addressCache;
+    private AddressStore addressCache;
+    private AddressResolver addressResolver;
+    private RequestLatencies latencies;
+
+    @Value("${take.default.timeout.millis:30000}")
+    long defaultTakeTimeout = 30000;
+
+    public CacheController(AddressStore addressCache, AddressResolver addressResolver) {
+        this(addressCache, addressResolver, new RequestLatencies());
+    }
 
     @Autowired
-    public CacheController(AddressCache addressCache) {
+    public CacheController(AddressStore addressCache, AddressResolver addressResolver, RequestLatencies latencies) {
         this.addressCache = addressCache;
+        this.addressResolver = addressResolver;
+        this.latencies = latencies;
     }
 
     @RequestMapping(value = "/{ipAddress:.+}", method = RequestMethod.PUT)
     @ApiOperation(value = "Add entry to address cache",
-            notes = "Add the inet address of the given ip address",
+            notes = "Add the inet address of the given ip address, to expire ttl milliseconds from now, or from "
+                    + "its latest access under sliding expiration; the cache's max age if no ttl is given",
             httpMethod = "PUT")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Success"),
-            @ApiResponse(code = 400, message = "Address not found for the given ip  address"),
+            @ApiResponse(code = 400, message = "Address not found for the given ip  address, or negative ttl"),
+            @ApiResponse(code = 503, message = "Address resolver is busy or cache peer unavailable"),
     })
 
-    public ResponseEntity<String> add(@PathVariable String ipAddress) {
-        InetAddress inetAddress;
-        try {
-            inetAddress = InetAddress.getByName(ipAddress);
-        } catch (UnknownHostException e) {
-            return new ResponseEntity<>("Address not found for the given ip  address", HttpStatus.BAD_REQUEST);
+    public DeferredResult<ResponseEntity<String>> add(@PathVariable String ipAddress,
+                                                      @RequestParam(value = "ttl", required = false) Long ttl) {
+        if (ttl != null && ttl < 0) {
+            DeferredResult<ResponseEntity<String>> result = new DeferredResult<>();
+            result.setResult(new ResponseEntity<>("ttl must not be negative", HttpStatus.BAD_REQUEST));
+            return result;
         }
-        addressCache.add(inetAddress);
-        return new ResponseEntity<>("Address added successfully", HttpStatus.OK);
+        return withAddress(Operation.ADD, ipAddress, inetAddress -> {
+            if (ttl == null)
+                addressCache.add(inetAddress);
+            else
+                addressCache.add(inetAddress, ttl, TimeUnit.MILLISECONDS);
+            return new ResponseEntity<>("Address added successfully", HttpStatus.OK);
+        });
     }
 
     @RequestMapping(value = "/{ipAddress:.+}", method = RequestMethod.DELETE)
@@ -58,19 +91,51 @@ public class CacheController {
             @ApiResponse(code = 200, message = "Success"),
             @ApiResponse(code = 400, message = "Address not found for the given ip  address"),
             @ApiResponse(code = 404, message = "Address not present in cache"),
+            @ApiResponse(code = 503, message = "Address resolver is busy or cache peer unavailable"),
     })
 
-    public ResponseEntity<String> remove(@PathVariable String ipAddress) {
-        InetAddress inetAddress;
-        try {
-            inetAddress = InetAddress.getByName(ipAddress);
+    public DeferredResult<ResponseEntity<String>> remove(@PathVariable String ipAddress) {
+        return withAddress(Operation.REMOVE, ipAddress, inetAddress -> {
+            if (addressCache.remove(inetAddress))
+                return new ResponseEntity<>("Address removed successfully", HttpStatus.OK);
+            return new ResponseEntity<>("Address not present in cache", HttpStatus.NOT_FOUND);
+        });
+    }
 
-        } catch (UnknownHostException e) {
-            return new ResponseEntity<>("Address not found for the given ip  address", HttpStatus.BAD_REQUEST);
-        }
-        if (addressCache.remove(inetAddress))
-            return new ResponseEntity<>("Address removed successfully", HttpStatus.OK);
-        return new ResponseEntity<>("Address not present in cache", HttpStatus.NOT_FOUND);
+    @RequestMapping(value = "/{ipAddress:.+}", method = RequestMethod.GET)
+    @ApiOperation(value = "Look up entry in address cache",
+            notes = "Tells whether the ip address is cached, without removing it. The ETag changes whenever the "
+                    + "address is added again, and If-None-Match with the current one answers 304",
+            produces = "text/plain",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 304, message = "Entry unchanged since the given ETag"),
+            @ApiResponse(code = 400, message = "Address not found for the given ip  address"),
+            @ApiResponse(code = 404, message = "Address not present in cache"),
+            @ApiResponse(code = 503, message = "Address resolver is busy or cache peer unavailable"),
+    })
+    public DeferredResult<ResponseEntity<String>> get(@PathVariable String ipAddress,
+                                                      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                              String ifNoneMatch) {
+        return withAddress(Operation.GET, ipAddress, inetAddress -> {
+            AddressEntry entry = addressCache.get(inetAddress);
+            if (entry == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).cacheControl(CacheControl.noCache())
+                        .body("Address not present in cache");
+            }
+            String eTag = "\"" + Long.toHexString(entry.version) + "\"";
+            boolean unchanged = matches(ifNoneMatch, eTag);
+            HttpHeaders headers = new HttpHeaders();
+            headers.setETag(eTag);
+            headers.setLastModified(entry.createdTime);
+            headers.setCacheControl(CacheControl.noCache().getHeaderValue());
+            if (entry.expiresAt != Long.MAX_VALUE)
+                headers.setExpires(entry.expiresAt);
+            ResponseEntity.BodyBuilder response = ResponseEntity.status(unchanged ? HttpStatus.NOT_MODIFIED : HttpStatus.OK)
+                    .headers(headers);
+            return unchanged ? response.build() : response.body("Address present in cache");
+        });
     }
 
     @RequestMapping(value = "/peek", method = {RequestMethod.GET})
@@ -83,21 +148,102 @@ public class CacheController {
             @ApiResponse(code = 404, message = "Last added element not found"),
     })
     public ResponseEntity<String> peek() throws UnknownHostException {
+        long start = System.nanoTime();
         InetAddress peekedAddress = addressCache.peek();
-        if (peekedAddress == null)
-            return new ResponseEntity<>("Last added element not found", HttpStatus.NOT_FOUND);
-        return new ResponseEntity<>(peekedAddress.toString(), HttpStatus.OK);
+        ResponseEntity<String> response = peekedAddress == null
+                ? new ResponseEntity<>("Last added element not found", HttpStatus.NOT_FOUND)
+                : new ResponseEntity<>(peekedAddress.toString(), HttpStatus.OK);
+        latencies.record(Operation.PEEK, start);
+        return response;
     }
 
     @RequestMapping(value = "/take", method = {RequestMethod.GET})
     @ApiOperation(value = "Remove last added entry from address cache",
-            notes = "Remove the last added address from address cache",
+            notes = "Remove the last added address from address cache, waiting up to timeout milliseconds for one "
+                    + "to be added; a timeout of 0 answers at once",
             produces = "text/plain",
             httpMethod = "GET")
     @ApiResponses(value = {
-            @ApiResponse(code = 200, message = "Success")})
-    public ResponseEntity<String> take() throws UnknownHostException {
-        InetAddress address = addressCache.take();
-        return new ResponseEntity<>(address.toString(), HttpStatus.OK);
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 400, message = "Negative timeout"),
+            @ApiResponse(code = 404, message = "No address added before timeout")})
+    public DeferredResult<ResponseEntity<String>> take(@RequestParam(value = "timeout", required = false) Long timeout) {
+        long start = System.nanoTime();
+        long waitMillis = timeout != null ? timeout : defaultTakeTimeout;
+        DeferredResult<ResponseEntity<String>> result = new DeferredResult<>(waitMillis > 0 ? waitMillis : null);
+        if (waitMillis < 0) {
+            result.setResult(new ResponseEntity<>("timeout must not be negative", HttpStatus.BAD_REQUEST));
+            return result;
+        }
+        if (waitMillis == 0) {
+            InetAddress address = addressCache.poll();
+            result.setResult(address == null
+                    ? new ResponseEntity<>("No address added before timeout", HttpStatus.NOT_FOUND)
+                    : new ResponseEntity<>(address.toString(), HttpStatus.OK));
+            latencies.record(Operation.TAKE, start);
+            return result;
+        }
+        // An address that arrives after the request timed out goes back into the cache as it was.
+        CompletableFuture<InetAddress> taken = addressCache.takeAsync(address -> {
+            if (!result.setResult(new ResponseEntity<>(address.toString(), HttpStatus.OK)))
+                return false;
+            latencies.record(Operation.TAKE, start);
+            return true;
+        });
+        result.onTimeout(() -> {
+            if (taken.cancel(false)) {
+                result.setResult(new ResponseEntity<>("No address added before timeout", HttpStatus.NOT_FOUND));
+                latencies.record(Operation.TAKE, start);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * IP literals are parsed in place; only hostnames go through the resolver, whose answer
+     * completes the response on the resolver's thread instead of a parked request thread.
+     */
+    private DeferredResult<ResponseEntity<String>> withAddress(Operation operation, String ipAddress,
+                                                               Function<InetAddress, ResponseEntity<String>> action) {
+        long start = System.nanoTime();
+        DeferredResult<ResponseEntity<String>> result = new DeferredResult<>();
+        Addresses.resolve(ipAddress, addressResolver).thenApply(action).whenComplete((response, failure) -> {
+            result.setResult(failure == null ? response : failureResponse(Addresses.unwrap(failure)));
+            latencies.record(operation, start);
+        });
+        return result;
+    }
+
+    /**
+     * @return whether an If-None-Match header lists {@code eTag}; weak tags compare equal to
+     * strong ones, as RFC 7232 asks of If-None-Match
+     */
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            if (candidate.equals("*") || candidate.equals(eTag))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * A cache peer that cannot be reached in cluster mode.
+     */
+    @ExceptionHandler(UncheckedIOException.class)
+    public ResponseEntity<String> peerUnavailable() {
+        return new ResponseEntity<>("Cache peer unavailable", HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    private ResponseEntity<String> failureResponse(Throwable failure) {
+        if (failure instanceof RejectedExecutionException)
+            return new ResponseEntity<>("Address resolver is busy", HttpStatus.SERVICE_UNAVAILABLE);
+        if (failure instanceof UncheckedIOException)
+            return peerUnavailable();
+        return new ResponseEntity<>("Address not found for the given ip  address", HttpStatus.BAD_REQUEST);
     }
 }
@@ -0,0 +1,179 @@
+package memcache.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import memcache.domain.CacheEvent;
+import memcache.service.AddressStore;
+import memcache.service.ChangeFeed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RestController
+@RequestMapping(value = "/address")
+@Api(value = "Address Cache events",
+        description = "API for following changes to the in memory cache")
+public class ChangeFeedController implements AutoCloseable {
+
+    /**
+     * Events sent per read of the feed, before checking for more.
+     */
+    private static final int BATCH = 512;
+
+    private static final long HEARTBEAT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+    private final ChangeFeed changeFeed;
+    private final long pollMillis;
+    private final long sendBudgetNanos;
+    private final ScheduledExecutorService subscribers;
+
+    /**
+     * @param sendBudgetMillis longest one subscriber may spend sending before it gives up its
+     *                         thread; one still behind then is disconnected
+     */
+    @Autowired
+    public ChangeFeedController(AddressStore addressCache,
+                                @Value("${feed.poll.millis:100}") long pollMillis,
+                                @Value("${feed.threads:2}") int threads,
+                                @Value("${feed.send.budget.millis:1000}") long sendBudgetMillis) {
+        this.changeFeed = addressCache.getChangeFeed();
+        this.pollMillis = pollMillis;
+        this.sendBudgetNanos = TimeUnit.MILLISECONDS.toNanos(sendBudgetMillis);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.subscribers = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "address-cache-feed-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @RequestMapping(value = "/events", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ApiOperation(value = "Follow changes to address cache",
+            notes = "Server-sent events named added, removed, taken, expired or evicted, with the event "
+                    + "sequence as id. Starts at the from sequence, after Last-Event-ID, or with the next change. "
+                    + "A dropped event gives the number of events missed by falling too far behind",
+            produces = "text/event-stream",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 404, message = "Change feed is off")})
+    public ResponseEntity<SseEmitter> events(@RequestParam(value = "from", required = false) Long from,
+                                             @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        if (!changeFeed.isEnabled())
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        long next = from != null ? from : lastEventId != null ? lastEventId + 1 : changeFeed.head();
+        SseEmitter emitter = new SseEmitter(0L);
+        Subscriber subscriber = new Subscriber(emitter, Math.max(0, next));
+        subscriber.task = subscribers.scheduleWithFixedDelay(subscriber, 0, pollMillis, TimeUnit.MILLISECONDS);
+        emitter.onCompletion(subscriber::cancel);
+        emitter.onTimeout(subscriber::cancel);
+        return ResponseEntity.ok(emitter);
+    }
+
+    @Override
+    public void close() {
+        subscribers.shutdownNow();
+    }
+
+    /**
+     * Sends one client the events it has not seen yet, each time its task runs. A send blocks
+     * until the client's connection takes the event, so a client that is slow to drain would keep
+     * one of the shared feed threads busy for as long as it is catching up, and once as many slow
+     * clients as there are threads were connected every other subscriber would wait behind them.
+     * A run therefore stops sending once it has used up the send budget, and a client still
+     * behind the feed's head by then is disconnected; it can reconnect with Last-Event-ID and
+     * pick up where it left off. Tasks run with a fixed delay, so a client is never scheduled
+     * twice at once, and it skips over whatever the feed overwrote in the meantime.
+     */
+    private final class Subscriber implements Runnable {
+
+        private final SseEmitter emitter;
+        private long next;
+        private long lastSentMillis = System.currentTimeMillis();
+        private volatile ScheduledFuture<?> task;
+        private volatile boolean cancelled;
+
+        Subscriber(SseEmitter emitter, long next) {
+            this.emitter = emitter;
+            this.next = next;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                // Cancelled before its task was known.
+                cancel();
+                return;
+            }
+            try {
+                long started = System.nanoTime();
+                ChangeFeed.Batch batch;
+                boolean overBudget;
+                do {
+                    batch = changeFeed.read(next, BATCH);
+                    if (batch.getMissed() > 0)
+                        emitter.send(SseEmitter.event().name("dropped").data(batch.getMissed()));
+                    for (CacheEvent event : batch.getEvents())
+                        send(event);
+                    next = batch.getNext();
+                    overBudget = System.nanoTime() - started >= sendBudgetNanos;
+                } while (batch.getEvents().size() == BATCH && !overBudget);
+                if (overBudget && next < changeFeed.head()) {
+                    // Too slow to keep up without holding a feed thread others are waiting for.
+                    cancel();
+                    emitter.complete();
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                if (batch.getEvents().isEmpty() && batch.getMissed() == 0) {
+                    if (now - lastSentMillis >= HEARTBEAT_MILLIS) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                        lastSentMillis = now;
+                    }
+                } else {
+                    lastSentMillis = now;
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client went away or the emitter was completed.
+                cancel();
+                emitter.completeWithError(e);
+            }
+        }
+
+        private void send(CacheEvent event) throws IOException {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("address", event.key.toString());
+            data.put("time", event.time);
+            emitter.send(SseEmitter.event()
+                    .id(Long.toString(event.sequence))
+                    .name(event.type.name().toLowerCase())
+                    .data(data, MediaType.APPLICATION_JSON));
+        }
+
+        void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> scheduled = task;
+            if (scheduled != null)
+                scheduled.cancel(false);
+        }
+    }
+}
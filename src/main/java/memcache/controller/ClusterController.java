@@ -0,0 +1,60 @@
+package memcache.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import memcache.cluster.ClusteredAddressCache;
+import memcache.service.AddressStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping(value = "/cluster")
+@Api(value = "Cluster",
+        description = "API for the peer list of a clustered cache")
+public class ClusterController {
+
+    private AddressStore addressCache;
+
+    @Autowired
+    public ClusterController(AddressStore addressCache) {
+        this.addressCache = addressCache;
+    }
+
+    @RequestMapping(value = "/peers", method = RequestMethod.GET)
+    @ApiOperation(value = "Get the peer list",
+            notes = "host:port of the TCP listener of every node, including this one",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 404, message = "Cluster mode is off")})
+    public ResponseEntity<?> peers() {
+        if (!(addressCache instanceof ClusteredAddressCache))
+            return new ResponseEntity<>("Cluster mode is off", HttpStatus.NOT_FOUND);
+        return new ResponseEntity<>(((ClusteredAddressCache) addressCache).getPeers(), HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/peers", method = RequestMethod.PUT)
+    @ApiOperation(value = "Replace the peer list",
+            notes = "Body is a JSON array of host:port. Entries this node holds that the new ring "
+                    + "assigns to another node are moved to it. Each node is updated separately",
+            produces = "text/plain",
+            httpMethod = "PUT")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 404, message = "Cluster mode is off")})
+    public ResponseEntity<String> updatePeers(@RequestBody List<String> peers) {
+        if (!(addressCache instanceof ClusteredAddressCache))
+            return new ResponseEntity<>("Cluster mode is off", HttpStatus.NOT_FOUND);
+        int moved = ((ClusteredAddressCache) addressCache).updatePeers(peers);
+        return new ResponseEntity<>("Moved " + moved + " entries", HttpStatus.OK);
+    }
+}
@@ -0,0 +1,138 @@
+package memcache.controller;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bound on the requests of one kind in flight at once. A fixed limit never moves; an adaptive
+ * one follows latency with additive increase and multiplicative decrease: every round of
+ * {@code limit} requests answered within {@code tolerance} times the baseline latency raises the
+ * limit by one while it is being used, and a request slower than that cuts it by a tenth, at
+ * most once per round. As in TCP Vegas the baseline is the lowest latency seen recently, so the
+ * limit settles where queueing starts to add delay rather than where requests start to fail.
+ */
+public class ConcurrencyLimit {
+
+    private static final double BACKOFF = 0.9;
+
+    /**
+     * Latency that never counts as slow, so jitter on very fast requests does not shrink the limit.
+     */
+    private static final long MIN_THRESHOLD_NANOS = 1_000_000;
+
+    /**
+     * Samples after which the baseline is taken again from the latest ones, letting it rise
+     * by at most {@link #BASELINE_DRIFT} when latency has moved for good.
+     */
+    private static final int BASELINE_WINDOW = 1000;
+    private static final double BASELINE_DRIFT = 1.1;
+
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int limit;
+
+    // Guarded by this; only adaptive limits take the lock, once per completed request.
+    private long baselineNanos = Long.MAX_VALUE;
+    private long windowMinNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    private int roundSamples;
+    private int roundLength;
+    private int roundMaxInFlight;
+    private boolean roundSlow;
+
+    private ConcurrencyLimit(boolean adaptive, int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.adaptive = adaptive;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    public static ConcurrencyLimit fixed(int limit) {
+        return new ConcurrencyLimit(false, limit, limit, limit, 0);
+    }
+
+    /**
+     * @param tolerance how many times the baseline latency a request may take before the limit
+     *                  backs off
+     */
+    public static ConcurrencyLimit adaptive(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        return new ConcurrencyLimit(true, initialLimit, minLimit, maxLimit, tolerance);
+    }
+
+    /**
+     * @return false, counting a rejection, if the limit is reached
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Ends a request let in by {@link #tryAcquire}.
+     */
+    public void release(long latencyNanos) {
+        int wasInFlight = inFlight.getAndDecrement();
+        if (adaptive)
+            onSample(latencyNanos, wasInFlight);
+    }
+
+    /**
+     * Ends a request let in by {@link #tryAcquire} whose latency is not the server's doing, so
+     * it leaves the limit where it is.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    private synchronized void onSample(long latencyNanos, int wasInFlight) {
+        windowMinNanos = Math.min(windowMinNanos, latencyNanos);
+        if (++windowSamples >= BASELINE_WINDOW) {
+            baselineNanos = baselineNanos == Long.MAX_VALUE
+                    ? windowMinNanos : Math.min(windowMinNanos, (long) (baselineNanos * BASELINE_DRIFT));
+            windowMinNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+        long baseline = Math.min(baselineNanos, windowMinNanos);
+        boolean slow = latencyNanos > Math.max(MIN_THRESHOLD_NANOS, baseline * tolerance);
+
+        if (roundSamples == 0)
+            roundLength = limit;
+        roundMaxInFlight = Math.max(roundMaxInFlight, wasInFlight);
+        if (slow && !roundSlow) {
+            roundSlow = true;
+            limit = Math.max(minLimit, (int) (limit * BACKOFF));
+        }
+        if (++roundSamples >= roundLength) {
+            // Only grow a limit that is actually being reached.
+            if (!roundSlow && roundMaxInFlight * 2 >= limit)
+                limit = Math.min(maxLimit, limit + 1);
+            roundSamples = 0;
+            roundMaxInFlight = 0;
+            roundSlow = false;
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
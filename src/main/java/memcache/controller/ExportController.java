@@ -0,0 +1,107 @@
+package memcache.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import memcache.controller.RequestLatencies.Operation;
+import memcache.domain.AddressEntry;
+import memcache.domain.AddressKey;
+import memcache.service.AddressStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+
+import static memcache.controller.BatchController.NDJSON;
+import static memcache.controller.BatchController.ndjsonGenerator;
+
+@RestController
+@RequestMapping(value = "/address")
+@Api(value = "Address Cache export",
+        description = "API for listing the contents of in memory cache")
+public class ExportController {
+
+    /**
+     * Entries fetched from the cache and flushed to the response at a time, which bounds the
+     * memory an export holds however large the cache is.
+     */
+    private static final int PAGE_SIZE = 256;
+
+    private AddressStore addressCache;
+    private RequestLatencies latencies;
+
+    @Autowired
+    public ExportController(AddressStore addressCache, RequestLatencies latencies) {
+        this.addressCache = addressCache;
+        this.latencies = latencies;
+    }
+
+    @RequestMapping(value = "/export", method = RequestMethod.GET)
+    @ApiOperation(value = "Export the entries of address cache",
+            notes = "Streams one JSON object per cached address in address order, with the milliseconds it has "
+                    + "left to live. An interrupted export resumes with after set to the last address received",
+            produces = "application/x-ndjson",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 400, message = "After is not an ip address")})
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(value = "after", required = false) String after,
+                                                        @RequestParam(value = "limit", defaultValue = "0") long limit) {
+        long start = System.nanoTime();
+        InetAddress cursor = after == null ? null : parse(after);
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = ndjsonGenerator(out);
+            InetAddress last = cursor;
+            long remaining = limit > 0 ? limit : Long.MAX_VALUE;
+            List<AddressEntry> page;
+            do {
+                page = addressCache.scan(last, (int) Math.min(PAGE_SIZE, remaining));
+                long now = System.currentTimeMillis();
+                for (AddressEntry entry : page)
+                    writeEntry(generator, entry, now);
+                generator.flush();
+                out.flush();
+                remaining -= page.size();
+                if (!page.isEmpty())
+                    last = page.get(page.size() - 1).address;
+            } while (page.size() == PAGE_SIZE && remaining > 0);
+            latencies.record(Operation.EXPORT, start);
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> invalidCursor(IllegalArgumentException e) {
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+
+    private static void writeEntry(JsonGenerator generator, AddressEntry entry, long now) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("address", entry.address.getHostAddress());
+        if (entry.expiresAt != Long.MAX_VALUE)
+            generator.writeNumberField("ttlMillis", Math.max(0, entry.expiresAt - now));
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * The cursor is an address literal and is never resolved.
+     */
+    private static InetAddress parse(String literal) {
+        AddressKey key = AddressKey.parse(literal);
+        if (key == null)
+            throw new IllegalArgumentException("Not an ip address: " + literal);
+        return key.toInetAddress();
+    }
+}
@@ -0,0 +1,176 @@
+package memcache.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import memcache.controller.AdmissionControl.Budget;
+import memcache.controller.RequestLatencies.Operation;
+import memcache.controller.RequestLatencies.Snapshot;
+import memcache.service.AddressStore;
+import memcache.service.CacheMetrics;
+import memcache.service.NamedCaches;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+import java.util.function.Function;
+
+@RestController
+@Api(value = "Metrics",
+        description = "Cache and request metrics in Prometheus text format")
+public class MetricsController {
+
+    static final MediaType PROMETHEUS_TEXT = MediaType.parseMediaType("text/plain; version=0.0.4; charset=utf-8");
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double MILLIS_PER_SECOND = 1e3;
+
+    private AddressStore addressCache;
+    private RequestLatencies latencies;
+    private AdmissionControl admission;
+    private NamedCaches namedCaches;
+
+    @Autowired
+    public MetricsController(AddressStore addressCache, NamedCaches namedCaches, RequestLatencies latencies,
+                             AdmissionControl admission) {
+        this.addressCache = addressCache;
+        this.namedCaches = namedCaches;
+        this.latencies = latencies;
+        this.admission = admission;
+    }
+
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+    @ApiOperation(value = "Get cache and request metrics",
+            notes = "Counters, gauges and latency summaries in Prometheus text exposition format. Cache series "
+                    + "and latency summaries are unlabelled for the default cache and labelled by name for each "
+                    + "named cache. Latency quantiles cover the requests since the previous scrape",
+            produces = "text/plain",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success")})
+    public ResponseEntity<String> metrics() {
+        Map<String, ? extends AddressStore> named = namedCaches.asMap();
+        StringBuilder out = new StringBuilder(4096 * (1 + named.size()));
+
+        gauge(out, "address_cache_entries", "Entries currently cached.", named, AddressStore::size);
+        gauge(out, "address_cache_waiting_takers", "Takers parked waiting for an entry.",
+                named, AddressStore::waitingTakers);
+        counter(out, "address_cache_adds_total", "Entries newly added.", named, metrics(CacheMetrics::getAdds));
+        counter(out, "address_cache_duplicate_adds_total", "Adds of an address that was already cached.",
+                named, metrics(CacheMetrics::getDuplicateAdds));
+        counter(out, "address_cache_removes_total", "Entries removed.", named, metrics(CacheMetrics::getRemoves));
+        counter(out, "address_cache_misses_total", "Removes, peeks and takes that found nothing.",
+                named, metrics(CacheMetrics::getMisses));
+        counter(out, "address_cache_takes_total", "Entries taken.", named, metrics(CacheMetrics::getTakes));
+        counter(out, "address_cache_expirations_total", "Entries removed after their max age.",
+                named, metrics(CacheMetrics::getExpirations));
+        counter(out, "address_cache_evictions_total", "Entries evicted to stay within capacity.",
+                named, metrics(CacheMetrics::getEvictions));
+        counter(out, "address_cache_expiry_lag_seconds_total",
+                "Total time expired entries stayed cached past their max age.",
+                named, metrics(m -> m.getExpiryLagMillis() / MILLIS_PER_SECOND));
+        gauge(out, "address_cache_expiry_lag_max_seconds",
+                "Longest time an entry stayed cached past its max age since the previous scrape.",
+                named, metrics(m -> m.getAndResetMaxExpiryLagMillis() / MILLIS_PER_SECOND));
+        counter(out, "address_cache_listener_delivered_total",
+                "Removals handed to removal listeners, once per listener.",
+                named, metrics(CacheMetrics::getListenerDelivered));
+        counter(out, "address_cache_listener_dropped_total",
+                "Removals dropped because listeners fell behind.", named, metrics(CacheMetrics::getListenerDropped));
+        counter(out, "address_cache_journal_dropped_total",
+                "Changes dropped because the persistence journal fell behind.",
+                named, metrics(CacheMetrics::getJournalDropped));
+        latencySummary(out, named);
+        admissionLimits(out, admission);
+
+        return ResponseEntity.ok().contentType(PROMETHEUS_TEXT).body(out.toString());
+    }
+
+    /**
+     * The default cache's requests labelled by operation alone, then each named cache's labelled
+     * by its name as well.
+     */
+    private void latencySummary(StringBuilder out, Map<String, ? extends AddressStore> named) {
+        String name = "address_cache_request_duration_seconds";
+        header(out, name, "Time to handle a request, by operation.", "summary");
+        latencySamples(out, name, "", latencies.snapshot());
+        for (String cache : named.keySet())
+            latencySamples(out, name, "cache=\"" + cache + "\",", latencies.named(cache).snapshot());
+    }
+
+    private static void latencySamples(StringBuilder out, String name, String cacheLabel,
+                                       Map<Operation, Snapshot> snapshots) {
+        for (Map.Entry<Operation, Snapshot> entry : snapshots.entrySet()) {
+            String labels = cacheLabel + "operation=\"" + entry.getKey().name().toLowerCase() + "\"";
+            Histogram interval = entry.getValue().getInterval();
+            Histogram total = entry.getValue().getTotal();
+            for (double quantile : QUANTILES) {
+                out.append(name).append('{').append(labels)
+                        .append(",quantile=\"").append(quantile).append("\"} ")
+                        .append(interval.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND).append('\n');
+            }
+            out.append(name).append("_sum{").append(labels).append("} ")
+                    .append(total.getMean() * total.getTotalCount() / NANOS_PER_SECOND).append('\n');
+            out.append(name).append("_count{").append(labels).append("} ")
+                    .append(total.getTotalCount()).append('\n');
+        }
+    }
+
+    private static void admissionLimits(StringBuilder out, AdmissionControl admission) {
+        labelled(out, "address_cache_admission_limit", "Requests let in at once, by budget.", "gauge",
+                admission, ConcurrencyLimit::getLimit);
+        labelled(out, "address_cache_admission_in_flight", "Requests in flight, by budget.", "gauge",
+                admission, ConcurrencyLimit::getInFlight);
+        labelled(out, "address_cache_admission_rejected_total", "Requests turned away as over budget.", "counter",
+                admission, ConcurrencyLimit::getRejected);
+    }
+
+    private static void labelled(StringBuilder out, String name, String help, String type, AdmissionControl admission,
+                                 Function<ConcurrencyLimit, Number> value) {
+        header(out, name, help, type);
+        for (Budget budget : Budget.values()) {
+            out.append(name).append("{budget=\"").append(budget.name().toLowerCase()).append("\"} ")
+                    .append(value.apply(admission.limit(budget))).append('\n');
+        }
+    }
+
+    private static Function<AddressStore, Number> metrics(Function<CacheMetrics, Number> value) {
+        return cache -> value.apply(cache.getMetrics());
+    }
+
+    private void counter(StringBuilder out, String name, String help, Map<String, ? extends AddressStore> named,
+                         Function<AddressStore, Number> value) {
+        header(out, name, help, "counter");
+        samples(out, name, named, value);
+    }
+
+    private void gauge(StringBuilder out, String name, String help, Map<String, ? extends AddressStore> named,
+                       Function<AddressStore, Number> value) {
+        header(out, name, help, "gauge");
+        samples(out, name, named, value);
+    }
+
+    /**
+     * The default cache's sample unlabelled, then one labelled with the name of each named cache.
+     */
+    private void samples(StringBuilder out, String name, Map<String, ? extends AddressStore> named,
+                         Function<AddressStore, Number> value) {
+        out.append(name).append(' ').append(value.apply(addressCache)).append('\n');
+        for (Map.Entry<String, ? extends AddressStore> cache : named.entrySet()) {
+            out.append(name).append("{cache=\"").append(cache.getKey()).append("\"} ")
+                    .append(value.apply(cache.getValue())).append('\n');
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
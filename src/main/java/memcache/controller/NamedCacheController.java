@@ -0,0 +1,148 @@
+package memcache.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import memcache.service.AddressCache;
+import memcache.service.AddressResolver;
+import memcache.service.NamedCaches;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The address API of {@link CacheController} for each of the {@link NamedCaches}, under
+ * {@code /cache/{name}/address}. Each cache is served by a controller of its own, recording into
+ * the cache's own {@link RequestLatencies#named latencies}.
+ * <p>
+ * Only the single address routes are served for named caches: add, remove, get, peek and take.
+ * The batch, subnet, export and change feed endpoints serve the default cache only.
+ */
+@RestController
+@RequestMapping(value = "/cache/{name}/address")
+@Api(value = "Named Address Caches",
+        description = "API for performing actions on a named in memory cache")
+public class NamedCacheController {
+
+    private final Map<String, CacheController> controllers = new HashMap<>();
+
+    @Value("${take.default.timeout.millis:30000}")
+    long defaultTakeTimeout = 30000;
+
+    public NamedCacheController(NamedCaches caches, AddressResolver addressResolver) {
+        this(caches, addressResolver, new RequestLatencies());
+    }
+
+    @Autowired
+    public NamedCacheController(NamedCaches caches, AddressResolver addressResolver, RequestLatencies latencies) {
+        for (Map.Entry<String, AddressCache> cache : caches.asMap().entrySet())
+            controllers.put(cache.getKey(),
+                    new CacheController(cache.getValue(), addressResolver, latencies.named(cache.getKey())));
+    }
+
+    @RequestMapping(value = "/{ipAddress:.+}", method = RequestMethod.PUT)
+    @ApiOperation(value = "Add entry to a named cache",
+            notes = "Add the inet address of the given ip address, with an optional ttl in milliseconds as on /address",
+            httpMethod = "PUT")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 400, message = "Address not found for the given ip  address, or negative ttl"),
+            @ApiResponse(code = 404, message = "No cache with the given name"),
+            @ApiResponse(code = 503, message = "Address resolver is busy"),
+    })
+    public DeferredResult<ResponseEntity<String>> add(@PathVariable String name, @PathVariable String ipAddress,
+                                                      @RequestParam(value = "ttl", required = false) Long ttl) {
+        return controller(name).add(ipAddress, ttl);
+    }
+
+    @RequestMapping(value = "/{ipAddress:.+}", method = RequestMethod.DELETE)
+    @ApiOperation(value = "Remove entry from a named cache",
+            notes = "Remove the ip address from the named cache",
+            produces = "text/plain",
+            httpMethod = "DELETE")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 400, message = "Address not found for the given ip  address"),
+            @ApiResponse(code = 404, message = "No cache with the given name, or address not present in it"),
+            @ApiResponse(code = 503, message = "Address resolver is busy"),
+    })
+    public DeferredResult<ResponseEntity<String>> remove(@PathVariable String name, @PathVariable String ipAddress) {
+        return controller(name).remove(ipAddress);
+    }
+
+    @RequestMapping(value = "/{ipAddress:.+}", method = RequestMethod.GET)
+    @ApiOperation(value = "Look up entry in a named cache",
+            notes = "Tells whether the ip address is cached, with the ETag and If-None-Match handling of /address",
+            produces = "text/plain",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 304, message = "Entry unchanged since the given ETag"),
+            @ApiResponse(code = 400, message = "Address not found for the given ip  address"),
+            @ApiResponse(code = 404, message = "No cache with the given name, or address not present in it"),
+            @ApiResponse(code = 503, message = "Address resolver is busy"),
+    })
+    public DeferredResult<ResponseEntity<String>> get(@PathVariable String name, @PathVariable String ipAddress,
+                                                      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                              String ifNoneMatch) {
+        return controller(name).get(ipAddress, ifNoneMatch);
+    }
+
+    @RequestMapping(value = "/peek", method = {RequestMethod.GET})
+    @ApiOperation(value = "Get last added entry from a named cache",
+            notes = "Get last added entry from the named cache",
+            produces = "text/plain",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 404, message = "No cache with the given name, or last added element not found"),
+    })
+    public ResponseEntity<String> peek(@PathVariable String name) throws UnknownHostException {
+        return controller(name).peek();
+    }
+
+    @RequestMapping(value = "/take", method = {RequestMethod.GET})
+    @ApiOperation(value = "Remove last added entry from a named cache",
+            notes = "Remove the last added address from the named cache, waiting up to timeout milliseconds for one to be added",
+            produces = "text/plain",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 404, message = "No cache with the given name, or no address added before timeout")})
+    public DeferredResult<ResponseEntity<String>> take(@PathVariable String name,
+                                                       @RequestParam(value = "timeout", required = false) Long timeout) {
+        return controller(name).take(timeout != null ? timeout : defaultTakeTimeout);
+    }
+
+    @ExceptionHandler(UnknownCacheException.class)
+    public ResponseEntity<String> unknownCache() {
+        return new ResponseEntity<>("Cache not found", HttpStatus.NOT_FOUND);
+    }
+
+    private CacheController controller(String name) {
+        CacheController controller = controllers.get(name);
+        if (controller == null)
+            throw new UnknownCacheException();
+        return controller;
+    }
+
+    static final class UnknownCacheException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,83 @@
+package memcache.controller;
+
+import memcache.jfr.RequestEvent;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Times each request as a {@link RequestEvent}, ending when its response is complete so an async
+ * request's wait and the response being written are included. Resolve and cache operation events
+ * fall inside it, and whatever of its duration they do not cover went to the framework and to
+ * writing the response. Ordered ahead of {@link AdmissionFilter} so rejected requests are timed
+ * too.
+ */
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class RequestEventFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RequestEvent event = new RequestEvent();
+        event.begin();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted())
+                request.getAsyncContext().addListener(new Commit(event, request, response));
+            else
+                commit(event, request, response);
+        }
+    }
+
+    private static void commit(RequestEvent event, HttpServletRequest request, HttpServletResponse response) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = request.getMethod();
+            event.path = request.getRequestURI();
+            event.status = response.getStatus();
+            event.commit();
+        }
+    }
+
+    private static final class Commit implements AsyncListener {
+
+        private final RequestEvent event;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+
+        Commit(RequestEvent event, HttpServletRequest request, HttpServletResponse response) {
+            this.event = event;
+            this.request = request;
+            this.response = response;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent asyncEvent) {
+            commit(event, request, response);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent asyncEvent) {
+            // Completes afterwards with the timeout response.
+        }
+
+        @Override
+        public void onError(AsyncEvent asyncEvent) {
+            // Completes afterwards with the error response.
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent asyncEvent) {
+            // Still the same request.
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package memcache.controller;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency of each controller operation, from the request being handled to its response being
+ * ready. Recording goes to a wait-free HdrHistogram {@link Recorder}; {@link #snapshot} swaps out
+ * the values recorded since the previous snapshot without pausing writers.
+ * <p>
+ * These are the default cache's latencies; each named cache records into its own, from
+ * {@link #named}.
+ */
+public class RequestLatencies {
+
+    public enum Operation {
+        ADD, REMOVE, GET, PEEK, TAKE, BATCH_ADD, BATCH_REMOVE, BATCH_GET, BATCH_TAKE, SUBNET, REMOVE_SUBNET,
+        LONGEST_MATCH, EXPORT
+    }
+
+    /**
+     * Interval and cumulative histograms of one operation, as of a {@link #snapshot}.
+     */
+    public static class Snapshot {
+
+        private final Histogram interval;
+        private final Histogram total;
+
+        Snapshot(Histogram interval, Histogram total) {
+            this.interval = interval;
+            this.total = total;
+        }
+
+        /**
+         * @return values recorded since the previous snapshot, in nanoseconds
+         */
+        public Histogram getInterval() {
+            return interval;
+        }
+
+        /**
+         * @return every value recorded so far, in nanoseconds
+         */
+        public Histogram getTotal() {
+            return total;
+        }
+    }
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> totals = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> intervals = new EnumMap<>(Operation.class);
+    private final ConcurrentMap<String, RequestLatencies> named = new ConcurrentHashMap<>();
+
+    public RequestLatencies() {
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder(SIGNIFICANT_DIGITS));
+            totals.put(operation, new Histogram(SIGNIFICANT_DIGITS));
+        }
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} when the operation started
+     */
+    public void record(Operation operation, long startNanos) {
+        recordNanos(operation, System.nanoTime() - startNanos);
+    }
+
+    void recordNanos(Operation operation, long nanos) {
+        recorders.get(operation).recordValue(Math.max(0, nanos));
+    }
+
+    /**
+     * @return the latencies of the named cache {@code cache}
+     */
+    public RequestLatencies named(String cache) {
+        return named.computeIfAbsent(cache, name -> new RequestLatencies());
+    }
+
+    public synchronized Map<Operation, Snapshot> snapshot() {
+        Map<Operation, Snapshot> snapshots = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            Histogram interval = recorders.get(operation).getIntervalHistogram(intervals.get(operation));
+            intervals.put(operation, interval);
+            Histogram total = totals.get(operation);
+            total.add(interval);
+            snapshots.put(operation, new Snapshot(interval.copy(), total.copy()));
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,131 @@
+package memcache.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import memcache.controller.RequestLatencies.Operation;
+import memcache.domain.AddressKey;
+import memcache.service.AddressStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static memcache.controller.BatchController.NDJSON;
+import static memcache.controller.BatchController.ndjsonGenerator;
+import static memcache.controller.BatchController.writeResult;
+
+@RestController
+@RequestMapping(value = "/address")
+@Api(value = "Address Cache subnet",
+        description = "API for prefix queries on in memory cache")
+public class SubnetController {
+
+    private AddressStore addressCache;
+    private RequestLatencies latencies;
+
+    @Autowired
+    public SubnetController(AddressStore addressCache, RequestLatencies latencies) {
+        this.addressCache = addressCache;
+        this.latencies = latencies;
+    }
+
+    @RequestMapping(value = "/subnet/{prefix:.+}/{length}", method = RequestMethod.GET)
+    @ApiOperation(value = "List the entries in a subnet",
+            notes = "Streams one JSON object per cached address in prefix/length, in address order",
+            produces = "application/x-ndjson",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 400, message = "Prefix is not an ip address or length is out of range")})
+    public ResponseEntity<StreamingResponseBody> subnet(@PathVariable String prefix, @PathVariable int length) {
+        long start = System.nanoTime();
+        Iterator<InetAddress> addresses = addressCache.subnet(parse(prefix), length);
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = ndjsonGenerator(out);
+            while (addresses.hasNext())
+                writeResult(generator, addresses.next().getHostAddress(), null);
+            generator.flush();
+            latencies.record(Operation.SUBNET, start);
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    @RequestMapping(value = "/subnet/{prefix:.+}/{length}", method = RequestMethod.DELETE)
+    @ApiOperation(value = "Remove every entry in a subnet",
+            notes = "Removes the cached addresses in prefix/length",
+            produces = "text/plain",
+            httpMethod = "DELETE")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 400, message = "Prefix is not an ip address or length is out of range")})
+    public ResponseEntity<String> removeSubnet(@PathVariable String prefix, @PathVariable int length) {
+        long start = System.nanoTime();
+        int removed = addressCache.removeSubnet(parse(prefix), length);
+        latencies.record(Operation.REMOVE_SUBNET, start);
+        return new ResponseEntity<>("Removed " + removed + " addresses", HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/longest-match/{ipAddress:.+}", method = RequestMethod.GET)
+    @ApiOperation(value = "Find the cached address sharing the longest prefix with an ip address",
+            notes = "Returns the address and the number of leading bits it shares with the given one",
+            httpMethod = "GET")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 400, message = "Not an ip address"),
+            @ApiResponse(code = 404, message = "No cached address of the same family")})
+    public ResponseEntity<?> longestMatch(@PathVariable String ipAddress) {
+        long start = System.nanoTime();
+        InetAddress inetAddress = parse(ipAddress);
+        AddressKey key = AddressKey.of(inetAddress);
+        InetAddress match = addressCache.longestPrefixMatch(inetAddress);
+        ResponseEntity<?> response;
+        if (match == null || AddressKey.of(match).isV4() != key.isV4()) {
+            response = new ResponseEntity<>("No cached address of the same family", HttpStatus.NOT_FOUND);
+        } else {
+            int shared = key.commonPrefixLength(AddressKey.of(match));
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("address", match.getHostAddress());
+            body.put("prefixLength", key.isV4() ? shared - AddressKey.V4_PREFIX_BITS : shared);
+            response = new ResponseEntity<>(body, HttpStatus.OK);
+        }
+        latencies.record(Operation.LONGEST_MATCH, start);
+        return response;
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> invalidPrefix(IllegalArgumentException e) {
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * A cache peer that cannot be reached in cluster mode.
+     */
+    @ExceptionHandler(UncheckedIOException.class)
+    public ResponseEntity<String> peerUnavailable() {
+        return new ResponseEntity<>("Cache peer unavailable", HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Prefixes are never resolved, only parsed.
+     */
+    private static InetAddress parse(String literal) {
+        AddressKey key = AddressKey.parse(literal);
+        if (key == null)
+            throw new IllegalArgumentException("Not an ip address: " + literal);
+        return key.toInetAddress();
+    }
+}
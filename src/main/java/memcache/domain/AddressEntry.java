@@ -0,0 +1,33 @@
+package memcache.domain;
+
+import java.net.InetAddress;
+
+/**
+ * Read-only view of a cached address.
+ */
+public final class AddressEntry {
+
+    public final InetAddress address;
+    public final long createdTime;
+    /**
+     * Time the entry expires at, {@link Long#MAX_VALUE} if entries have no max age.
+     */
+    public final long expiresAt;
+    /**
+     * Time to live in milliseconds that {@link #expiresAt} was counted with, 0 if the entry never
+     * expires.
+     */
+    public final long ttl;
+    /**
+     * Changes whenever the address is added again after leaving the cache.
+     */
+    public final long version;
+
+    public AddressEntry(InetAddress address, long createdTime, long expiresAt, long ttl, long version) {
+        this.address = address;
+        this.createdTime = createdTime;
+        this.expiresAt = expiresAt;
+        this.ttl = ttl;
+        this.version = version;
+    }
+}
@@ -0,0 +1,267 @@
+package memcache.domain;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Cache key built from the raw address bytes, so keying an entry never needs a DNS lookup.
+ * <p>
+ * Addresses are held as 128 bits in two longs. IPv4 addresses are stored in their IPv4-mapped
+ * IPv6 form ({@code ::ffff:a.b.c.d}), which keeps every key the same shape; the JDK never hands out
+ * an {@code Inet6Address} for a mapped address, so the two families cannot collide.
+ */
+public final class AddressKey implements Comparable<AddressKey> {
+    public static final int BITS = 128;
+
+    /**
+     * Bits in front of an IPv4 address in its mapped form.
+     */
+    public static final int V4_PREFIX_BITS = 96;
+
+    private static final long V4_MAPPED_PREFIX = 0xFFFFL << 32;
+
+    public final long high;
+    public final long low;
+
+    public AddressKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public static AddressKey of(InetAddress inetAddress) {
+        return of(inetAddress.getAddress());
+    }
+
+    public static AddressKey of(byte[] address) {
+        if (address.length == 4)
+            return new AddressKey(0, V4_MAPPED_PREFIX | (readInt(address, 0) & 0xFFFFFFFFL));
+        if (address.length == 16)
+            return new AddressKey(readLong(address, 0), readLong(address, 8));
+        throw new IllegalArgumentException("Unsupported address length " + address.length);
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 literal without consulting any resolver.
+     *
+     * @return the key, or null if the input is not an address literal (e.g. a hostname)
+     */
+    public static AddressKey parse(String literal) {
+        if (literal.startsWith("[") && literal.endsWith("]"))
+            literal = literal.substring(1, literal.length() - 1);
+        if (literal.indexOf(':') < 0) {
+            long v4 = parseV4(literal, 0, literal.length());
+            return v4 < 0 ? null : new AddressKey(0, V4_MAPPED_PREFIX | v4);
+        }
+        byte[] bytes = parseV6(literal);
+        return bytes == null ? null : of(bytes);
+    }
+
+    public boolean isV4() {
+        return high == 0 && (low >>> 32) == 0xFFFFL;
+    }
+
+    public byte[] toBytes() {
+        if (isV4()) {
+            int v4 = (int) low;
+            return new byte[]{(byte) (v4 >>> 24), (byte) (v4 >>> 16), (byte) (v4 >>> 8), (byte) v4};
+        }
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    /**
+     * Rebuilds an {@link InetAddress} without a hostname, so no lookup happens here either.
+     */
+    public InetAddress toInetAddress() {
+        try {
+            return InetAddress.getByAddress(toBytes());
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return bit {@code index} of the address, counting from the most significant bit
+     */
+    public boolean bit(int index) {
+        long word = index < 64 ? high >>> (63 - index) : low >>> (127 - index);
+        return (word & 1) != 0;
+    }
+
+    /**
+     * @return the number of leading bits this address shares with {@code other}, {@link #BITS} if
+     * they are equal
+     */
+    public int commonPrefixLength(AddressKey other) {
+        if (high != other.high)
+            return Long.numberOfLeadingZeros(high ^ other.high);
+        return 64 + Long.numberOfLeadingZeros(low ^ other.low);
+    }
+
+    /**
+     * @return the lowest address sharing the first {@code length} bits with this one
+     */
+    public AddressKey firstInPrefix(int length) {
+        return new AddressKey(high & mask(length), low & mask(length - 64));
+    }
+
+    /**
+     * @return the highest address sharing the first {@code length} bits with this one
+     */
+    public AddressKey lastInPrefix(int length) {
+        return new AddressKey(high | ~mask(length), low | ~mask(length - 64));
+    }
+
+    /**
+     * Orders keys as unsigned 128-bit numbers, which is address order within each family.
+     */
+    @Override
+    public int compareTo(AddressKey other) {
+        int byHigh = Long.compareUnsigned(high, other.high);
+        return byHigh != 0 ? byHigh : Long.compareUnsigned(low, other.low);
+    }
+
+    /**
+     * Well mixed 64-bit hash. Bijective for IPv4 keys.
+     */
+    public long hash64() {
+        return mix(high * 0x9E3779B97F4A7C15L + mix(low));
+    }
+
+    @Override
+    public int hashCode() {
+        long h = hash64();
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof AddressKey))
+            return false;
+        AddressKey other = (AddressKey) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public String toString() {
+        return toInetAddress().getHostAddress();
+    }
+
+    /**
+     * @return the address as an unsigned 32-bit value, or -1 if the range is not a dotted quad
+     */
+    private static long parseV4(String s, int from, int to) {
+        long address = 0;
+        int i = from;
+        for (int part = 0; part < 4; part++) {
+            if (part > 0 && (i >= to || s.charAt(i++) != '.'))
+                return -1;
+            int start = i;
+            int value = 0;
+            while (i < to && i - start < 3 && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+                value = value * 10 + (s.charAt(i++) - '0');
+            if (i == start || value > 255 || (i - start > 1 && s.charAt(start) == '0'))
+                return -1;
+            address = address << 8 | value;
+        }
+        return i == to ? address : -1;
+    }
+
+    private static byte[] parseV6(String s) {
+        int[] groups = new int[8];
+        int count = 0;
+        int gap = -1;
+        int length = s.length();
+        int i = 0;
+        if (s.startsWith("::")) {
+            gap = 0;
+            i = 2;
+        }
+        while (i < length) {
+            if (count == 8)
+                return null;
+            int start = i;
+            int value = 0;
+            while (i < length && i - start < 4 && hexDigit(s.charAt(i)) >= 0)
+                value = value << 4 | hexDigit(s.charAt(i++));
+            if (i < length && s.charAt(i) == '.') {
+                long v4 = count <= 6 ? parseV4(s, start, length) : -1;
+                if (v4 < 0)
+                    return null;
+                groups[count++] = (int) (v4 >>> 16);
+                groups[count++] = (int) (v4 & 0xFFFF);
+                i = length;
+                break;
+            }
+            if (i == start)
+                return null;
+            groups[count++] = value;
+            if (i == length)
+                break;
+            if (s.charAt(i) != ':')
+                return null;
+            i++;
+            if (i < length && s.charAt(i) == ':') {
+                if (gap >= 0)
+                    return null;
+                gap = count;
+                i++;
+            } else if (i == length) {
+                return null;
+            }
+        }
+        if (gap < 0 ? count != 8 : count > 7)
+            return null;
+        byte[] bytes = new byte[16];
+        int shift = gap < 0 ? 0 : 8 - count;
+        for (int g = 0; g < count; g++) {
+            int slot = gap >= 0 && g >= gap ? g + shift : g;
+            bytes[2 * slot] = (byte) (groups[g] >>> 8);
+            bytes[2 * slot + 1] = (byte) groups[g];
+        }
+        return bytes;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        if (c >= 'a' && c <= 'f')
+            return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F')
+            return c - 'A' + 10;
+        return -1;
+    }
+
+    /**
+     * @return a word with its first {@code bits} bits set
+     */
+    private static long mask(int bits) {
+        if (bits <= 0)
+            return 0;
+        return bits >= 64 ? -1L : -1L << (64 - bits);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return (b[offset] & 0xFF) << 24 | (b[offset + 1] & 0xFF) << 16
+                | (b[offset + 2] & 0xFF) << 8 | (b[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] b, int offset) {
+        return (readInt(b, offset) & 0xFFFFFFFFL) << 32 | (readInt(b, offset + 4) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,28 @@
+package memcache.domain;
+
+/**
+ * One change to an address cache, numbered in the order changes were published.
+ */
+public final class CacheEvent {
+
+    public enum Type {
+        ADDED, REMOVED, TAKEN, EXPIRED, EVICTED
+    }
+
+    public final long sequence;
+    public final Type type;
+    public final AddressKey key;
+    public final long time;
+
+    public CacheEvent(long sequence, Type type, AddressKey key, long time) {
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.time = time;
+    }
+
+    @Override
+    public String toString() {
+        return sequence + " " + type + " " + key;
+    }
+}
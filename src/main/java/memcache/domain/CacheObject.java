@@ -1,12 +1,113 @@
 package memcache.domain;
 
-import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public class CacheObject {
-    public long createdTime = System.currentTimeMillis();
-    public InetAddress inetAddress;
+    private static final AtomicIntegerFieldUpdater<CacheObject> REMOVED =
+            AtomicIntegerFieldUpdater.newUpdater(CacheObject.class, "removed");
 
-    public CacheObject(InetAddress inetAddress) {
-        this.inetAddress = inetAddress;
+    public long createdTime;
+    /**
+     * Volatile so a refresh under sliding expiration is a single write any thread may make.
+     */
+    public volatile long expiresAt = Long.MAX_VALUE;
+    /**
+     * Time to live in milliseconds, counted from the add and, under sliding expiration, from the
+     * latest access; 0 if the entry never expires.
+     */
+    public volatile long ttl;
+    /**
+     * Insertion order across the whole cache, used to compare entries held by different shards.
+     * It follows the clock, and an entry handed over by another node keeps the one it was given
+     * there, so two addresses may share a sequence.
+     */
+    public long sequence;
+    public final AddressKey key;
+    /**
+     * Latest node of this entry in its eviction queue, owned by the cache's eviction policy.
+     */
+    public volatile Object queueNode;
+    private volatile int removed;
+
+    public CacheObject(AddressKey key) {
+        this(key, System.currentTimeMillis());
+    }
+
+    public CacheObject(AddressKey key, long createdTime) {
+        this.key = key;
+        this.createdTime = createdTime;
+    }
+
+    /**
+     * Claims this entry for removal. Only one caller ever succeeds, which lets take, remove
+     * and expiry race on the same entry without a shared lock.
+     */
+    public boolean markRemoved() {
+        return REMOVED.compareAndSet(this, 0, 1);
+    }
+
+    /**
+     * Claims this entry for a move to another storage tier, which counts as removing it here.
+     */
+    public boolean markDemoted() {
+        return REMOVED.compareAndSet(this, 0, 2);
+    }
+
+    public boolean isRemoved() {
+        return removed != 0;
+    }
+
+    /**
+     * @return whether this entry was claimed by {@link #markDemoted}, so its address lives on in
+     * another tier
+     */
+    public boolean isDemoted() {
+        return removed == 2;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * Gives the entry {@code ttl} milliseconds from {@code now}; 0 for no expiry.
+     */
+    public void expireAfter(long ttl, long now) {
+        this.ttl = ttl;
+        this.expiresAt = deadline(ttl, now);
+    }
+
+    /**
+     * Moves the deadline to a full time to live after {@code now}, unless that would move it by
+     * less than {@code step}. A single volatile write, so an access racing with expiry may still
+     * see the entry expire.
+     *
+     * @return whether the deadline moved
+     */
+    public boolean touch(long now, long step) {
+        long ttl = this.ttl;
+        if (ttl > 0) {
+            long deadline = deadline(ttl, now);
+            if (deadline - expiresAt >= step) {
+                expiresAt = deadline;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return when the time to live was last counted from: the add, a re-add or, under sliding
+     * expiration, the latest access that moved the deadline. The created time for an entry that
+     * never expires.
+     */
+    public long touchedAt() {
+        long ttl = this.ttl;
+        long expiresAt = this.expiresAt;
+        return ttl > 0 && expiresAt != Long.MAX_VALUE ? expiresAt - ttl : createdTime;
+    }
+
+    private static long deadline(long ttl, long now) {
+        return ttl <= 0 || ttl > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttl;
     }
-}
\ No newline at end of file
+}
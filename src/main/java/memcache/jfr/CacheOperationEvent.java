@@ -0,0 +1,60 @@
+package memcache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.net.InetAddress;
+
+/**
+ * One call into the cache. Fields are only filled in for events that will be committed, so an
+ * operation under the threshold costs two timestamps.
+ */
+@Name("memcache.CacheOperation")
+@Label("Cache Operation")
+@Category({"Address Cache", "Cache"})
+@Description("A call into the address cache")
+@StackTrace(false)
+@Threshold("1 ms")
+public class CacheOperationEvent extends Event {
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Address")
+    @Description("The address operated on, or the one peeked or taken")
+    public String address;
+
+    @Label("Count")
+    @Description("Addresses in a batch, or 1")
+    public int count;
+
+    @Label("Hit")
+    @Description("Whether the cache held the address, or for batches whether any was")
+    public boolean hit;
+
+    public static CacheOperationEvent start() {
+        CacheOperationEvent event = new CacheOperationEvent();
+        event.begin();
+        return event;
+    }
+
+    public void finish(String operation, InetAddress address, boolean hit) {
+        finish(operation, address, 1, hit);
+    }
+
+    public void finish(String operation, InetAddress address, int count, boolean hit) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.address = address == null ? null : address.getHostAddress();
+            this.count = count;
+            this.hit = hit;
+            commit();
+        }
+    }
+}
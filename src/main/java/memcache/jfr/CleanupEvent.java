@@ -0,0 +1,33 @@
+package memcache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One expiry pass over a shard.
+ */
+@Name("memcache.Cleanup")
+@Label("Cleanup")
+@Category({"Address Cache", "Cache"})
+@Description("An expiry pass over one shard of the address cache")
+@StackTrace(false)
+@Threshold("1 ms")
+public class CleanupEvent extends Event {
+
+    @Label("Scanned")
+    @Description("Entries looked at in the expiry wheel, including ones moved to a later slot")
+    public int scanned;
+
+    @Label("Removed")
+    @Description("Entries removed as expired")
+    public int removed;
+
+    @Label("Remaining")
+    @Description("Entries left in the shard")
+    public int remaining;
+}
@@ -0,0 +1,31 @@
+package memcache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * An HTTP request from entering the filter chain to its response completing, which takes in
+ * resolving, the cache operation and writing the response.
+ */
+@Name("memcache.Request")
+@Label("Request")
+@Category({"Address Cache", "HTTP"})
+@Description("An HTTP request, from the filter chain to its response completing")
+@StackTrace(false)
+@Threshold("20 ms")
+public class RequestEvent extends Event {
+
+    @Label("Method")
+    public String method;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Status")
+    public int status;
+}
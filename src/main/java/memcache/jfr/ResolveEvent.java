@@ -0,0 +1,28 @@
+package memcache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A hostname lookup that was not answered from the resolver's cache, from being queued to its
+ * answer.
+ */
+@Name("memcache.Resolve")
+@Label("Resolve")
+@Category({"Address Cache", "Resolver"})
+@Description("A hostname lookup, from being queued to its answer")
+@StackTrace(false)
+@Threshold("20 ms")
+public class ResolveEvent extends Event {
+
+    @Label("Host")
+    public String host;
+
+    @Label("Resolved")
+    public boolean resolved;
+}
@@ -0,0 +1,298 @@
+package memcache.protocol;
+
+import memcache.domain.AddressEntry;
+import memcache.domain.AddressKey;
+import memcache.service.AddressStore;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Length-prefixed binary protocol. Every request and response starts with {@link #MAGIC}:
+ * <pre>
+ * request:  magic, opcode, address length (0, 4 or 16), address bytes
+ * response: magic, status, address length (0, 4 or 16), address bytes
+ * </pre>
+ * Subnet requests carry a prefix: the address followed by a prefix length byte, making the
+ * length 5 or 17. A subnet listing may add a cursor, an address of the same family, making the
+ * length 9 or 33. An add may carry the entry's time to live in milliseconds as an 8 byte value
+ * after the address, making the length 12 or 24. A node handing an entry over to its new owner
+ * sends an add with the entry's created time, expiry time, time to live and version as four 8
+ * byte values after the address, making the length 36 or 48, and the owner stores it as it was.
+ * <p>
+ * Add answers {@link #OK} or {@link #EXISTS}; remove and get answer {@link #OK} or
+ * {@link #NOT_FOUND}; peek and take answer {@link #OK} with the address, or {@link #NOT_FOUND}
+ * without waiting. Size takes no address and answers {@link #OK} with an 8 byte count in place
+ * of the address. Closest answers the longest-prefix match like peek. Subnet answers {@link #OK}
+ * with each address in the subnet after the cursor, at most {@link #SUBNET_PAGE} of them, and
+ * ends with {@link #NOT_FOUND}; a full page means the client should ask again with the last
+ * address as the cursor. Capping the page keeps one request from filling the connection's
+ * output with a whole subnet. Remove subnet answers
+ * {@link #OK} with an 8 byte count of the addresses removed. It removes {@link #SUBNET_PAGE}
+ * addresses per turn of the event loop, so other connections are served in between, and the
+ * requests pipelined behind it wait for it to finish. Lookup answers like get, with the
+ * entry's created time, expiry time, version and time to live as four 8 byte values in place of
+ * the address.
+ * A malformed request is answered with {@link #INVALID} and closes the connection, since the
+ * rest of the stream can no longer be framed.
+ */
+public final class BinaryProtocol implements Protocol {
+
+    public static final byte MAGIC = (byte) 0xAC;
+
+    public static final byte ADD = 1;
+    public static final byte REMOVE = 2;
+    public static final byte PEEK = 3;
+    public static final byte TAKE = 4;
+    public static final byte GET = 5;
+    public static final byte SIZE = 6;
+    public static final byte CLOSEST = 7;
+    public static final byte SUBNET = 8;
+    public static final byte REMOVE_SUBNET = 9;
+    public static final byte LOOKUP = 10;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte EXISTS = 2;
+    public static final byte INVALID = 3;
+
+    public static final int HEADER_BYTES = 3;
+
+    /**
+     * Longest payload of any request: an IPv6 address with a hand-over's four values.
+     */
+    public static final int MAX_PAYLOAD_BYTES = 16 + 4 * Long.BYTES;
+
+    /**
+     * Most addresses answered to one subnet request.
+     */
+    public static final int SUBNET_PAGE = 512;
+
+    private final AddressStore cache;
+
+    /**
+     * The addresses a remove subnet under way has yet to remove, or null.
+     */
+    private Iterator<InetAddress> removing;
+    private long removed;
+
+    BinaryProtocol(AddressStore cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public boolean busy() {
+        return removing != null;
+    }
+
+    @Override
+    public boolean process(ByteBuffer in, Connection connection) {
+        if (removing != null && !removeNextPage(connection))
+            return true;
+        while (in.remaining() >= HEADER_BYTES) {
+            int start = in.position();
+            byte magic = in.get(start);
+            byte opcode = in.get(start + 1);
+            int length = in.get(start + 2) & 0xFF;
+            if (magic != MAGIC || addressLength(length) < 0) {
+                respond(connection, INVALID, null);
+                return false;
+            }
+            if (in.remaining() < HEADER_BYTES + length)
+                return true;
+
+            byte[] payload = new byte[length];
+            in.position(start + HEADER_BYTES);
+            in.get(payload);
+            if (!handle(opcode, payload, connection))
+                return false;
+            if (removing != null && !removeNextPage(connection))
+                return true;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the next page of the subnet under way, answering once it is all gone.
+     *
+     * @return true once the subnet is removed
+     */
+    private boolean removeNextPage(Connection connection) {
+        for (int i = 0; i < SUBNET_PAGE && removing.hasNext(); i++) {
+            if (cache.remove(removing.next()))
+                removed++;
+        }
+        if (removing.hasNext())
+            return false;
+        respondWithCount(connection, removed);
+        removing = null;
+        removed = 0;
+        return true;
+    }
+
+    /**
+     * @return the address part of a payload of {@code length} bytes, or -1 if it is malformed
+     */
+    private static int addressLength(int length) {
+        switch (length) {
+            case 0:
+            case 4:
+            case 16:
+                return length;
+            case 5:
+            case 17:
+                return length - 1;
+            case 9:
+                return 4;
+            case 33:
+                return 16;
+            case 12:
+            case 24:
+                return length - Long.BYTES;
+            case 36:
+            case 48:
+                return length - 4 * Long.BYTES;
+            default:
+                return -1;
+        }
+    }
+
+    private boolean handle(byte opcode, byte[] payload, Connection connection) {
+        int addressLength = addressLength(payload.length);
+        if (payload.length - addressLength == Long.BYTES)
+            return handleTimed(opcode, payload, addressLength, connection);
+        if (payload.length - addressLength == 4 * Long.BYTES)
+            return handleHandOver(opcode, payload, addressLength, connection);
+        if (payload.length != addressLength)
+            return handlePrefixed(opcode, payload, addressLength, connection);
+        byte[] address = payload;
+        switch (opcode) {
+            case ADD:
+                if (address.length == 0)
+                    break;
+                respond(connection, cache.add(toInetAddress(address)) ? OK : EXISTS, null);
+                return true;
+            case REMOVE:
+                if (address.length == 0)
+                    break;
+                respond(connection, cache.remove(toInetAddress(address)) ? OK : NOT_FOUND, null);
+                return true;
+            case GET:
+                if (address.length == 0)
+                    break;
+                respond(connection, cache.contains(toInetAddress(address)) ? OK : NOT_FOUND, null);
+                return true;
+            case LOOKUP:
+                if (address.length == 0)
+                    break;
+                respondWithEntry(connection, cache.get(toInetAddress(address)));
+                return true;
+            case PEEK:
+                respondWithAddress(connection, cache.peek());
+                return true;
+            case TAKE:
+                respondWithAddress(connection, cache.poll());
+                return true;
+            case SIZE:
+                respondWithCount(connection, cache.size());
+                return true;
+            case CLOSEST:
+                if (address.length == 0)
+                    break;
+                respondWithAddress(connection, cache.longestPrefixMatch(toInetAddress(address)));
+                return true;
+        }
+        respond(connection, INVALID, null);
+        return false;
+    }
+
+    private boolean handleTimed(byte opcode, byte[] payload, int addressLength, Connection connection) {
+        long ttlMillis = ByteBuffer.wrap(payload, addressLength, Long.BYTES).getLong();
+        if (opcode != ADD || ttlMillis < 0) {
+            respond(connection, INVALID, null);
+            return false;
+        }
+        InetAddress address = toInetAddress(Arrays.copyOf(payload, addressLength));
+        respond(connection, cache.add(address, ttlMillis, TimeUnit.MILLISECONDS) ? OK : EXISTS, null);
+        return true;
+    }
+
+    private boolean handleHandOver(byte opcode, byte[] payload, int addressLength, Connection connection) {
+        ByteBuffer values = ByteBuffer.wrap(payload, addressLength, 4 * Long.BYTES);
+        long createdTime = values.getLong();
+        long expiresAt = values.getLong();
+        long ttlMillis = values.getLong();
+        long version = values.getLong();
+        if (opcode != ADD || ttlMillis < 0) {
+            respond(connection, INVALID, null);
+            return false;
+        }
+        InetAddress address = toInetAddress(Arrays.copyOf(payload, addressLength));
+        AddressEntry entry = new AddressEntry(address, createdTime, expiresAt, ttlMillis, version);
+        respond(connection, cache.handOver(entry) ? OK : EXISTS, null);
+        return true;
+    }
+
+    private boolean handlePrefixed(byte opcode, byte[] payload, int addressLength, Connection connection) {
+        InetAddress prefix = toInetAddress(Arrays.copyOf(payload, addressLength));
+        int length = payload[addressLength] & 0xFF;
+        InetAddress after = payload.length == addressLength + 1 ? null
+                : toInetAddress(Arrays.copyOfRange(payload, addressLength + 1, payload.length));
+        try {
+            switch (opcode) {
+                case SUBNET:
+                    Iterator<InetAddress> it = cache.subnet(prefix, length, after);
+                    for (int i = 0; i < SUBNET_PAGE && it.hasNext(); i++)
+                        respond(connection, OK, it.next().getAddress());
+                    respond(connection, NOT_FOUND, null);
+                    return true;
+                case REMOVE_SUBNET:
+                    if (after != null)
+                        break;
+                    removing = cache.subnet(prefix, length, null);
+                    return true;
+            }
+        } catch (IllegalArgumentException e) {
+            // Prefix length out of range for the address family.
+        }
+        respond(connection, INVALID, null);
+        return false;
+    }
+
+    private static InetAddress toInetAddress(byte[] address) {
+        return AddressKey.of(address).toInetAddress();
+    }
+
+    private static void respondWithCount(Connection connection, long count) {
+        connection.reserve(HEADER_BYTES + Long.BYTES)
+                .put(MAGIC).put(OK).put((byte) Long.BYTES).putLong(count);
+    }
+
+    private static void respondWithEntry(Connection connection, AddressEntry entry) {
+        if (entry == null) {
+            respond(connection, NOT_FOUND, null);
+            return;
+        }
+        connection.reserve(HEADER_BYTES + 4 * Long.BYTES)
+                .put(MAGIC).put(OK).put((byte) (4 * Long.BYTES))
+                .putLong(entry.createdTime).putLong(entry.expiresAt).putLong(entry.version).putLong(entry.ttl);
+    }
+
+    private static void respondWithAddress(Connection connection, InetAddress address) {
+        if (address == null)
+            respond(connection, NOT_FOUND, null);
+        else
+            respond(connection, OK, address.getAddress());
+    }
+
+    private static void respond(Connection connection, byte status, byte[] address) {
+        int length = address == null ? 0 : address.length;
+        ByteBuffer out = connection.reserve(HEADER_BYTES + length);
+        out.put(MAGIC).put(status).put((byte) length);
+        if (address != null)
+            out.put(address);
+    }
+}
@@ -0,0 +1,102 @@
+package memcache.protocol;
+
+import memcache.service.AddressStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One client connection. Input and output buffers are allocated once per connection and reused
+ * for every request. The protocol is picked from the first byte the client sends: the binary
+ * magic byte selects {@link BinaryProtocol}, anything else {@link TextProtocol}.
+ * <p>
+ * While responses are waiting to be written the connection stops reading, so a client that
+ * pipelines faster than it reads cannot make the output grow without bound. While the protocol is
+ * {@link Protocol#busy busy} with a long request it stops reading too, and is given another turn
+ * each time the event loop comes round, so the request does not hold up other connections.
+ */
+final class Connection {
+
+    private static final int BUFFER_BYTES = 16 * 1024;
+
+    private final SocketChannel channel;
+    private final AddressStore cache;
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+    private ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+    private Protocol protocol;
+    private boolean closing;
+
+    Connection(SocketChannel channel, AddressStore cache) {
+        this.channel = channel;
+        this.cache = cache;
+    }
+
+    /**
+     * @return false once the connection should be closed
+     */
+    boolean onReadable(SelectionKey key) throws IOException {
+        if (channel.read(in) < 0)
+            return false;
+        in.flip();
+        if (protocol == null && in.hasRemaining())
+            protocol = in.get(in.position()) == BinaryProtocol.MAGIC ? new BinaryProtocol(cache) : new TextProtocol(cache);
+        process();
+        return flush(key);
+    }
+
+    /**
+     * @return false once the connection should be closed
+     */
+    boolean onWritable(SelectionKey key) throws IOException {
+        if (protocol != null && protocol.busy()) {
+            in.flip();
+            process();
+        }
+        return flush(key);
+    }
+
+    private void process() {
+        if (protocol != null && !protocol.process(in, this))
+            closing = true;
+        in.compact();
+    }
+
+    /**
+     * @return the output buffer, with room for at least {@code bytes} more
+     */
+    ByteBuffer reserve(int bytes) {
+        if (out.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+            out.flip();
+            larger.put(out);
+            out = larger;
+        }
+        return out;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to do with a connection that failed to close.
+        }
+    }
+
+    private boolean flush(SelectionKey key) throws IOException {
+        out.flip();
+        channel.write(out);
+        out.compact();
+        if (out.position() > 0) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return true;
+        }
+        if (out.capacity() > BUFFER_BYTES)
+            out = ByteBuffer.allocate(BUFFER_BYTES);
+        if (closing)
+            return false;
+        key.interestOps(protocol != null && protocol.busy() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        return true;
+    }
+}
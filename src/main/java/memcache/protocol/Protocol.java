@@ -0,0 +1,25 @@
+package memcache.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes requests from a connection's input and writes the responses to its output.
+ */
+interface Protocol {
+
+    /**
+     * Handles every complete request in {@code in}, leaving a trailing partial request unread
+     * for the next call. Pipelined requests are answered in order.
+     *
+     * @return false once the connection should be closed after the responses are sent
+     */
+    boolean process(ByteBuffer in, Connection connection);
+
+    /**
+     * @return true while a request is still being worked on between calls to {@link #process},
+     * which the connection then calls again as soon as it can write, without waiting for input
+     */
+    default boolean busy() {
+        return false;
+    }
+}
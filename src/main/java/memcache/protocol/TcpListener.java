@@ -0,0 +1,159 @@
+package memcache.protocol;
+
+import memcache.service.AddressStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking TCP listener serving an {@link AddressStore} over {@link TextProtocol} and
+ * {@link BinaryProtocol}, next to the REST API.
+ * <p>
+ * Connections are spread round robin over a fixed number of event loops, each a thread with its
+ * own selector. Cache operations never block, so requests are handled on the event loop that
+ * read them, with no hand-off to another thread. A request whose work grows with the cache, like
+ * removing a subnet, is done a page per turn of the loop instead.
+ */
+public class TcpListener implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TcpListener.class);
+
+    private final AddressStore cache;
+    private final ServerSocketChannel server;
+    private final EventLoop[] loops;
+    private int nextLoop;
+    private volatile boolean running = true;
+
+    /**
+     * Binds the port and starts the event loops.
+     *
+     * @param port    port to listen on, 0 for any free port
+     * @param threads number of event loops
+     */
+    public TcpListener(AddressStore cache, int port, int threads) throws IOException {
+        this.cache = cache;
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        loops = new EventLoop[Math.max(1, threads)];
+        for (int i = 0; i < loops.length; i++)
+            loops[i] = new EventLoop(i);
+        server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : loops)
+            loop.thread.start();
+    }
+
+    /**
+     * @return the port actually bound
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+            try {
+                loop.thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            EventLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            loop.accepted.offer(channel);
+            loop.selector.wakeup();
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "address-cache-tcp-" + (index + 1));
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerAccepted();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid())
+                            handle(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running)
+                    log.error("TCP event loop {} stopped", thread.getName(), e);
+            } finally {
+                closeAll();
+            }
+        }
+
+        private void registerAccepted() throws IOException {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null)
+                channel.register(selector, SelectionKey.OP_READ, new Connection(channel, cache));
+        }
+
+        private void handle(SelectionKey key) throws IOException {
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            boolean open;
+            try {
+                open = key.isReadable() ? connection.onReadable(key) : connection.onWritable(key);
+            } catch (IOException e) {
+                open = false;
+            }
+            if (!open) {
+                key.cancel();
+                connection.close();
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection)
+                    ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down anyway.
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package memcache.protocol;
+
+import memcache.domain.AddressKey;
+import memcache.service.AddressStore;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Line based protocol following the memcached text protocol, with the address as the key and
+ * no value. Lines end in {@code \r\n} (a bare {@code \n} is accepted).
+ * <pre>
+ * add &lt;address&gt; &lt;flags&gt; &lt;exptime&gt; &lt;bytes&gt; [noreply]
+ * &lt;data&gt;                        STORED | NOT_STORED
+ * add &lt;address&gt;                 STORED | NOT_STORED
+ * delete &lt;address&gt; [noreply]    DELETED | NOT_FOUND
+ * get &lt;address&gt;*               VALUE &lt;address&gt; 0 0, empty data line, per cached address, then END
+ * peek                          VALUE ... END | END
+ * take                          VALUE ... END | END (does not wait for an entry)
+ * version                       VERSION &lt;version&gt;
+ * quit                          closes the connection
+ * </pre>
+ * An add in the storage command syntax is followed by a data block of {@code bytes} bytes and
+ * {@code \r\n}, which is read and discarded; the add takes effect once the block has arrived.
+ * Flags are ignored. The exptime is the entry's time to live: seconds from now up to 30 days,
+ * a Unix time in seconds beyond that, 0 for the cache's max age, and a negative or past time
+ * stores nothing, as if the entry had expired at once. The short form without a data block adds
+ * with the cache's max age. {@code noreply} suppresses the response.
+ * <p>
+ * Addresses must be IP literals; hostnames are rejected so the event loop never waits on DNS.
+ * Malformed requests are answered with {@code CLIENT_ERROR} or {@code ERROR} as in memcached; a
+ * storage command line that cannot be parsed, or a data block not followed by {@code \r\n},
+ * closes the connection, since the rest of the stream can no longer be framed.
+ */
+final class TextProtocol implements Protocol {
+
+    static final int MAX_LINE_BYTES = 256;
+
+    /**
+     * Largest exptime taken as seconds from now; memcached reads anything beyond as a Unix time.
+     */
+    static final long MAX_RELATIVE_EXPTIME = TimeUnit.DAYS.toSeconds(30);
+
+    private static final String NOREPLY = "noreply";
+
+    private static final byte[] STORED = bytes("STORED\r\n");
+    private static final byte[] NOT_STORED = bytes("NOT_STORED\r\n");
+    private static final byte[] DELETED = bytes("DELETED\r\n");
+    private static final byte[] NOT_FOUND = bytes("NOT_FOUND\r\n");
+    private static final byte[] END = bytes("END\r\n");
+    private static final byte[] VALUE = bytes("VALUE ");
+    private static final byte[] VALUE_SUFFIX = bytes(" 0 0\r\n\r\n");
+    private static final byte[] VERSION = bytes("VERSION 1.0\r\n");
+    private static final byte[] ERROR = bytes("ERROR\r\n");
+    private static final byte[] BAD_ADDRESS = bytes("CLIENT_ERROR bad address\r\n");
+    private static final byte[] BAD_FORMAT = bytes("CLIENT_ERROR bad command line format\r\n");
+    private static final byte[] BAD_DATA_CHUNK = bytes("CLIENT_ERROR bad data chunk\r\n");
+    private static final byte[] LINE_TOO_LONG = bytes("CLIENT_ERROR line too long\r\n");
+
+    private final AddressStore cache;
+
+    /**
+     * The add waiting for the rest of its data block, or null.
+     */
+    private Storing storing;
+
+    TextProtocol(AddressStore cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public boolean process(ByteBuffer in, Connection connection) {
+        while (in.hasRemaining()) {
+            if (storing != null) {
+                if (!skipData(in, connection))
+                    return false;
+                if (storing != null)
+                    return true;
+                continue;
+            }
+            int end = indexOf(in, (byte) '\n');
+            if (end < 0) {
+                if (in.remaining() < MAX_LINE_BYTES)
+                    return true;
+                connection.reserve(LINE_TOO_LONG.length).put(LINE_TOO_LONG);
+                return false;
+            }
+            int lineEnd = end > in.position() && in.get(end - 1) == '\r' ? end - 1 : end;
+            String line = new String(in.array(), in.arrayOffset() + in.position(), lineEnd - in.position(),
+                    StandardCharsets.US_ASCII);
+            in.position(end + 1);
+            if (!handle(line, connection))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean handle(String line, Connection connection) {
+        String[] tokens = line.trim().split(" +");
+        switch (tokens[0]) {
+            case "add":
+                if (tokens.length == 2)
+                    return withAddress(tokens[1], connection, address ->
+                            cache.add(address) ? STORED : NOT_STORED);
+                return startStoring(tokens, connection);
+            case "delete":
+                if (tokens.length < 2 || tokens.length > 3 || tokens.length == 3 && !NOREPLY.equals(tokens[2]))
+                    break;
+                AddressKey deleted = AddressKey.parse(tokens[1]);
+                byte[] response = deleted == null ? BAD_ADDRESS
+                        : cache.remove(deleted.toInetAddress()) ? DELETED : NOT_FOUND;
+                if (tokens.length == 2)
+                    connection.reserve(response.length).put(response);
+                return true;
+            case "get":
+                if (tokens.length < 2)
+                    break;
+                return get(tokens, connection);
+            case "peek":
+                return writeValueOrEnd(cache.peek(), connection);
+            case "take":
+                return writeValueOrEnd(cache.poll(), connection);
+            case "version":
+                connection.reserve(VERSION.length).put(VERSION);
+                return true;
+            case "quit":
+                return false;
+        }
+        connection.reserve(ERROR.length).put(ERROR);
+        return true;
+    }
+
+    private interface AddressCommand {
+        byte[] apply(InetAddress address);
+    }
+
+    private boolean withAddress(String argument, Connection connection, AddressCommand command) {
+        AddressKey key = AddressKey.parse(argument);
+        byte[] response = key == null ? BAD_ADDRESS : command.apply(key.toInetAddress());
+        connection.reserve(response.length).put(response);
+        return true;
+    }
+
+    /**
+     * Answers every cached address among the keys, in the order asked. One address that is not
+     * an IP literal fails the whole request, as a bad key does in memcached.
+     */
+    private boolean get(String[] tokens, Connection connection) {
+        InetAddress[] addresses = new InetAddress[tokens.length - 1];
+        for (int i = 1; i < tokens.length; i++) {
+            AddressKey key = AddressKey.parse(tokens[i]);
+            if (key == null) {
+                connection.reserve(BAD_ADDRESS.length).put(BAD_ADDRESS);
+                return true;
+            }
+            addresses[i - 1] = key.toInetAddress();
+        }
+        for (InetAddress address : addresses) {
+            if (cache.contains(address))
+                writeValue(address, connection);
+        }
+        connection.reserve(END.length).put(END);
+        return true;
+    }
+
+    /**
+     * Parses {@code add <address> <flags> <exptime> <bytes> [noreply]} and waits for its data
+     * block.
+     */
+    private boolean startStoring(String[] tokens, Connection connection) {
+        long exptime;
+        long bytes;
+        try {
+            if (tokens.length < 5 || tokens.length > 6 || tokens.length == 6 && !NOREPLY.equals(tokens[5]))
+                throw new NumberFormatException();
+            Integer.parseUnsignedInt(tokens[2]);
+            exptime = Long.parseLong(tokens[3]);
+            bytes = Integer.parseInt(tokens[4]);
+        } catch (NumberFormatException e) {
+            connection.reserve(BAD_FORMAT.length).put(BAD_FORMAT);
+            return false;
+        }
+        if (bytes < 0) {
+            connection.reserve(BAD_FORMAT.length).put(BAD_FORMAT);
+            return false;
+        }
+        storing = new Storing(AddressKey.parse(tokens[1]), exptime, bytes, tokens.length == 6);
+        return true;
+    }
+
+    /**
+     * Consumes as much of the pending data block as has arrived, and performs the add once the
+     * whole block and its {@code \r\n} have.
+     *
+     * @return false if the block did not end in {@code \r\n}
+     */
+    private boolean skipData(ByteBuffer in, Connection connection) {
+        int skipped = (int) Math.min(in.remaining(), storing.remaining);
+        in.position(in.position() + skipped);
+        storing.remaining -= skipped;
+        if (storing.remaining > 0 || in.remaining() < 2)
+            return true;
+        if (in.get(in.position()) != '\r' || in.get(in.position() + 1) != '\n') {
+            connection.reserve(BAD_DATA_CHUNK.length).put(BAD_DATA_CHUNK);
+            return false;
+        }
+        in.position(in.position() + 2);
+        Storing done = storing;
+        storing = null;
+        byte[] response = done.key == null ? BAD_ADDRESS : store(done.key.toInetAddress(), done.exptime);
+        if (!done.noreply)
+            connection.reserve(response.length).put(response);
+        return true;
+    }
+
+    private byte[] store(InetAddress address, long exptime) {
+        if (exptime == 0)
+            return cache.add(address) ? STORED : NOT_STORED;
+        long ttlMillis = exptime > MAX_RELATIVE_EXPTIME
+                ? TimeUnit.SECONDS.toMillis(exptime) - System.currentTimeMillis()
+                : TimeUnit.SECONDS.toMillis(exptime);
+        if (ttlMillis <= 0)
+            return cache.contains(address) ? NOT_STORED : STORED;
+        return cache.add(address, ttlMillis, TimeUnit.MILLISECONDS) ? STORED : NOT_STORED;
+    }
+
+    private boolean writeValueOrEnd(InetAddress address, Connection connection) {
+        if (address != null)
+            writeValue(address, connection);
+        connection.reserve(END.length).put(END);
+        return true;
+    }
+
+    private static void writeValue(InetAddress address, Connection connection) {
+        byte[] text = bytes(address.getHostAddress());
+        connection.reserve(VALUE.length + text.length + VALUE_SUFFIX.length)
+                .put(VALUE).put(text).put(VALUE_SUFFIX);
+    }
+
+    private static int indexOf(ByteBuffer in, byte b) {
+        for (int i = in.position(); i < in.limit(); i++) {
+            if (in.get(i) == b)
+                return i;
+        }
+        return -1;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * An add whose data block has not all arrived yet.
+     */
+    private static final class Storing {
+
+        /**
+         * Null if the address is not an IP literal, which is answered once the block is read.
+         */
+        final AddressKey key;
+        final long exptime;
+        final boolean noreply;
+        long remaining;
+
+        Storing(AddressKey key, long exptime, long bytes, boolean noreply) {
+            this.key = key;
+            this.exptime = exptime;
+            this.remaining = bytes;
+            this.noreply = noreply;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package memcache.service;
+
+import memcache.domain.CacheObject;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free queue of entries in the order they were last appended.
+ * <p>
+ * Moving an entry to the tail appends a new node and repoints {@link CacheObject#queueNode} at
+ * it; the old node becomes stale and is skipped when it reaches the head, or dropped by a
+ * compaction pass once stale nodes outnumber resident ones.
+ */
+class AccessOrderQueue {
+
+    private static final int COMPACTION_FLOOR = 1024;
+
+    static final class Node {
+        final CacheObject entry;
+        final AccessOrderQueue owner;
+
+        Node(CacheObject entry, AccessOrderQueue owner) {
+            this.entry = entry;
+            this.owner = owner;
+        }
+    }
+
+    private final Queue<Node> nodes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    private final AtomicInteger resident = new AtomicInteger();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    /**
+     * Moves the entry to the tail of this queue, taking it out of whichever queue held it.
+     */
+    void append(CacheObject entry) {
+        Node node = new Node(entry, this);
+        Node previous = (Node) entry.queueNode;
+        entry.queueNode = node;
+        if (previous == null || previous.owner != this) {
+            resident.incrementAndGet();
+            if (previous != null)
+                previous.owner.resident.decrementAndGet();
+        }
+        nodes.offer(node);
+        if (nodeCount.incrementAndGet() > Math.max(COMPACTION_FLOOR, 2 * resident.get()))
+            compact();
+    }
+
+    /**
+     * Forgets an entry that left the cache.
+     */
+    static void detach(CacheObject entry) {
+        Node node = (Node) entry.queueNode;
+        if (node != null)
+            node.owner.resident.decrementAndGet();
+    }
+
+    static AccessOrderQueue ownerOf(CacheObject entry) {
+        Node node = (Node) entry.queueNode;
+        return node == null ? null : node.owner;
+    }
+
+    int residentCount() {
+        return resident.get();
+    }
+
+    /**
+     * @return the live entry at the head without removing it, or null if there is none
+     */
+    CacheObject peek() {
+        Node head;
+        while ((head = nodes.peek()) != null) {
+            if (isCurrent(head))
+                return head.entry;
+            if (nodes.remove(head))
+                nodeCount.decrementAndGet();
+        }
+        return null;
+    }
+
+    /**
+     * @return the live entry at the head, or null if there is none
+     */
+    CacheObject poll() {
+        Node head;
+        while ((head = nodes.poll()) != null) {
+            nodeCount.decrementAndGet();
+            if (isCurrent(head))
+                return head.entry;
+        }
+        return null;
+    }
+
+    private boolean isCurrent(Node node) {
+        return !node.entry.isRemoved() && node.entry.queueNode == node;
+    }
+
+    private void compact() {
+        if (!compacting.compareAndSet(false, true))
+            return;
+        try {
+            for (Iterator<Node> it = nodes.iterator(); it.hasNext(); ) {
+                if (!isCurrent(it.next())) {
+                    it.remove();
+                    nodeCount.decrementAndGet();
+                }
+            }
+        } finally {
+            compacting.set(false);
+        }
+    }
+}
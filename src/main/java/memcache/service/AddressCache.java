@@ -1,109 +1,886 @@
 package memcache.service;
 
+import memcache.domain.AddressEntry;
+import memcache.domain.AddressKey;
+import memcache.domain.CacheEvent;
 import memcache.domain.CacheObject;
+import memcache.jfr.CacheOperationEvent;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
-public class AddressCache {
+public class AddressCache implements AddressStore {
 
-    private final Map<String, CacheObject> cacheMap;
-    private volatile String lastAddedKey = null;
+    /**
+     * Heap held per entry of a bounded cache, as measured by FootprintBenchmark: key, CacheObject,
+     * map node, and the nodes linking it into the recency deque, expiry wheel, eviction queue and
+     * prefix index. Addresses are fixed size, so this does not vary by entry and max.bytes can be
+     * enforced as an entry count. Entries demoted off the heap are still counted at this size.
+     * <p>
+     * Keys are two primitive longs, but hot entries stay objects: the map, deque, wheel and queues
+     * are lock-free structures that link them, and a primitive table would need a lock of its
+     * own. The primitive, struct-of-arrays layout is the cold tier's, which holds an entry in a
+     * 48-byte off-heap record and keeps about 24 bytes of heap per entry.
+     */
+    static final long ENTRY_BYTES = 240;
+
+    /**
+     * Sequences handed out per millisecond. Sequences follow the clock, so an entry handed over by
+     * another node, which keeps the sequence it was given there, falls into place among this
+     * node's own; more adds than this in a millisecond run ahead of the clock for a while.
+     */
+    private static final long SEQUENCES_PER_MILLI = 1000;
+
+    private final CacheSegment[] segments;
+    private final int segmentShift;
+    private final TakeOrder order;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentLinkedDeque<Waiter> waiters = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger cancelledWaiters = new AtomicInteger();
+    /**
+     * The cache's own expiry pool, or null when it has none or uses a shared one.
+     */
+    private final ScheduledExecutorService maintenance;
+    private final List<ScheduledFuture<?>> cleanups = new ArrayList<>();
+    private final CacheMetrics metrics = new CacheMetrics();
+    private final ChangeFeed changeFeed;
+    private final RemovalNotifier removalNotifier;
+    private final CacheAnalytics analytics;
+    private final boolean sliding;
+    private volatile CacheJournal journal = CacheJournal.NONE;
     private long age;
 
     public AddressCache(long maxAge, TimeUnit unit) {
-        this.age = MILLISECONDS.convert(maxAge, unit);
-        cacheMap = new ConcurrentHashMap<>();
-
-        if (age > 0) {
-            Thread t = new Thread(() -> {
-                while (true) {
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    cleanup();
-                }
-            });
+        this(maxAge, unit, TakeOrder.LIFO);
+    }
+
+    public AddressCache(long maxAge, TimeUnit unit, TakeOrder order) {
+        this(new CacheSettings().maxAge(maxAge, unit).takeOrder(order));
+    }
+
+    public AddressCache(CacheSettings settings) {
+        this.age = settings.getMaxAgeMillis();
+        this.sliding = settings.isSlidingExpiration();
+        this.order = settings.getTakeOrder();
+        int shards = settings.getShards();
+        this.segments = new CacheSegment[shards];
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(shards);
+        this.changeFeed = new ChangeFeed(settings.getChangeFeedCapacity());
+        this.removalNotifier = new RemovalNotifier(settings.getListenerQueueSize(),
+                settings.getListenerIntervalMillis(), metrics);
+        this.analytics = new CacheAnalytics(settings.getAnalyticsWindowMillis(), settings.getAnalyticsTopK());
 
-            t.setDaemon(true);
-            t.start();
+        long capacity = settings.getCapacity();
+        long segmentCapacity = capacity > 0 ? (capacity + shards - 1) / shards : 0;
+        long filterEntries = settings.getFilterExpectedEntries() > 0
+                ? (settings.getFilterExpectedEntries() + shards - 1) / shards : 0;
+        long hotEntries = settings.getHotMaxEntries() > 0 ? (settings.getHotMaxEntries() + shards - 1) / shards : 0;
+        long tickMillis = settings.getTickMillis();
+        CacheEventSink events = new CacheEventSink() {
+            @Override
+            public void publish(CacheEvent.Type type, CacheObject cacheObject, long now) {
+                AddressCache.this.publish(type, cacheObject, now);
+            }
+
+            @Override
+            public void refreshed(CacheObject cacheObject) {
+                journal.refreshed(cacheObject);
+            }
+        };
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < shards; i++) {
+            // Even without a max age, since any entry may be added with a time to live of its own.
+            TimingWheel expiryWheel = new TimingWheel(tickMillis, now);
+            segments[i] = new CacheSegment(order, expiryWheel, sliding, segmentCapacity,
+                    settings.getEvictionPolicy(), filterEntries, hotEntries, settings.getTierDirectory(), metrics,
+                    events);
+        }
+
+        ScheduledExecutorService shared = settings.getMaintenance();
+        if (shared != null || settings.getMaintenanceThreads() > 0) {
+            if (shared == null) {
+                AtomicInteger threadCount = new AtomicInteger();
+                maintenance = Executors.newScheduledThreadPool(Math.min(shards, settings.getMaintenanceThreads()), r -> {
+                    Thread t = new Thread(r, "address-cache-expiry-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+            } else {
+                maintenance = null;
+            }
+            ScheduledExecutorService scheduler = shared != null ? shared : maintenance;
+            for (CacheSegment segment : segments) {
+                cleanups.add(scheduler.scheduleWithFixedDelay(() -> segment.cleanup(System.currentTimeMillis()),
+                        tickMillis, tickMillis, MILLISECONDS));
+            }
+        } else {
+            maintenance = null;
         }
     }
 
+    /**
+     * Adds the address with the cache's max age as its time to live.
+     *
+     * @return true if the address was added, false if it was already cached
+     */
+    @Override
     public boolean add(InetAddress inetAddress) {
-        String key = inetAddress.getHostName();
-        synchronized (cacheMap) {
-            cacheMap.putIfAbsent(key, new CacheObject(inetAddress));
-            this.lastAddedKey = key;
-            cacheMap.notify();
+        return add(inetAddress, age, MILLISECONDS);
+    }
+
+    /**
+     * Adds the address to expire {@code ttl} after now, or after its latest access under sliding
+     * expiration; 0 for no expiry. Re-adding a cached address restarts its time to live, with
+     * this one, only under sliding expiration.
+     *
+     * @return true if the address was added, false if it was already cached
+     */
+    @Override
+    public boolean add(InetAddress inetAddress, long ttl, TimeUnit unit) {
+        CacheOperationEvent event = CacheOperationEvent.start();
+        long now = System.currentTimeMillis();
+        boolean added = insert(AddressKey.of(inetAddress), now, nextSequences(now, 1), unit.toMillis(ttl));
+        if (added && !waiters.isEmpty())
+            dispatchWaiters();
+        event.finish("add", inetAddress, !added);
+        return added;
+    }
+
+    /**
+     * Adds a batch of addresses. The clock is read once, the insertion sequence is reserved in
+     * one step and parked takers are dispatched once for the whole batch.
+     *
+     * @return for each address, whether it was newly added (false if it was already cached)
+     */
+    @Override
+    public boolean[] addAll(List<InetAddress> inetAddresses) {
+        CacheOperationEvent event = CacheOperationEvent.start();
+        int count = inetAddresses.size();
+        boolean[] added = new boolean[count];
+        long now = System.currentTimeMillis();
+        long firstSequence = nextSequences(now, count);
+        boolean anyAdded = false;
+        for (int i = 0; i < count; i++) {
+            added[i] = insert(AddressKey.of(inetAddresses.get(i)), now, firstSequence + i, age);
+            anyAdded |= added[i];
         }
-        return true;
+        if (anyAdded && !waiters.isEmpty())
+            dispatchWaiters();
+        event.finish("addAll", null, count, anyAdded);
+        return added;
     }
 
+    @Override
     public boolean remove(InetAddress inetAddress) {
-        String key = inetAddress.getHostName();
-        CacheObject remove = cacheMap.remove(key);
-        if (remove == null)
+        CacheOperationEvent event = CacheOperationEvent.start();
+        boolean removed = remove(AddressKey.of(inetAddress));
+        event.finish("remove", inetAddress, removed);
+        return removed;
+    }
+
+    private boolean remove(AddressKey key) {
+        analytics.recordAccess(key, System.currentTimeMillis());
+        CacheObject removed = segmentFor(key).remove(key);
+        metrics.recordRemove(removed != null);
+        if (removed != null)
+            publish(CacheEvent.Type.REMOVED, removed, System.currentTimeMillis());
+        return removed != null;
+    }
+
+    /**
+     * @return for each address, whether it was present and has been removed
+     */
+    @Override
+    public boolean[] removeAll(List<InetAddress> inetAddresses) {
+        CacheOperationEvent event = CacheOperationEvent.start();
+        boolean[] removed = new boolean[inetAddresses.size()];
+        boolean anyRemoved = false;
+        for (int i = 0; i < removed.length; i++) {
+            removed[i] = remove(AddressKey.of(inetAddresses.get(i)));
+            anyRemoved |= removed[i];
+        }
+        event.finish("removeAll", null, removed.length, anyRemoved);
+        return removed;
+    }
+
+    /**
+     * @return whether the address is cached, without counting as an access for eviction; under
+     * sliding expiration its time to live restarts
+     */
+    @Override
+    public boolean contains(InetAddress inetAddress) {
+        CacheOperationEvent event = CacheOperationEvent.start();
+        AddressKey key = AddressKey.of(inetAddress);
+        analytics.recordAccess(key, System.currentTimeMillis());
+        boolean contained = segmentFor(key).contains(key);
+        event.finish("contains", inetAddress, contained);
+        return contained;
+    }
+
+    /**
+     * @return the cached entry for the address, or null if it is not cached; like
+     * {@link #contains} this does not count as an access
+     */
+    @Override
+    public AddressEntry get(InetAddress inetAddress) {
+        CacheOperationEvent event = CacheOperationEvent.start();
+        AddressKey key = AddressKey.of(inetAddress);
+        analytics.recordAccess(key, System.currentTimeMillis());
+        CacheObject cacheObject = segmentFor(key).get(key);
+        event.finish("get", inetAddress, cacheObject != null);
+        if (cacheObject == null)
+            return null;
+        return new AddressEntry(inetAddress, cacheObject.createdTime, cacheObject.expiresAt, cacheObject.ttl,
+                cacheObject.sequence);
+    }
+
+    /**
+     * Stores an entry another node handed over as it was there. It keeps its created time,
+     * deadline, time to live and version, so it expires, slides and is taken as if it had never
+     * moved. It is journaled, but not published or counted as an add, since the cluster as a
+     * whole did not change.
+     *
+     * @return false if the entry has expired or its address is already cached
+     */
+    @Override
+    public boolean handOver(AddressEntry entry) {
+        long touchedAt = entry.ttl > 0 && entry.expiresAt != Long.MAX_VALUE
+                ? entry.expiresAt - entry.ttl : entry.createdTime;
+        CacheObject cacheObject = restored(AddressKey.of(entry.address), entry.version, entry.createdTime,
+                entry.ttl, touchedAt);
+        if (cacheObject == null)
             return false;
-        resetLastAddedKey(key);
+        journal.added(cacheObject);
+        if (!waiters.isEmpty())
+            dispatchWaiters();
         return true;
     }
 
-    private void resetLastAddedKey(String key) {
-        if (key.equals(this.lastAddedKey))
-            this.lastAddedKey = null;
+    /**
+     * Drops an entry this node has handed over to its new owner. It is journaled as removed, so
+     * a restart does not bring it back here, but like {@link #handOver} it is not published,
+     * counted or recorded by analytics, and removal listeners do not hear of it, since the entry
+     * is still in the cluster.
+     *
+     * @return false if the address is no longer cached
+     */
+    public boolean handOff(InetAddress inetAddress) {
+        AddressKey key = AddressKey.of(inetAddress);
+        CacheObject removed = segmentFor(key).remove(key);
+        if (removed == null)
+            return false;
+        journal.removed(removed);
+        return true;
     }
 
+    /**
+     * @return for each address, whether it is cached
+     */
+    @Override
+    public boolean[] containsAll(List<InetAddress> inetAddresses) {
+        CacheOperationEvent event = CacheOperationEvent.start();
+        boolean[] contained = new boolean[inetAddresses.size()];
+        boolean anyContained = false;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < contained.length; i++) {
+            AddressKey key = AddressKey.of(inetAddresses.get(i));
+            analytics.recordAccess(key, now);
+            contained[i] = segmentFor(key).contains(key);
+            anyContained |= contained[i];
+        }
+        event.finish("containsAll", null, contained.length, anyContained);
+        return contained;
+    }
+
+    @Override
     public InetAddress peek() {
-        if (this.lastAddedKey == null)
+        CacheOperationEvent event = CacheOperationEvent.start();
+        CacheSegment headSegment = headSegment();
+        CacheObject head = headSegment == null ? null : headSegment.peek();
+        if (head == null) {
+            metrics.recordMiss();
+            event.finish("peek", null, false);
             return null;
-        CacheObject lastAddedObject = cacheMap.get(this.lastAddedKey);
-        return lastAddedObject.inetAddress;
+        }
+        headSegment.touch(head);
+        InetAddress address = head.key.toInetAddress();
+        event.finish("peek", address, true);
+        return address;
     }
 
-    public InetAddress take() {
-        synchronized (cacheMap) {
-            while (this.lastAddedKey == null) {
-                try {
-                    cacheMap.wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Like {@link #takeAsync()}, but the taken address is first offered to {@code handoff}, on
+     * whichever thread completes the take. An address it declines, say because the caller it was
+     * for has gone, is put back as it was, keeping its creation time, time to live and version,
+     * and the future still completes with it.
+     */
+    @Override
+    public CompletableFuture<InetAddress> takeAsync(Predicate<? super InetAddress> handoff) {
+        CacheOperationEvent event = CacheOperationEvent.start();
+        CacheObject taken = pollHead();
+        if (taken != null) {
+            InetAddress address = taken.key.toInetAddress();
+            boolean delivered = handoff.test(address);
+            if (delivered)
+                recordTake(taken);
+            else
+                reinsert(taken);
+            event.finish("take", address, delivered);
+            return CompletableFuture.completedFuture(address);
+        }
+
+        metrics.recordMiss();
+        CompletableFuture<InetAddress> future = new CompletableFuture<>();
+        waiting.incrementAndGet();
+        future.whenComplete((address, failure) -> {
+            waiting.decrementAndGet();
+            if (future.isCancelled())
+                onWaiterCancelled();
+        });
+        waiters.offerLast(new Waiter(future, handoff));
+        dispatchWaiters();
+        event.finish("take", null, false);
+        return future;
+    }
+
+    /**
+     * Takes an entry if one is available.
+     *
+     * @return the taken address, or null if the cache is empty
+     */
+    @Override
+    public InetAddress poll() {
+        CacheOperationEvent event = CacheOperationEvent.start();
+        CacheObject taken = pollHead();
+        if (taken == null) {
+            metrics.recordMiss();
+            event.finish("poll", null, false);
+            return null;
+        }
+        recordTake(taken);
+        InetAddress address = taken.key.toInetAddress();
+        event.finish("poll", address, true);
+        return address;
+    }
+
+    /**
+     * Takes up to {@code count} entries that are available right now, without waiting.
+     */
+    @Override
+    public List<InetAddress> take(int count) {
+        CacheOperationEvent event = CacheOperationEvent.start();
+        List<InetAddress> taken = new ArrayList<>(Math.min(count, 1024));
+        CacheObject cacheObject;
+        while (taken.size() < count && (cacheObject = pollHead()) != null) {
+            recordTake(cacheObject);
+            taken.add(cacheObject.key.toInetAddress());
+        }
+        if (taken.isEmpty() && count > 0)
+            metrics.recordMiss();
+        event.finish("takeAll", null, taken.size(), !taken.isEmpty());
+        return taken;
+    }
+
+    /**
+     * @return number of {@link #takeAsync} callers currently waiting for an entry
+     */
+    @Override
+    public int waitingTakers() {
+        return waiting.get();
+    }
+
+    /**
+     * Live addresses, oldest first. Weakly consistent: addresses added or removed while iterating
+     * may or may not be seen.
+     */
+    @Override
+    public Iterator<InetAddress> addresses() {
+        Iterator<CacheObject> entries = entries();
+        return new Iterator<InetAddress>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public InetAddress next() {
+                return entries.next().key.toInetAddress();
+            }
+        };
+    }
+
+    /**
+     * Live addresses in the subnet, in address order. Weakly consistent like {@link #addresses}.
+     *
+     * @param length prefix length in bits, from 0 to 32 for an IPv4 prefix and to 128 for IPv6;
+     *               bits of {@code prefix} past it are ignored
+     * @param after  the last address already handed out, or null to start from the lowest
+     */
+    @Override
+    public Iterator<InetAddress> subnet(InetAddress prefix, int length, InetAddress after) {
+        AddressKey key = AddressKey.of(prefix);
+        int bits = keyPrefixLength(key, length);
+        AddressKey first = key.firstInPrefix(bits);
+        AddressKey last = key.lastInPrefix(bits);
+        AddressKey from = after == null ? null : AddressKey.of(after);
+        List<Iterator<CacheObject>> ranges = new ArrayList<>(segments.length);
+        for (CacheSegment segment : segments)
+            ranges.add(from == null || from.compareTo(first) < 0 ? segment.range(first, last) : segment.rangeAfter(from, last));
+        Iterator<CacheObject> entries = merge(ranges, Comparator.comparing(entry -> entry.key));
+        return new Iterator<InetAddress>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public InetAddress next() {
+                return entries.next().key.toInetAddress();
+            }
+        };
+    }
+
+    /**
+     * Removes every address in the subnet, in time proportional to the number removed.
+     *
+     * @param length prefix length in bits, as for {@link #subnet}
+     * @return the number of addresses removed
+     */
+    @Override
+    public int removeSubnet(InetAddress prefix, int length) {
+        AddressKey key = AddressKey.of(prefix);
+        int bits = keyPrefixLength(key, length);
+        AddressKey first = key.firstInPrefix(bits);
+        AddressKey last = key.lastInPrefix(bits);
+        int removed = 0;
+        for (CacheSegment segment : segments) {
+            for (Iterator<CacheObject> it = segment.range(first, last); it.hasNext(); ) {
+                if (remove(it.next().key))
+                    removed++;
             }
-            CacheObject lastAddedObject = cacheMap.remove(this.lastAddedKey);
-            this.lastAddedKey = null;
-            return lastAddedObject.inetAddress;
         }
+        return removed;
+    }
+
+    /**
+     * Longest-prefix match: the cached address sharing the most leading bits with
+     * {@code inetAddress}, which is the address itself if it is cached. IPv4 addresses compare
+     * in their mapped form, so an IPv4 address only matches an IPv6 one if no IPv4 address is
+     * cached.
+     *
+     * @return the closest cached address, or null if the cache is empty
+     */
+    @Override
+    public InetAddress longestPrefixMatch(InetAddress inetAddress) {
+        AddressKey key = AddressKey.of(inetAddress);
+        CacheObject best = null;
+        for (CacheSegment segment : segments) {
+            CacheObject candidate = segment.closest(key);
+            if (candidate != null && (best == null
+                    || key.commonPrefixLength(candidate.key) > key.commonPrefixLength(best.key)))
+                best = candidate;
+        }
+        return best == null ? null : best.key.toInetAddress();
+    }
+
+    /**
+     * One page of a scan over every live entry in address order. The cursor is just the last
+     * address handed out, so nothing is held between pages and a scan can resume on any node
+     * serving the same cache. An entry cached for the whole scan is returned exactly once; one
+     * added or removed meanwhile may or may not be. Each page holds a shard's lock for at most a
+     * few hundred entries at a time, so writers are never blocked for long.
+     *
+     * @param after the last address of the previous page, or null to start from the lowest
+     * @return up to {@code count} entries; fewer only when the scan is complete
+     */
+    @Override
+    public List<AddressEntry> scan(InetAddress after, int count) {
+        AddressKey from = after == null ? null : AddressKey.of(after);
+        AddressKey last = new AddressKey(-1L, -1L);
+        List<Iterator<CacheObject>> ranges = new ArrayList<>(segments.length);
+        for (CacheSegment segment : segments)
+            ranges.add(from == null ? segment.range(new AddressKey(0, 0), last) : segment.rangeAfter(from, last));
+        Iterator<CacheObject> entries = merge(ranges, Comparator.comparing(entry -> entry.key));
+        List<AddressEntry> page = new ArrayList<>(Math.min(count, 1024));
+        while (page.size() < count && entries.hasNext()) {
+            CacheObject entry = entries.next();
+            page.add(new AddressEntry(entry.key.toInetAddress(), entry.createdTime, entry.expiresAt, entry.ttl,
+                    entry.sequence));
+        }
+        return page;
+    }
+
+    /**
+     * @return a prefix length given for {@code key}'s family as a length over all 128 key bits
+     */
+    private static int keyPrefixLength(AddressKey key, int length) {
+        int familyBits = key.isV4() ? AddressKey.BITS - AddressKey.V4_PREFIX_BITS : AddressKey.BITS;
+        if (length < 0 || length > familyBits)
+            throw new IllegalArgumentException("Prefix length must be between 0 and " + familyBits);
+        return AddressKey.BITS - familyBits + length;
     }
 
+    /**
+     * @return the recent changes to this cache, disabled unless the settings gave it a capacity
+     */
+    @Override
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * @return statistics of the addresses this cache is asked about, disabled unless the settings
+     * gave it a window
+     */
+    @Override
+    public CacheAnalytics getAnalytics() {
+        return analytics;
+    }
+
+    /**
+     * Starts handing removals, takes, expirations and evictions to {@code listener} in batches,
+     * on a listener thread of this cache.
+     */
+    @Override
+    public void addRemovalListener(RemovalListener listener) {
+        removalNotifier.add(listener);
+    }
+
+    /**
+     * @return false if the listener was not added
+     */
+    @Override
+    public boolean removeRemovalListener(RemovalListener listener) {
+        return removalNotifier.remove(listener);
+    }
+
+    @Override
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
     public int size() {
-        return cacheMap.size();
+        int size = 0;
+        for (CacheSegment segment : segments)
+            size += segment.size();
+        return size;
     }
 
-    private void cleanup() {
-        long now = System.currentTimeMillis();
-        ArrayList<String> deleteKey = new ArrayList<>(cacheMap.size());
-        for (Map.Entry<String, CacheObject> entry : cacheMap.entrySet()) {
-            CacheObject c = entry.getValue();
-            if (c != null && (now > (this.age + c.createdTime))) {
-                String key = entry.getKey();
-                deleteKey.add(key);
-                resetLastAddedKey(key);
+    private boolean insert(AddressKey key, long now, long sequence, long ttl) {
+        analytics.recordAccess(key, now);
+        CacheObject cacheObject = new CacheObject(key, now);
+        cacheObject.expireAfter(ttl, now);
+        cacheObject.sequence = sequence;
+        CacheSegment segment = segmentFor(key);
+        boolean added = segment.add(cacheObject);
+        metrics.recordAdd(added);
+        if (added)
+            publish(CacheEvent.Type.ADDED, cacheObject, now);
+        else if (sliding) {
+            segment.refresh(cacheObject);
+        }
+        return added;
+    }
+
+    private void recordTake(CacheObject taken) {
+        metrics.recordTake();
+        publish(CacheEvent.Type.TAKEN, taken, System.currentTimeMillis());
+    }
+
+    /**
+     * Journals the change, then hands it to the feeds. Every way an entry leaves the cache,
+     * expiry and eviction included, is journaled here.
+     */
+    private void publish(CacheEvent.Type type, CacheObject cacheObject, long now) {
+        if (type == CacheEvent.Type.ADDED)
+            journal.added(cacheObject);
+        else
+            journal.removed(cacheObject);
+        AddressKey key = cacheObject.key;
+        changeFeed.publish(type, key, now);
+        removalNotifier.publish(type, key, now);
+        analytics.record(type, key, now);
+    }
+
+    /**
+     * Takes the head across all segments. Nothing is locked, so an entry added concurrently may
+     * or may not be seen, as with any concurrent take. The entry is journaled as removed only once
+     * delivered, by {@link #recordTake}, so one put back by {@link #reinsert} never left the journal.
+     */
+    private CacheObject pollHead() {
+        if (segments.length == 1)
+            return segments[0].poll();
+        while (true) {
+            CacheSegment headSegment = headSegment();
+            if (headSegment == null)
+                return null;
+            CacheObject taken = headSegment.poll();
+            if (taken != null)
+                return taken;
+        }
+    }
+
+    /**
+     * Asks every segment for its own head and picks the one that comes first in take order,
+     * using the insertion sequence to compare entries from different segments.
+     */
+    private CacheSegment headSegment() {
+        if (segments.length == 1)
+            return segments[0];
+        CacheObject head = null;
+        CacheSegment headSegment = null;
+        for (CacheSegment segment : segments) {
+            CacheObject candidate = segment.peek();
+            if (candidate != null && (head == null || isBefore(candidate, head))) {
+                head = candidate;
+                headSegment = segment;
+            }
+        }
+        return headSegment;
+    }
+
+    private boolean hasLiveEntry() {
+        for (CacheSegment segment : segments) {
+            if (segment.peek() != null)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isBefore(CacheObject candidate, CacheObject head) {
+        int compared = CacheSegment.IN_SEQUENCE.compare(candidate, head);
+        return order == TakeOrder.LIFO ? compared > 0 : compared < 0;
+    }
+
+    /**
+     * Reserves {@code count} consecutive sequences, no earlier than the clock allows.
+     *
+     * @return the first of them
+     */
+    private long nextSequences(long now, int count) {
+        long floor = now * SEQUENCES_PER_MILLI;
+        return sequence.updateAndGet(last -> Math.max(last, floor) + count) - count + 1;
+    }
+
+    private CacheSegment segmentFor(AddressKey key) {
+        return segments.length == 1 ? segments[0] : segments[(int) (key.hash64() >>> segmentShift)];
+    }
+
+    /**
+     * Hands entries to parked waiters, oldest waiter first, until either runs out. A waiter put
+     * back because the cache was empty re-checks the cache, so an add racing with this method
+     * cannot leave a waiter parked next to an available entry.
+     */
+    private void dispatchWaiters() {
+        Waiter waiter;
+        while ((waiter = waiters.pollFirst()) != null) {
+            if (waiter.future.isDone())
+                continue;
+            CacheObject taken = pollHead();
+            if (taken == null) {
+                waiters.offerFirst(waiter);
+                if (!hasLiveEntry())
+                    return;
+                continue;
             }
+            InetAddress address = taken.key.toInetAddress();
+            // Completing first claims the waiter against a concurrent cancel.
+            if (waiter.future.complete(address) && waiter.handoff.test(address))
+                recordTake(taken);
+            else
+                reinsert(taken);
+        }
+    }
+
+    /**
+     * Puts back an entry that was taken for a waiter who gave up or declined it in the meantime.
+     * If the address was added again while it was out, the taken entry is gone for good.
+     */
+    private void reinsert(CacheObject taken) {
+        CacheObject cacheObject = new CacheObject(taken.key, taken.createdTime);
+        cacheObject.expiresAt = taken.expiresAt;
+        cacheObject.ttl = taken.ttl;
+        cacheObject.sequence = taken.sequence;
+        if (segmentFor(cacheObject.key).add(cacheObject))
+            journal.added(cacheObject);
+        else
+            journal.removed(taken);
+    }
+
+    private void onWaiterCancelled() {
+        if (cancelledWaiters.incrementAndGet() > Math.max(64, waiting.get())) {
+            cancelledWaiters.set(0);
+            waiters.removeIf(waiter -> waiter.future.isDone());
+        }
+    }
+
+    /**
+     * Stops expiry, shutting down the cache's own scheduler but not a shared one, and the
+     * listener thread.
+     */
+    @Override
+    public void close() {
+        for (ScheduledFuture<?> cleanup : cleanups)
+            cleanup.cancel(false);
+        if (maintenance != null)
+            maintenance.shutdownNow();
+        removalNotifier.close();
+    }
+
+    /**
+     * Sends every later change to {@code journal}.
+     */
+    void journal(CacheJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Puts back a persisted entry with its original sequence, created time and time to live, in
+     * its place in take order. Its deadline is a time to live after
+     * {@code touchedAt}, and later accesses under sliding expiration move it on as before.
+     * Nothing is journaled or counted.
+     *
+     * @param ttl       time to live in milliseconds, 0 if the entry never expires
+     * @param touchedAt when the time to live was last counted from
+     * @return false if the entry has expired or its address is already cached
+     */
+    boolean restore(AddressKey key, long entrySequence, long createdTime, long ttl, long touchedAt) {
+        return restored(key, entrySequence, createdTime, ttl, touchedAt) != null;
+    }
+
+    /**
+     * @return the restored entry, or null if it was not restored
+     */
+    private CacheObject restored(AddressKey key, long entrySequence, long createdTime, long ttl, long touchedAt) {
+        CacheObject cacheObject = new CacheObject(key, createdTime);
+        cacheObject.expireAfter(ttl, touchedAt);
+        if (cacheObject.isExpired(System.currentTimeMillis()))
+            return null;
+        cacheObject.sequence = entrySequence;
+        skipSequence(entrySequence);
+        return segmentFor(key).add(cacheObject) ? cacheObject : null;
+    }
+
+    /**
+     * Makes later entries numbered above {@code used}, so they never share a sequence with an
+     * entry in a retained journal.
+     */
+    void skipSequence(long used) {
+        sequence.accumulateAndGet(used, Math::max);
+    }
+
+    /**
+     * Live entries across all segments in insertion order, merged by sequence. Like the segment
+     * iterators it is built from, it is weakly consistent: it never fails on concurrent changes
+     * and may or may not reflect them.
+     */
+    Iterator<CacheObject> entries() {
+        List<Iterator<CacheObject>> entries = new ArrayList<>(segments.length);
+        for (CacheSegment segment : segments)
+            entries.add(segment.entries());
+        return merge(entries, CacheSegment.IN_SEQUENCE);
+    }
+
+    /**
+     * Merges iterators that are each sorted by {@code order}, skipping removed and expired
+     * entries.
+     */
+    static Iterator<CacheObject> merge(List<Iterator<CacheObject>> sorted, Comparator<CacheObject> order) {
+        PriorityQueue<PeekingIterator> heads = new PriorityQueue<>(sorted.size(),
+                (head, other) -> order.compare(head.next, other.next));
+        for (Iterator<CacheObject> entries : sorted) {
+            PeekingIterator head = new PeekingIterator(entries);
+            if (head.next != null)
+                heads.add(head);
         }
-        for (String key : deleteKey) {
-            synchronized (cacheMap) {
-                cacheMap.remove(key);
+        return new Iterator<CacheObject>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public CacheObject next() {
+                PeekingIterator head = heads.poll();
+                if (head == null)
+                    throw new NoSuchElementException();
+                CacheObject next = head.next;
+                if (head.advance() != null)
+                    heads.add(head);
+                return next;
             }
+        };
+    }
+
+    /**
+     * A parked {@link #takeAsync} call and where its address goes once taken.
+     */
+    private static final class Waiter {
+
+        final CompletableFuture<InetAddress> future;
+        final Predicate<? super InetAddress> handoff;
+
+        Waiter(CompletableFuture<InetAddress> future, Predicate<? super InetAddress> handoff) {
+            this.future = future;
+            this.handoff = handoff;
+        }
+    }
 
-            Thread.yield();
+    /**
+     * Skips entries that were removed or have expired.
+     */
+    private static class PeekingIterator {
+
+        private final Iterator<CacheObject> entries;
+        private final long now = System.currentTimeMillis();
+        private CacheObject next;
+
+        PeekingIterator(Iterator<CacheObject> entries) {
+            this.entries = entries;
+            advance();
         }
+
+        CacheObject advance() {
+            next = null;
+            while (entries.hasNext()) {
+                CacheObject candidate = entries.next();
+                if (!candidate.isRemoved() && !candidate.isExpired(now)) {
+                    next = candidate;
+                    break;
+                }
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Runs one expiry pass over every segment.
+     *
+     * @return the number of entries removed
+     */
+    int cleanup() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (CacheSegment segment : segments)
+            removed += segment.cleanup(now);
+        return removed;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,16 @@
+package memcache.service;
+
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Resolves hostnames off the request thread.
+ */
+public interface AddressResolver {
+
+    /**
+     * @return a future completed with the address, or exceptionally with an
+     * {@link java.net.UnknownHostException} if the name does not resolve
+     */
+    CompletableFuture<InetAddress> resolve(String host);
+}
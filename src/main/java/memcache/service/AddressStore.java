@@ -0,0 +1,184 @@
+package memcache.service;
+
+import memcache.domain.AddressEntry;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * The operations the REST and TCP front ends serve, implemented by a node's own
+ * {@link AddressCache} and by a cluster of them. Front ends depend on this rather than on a
+ * concrete cache, so a new operation has to be implemented by every kind of store.
+ */
+public interface AddressStore extends AutoCloseable {
+
+    /**
+     * Adds the address with the store's max age as its time to live.
+     *
+     * @return true if the address was added, false if it was already cached
+     */
+    boolean add(InetAddress inetAddress);
+
+    /**
+     * Adds the address to expire {@code ttl} after now, or after its latest access under sliding
+     * expiration; 0 for no expiry.
+     *
+     * @return true if the address was added, false if it was already cached
+     */
+    boolean add(InetAddress inetAddress, long ttl, TimeUnit unit);
+
+    /**
+     * @return for each address, whether it was newly added (false if it was already cached)
+     */
+    boolean[] addAll(List<InetAddress> inetAddresses);
+
+    /**
+     * Stores an entry another node handed over, keeping its created time, deadline, time to live
+     * and version rather than starting it afresh.
+     *
+     * @return false if the entry has expired or its address is already cached
+     */
+    boolean handOver(AddressEntry entry);
+
+    /**
+     * @return whether the address was cached and has been removed
+     */
+    boolean remove(InetAddress inetAddress);
+
+    /**
+     * @return for each address, whether it was present and has been removed
+     */
+    boolean[] removeAll(List<InetAddress> inetAddresses);
+
+    /**
+     * @return whether the address is cached, without counting as an access for eviction
+     */
+    boolean contains(InetAddress inetAddress);
+
+    /**
+     * @return the cached entry for the address, or null if it is not cached
+     */
+    AddressEntry get(InetAddress inetAddress);
+
+    /**
+     * @return for each address, whether it is cached
+     */
+    boolean[] containsAll(List<InetAddress> inetAddresses);
+
+    /**
+     * @return the address that would be taken next, or null if there is none
+     */
+    InetAddress peek();
+
+    /**
+     * Blocks until an entry is available and takes it.
+     *
+     * @return the taken address, or null if the calling thread was interrupted while waiting
+     */
+    default InetAddress take() {
+        CompletableFuture<InetAddress> future = takeAsync();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return future.cancel(false) ? null : future.join();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Takes an entry without blocking any thread, waiting for one to be added if there is none.
+     * Cancelling the future gives up the wait.
+     */
+    default CompletableFuture<InetAddress> takeAsync() {
+        return takeAsync(address -> true);
+    }
+
+    /**
+     * Like {@link #takeAsync()}, but the taken address is first offered to {@code handoff}. One it
+     * declines is put back, and the future still completes with it.
+     */
+    CompletableFuture<InetAddress> takeAsync(Predicate<? super InetAddress> handoff);
+
+    /**
+     * Takes an entry if one is available.
+     *
+     * @return the taken address, or null if there is none
+     */
+    InetAddress poll();
+
+    /**
+     * Takes up to {@code count} entries that are available right now, without waiting.
+     */
+    List<InetAddress> take(int count);
+
+    /**
+     * @return number of {@link #takeAsync} callers currently waiting for an entry
+     */
+    int waitingTakers();
+
+    /**
+     * Live addresses, oldest first, weakly consistent.
+     */
+    Iterator<InetAddress> addresses();
+
+    /**
+     * Live addresses in the subnet in address order, weakly consistent.
+     *
+     * @param length prefix length in bits, from 0 to 32 for an IPv4 prefix and to 128 for IPv6
+     */
+    default Iterator<InetAddress> subnet(InetAddress prefix, int length) {
+        return subnet(prefix, length, null);
+    }
+
+    /**
+     * Like {@link #subnet(InetAddress, int)}, resuming after the last address of an earlier
+     * iteration so a long listing can be handed out a page at a time.
+     *
+     * @param after the last address already handed out, or null to start from the lowest
+     */
+    Iterator<InetAddress> subnet(InetAddress prefix, int length, InetAddress after);
+
+    /**
+     * @return the number of addresses removed
+     */
+    int removeSubnet(InetAddress prefix, int length);
+
+    /**
+     * @return the cached address sharing the most leading bits with {@code inetAddress}, or null
+     * if there is none
+     */
+    InetAddress longestPrefixMatch(InetAddress inetAddress);
+
+    /**
+     * One page of a scan in address order.
+     *
+     * @param after the last address of the previous page, or null to start from the lowest
+     * @return up to {@code count} entries; fewer only when the scan is complete
+     */
+    List<AddressEntry> scan(InetAddress after, int count);
+
+    ChangeFeed getChangeFeed();
+
+    CacheAnalytics getAnalytics();
+
+    void addRemovalListener(RemovalListener listener);
+
+    /**
+     * @return false if the listener was not added
+     */
+    boolean removeRemovalListener(RemovalListener listener);
+
+    CacheMetrics getMetrics();
+
+    int size();
+
+    @Override
+    void close();
+}
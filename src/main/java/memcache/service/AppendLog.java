@@ -0,0 +1,304 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Append-only journal of cache changes in memory-mapped, fixed-size log files.
+ * <p>
+ * Cache operations only queue the changed entry. A single writer thread drains the queue every
+ * commit interval, encodes the records into the mapped file and forces it to disk, so one fsync
+ * covers every change made during the interval (group commit). A crash loses at most the last
+ * interval.
+ * <p>
+ * The queue holds a fixed number of adds and removals. A change that finds it full wakes the
+ * writer early and waits up to {@value #MAX_WAIT_MILLIS} ms for room, which slows callers down to
+ * the speed of the disk; one that still finds no room is dropped and counted in
+ * {@link CacheMetrics#getJournalDropped}. Refreshed deadlines are not queued but kept per address,
+ * the latest replacing the one before, so a hot entry read many times in an interval costs one
+ * record. They are bounded by the same number and dropped without waiting, since losing one only
+ * brings the entry's deadline back to an earlier refresh.
+ * <p>
+ * Each record is {@value #RECORD_BYTES} bytes: type, CRC32, key, the entry's sequence, created
+ * time, time to live and the time that time to live was last counted from; a removal leaves the
+ * times zero. A refreshed deadline is another add record for the same sequence. Records are taken
+ * when the change is journaled, not when they are written.
+ * The unwritten tail of a file is zero, so replay stops at the first zero type or at a record
+ * whose checksum does not match, which is where a torn write would be.
+ */
+class AppendLog implements CacheJournal, AutoCloseable {
+
+    static final int RECORD_BYTES = 56;
+
+    /**
+     * Longest a change waits for room in a full queue before it is dropped.
+     */
+    static final long MAX_WAIT_MILLIS = 100;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int CHECKSUMMED_FROM = 8;
+
+    private static final Logger log = LoggerFactory.getLogger(AppendLog.class);
+
+    /**
+     * Receives the records of a log file in the order they were written.
+     */
+    interface Replay {
+
+        void added(AddressKey key, long sequence, long createdTime, long ttl, long touchedAt);
+
+        void removed(AddressKey key, long sequence);
+    }
+
+    private final File directory;
+    private final long fileBytes;
+    private final int capacity;
+    private final BlockingQueue<Change> pending;
+    private final ConcurrentMap<AddressKey, Change> refreshes = new ConcurrentHashMap<>();
+    private final AtomicBoolean woken = new AtomicBoolean();
+    private final CacheMetrics metrics;
+    private final ScheduledExecutorService writer;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+    private final CRC32 checksum = new CRC32();
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long number;
+
+    /**
+     * @param number    number of the first log file, which must not exist yet
+     * @param fileBytes size of each log file; a full file is closed and the next one started
+     * @param capacity  most adds and removals queued, and most refreshed deadlines kept, between
+     *                  two commits
+     * @param metrics   where dropped records are counted
+     */
+    AppendLog(File directory, long number, long fileBytes, long commitIntervalMillis, int capacity,
+              CacheMetrics metrics) throws IOException {
+        this.directory = directory;
+        this.fileBytes = fileBytes - fileBytes % RECORD_BYTES;
+        this.capacity = capacity;
+        this.pending = new ArrayBlockingQueue<>(capacity);
+        this.metrics = metrics;
+        open(number);
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "address-cache-log");
+            t.setDaemon(true);
+            return t;
+        });
+        writer.scheduleWithFixedDelay(this::commit, commitIntervalMillis, commitIntervalMillis, MILLISECONDS);
+    }
+
+    static String fileName(long number) {
+        return String.format("log-%020d.log", number);
+    }
+
+    @Override
+    public void added(CacheObject cacheObject) {
+        enqueue(new Change(ADD, cacheObject.key, cacheObject.sequence, cacheObject.createdTime,
+                cacheObject.ttl, cacheObject.touchedAt()));
+    }
+
+    @Override
+    public void refreshed(CacheObject cacheObject) {
+        Change change = new Change(ADD, cacheObject.key, cacheObject.sequence, cacheObject.createdTime,
+                cacheObject.ttl, cacheObject.touchedAt());
+        if (refreshes.size() >= capacity && !refreshes.containsKey(change.key)) {
+            wakeWriter();
+            metrics.recordJournalDropped();
+            return;
+        }
+        refreshes.merge(change.key, change, Change::later);
+    }
+
+    @Override
+    public void removed(CacheObject cacheObject) {
+        enqueue(new Change(REMOVE, cacheObject.key, cacheObject.sequence, 0, 0, 0));
+    }
+
+    private void enqueue(Change change) {
+        if (pending.offer(change))
+            return;
+        wakeWriter();
+        try {
+            if (pending.offer(change, MAX_WAIT_MILLIS, MILLISECONDS))
+                return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        metrics.recordJournalDropped();
+    }
+
+    /**
+     * Has the writer commit now rather than at the end of the interval, once until it does.
+     */
+    private void wakeWriter() {
+        if (woken.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::commit);
+            } catch (RejectedExecutionException e) {
+                // Closing, which writes what is queued anyway.
+            }
+        }
+    }
+
+    /**
+     * Commits everything queued so far and continues in a new file. Every change made before
+     * this is called is in a file numbered below the returned one.
+     *
+     * @return number of the new file
+     */
+    CompletableFuture<Long> roll() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                write();
+                open(number + 1);
+                return number;
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not roll append log", e);
+            }
+        }, writer);
+    }
+
+    /**
+     * Stops the writer, then commits what is still queued.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        write();
+        mapped.force();
+        channel.close();
+    }
+
+    static void replay(File file, Replay replay) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] bytes = new byte[RECORD_BYTES];
+            CRC32 checksum = new CRC32();
+            while (mapped.remaining() >= RECORD_BYTES) {
+                mapped.get(bytes);
+                ByteBuffer record = ByteBuffer.wrap(bytes);
+                byte type = record.get(0);
+                checksum.reset();
+                checksum.update(type);
+                checksum.update(bytes, CHECKSUMMED_FROM, RECORD_BYTES - CHECKSUMMED_FROM);
+                if ((type != ADD && type != REMOVE) || record.getInt(4) != (int) checksum.getValue())
+                    return;
+                AddressKey key = new AddressKey(record.getLong(8), record.getLong(16));
+                if (type == ADD)
+                    replay.added(key, record.getLong(24), record.getLong(32), record.getLong(40), record.getLong(48));
+                else
+                    replay.removed(key, record.getLong(24));
+            }
+        }
+    }
+
+    private void commit() {
+        woken.set(false);
+        try {
+            write();
+            mapped.force();
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not commit append log {}", fileName(number), e);
+        }
+    }
+
+    private void write() throws IOException {
+        Change change;
+        while ((change = pending.poll()) != null)
+            append(change);
+        for (AddressKey key : refreshes.keySet()) {
+            change = refreshes.remove(key);
+            if (change != null)
+                append(change);
+        }
+    }
+
+    private void append(Change change) throws IOException {
+        if (mapped.remaining() < RECORD_BYTES) {
+            mapped.force();
+            open(number + 1);
+        }
+        encode(change);
+        mapped.put(record.array());
+    }
+
+    private void encode(Change change) {
+        record.put(0, change.type)
+                .putLong(8, change.key.high)
+                .putLong(16, change.key.low)
+                .putLong(24, change.sequence)
+                .putLong(32, change.createdTime)
+                .putLong(40, change.ttl)
+                .putLong(48, change.touchedAt);
+        checksum.reset();
+        checksum.update(record.get(0));
+        checksum.update(record.array(), CHECKSUMMED_FROM, RECORD_BYTES - CHECKSUMMED_FROM);
+        record.putInt(4, (int) checksum.getValue());
+    }
+
+    private void open(long number) throws IOException {
+        if (channel != null)
+            channel.close();
+        this.number = number;
+        channel = FileChannel.open(new File(directory, fileName(number)).toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+    }
+
+    /**
+     * A change as it was when journaled.
+     */
+    private static final class Change {
+
+        final byte type;
+        final AddressKey key;
+        final long sequence;
+        final long createdTime;
+        final long ttl;
+        final long touchedAt;
+
+        Change(byte type, AddressKey key, long sequence, long createdTime, long ttl, long touchedAt) {
+            this.type = type;
+            this.key = key;
+            this.sequence = sequence;
+            this.createdTime = createdTime;
+            this.ttl = ttl;
+            this.touchedAt = touchedAt;
+        }
+
+        /**
+         * @return whichever of two refreshes of one address replay would keep
+         */
+        static Change later(Change one, Change other) {
+            return other.touchedAt >= one.touchedAt ? other : one;
+        }
+    }
+}
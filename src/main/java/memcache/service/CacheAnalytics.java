@@ -0,0 +1,288 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streaming statistics over the keys a cache is asked about, in fixed-length windows: the hottest
+ * addresses, the addresses most often added again soon after they expired, were taken or were
+ * evicted, and the number of distinct addresses seen. Everything is a fixed-size sketch, so
+ * memory does not grow with traffic, and recording takes no lock.
+ * <p>
+ * The current window and the one before it are kept, so an add counts as a re-add if the
+ * address left during either of them.
+ */
+public class CacheAnalytics {
+
+    /**
+     * Counters per row of each count-min sketch.
+     */
+    private static final int SKETCH_WIDTH = 2048;
+    /**
+     * Words of the departed-address filter, 64 bits each.
+     */
+    private static final int DEPARTED_WORDS = 4096;
+
+    private final long windowMillis;
+    private final int topK;
+    private final AtomicReference<Window> current;
+    private volatile Window previous;
+
+    /**
+     * @param windowMillis length of each window, 0 to record nothing
+     * @param topK         addresses kept in each top list
+     */
+    public CacheAnalytics(long windowMillis, int topK) {
+        this.windowMillis = Math.max(0, windowMillis);
+        this.topK = Math.max(1, topK);
+        long now = System.currentTimeMillis();
+        this.current = new AtomicReference<>(isEnabled() ? new Window(now, this.topK) : null);
+        this.previous = isEnabled() ? new Window(now - windowMillis, this.topK) : null;
+    }
+
+    public boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    /**
+     * Counts a request naming the address: an add, lookup or remove.
+     */
+    public void recordAccess(AddressKey key, long now) {
+        if (!isEnabled())
+            return;
+        Window window = window(now);
+        long hash = key.hash64();
+        window.accesses.increment();
+        window.distinct.add(hash);
+        window.hottest.offer(key, window.accessCounts.increment(hash));
+    }
+
+    /**
+     * Follows entries leaving and coming back, from the cache's own events.
+     */
+    public void record(CacheEvent.Type type, AddressKey key, long now) {
+        if (!isEnabled())
+            return;
+        switch (type) {
+            case EXPIRED:
+            case TAKEN:
+            case EVICTED:
+                window(now).departed(key.hash64());
+                break;
+            case ADDED:
+                Window window = window(now);
+                long hash = key.hash64();
+                if (window.hasDeparted(hash) || previous.hasDeparted(hash)) {
+                    window.reAdds.increment();
+                    window.churning.offer(key, window.reAddCounts.increment(hash));
+                }
+                break;
+            default:
+        }
+    }
+
+    /**
+     * @return the current window so far and the one before it, or null if nothing is recorded
+     */
+    public Report report() {
+        if (!isEnabled())
+            return null;
+        Window window = window(System.currentTimeMillis());
+        return new Report(windowMillis, window.report(windowMillis), previous.report(windowMillis));
+    }
+
+    /**
+     * Starts a new window once the current one has run its length. The writer whose swap wins
+     * moves the old one back; a window more than one length old is dropped for an empty one.
+     */
+    private Window window(long now) {
+        Window window = current.get();
+        while (now >= window.start + windowMillis) {
+            long start = now - (now - window.start) % windowMillis;
+            Window next = new Window(start, topK);
+            if (current.compareAndSet(window, next)) {
+                previous = start - window.start == windowMillis ? window : new Window(start - windowMillis, topK);
+                return next;
+            }
+            window = current.get();
+        }
+        return window;
+    }
+
+    private static final class Window {
+
+        final long start;
+        final LongAdder accesses = new LongAdder();
+        final LongAdder reAdds = new LongAdder();
+        final CountMinSketch accessCounts = new CountMinSketch(SKETCH_WIDTH);
+        final CountMinSketch reAddCounts = new CountMinSketch(SKETCH_WIDTH);
+        final TopK hottest;
+        final TopK churning;
+        final HyperLogLog distinct = new HyperLogLog();
+        /**
+         * Two-probe Bloom filter of addresses that left the cache in this window.
+         */
+        final AtomicLongArray departed = new AtomicLongArray(DEPARTED_WORDS);
+
+        Window(long start, int topK) {
+            this.start = start;
+            this.hottest = new TopK(topK);
+            this.churning = new TopK(topK);
+        }
+
+        void departed(long hash) {
+            setBit((int) hash);
+            setBit((int) (hash >>> 32));
+        }
+
+        boolean hasDeparted(long hash) {
+            return isSet((int) hash) && isSet((int) (hash >>> 32));
+        }
+
+        private void setBit(int probe) {
+            int bit = probe & (DEPARTED_WORDS * 64 - 1);
+            long mask = 1L << bit;
+            if ((departed.get(bit >>> 6) & mask) == 0)
+                departed.accumulateAndGet(bit >>> 6, mask, (word, set) -> word | set);
+        }
+
+        private boolean isSet(int probe) {
+            int bit = probe & (DEPARTED_WORDS * 64 - 1);
+            return (departed.get(bit >>> 6) & (1L << bit)) != 0;
+        }
+
+        WindowReport report(long windowMillis) {
+            return new WindowReport(start, start + windowMillis, accesses.sum(), distinct.estimate(), reAdds.sum(),
+                    counts(hottest.top()), counts(churning.top()));
+        }
+
+        private static List<AddressCount> counts(Map<AddressKey, Long> top) {
+            List<AddressCount> counts = new ArrayList<>(top.size());
+            for (Map.Entry<AddressKey, Long> entry : top.entrySet())
+                counts.add(new AddressCount(entry.getKey().toString(), entry.getValue()));
+            return counts;
+        }
+    }
+
+    public static final class Report {
+
+        private final long windowMillis;
+        private final WindowReport current;
+        private final WindowReport previous;
+
+        Report(long windowMillis, WindowReport current, WindowReport previous) {
+            this.windowMillis = windowMillis;
+            this.current = current;
+            this.previous = previous;
+        }
+
+        public long getWindowMillis() {
+            return windowMillis;
+        }
+
+        /**
+         * @return the window in progress, so far
+         */
+        public WindowReport getCurrent() {
+            return current;
+        }
+
+        /**
+         * @return the last complete window
+         */
+        public WindowReport getPrevious() {
+            return previous;
+        }
+    }
+
+    public static final class WindowReport {
+
+        private final long start;
+        private final long end;
+        private final long accesses;
+        private final long distinctAddresses;
+        private final long reAdds;
+        private final List<AddressCount> hottest;
+        private final List<AddressCount> churning;
+
+        WindowReport(long start, long end, long accesses, long distinctAddresses, long reAdds,
+                     List<AddressCount> hottest, List<AddressCount> churning) {
+            this.start = start;
+            this.end = end;
+            this.accesses = accesses;
+            this.distinctAddresses = distinctAddresses;
+            this.reAdds = reAdds;
+            this.hottest = hottest;
+            this.churning = churning;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return adds, lookups and removes
+         */
+        public long getAccesses() {
+            return accesses;
+        }
+
+        /**
+         * @return estimated number of distinct addresses accessed
+         */
+        public long getDistinctAddresses() {
+            return distinctAddresses;
+        }
+
+        /**
+         * @return adds of an address that had expired, been taken or been evicted shortly before
+         */
+        public long getReAdds() {
+            return reAdds;
+        }
+
+        /**
+         * @return the most accessed addresses, highest estimated count first
+         */
+        public List<AddressCount> getHottest() {
+            return hottest;
+        }
+
+        /**
+         * @return the most often re-added addresses, highest estimated count first
+         */
+        public List<AddressCount> getChurning() {
+            return churning;
+        }
+    }
+
+    public static final class AddressCount {
+
+        private final String address;
+        private final long count;
+
+        AddressCount(String address, long count) {
+            this.address = address;
+            this.count = count;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package memcache.service;
+
+import memcache.domain.CacheEvent;
+import memcache.domain.CacheObject;
+
+/**
+ * Receives every change to an {@link AddressCache} on the thread making it, so it must not block.
+ */
+interface CacheEventSink {
+
+    void publish(CacheEvent.Type type, CacheObject cacheObject, long now);
+
+    /**
+     * A live entry's deadline moved, by a re-add or by an access under sliding expiration.
+     */
+    void refreshed(CacheObject cacheObject);
+}
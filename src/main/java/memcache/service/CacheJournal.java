@@ -0,0 +1,43 @@
+package memcache.service;
+
+import memcache.domain.CacheObject;
+
+/**
+ * Receives every change to an {@link AddressCache} that has to survive a restart: adds, refreshed
+ * deadlines, and removals of every kind, takes, expiry and eviction included.
+ * <p>
+ * Changes are reported after they are made and without a lock, so two changes to one address can
+ * reach the journal in either order. Each change therefore names the entry by its address and
+ * sequence, which no other entry shares, and replay matches a removal to its add by both rather
+ * than by the order they were written in.
+ */
+interface CacheJournal {
+
+    CacheJournal NONE = new CacheJournal() {
+        @Override
+        public void added(CacheObject cacheObject) {
+        }
+
+        @Override
+        public void refreshed(CacheObject cacheObject) {
+        }
+
+        @Override
+        public void removed(CacheObject cacheObject) {
+        }
+    };
+
+    /**
+     * An entry was added.
+     */
+    void added(CacheObject cacheObject);
+
+    /**
+     * An entry's deadline was refreshed. A refresh is journaled like the add it updates, and
+     * replay keeps the record with the latest {@link CacheObject#touchedAt}, so a journal may keep
+     * only the latest refresh of an address it has not written yet.
+     */
+    void refreshed(CacheObject cacheObject);
+
+    void removed(CacheObject cacheObject);
+}
@@ -0,0 +1,147 @@
+package memcache.service;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operation counters for an {@link AddressCache}. Recording is a striped {@link LongAdder}
+ * increment, so concurrent writers do not contend on a shared counter; reads sum the stripes and
+ * may miss increments that are in flight.
+ */
+public class CacheMetrics {
+
+    private final LongAdder adds = new LongAdder();
+    private final LongAdder duplicateAdds = new LongAdder();
+    private final LongAdder removes = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder takes = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expiryLagMillis = new LongAdder();
+    private final LongAccumulator maxExpiryLagMillis = new LongAccumulator(Math::max, 0);
+    private final LongAdder listenerDelivered = new LongAdder();
+    private final LongAdder listenerDropped = new LongAdder();
+    private final LongAdder journalDropped = new LongAdder();
+
+    void recordAdd(boolean added) {
+        (added ? adds : duplicateAdds).increment();
+    }
+
+    void recordRemove(boolean removed) {
+        (removed ? removes : misses).increment();
+    }
+
+    void recordTake() {
+        takes.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    /**
+     * @param lagMillis how long the entry stayed in the cache after its expiry time
+     */
+    void recordExpiry(long lagMillis) {
+        expirations.increment();
+        if (lagMillis > 0) {
+            expiryLagMillis.add(lagMillis);
+            maxExpiryLagMillis.accumulate(lagMillis);
+        }
+    }
+
+    void recordListenerDelivered(long events) {
+        listenerDelivered.add(events);
+    }
+
+    void recordListenerDropped(long events) {
+        listenerDropped.add(events);
+    }
+
+    void recordJournalDropped() {
+        journalDropped.increment();
+    }
+
+    /**
+     * @return entries newly added
+     */
+    public long getAdds() {
+        return adds.sum();
+    }
+
+    /**
+     * @return adds of an address that was already cached, which leave the cache unchanged
+     */
+    public long getDuplicateAdds() {
+        return duplicateAdds.sum();
+    }
+
+    /**
+     * @return entries removed by remove
+     */
+    public long getRemoves() {
+        return removes.sum();
+    }
+
+    /**
+     * @return removes of an address that was not cached, and peeks and takes that found the
+     * cache empty
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return entries handed out by take
+     */
+    public long getTakes() {
+        return takes.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return total time expired entries stayed in the cache past their expiry time
+     */
+    public long getExpiryLagMillis() {
+        return expiryLagMillis.sum();
+    }
+
+    /**
+     * @return the longest time an entry stayed past its expiry time since the last call
+     */
+    public long getAndResetMaxExpiryLagMillis() {
+        return maxExpiryLagMillis.getThenReset();
+    }
+
+    /**
+     * @return removals handed to removal listeners, counted once per listener
+     */
+    public long getListenerDelivered() {
+        return listenerDelivered.sum();
+    }
+
+    /**
+     * @return removals overwritten before the listener thread got to them
+     */
+    public long getListenerDropped() {
+        return listenerDropped.sum();
+    }
+
+    /**
+     * @return changes the persistence journal dropped because its writer fell behind
+     */
+    public long getJournalDropped() {
+        return journalDropped.sum();
+    }
+}
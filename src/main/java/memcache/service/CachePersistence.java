@@ -0,0 +1,281 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Keeps an {@link AddressCache} on disk so it survives restarts.
+ * <p>
+ * Every add and remove is journaled to an {@link AppendLog}. Periodically the log is rolled and
+ * the cache is written out as a compacted {@link SnapshotFile} numbered after the new log file;
+ * the snapshot plus the logs from its number on describe the whole cache, so older files are
+ * deleted. Changes made while a snapshot is written land both in the new log and, possibly, in
+ * the snapshot; records name entries by address and sequence, so replaying one twice changes
+ * nothing.
+ * <p>
+ * {@link #start} recovers by mapping the newest complete snapshot, replaying the log files after
+ * it and only then journaling new changes. Changes to one address may have been journaled out of
+ * order, so replay drops every entry with a removal record anywhere in the logs, whichever comes
+ * first, and restores the rest in sequence order. This holds the entries removed since the
+ * snapshot in memory until the cache is restored. Entries keep their created time and time to
+ * live. A refreshed deadline is journaled as another add for the same sequence, and the record
+ * with the latest access wins, so an entry expires when it would have without the restart and
+ * anything that expired while the service was down is dropped.
+ */
+public class CachePersistence implements AutoCloseable {
+
+    private static final Pattern LOG_FILE = Pattern.compile("log-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT_FILE = Pattern.compile("snapshot-(\\d+)\\.snap");
+
+    /**
+     * Most changes queued for the log writer; at 56 bytes a record, an interval's worth of a
+     * busy cache.
+     */
+    private static final int QUEUED_CHANGES = 1 << 16;
+
+    private static final Logger log = LoggerFactory.getLogger(CachePersistence.class);
+
+    private final AddressCache cache;
+    private final File directory;
+    private final long logFileBytes;
+    private final long commitIntervalMillis;
+    private final long snapshotIntervalMillis;
+    private ScheduledExecutorService snapshots;
+    private AppendLog appendLog;
+
+    /**
+     * @param logFileBytes           size of each memory-mapped log file
+     * @param commitIntervalMillis   how often queued changes are written and forced to disk
+     * @param snapshotIntervalMillis how often a compacted snapshot is written, 0 for never
+     */
+    public CachePersistence(AddressCache cache, File directory, long logFileBytes,
+                            long commitIntervalMillis, long snapshotIntervalMillis) {
+        this.cache = cache;
+        this.directory = directory;
+        this.logFileBytes = logFileBytes;
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    /**
+     * Restores the cache from disk and starts journaling. Must be called before the cache is
+     * used.
+     *
+     * @return the number of entries restored
+     */
+    public synchronized int start() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create persistence directory " + directory);
+
+        Map<Journaled, Restored> live = new HashMap<>();
+        Set<Journaled> removed = new HashSet<>();
+        long[] lastSequence = {0};
+        long snapshot = -1;
+        for (long number : numbered(SNAPSHOT_FILE)) {
+            if (SnapshotFile.read(new File(directory, SnapshotFile.fileName(number)),
+                    (key, sequence, createdTime, ttl, touchedAt) -> {
+                        live.put(new Journaled(key, sequence), new Restored(key, sequence, createdTime, ttl, touchedAt));
+                        lastSequence[0] = Math.max(lastSequence[0], sequence);
+                    })) {
+                snapshot = number;
+                break;
+            }
+        }
+        List<Long> logs = numbered(LOG_FILE);
+        Collections.reverse(logs);
+        AppendLog.Replay replay = new AppendLog.Replay() {
+            @Override
+            public void added(AddressKey key, long sequence, long createdTime, long ttl, long touchedAt) {
+                Journaled entry = new Journaled(key, sequence);
+                if (!removed.contains(entry))
+                    live.merge(entry, new Restored(key, sequence, createdTime, ttl, touchedAt), Restored::latest);
+                lastSequence[0] = Math.max(lastSequence[0], sequence);
+            }
+
+            @Override
+            public void removed(AddressKey key, long sequence) {
+                Journaled entry = new Journaled(key, sequence);
+                removed.add(entry);
+                live.remove(entry);
+                lastSequence[0] = Math.max(lastSequence[0], sequence);
+            }
+        };
+        long nextLog = snapshot + 1;
+        for (long number : logs) {
+            if (number >= snapshot)
+                AppendLog.replay(new File(directory, AppendLog.fileName(number)), replay);
+            nextLog = Math.max(nextLog, number + 1);
+        }
+        restore(live.values());
+        cache.skipSequence(lastSequence[0]);
+
+        appendLog = new AppendLog(directory, nextLog, logFileBytes, commitIntervalMillis, QUEUED_CHANGES,
+                cache.getMetrics());
+        cache.journal(appendLog);
+        if (snapshotIntervalMillis > 0) {
+            snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "address-cache-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshots.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalMillis,
+                    snapshotIntervalMillis, MILLISECONDS);
+        }
+        return cache.size();
+    }
+
+    /**
+     * Rolls the log, writes a snapshot numbered after the new log file and deletes the files it
+     * replaces.
+     *
+     * @return the number of entries written
+     */
+    public synchronized long snapshot() throws IOException {
+        long number = appendLog.roll().join();
+        long written = SnapshotFile.write(new File(directory, SnapshotFile.fileName(number)), cache.entries());
+        for (long older : numbered(SNAPSHOT_FILE)) {
+            if (older < number)
+                delete(new File(directory, SnapshotFile.fileName(older)));
+        }
+        for (long older : numbered(LOG_FILE)) {
+            if (older < number)
+                delete(new File(directory, AppendLog.fileName(older)));
+        }
+        return written;
+    }
+
+    /**
+     * Stops snapshots and commits what is left in the log.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (snapshots != null)
+            snapshots.shutdownNow();
+        if (appendLog != null) {
+            cache.journal(CacheJournal.NONE);
+            appendLog.close();
+            appendLog = null;
+        }
+    }
+
+    /**
+     * Restores entries in sequence order. Two live entries for one address mean a removal was
+     * lost with the tail of the log; the later one is kept.
+     */
+    private void restore(Collection<Restored> entries) {
+        Map<AddressKey, Restored> latest = new HashMap<>();
+        for (Restored entry : entries)
+            latest.merge(entry.key, entry, (one, other) -> one.sequence > other.sequence ? one : other);
+        List<Restored> ordered = new ArrayList<>(latest.values());
+        ordered.sort(Comparator.comparingLong(entry -> entry.sequence));
+        for (Restored entry : ordered)
+            cache.restore(entry.key, entry.sequence, entry.createdTime, entry.ttl, entry.touchedAt);
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not write cache snapshot to {}", directory, e);
+        }
+    }
+
+    /**
+     * @return numbers of the files matching {@code pattern}, highest first
+     */
+    private List<Long> numbered(Pattern pattern) {
+        List<Long> numbers = new ArrayList<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher matcher = pattern.matcher(name);
+                if (matcher.matches())
+                    numbers.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+        numbers.sort(Collections.reverseOrder());
+        return numbers;
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.exists() && !file.delete())
+            throw new IOException("Could not delete " + file);
+    }
+
+    /**
+     * Names one entry in the journal. A sequence alone does not, since an entry handed over by
+     * another node keeps the sequence it was given there.
+     */
+    private static final class Journaled {
+
+        final AddressKey key;
+        final long sequence;
+
+        Journaled(AddressKey key, long sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Journaled))
+                return false;
+            Journaled other = (Journaled) o;
+            return sequence == other.sequence && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + Long.hashCode(sequence);
+        }
+    }
+
+    /**
+     * A persisted entry waiting to be restored.
+     */
+    private static final class Restored {
+
+        final AddressKey key;
+        final long sequence;
+        final long createdTime;
+        final long ttl;
+        final long touchedAt;
+
+        Restored(AddressKey key, long sequence, long createdTime, long ttl, long touchedAt) {
+            this.key = key;
+            this.sequence = sequence;
+            this.createdTime = createdTime;
+            this.ttl = ttl;
+            this.touchedAt = touchedAt;
+        }
+
+        /**
+         * @return whichever of two records of one entry was counted from the later access; the
+         * second on a tie, since records are read oldest first
+         */
+        static Restored latest(Restored one, Restored other) {
+            return one.touchedAt > other.touchedAt ? one : other;
+        }
+    }
+}
@@ -0,0 +1,710 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheEvent;
+import memcache.domain.CacheObject;
+import memcache.jfr.CleanupEvent;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One independent part of an {@link AddressCache}: its own map, recency deque, expiry wheel,
+ * eviction queue and prefix index. Segments share nothing, so operations on different segments never contend.
+ * <p>
+ * With a hot capacity, the oldest entries beyond it are demoted to a {@link ColdTier} off the
+ * heap and promoted back when looked up. Takes, ranges and expiry then cover both tiers.
+ * <p>
+ * Sequences order entries for take. They are unique per address rather than per cache, since an
+ * entry handed over by another node keeps the sequence it was given there, so entries are ordered
+ * by sequence and then by address.
+ */
+class CacheSegment {
+
+    /**
+     * Removed entries are left in the recency deque as tombstones and unlinked lazily. Once they
+     * outnumber the live entries (and this floor) the deque is purged in a single pass.
+     */
+    private static final int TOMBSTONE_PURGE_FLOOR = 1024;
+    /**
+     * Cold records checked for expiry per cleanup pass, beyond the oldest ones.
+     */
+    private static final int COLD_SWEEP = 1024;
+
+    static final Comparator<CacheObject> IN_SEQUENCE =
+            Comparator.comparingLong((CacheObject entry) -> entry.sequence).thenComparing(entry -> entry.key);
+
+    private final Map<AddressKey, CacheObject> cacheMap = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedDeque<CacheObject> recency = new ConcurrentLinkedDeque<>();
+    private final TakeOrder order;
+    private final AtomicInteger tombstones = new AtomicInteger();
+    /**
+     * Entries removed or demoted since the expiry wheel was last purged, which it still holds
+     * until their deadline. Counted like {@link #tombstones}, against the live entries.
+     */
+    private final AtomicInteger wheelTombstones = new AtomicInteger();
+    private final AtomicBoolean purging = new AtomicBoolean();
+    private final AtomicBoolean cleaning = new AtomicBoolean();
+    private final TimingWheel expiryWheel;
+    private final boolean sliding;
+    private final long capacity;
+    private final Evictor evictor;
+    private final PrefixIndex prefixIndex = new PrefixIndex();
+    private final CountingBloomFilter filter;
+    private final long hotCapacity;
+    private final ColdTier cold;
+    /**
+     * Entries that arrived older than the newest one in the recency deque, which holds entries in
+     * the order they were added: those promoted from the cold tier and those handed over by
+     * another node. Keyed by themselves, in sequence order.
+     */
+    private final ConcurrentSkipListMap<CacheObject, CacheObject> outOfOrder = new ConcurrentSkipListMap<>(IN_SEQUENCE);
+    private final AtomicBoolean demoting = new AtomicBoolean();
+    private final CacheMetrics metrics;
+    private final CacheEventSink events;
+
+    /**
+     * @param filterEntries expected number of entries to size the membership filter for, 0 for no
+     *                      filter
+     * @param hotCapacity   entries kept on the heap before the oldest are demoted, 0 for no cold
+     *                      tier
+     * @param coldDirectory where to map the cold tier, or null for direct memory
+     * @param sliding       whether lookups restart an entry's time to live
+     */
+    CacheSegment(TakeOrder order, TimingWheel expiryWheel, boolean sliding, long capacity,
+                 EvictionPolicy evictionPolicy, long filterEntries, long hotCapacity, File coldDirectory,
+                 CacheMetrics metrics, CacheEventSink events) {
+        this.order = order;
+        this.expiryWheel = expiryWheel;
+        this.sliding = sliding;
+        this.capacity = capacity;
+        this.evictor = capacity > 0 ? Evictor.create(evictionPolicy, capacity) : null;
+        this.filter = filterEntries > 0 ? new CountingBloomFilter(filterEntries) : null;
+        this.hotCapacity = hotCapacity;
+        this.cold = hotCapacity > 0 ? new ColdTier(coldDirectory) : null;
+        this.metrics = metrics;
+        this.events = events;
+    }
+
+    /**
+     * @return true if a new entry was inserted, false if a live entry for the key already existed
+     */
+    boolean add(CacheObject cacheObject) {
+        AddressKey key = cacheObject.key;
+        // A cold copy of the address was counted by the filter when it was first added.
+        boolean mightBeCold = cold != null && (filter == null || filter.mightContain(key));
+        // Counted before the entry can be seen, so the count taken back when it is forgotten
+        // always follows this one.
+        if (filter != null)
+            filter.add(key);
+        while (true) {
+            CacheObject existing = cacheMap.putIfAbsent(key, cacheObject);
+            if (existing == null)
+                break;
+            if (!existing.isRemoved()) {
+                if (!existing.isExpired(cacheObject.createdTime)) {
+                    if (filter != null)
+                        filter.remove(key);
+                    if (evictor != null)
+                        evictor.onAccess(existing);
+                    return false;
+                }
+                expire(existing, cacheObject.createdTime);
+            }
+            // Either expired, or claimed by a concurrent take/remove that has not unmapped it yet.
+            cacheMap.remove(key, existing);
+        }
+        if (mightBeCold && isColdAndLive(key, cacheObject.createdTime)) {
+            // Already cached off the heap; a promotion racing with this add left it there.
+            if (cacheObject.markRemoved()) {
+                cacheMap.remove(key, cacheObject);
+                if (filter != null)
+                    filter.remove(key);
+            } else {
+                // Claimed by a remove, which counted it as a tombstone of the deque.
+                recency.offerLast(cacheObject);
+            }
+            return false;
+        }
+        prefixIndex.insert(cacheObject);
+        CacheObject newest = recency.peekLast();
+        if (newest != null && IN_SEQUENCE.compare(cacheObject, newest) < 0) {
+            outOfOrder.put(cacheObject, cacheObject);
+            // A remove that claimed the entry before it was indexed had nothing to drop yet, and
+            // counted it as a tombstone it never became.
+            if (cacheObject.isRemoved()) {
+                prefixIndex.remove(cacheObject);
+                if (outOfOrder.remove(cacheObject, cacheObject))
+                    tombstones.decrementAndGet();
+            }
+        } else {
+            // A remove that claimed the entry before it was indexed had nothing to drop yet.
+            if (cacheObject.isRemoved())
+                prefixIndex.remove(cacheObject);
+            recency.offerLast(cacheObject);
+        }
+        scheduleExpiry(cacheObject);
+        if (evictor != null) {
+            evictor.onAdd(cacheObject);
+            evictIfOverCapacity();
+        }
+        demoteIfOverHotCapacity();
+        return true;
+    }
+
+    /**
+     * @return the live entry removed, or null if the address was not cached
+     */
+    CacheObject remove(AddressKey key) {
+        CacheObject cacheObject = cacheMap.get(key);
+        CacheObject removed = cacheObject != null && unlink(cacheObject) ? cacheObject : null;
+        // Cold if it was demoted, and possibly also if an add racing with a promotion mapped it.
+        if (cold != null && (removed != null || cacheObject == null || cacheObject.isDemoted())
+                && (filter == null || filter.mightContain(key))) {
+            CacheObject coldEntry = cold.remove(key);
+            if (coldEntry != null) {
+                if (filter != null)
+                    filter.remove(key);
+                if (removed == null)
+                    removed = coldEntry;
+            }
+        }
+        if (removed == null)
+            return null;
+        long now = System.currentTimeMillis();
+        if (!removed.isExpired(now))
+            return removed;
+        recordExpiry(removed, now);
+        return null;
+    }
+
+    boolean contains(AddressKey key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the live entry for the key, without counting as an access for eviction; most absent
+     * keys are answered by the filter alone. A cold entry is promoted back onto the heap. Under
+     * sliding expiration the entry's time to live restarts.
+     */
+    CacheObject get(AddressKey key) {
+        long now = System.currentTimeMillis();
+        CacheObject cacheObject = lookup(key, now);
+        if (cacheObject != null && sliding && cacheObject.touch(now, expiryWheel.tickMillis()))
+            events.refreshed(cacheObject);
+        return cacheObject;
+    }
+
+    /**
+     * Like {@link #get}, without restarting the time to live.
+     */
+    private CacheObject lookup(AddressKey key, long now) {
+        if (filter != null && !filter.mightContain(key))
+            return null;
+        CacheObject cacheObject = cacheMap.get(key);
+        if (cacheObject != null && !cacheObject.isRemoved())
+            return cacheObject.isExpired(now) ? null : cacheObject;
+        if (cold == null || cacheObject != null && !cacheObject.isDemoted())
+            return null;
+        return promote(key);
+    }
+
+    /**
+     * Gives the live entry for a re-added address the re-add's time to live, counted from the
+     * re-add, and journals the new deadline once. The wheel finds a later deadline by itself when
+     * the old one comes up; an earlier one is scheduled as well.
+     */
+    void refresh(CacheObject readded) {
+        CacheObject cacheObject = lookup(readded.key, readded.createdTime);
+        if (cacheObject == null)
+            return;
+        long previous = cacheObject.expiresAt;
+        cacheObject.expireAfter(readded.ttl, readded.createdTime);
+        if (cacheObject.expiresAt < previous)
+            scheduleExpiry(cacheObject);
+        events.refreshed(cacheObject);
+    }
+
+    /**
+     * @return the live entry that would be taken next, without removing it
+     */
+    CacheObject peek() {
+        CacheObject head = recencyHead();
+        if (cold == null && outOfOrder.isEmpty())
+            return head;
+        CacheObject outOfOrderHead = outOfOrderHead();
+        if (outOfOrderHead != null && (head == null || isBefore(outOfOrderHead, head)))
+            head = outOfOrderHead;
+        if (cold == null)
+            return head;
+        CacheObject coldHead = coldHead();
+        if (coldHead != null && (head == null || isBefore(coldHead, head)))
+            head = coldHead;
+        return head;
+    }
+
+    private CacheObject recencyHead() {
+        while (true) {
+            CacheObject head = order == TakeOrder.LIFO ? recency.peekLast() : recency.peekFirst();
+            if (head == null)
+                return null;
+            if (!head.isRemoved()) {
+                long now = System.currentTimeMillis();
+                if (!head.isExpired(now))
+                    return head;
+                expire(head, now);
+            }
+            discardTombstone(head);
+        }
+    }
+
+    /**
+     * Records a read of an entry for the eviction policy.
+     */
+    void touch(CacheObject cacheObject) {
+        if (evictor != null && !(cacheObject instanceof ColdTier.ColdEntry))
+            evictor.onAccess(cacheObject);
+    }
+
+    CacheObject poll() {
+        if (cold != null || !outOfOrder.isEmpty())
+            return pollTiers();
+        while (true) {
+            CacheObject head = order == TakeOrder.LIFO ? recency.pollLast() : recency.pollFirst();
+            if (head == null)
+                return null;
+            if (head.markRemoved()) {
+                forget(head);
+                long now = System.currentTimeMillis();
+                if (!head.isExpired(now))
+                    return head;
+                recordExpiry(head, now);
+            } else {
+                tombstones.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Takes the first of the heads of the deque, the out of order entries and the cold tier in
+     * take order. Another taker may claim it first, in which case the heads are looked at again.
+     */
+    private CacheObject pollTiers() {
+        while (true) {
+            CacheObject head = peek();
+            if (head == null)
+                return null;
+            if (head instanceof ColdTier.ColdEntry) {
+                if (!cold.remove((ColdTier.ColdEntry) head))
+                    continue;
+                if (filter != null)
+                    filter.remove(head.key);
+            } else if (head.markRemoved()) {
+                if (!forget(head)) {
+                    tombstones.incrementAndGet();
+                    discardTombstone(head);
+                }
+            } else {
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            if (!head.isExpired(now))
+                return head;
+            recordExpiry(head, now);
+        }
+    }
+
+    int size() {
+        return cold == null ? cacheMap.size() : cacheMap.size() + cold.size();
+    }
+
+    /**
+     * @return entries oldest first, possibly including removed and expired ones; weakly
+     * consistent like the recency deque's own iterator. The deque, the out of order entries and
+     * any cold tier are merged by sequence.
+     */
+    Iterator<CacheObject> entries() {
+        if (cold == null && outOfOrder.isEmpty())
+            return recency.iterator();
+        if (cold == null)
+            return AddressCache.merge(Arrays.asList(recency.iterator(), outOfOrder.values().iterator()), IN_SEQUENCE);
+        return AddressCache.merge(Arrays.asList(recency.iterator(), outOfOrder.values().iterator(), cold.entries()),
+                IN_SEQUENCE);
+    }
+
+    /**
+     * @return the live entry sharing the longest prefix with {@code key}, or null if there is none
+     */
+    CacheObject closest(AddressKey key) {
+        CacheObject closest = hotClosest(key);
+        if (cold == null)
+            return closest;
+        CacheObject coldClosest = coldClosest(key);
+        if (coldClosest != null && (closest == null
+                || key.commonPrefixLength(coldClosest.key) > key.commonPrefixLength(closest.key)))
+            return coldClosest;
+        return closest;
+    }
+
+    private CacheObject hotClosest(AddressKey key) {
+        while (true) {
+            CacheObject closest = prefixIndex.closest(key);
+            if (closest == null)
+                return null;
+            long now = System.currentTimeMillis();
+            if (!closest.isRemoved() && !closest.isExpired(now))
+                return closest;
+            expire(closest, now);
+            // Claimed by someone else who has not dropped it from the index yet.
+            prefixIndex.remove(closest);
+        }
+    }
+
+    private CacheObject coldClosest(AddressKey key) {
+        while (true) {
+            ColdTier.ColdEntry closest = cold.closest(key);
+            if (closest == null)
+                return null;
+            long now = System.currentTimeMillis();
+            if (!closest.isExpired(now))
+                return closest;
+            expireCold(closest, now);
+        }
+    }
+
+    /**
+     * @return live entries from {@code from} to {@code to} inclusive, in address order
+     */
+    Iterator<CacheObject> range(AddressKey from, AddressKey to) {
+        return range(from, true, to);
+    }
+
+    /**
+     * @return live entries after {@code from} up to {@code to} inclusive, in address order
+     */
+    Iterator<CacheObject> rangeAfter(AddressKey from, AddressKey to) {
+        return range(from, false, to);
+    }
+
+    private Iterator<CacheObject> range(AddressKey from, boolean inclusive, AddressKey to) {
+        if (cold == null)
+            return prefixIndex.range(from, inclusive, to);
+        // An entry moving between tiers is claimed on the heap before it is copied to the cold
+        // tier, and unmapped from the cold tier before it is indexed on the heap, so neither
+        // side hands it out twice.
+        return AddressCache.merge(Arrays.asList(prefixIndex.range(from, inclusive, to), cold.range(from, inclusive, to)),
+                Comparator.comparing(entry -> entry.key));
+    }
+
+    /**
+     * Removes entries whose time to live has passed, driven by the expiry wheel. A pass that finds
+     * another one already running returns straight away.
+     *
+     * @return the number of entries removed
+     */
+    int cleanup(long now) {
+        if (!cleaning.compareAndSet(false, true))
+            return 0;
+        try {
+            CleanupEvent event = new CleanupEvent();
+            event.begin();
+            int removed = expiryWheel.advance(now, cacheObject -> expire(cacheObject, now));
+            int scanned = expiryWheel.lastScanned();
+            if (wheelTombstones.get() > Math.max(TOMBSTONE_PURGE_FLOOR, cacheMap.size())) {
+                wheelTombstones.set(0);
+                expiryWheel.purge();
+            }
+            if (cold != null) {
+                removed += cold.expire(now, COLD_SWEEP, cacheObject -> {
+                    if (filter != null)
+                        filter.remove(cacheObject.key);
+                    recordExpiry(cacheObject, now);
+                });
+                scanned += cold.lastScanned();
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.scanned = scanned;
+                event.removed = removed;
+                event.remaining = size();
+                event.commit();
+            }
+            return removed;
+        } finally {
+            cleaning.set(false);
+        }
+    }
+
+    private void scheduleExpiry(CacheObject cacheObject) {
+        if (cacheObject.expiresAt != Long.MAX_VALUE)
+            expiryWheel.schedule(cacheObject);
+    }
+
+    private void expire(CacheObject cacheObject, long now) {
+        if (unlink(cacheObject))
+            recordExpiry(cacheObject, now);
+    }
+
+    private void expireCold(ColdTier.ColdEntry coldEntry, long now) {
+        if (!cold.remove(coldEntry))
+            return;
+        if (filter != null)
+            filter.remove(coldEntry.key);
+        recordExpiry(coldEntry, now);
+    }
+
+    private void recordExpiry(CacheObject cacheObject, long now) {
+        metrics.recordExpiry(now - cacheObject.expiresAt);
+        events.publish(CacheEvent.Type.EXPIRED, cacheObject, now);
+    }
+
+    /**
+     * Claims and unmaps an entry, leaving its deque node behind as a tombstone.
+     */
+    private boolean unlink(CacheObject cacheObject) {
+        if (!cacheObject.markRemoved())
+            return false;
+        // Expiry counts too, though the wheel let go of the entry first; purging early is harmless.
+        if (cacheObject.expiresAt != Long.MAX_VALUE)
+            wheelTombstones.incrementAndGet();
+        // Out of order entries have no deque node to leave behind.
+        if (!forget(cacheObject) && tombstones.incrementAndGet() > Math.max(TOMBSTONE_PURGE_FLOOR, cacheMap.size()))
+            purgeTombstones();
+        return true;
+    }
+
+    /**
+     * @return true if the entry was out of order, so it has no deque node
+     */
+    private boolean forget(CacheObject cacheObject) {
+        cacheMap.remove(cacheObject.key, cacheObject);
+        prefixIndex.remove(cacheObject);
+        if (filter != null)
+            filter.remove(cacheObject.key);
+        if (evictor != null)
+            evictor.onRemove(cacheObject);
+        return outOfOrder.remove(cacheObject, cacheObject);
+    }
+
+    /**
+     * Evicts until the segment is back within capacity. Writers that push it over the bound do
+     * this themselves, so there is no eviction thread and no lock to contend on. Cold entries go
+     * first, oldest first, as they are the ones not looked up for longest.
+     */
+    private void evictIfOverCapacity() {
+        while (size() > capacity) {
+            ColdTier.ColdEntry coldest = cold == null ? null : cold.first(false);
+            if (coldest != null) {
+                if (cold.remove(coldest)) {
+                    if (filter != null)
+                        filter.remove(coldest.key);
+                    recordEviction(coldest);
+                }
+                continue;
+            }
+            CacheObject victim = evictor.nextVictim();
+            if (victim == null)
+                return;
+            if (unlink(victim))
+                recordEviction(victim);
+        }
+    }
+
+    private void recordEviction(CacheObject victim) {
+        metrics.recordEviction();
+        events.publish(CacheEvent.Type.EVICTED, victim, System.currentTimeMillis());
+    }
+
+    /**
+     * @return whether the address has a live cold entry; an expired one is removed on the way
+     */
+    private boolean isColdAndLive(AddressKey key, long now) {
+        ColdTier.ColdEntry coldEntry = cold.get(key);
+        if (coldEntry == null)
+            return false;
+        if (!coldEntry.isExpired(now))
+            return true;
+        expireCold(coldEntry, now);
+        return false;
+    }
+
+    /**
+     * Moves a cold entry back onto the heap. It keeps its times and sequence, so it is taken and
+     * expires exactly as if it had never left.
+     *
+     * @return the live entry, or null if the address is not cached
+     */
+    private CacheObject promote(AddressKey key) {
+        long now = System.currentTimeMillis();
+        CacheObject cacheObject;
+        synchronized (cold) {
+            ColdTier.ColdEntry coldEntry = cold.get(key);
+            if (coldEntry == null)
+                return null;
+            if (coldEntry.isExpired(now)) {
+                expireCold(coldEntry, now);
+                return null;
+            }
+            cacheObject = new CacheObject(key, coldEntry.createdTime);
+            cacheObject.expiresAt = coldEntry.expiresAt;
+            cacheObject.ttl = coldEntry.ttl;
+            cacheObject.sequence = coldEntry.sequence;
+            // An add that mapped the address first finds the cold entry still there and backs off.
+            if (cacheMap.putIfAbsent(key, cacheObject) != null)
+                return coldEntry;
+            cold.remove(coldEntry);
+        }
+        prefixIndex.insert(cacheObject);
+        outOfOrder.put(cacheObject, cacheObject);
+        // A remove that claimed the entry before it was indexed had nothing to drop yet, and
+        // counted it as a tombstone it never became.
+        if (cacheObject.isRemoved()) {
+            prefixIndex.remove(cacheObject);
+            if (outOfOrder.remove(cacheObject, cacheObject))
+                tombstones.decrementAndGet();
+        }
+        scheduleExpiry(cacheObject);
+        if (evictor != null)
+            evictor.onAdd(cacheObject);
+        demoteIfOverHotCapacity();
+        return cacheObject;
+    }
+
+    /**
+     * Demotes the oldest entries until the heap holds no more than its hot capacity. Like
+     * eviction this is done by whoever pushed the segment over; a writer that finds another
+     * demoting leaves it to them.
+     */
+    private void demoteIfOverHotCapacity() {
+        if (cold == null || cacheMap.size() <= hotCapacity || !demoting.compareAndSet(false, true))
+            return;
+        try {
+            while (cacheMap.size() > hotCapacity) {
+                CacheObject victim = demotionCandidate();
+                if (victim == null)
+                    return;
+                demote(victim);
+            }
+        } finally {
+            demoting.set(false);
+        }
+    }
+
+    /**
+     * @return the oldest live entry of the recency deque, or once that is empty the oldest
+     * out of order one
+     */
+    private CacheObject demotionCandidate() {
+        long now = System.currentTimeMillis();
+        CacheObject oldest;
+        while ((oldest = recency.peekFirst()) != null) {
+            if (!oldest.isRemoved()) {
+                if (!oldest.isExpired(now))
+                    return oldest;
+                expire(oldest, now);
+            }
+            if (recency.removeFirstOccurrence(oldest))
+                tombstones.decrementAndGet();
+        }
+        Map.Entry<CacheObject, CacheObject> first;
+        while ((first = outOfOrder.firstEntry()) != null) {
+            oldest = first.getValue();
+            if (!oldest.isRemoved()) {
+                if (!oldest.isExpired(now))
+                    return oldest;
+                expire(oldest, now);
+            }
+            outOfOrder.remove(oldest, oldest);
+        }
+        return null;
+    }
+
+    /**
+     * Copies an entry to the cold tier and drops it from the heap. The entry is claimed first, so
+     * a take or remove racing with the move either wins outright or finds it cold; the filter
+     * keeps counting it.
+     */
+    private void demote(CacheObject cacheObject) {
+        synchronized (cold) {
+            if (!cacheObject.markDemoted())
+                return;
+            cold.insert(cacheObject);
+            cacheMap.remove(cacheObject.key, cacheObject);
+        }
+        if (cacheObject.expiresAt != Long.MAX_VALUE)
+            wheelTombstones.incrementAndGet();
+        prefixIndex.remove(cacheObject);
+        if (evictor != null)
+            evictor.onRemove(cacheObject);
+        if (!outOfOrder.remove(cacheObject, cacheObject)) {
+            // Counted like any other tombstone, as a concurrent take may already have popped it.
+            tombstones.incrementAndGet();
+            if (recency.removeFirstOccurrence(cacheObject))
+                tombstones.decrementAndGet();
+        }
+    }
+
+    private CacheObject outOfOrderHead() {
+        while (true) {
+            Map.Entry<CacheObject, CacheObject> end = order == TakeOrder.LIFO ? outOfOrder.lastEntry() : outOfOrder.firstEntry();
+            if (end == null)
+                return null;
+            CacheObject head = end.getValue();
+            if (!head.isRemoved()) {
+                long now = System.currentTimeMillis();
+                if (!head.isExpired(now))
+                    return head;
+                expire(head, now);
+            }
+            outOfOrder.remove(head, head);
+        }
+    }
+
+    private CacheObject coldHead() {
+        while (true) {
+            ColdTier.ColdEntry head = cold.first(order == TakeOrder.LIFO);
+            if (head == null)
+                return null;
+            long now = System.currentTimeMillis();
+            if (!head.isExpired(now))
+                return head;
+            expireCold(head, now);
+        }
+    }
+
+    private boolean isBefore(CacheObject candidate, CacheObject head) {
+        int compared = IN_SEQUENCE.compare(candidate, head);
+        return order == TakeOrder.LIFO ? compared > 0 : compared < 0;
+    }
+
+    private void discardTombstone(CacheObject tombstone) {
+        boolean unlinked = order == TakeOrder.LIFO
+                ? recency.removeLastOccurrence(tombstone)
+                : recency.removeFirstOccurrence(tombstone);
+        if (unlinked)
+            tombstones.decrementAndGet();
+    }
+
+    private void purgeTombstones() {
+        if (!purging.compareAndSet(false, true))
+            return;
+        try {
+            for (Iterator<CacheObject> it = recency.iterator(); it.hasNext(); ) {
+                if (it.next().isRemoved()) {
+                    it.remove();
+                    tombstones.decrementAndGet();
+                }
+            }
+        } finally {
+            purging.set(false);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package memcache.service;
+
+import java.io.File;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunables for an {@link AddressCache}. Setters return {@code this} so settings can be chained.
+ */
+public class CacheSettings {
+
+    private long maxAgeMillis;
+    private boolean slidingExpiration;
+    private TakeOrder takeOrder = TakeOrder.LIFO;
+    private long tickMillis = 100;
+    private long maxEntries;
+    private long maxBytes;
+    private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+    private int shards = 1;
+    private int maintenanceThreads = 2;
+    private ScheduledExecutorService maintenance;
+    private int changeFeedCapacity;
+    private int listenerQueueSize = 8192;
+    private long listenerIntervalMillis = 10;
+    private long filterExpectedEntries;
+    private long hotMaxEntries;
+    private long analyticsWindowMillis;
+    private int analyticsTopK = 20;
+    private File tierDirectory;
+
+    public CacheSettings maxAge(long maxAge, TimeUnit unit) {
+        this.maxAgeMillis = unit.toMillis(maxAge);
+        return this;
+    }
+
+    /**
+     * @param slidingExpiration whether a lookup or re-add of a cached address restarts its time
+     *                          to live, instead of it counting from the first add only
+     */
+    public CacheSettings slidingExpiration(boolean slidingExpiration) {
+        this.slidingExpiration = slidingExpiration;
+        return this;
+    }
+
+    public CacheSettings takeOrder(TakeOrder takeOrder) {
+        this.takeOrder = takeOrder;
+        return this;
+    }
+
+    public CacheSettings tickMillis(long tickMillis) {
+        this.tickMillis = tickMillis;
+        return this;
+    }
+
+    /**
+     * @param maxEntries upper bound on the number of entries, 0 for unbounded
+     */
+    public CacheSettings maxEntries(long maxEntries) {
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    /**
+     * @param maxBytes upper bound on the estimated heap held by entries, 0 for unbounded
+     */
+    public CacheSettings maxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    public CacheSettings evictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+        return this;
+    }
+
+    /**
+     * @param shards number of independent segments, rounded up to a power of two
+     */
+    public CacheSettings shards(int shards) {
+        this.shards = shards <= 1 ? 1 : Integer.highestOneBit(shards - 1) << 1;
+        return this;
+    }
+
+    /**
+     * @param maintenanceThreads size of the pool running per-shard expiry, 0 to leave expiry to
+     *                           explicit cleanup calls
+     */
+    public CacheSettings maintenanceThreads(int maintenanceThreads) {
+        this.maintenanceThreads = Math.max(0, maintenanceThreads);
+        return this;
+    }
+
+    /**
+     * @param maintenance scheduler to run per-shard expiry on, shared with other caches, instead of
+     *                    a pool of the cache's own; the cache cancels its tasks on close but leaves
+     *                    the scheduler running. Null for a pool of {@link #maintenanceThreads}.
+     */
+    public CacheSettings maintenance(ScheduledExecutorService maintenance) {
+        this.maintenance = maintenance;
+        return this;
+    }
+
+    /**
+     * @param changeFeedCapacity number of recent changes kept for {@link AddressCache#getChangeFeed}
+     *                           readers, 0 to publish none
+     */
+    public CacheSettings changeFeedCapacity(int changeFeedCapacity) {
+        this.changeFeedCapacity = Math.max(0, changeFeedCapacity);
+        return this;
+    }
+
+    /**
+     * @param listenerQueueSize removals held for {@link RemovalListener}s before the oldest are
+     *                          dropped, rounded up to a power of two
+     */
+    public CacheSettings listenerQueueSize(int listenerQueueSize) {
+        this.listenerQueueSize = Math.max(1, listenerQueueSize);
+        return this;
+    }
+
+    /**
+     * @param listenerIntervalMillis how often queued removals are handed to listeners
+     */
+    public CacheSettings listenerIntervalMillis(long listenerIntervalMillis) {
+        this.listenerIntervalMillis = Math.max(1, listenerIntervalMillis);
+        return this;
+    }
+
+    /**
+     * @param filterExpectedEntries number of entries the membership filter in front of lookups is
+     *                              sized for, 0 for no filter
+     */
+    public CacheSettings filterExpectedEntries(long filterExpectedEntries) {
+        this.filterExpectedEntries = Math.max(0, filterExpectedEntries);
+        return this;
+    }
+
+    /**
+     * @param hotMaxEntries entries kept on the heap before the oldest are demoted to an off-heap
+     *                      tier, 0 to keep every entry on the heap
+     */
+    public CacheSettings hotMaxEntries(long hotMaxEntries) {
+        this.hotMaxEntries = Math.max(0, hotMaxEntries);
+        return this;
+    }
+
+    /**
+     * @param tierDirectory where to memory-map the off-heap tier, null to use direct memory
+     */
+    public CacheSettings tierDirectory(File tierDirectory) {
+        this.tierDirectory = tierDirectory;
+        return this;
+    }
+
+    /**
+     * @param analyticsWindow length of each window of {@link AddressCache#getAnalytics} statistics,
+     *                        0 to record none
+     */
+    public CacheSettings analyticsWindow(long analyticsWindow, TimeUnit unit) {
+        this.analyticsWindowMillis = Math.max(0, unit.toMillis(analyticsWindow));
+        return this;
+    }
+
+    /**
+     * @param analyticsTopK addresses kept in each list of hottest and most re-added addresses
+     */
+    public CacheSettings analyticsTopK(int analyticsTopK) {
+        this.analyticsTopK = Math.max(1, analyticsTopK);
+        return this;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public boolean isSlidingExpiration() {
+        return slidingExpiration;
+    }
+
+    public TakeOrder getTakeOrder() {
+        return takeOrder;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int getMaintenanceThreads() {
+        return maintenanceThreads;
+    }
+
+    public ScheduledExecutorService getMaintenance() {
+        return maintenance;
+    }
+
+    public int getChangeFeedCapacity() {
+        return changeFeedCapacity;
+    }
+
+    public int getListenerQueueSize() {
+        return listenerQueueSize;
+    }
+
+    public long getListenerIntervalMillis() {
+        return listenerIntervalMillis;
+    }
+
+    public long getFilterExpectedEntries() {
+        return filterExpectedEntries;
+    }
+
+    public long getHotMaxEntries() {
+        return hotMaxEntries;
+    }
+
+    public File getTierDirectory() {
+        return tierDirectory;
+    }
+
+    public long getAnalyticsWindowMillis() {
+        return analyticsWindowMillis;
+    }
+
+    public int getAnalyticsTopK() {
+        return analyticsTopK;
+    }
+
+    /**
+     * The tighter of the entry and byte bounds, as a number of entries; 0 when unbounded.
+     */
+    public long getCapacity() {
+        long byBytes = maxBytes > 0 ? Math.max(1, maxBytes / AddressCache.ENTRY_BYTES) : 0;
+        if (maxEntries > 0 && byBytes > 0)
+            return Math.min(maxEntries, byBytes);
+        return Math.max(maxEntries, byBytes);
+    }
+}
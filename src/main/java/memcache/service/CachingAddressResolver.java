@@ -0,0 +1,153 @@
+package memcache.service;
+
+import memcache.jfr.ResolveEvent;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link AddressResolver} that runs lookups on a bounded pool and remembers both successful and
+ * failed answers for their own TTLs. Concurrent lookups of the same name share one future.
+ */
+public class CachingAddressResolver implements AddressResolver, AutoCloseable {
+
+    /**
+     * The blocking lookup being wrapped. {@code InetAddress::getByName} in production.
+     */
+    @FunctionalInterface
+    public interface HostLookup {
+        InetAddress lookup(String host) throws UnknownHostException;
+    }
+
+    /**
+     * Once full of live answers, one in this many is evicted to make room.
+     */
+    private static final int EVICTED_SHARE = 8;
+
+    private final HostLookup lookup;
+    private final ThreadPoolExecutor executor;
+    private final long positiveTtl;
+    private final long negativeTtl;
+    private final int maxCachedNames;
+    private final Map<String, Resolution> resolved = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<InetAddress>> inFlight = new ConcurrentHashMap<>();
+
+    public CachingAddressResolver(HostLookup lookup, int threads, int queueSize,
+                                  long positiveTtl, long negativeTtl, TimeUnit unit, int maxCachedNames) {
+        this.lookup = lookup;
+        this.positiveTtl = unit.toMillis(positiveTtl);
+        this.negativeTtl = unit.toMillis(negativeTtl);
+        this.maxCachedNames = maxCachedNames;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread t = new Thread(r, "address-resolver-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public CompletableFuture<InetAddress> resolve(String host) {
+        String name = host.toLowerCase(Locale.ROOT);
+        Resolution resolution = resolved.get(name);
+        if (resolution != null) {
+            if (System.currentTimeMillis() < resolution.expiresAt)
+                return resolution.future;
+            resolved.remove(name, resolution);
+        }
+
+        CompletableFuture<InetAddress> future = new CompletableFuture<>();
+        CompletableFuture<InetAddress> pending = inFlight.putIfAbsent(name, future);
+        if (pending != null)
+            return pending;
+        ResolveEvent event = new ResolveEvent();
+        event.begin();
+        try {
+            executor.execute(() -> lookup(name, future, event));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(name, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void lookup(String name, CompletableFuture<InetAddress> future, ResolveEvent event) {
+        CompletableFuture<InetAddress> outcome = new CompletableFuture<>();
+        long ttl = positiveTtl;
+        try {
+            outcome.complete(lookup.lookup(name));
+        } catch (UnknownHostException e) {
+            outcome.completeExceptionally(e);
+            ttl = negativeTtl;
+        } catch (RuntimeException e) {
+            outcome.completeExceptionally(e);
+            ttl = 0;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.host = name;
+            event.resolved = !outcome.isCompletedExceptionally();
+            event.commit();
+        }
+        if (ttl > 0) {
+            if (resolved.size() >= maxCachedNames)
+                evictExpired();
+            resolved.put(name, new Resolution(outcome, System.currentTimeMillis() + ttl));
+        }
+        inFlight.remove(name, future);
+        outcome.whenComplete((address, failure) -> {
+            if (failure == null)
+                future.complete(address);
+            else
+                future.completeExceptionally(failure);
+        });
+    }
+
+    /**
+     * Drops expired answers and, if that is not enough, the {@link #EVICTED_SHARE} of the rest
+     * that would expire soonest. The names still being looked up often keep their answers, and
+     * the sort this takes is paid once per that many lookups.
+     */
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        resolved.values().removeIf(r -> now >= r.expiresAt);
+        if (resolved.size() < maxCachedNames)
+            return;
+        long[] deadlines = new long[resolved.size()];
+        int count = 0;
+        for (Resolution resolution : resolved.values()) {
+            if (count == deadlines.length)
+                break;
+            deadlines[count++] = resolution.expiresAt;
+        }
+        Arrays.sort(deadlines, 0, count);
+        long cutoff = deadlines[Math.max(1, count / EVICTED_SHARE) - 1];
+        resolved.values().removeIf(r -> r.expiresAt <= cutoff);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static final class Resolution {
+        final CompletableFuture<InetAddress> future;
+        final long expiresAt;
+
+        Resolution(CompletableFuture<InetAddress> future, long expiresAt) {
+            this.future = future;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring buffer of the latest changes to an {@link AddressCache}, for readers that follow the cache
+ * from a sequence number of their choosing.
+ * <p>
+ * Writers claim a sequence with a single atomic increment and store the event in its slot, so
+ * publishing never waits on a reader or on another writer. Readers keep their own position and
+ * validate every slot they read against it; a reader that falls more than the capacity behind
+ * has been lapped, and learns how many events it missed instead of slowing anyone down.
+ */
+public final class ChangeFeed {
+
+    /**
+     * Events read back by {@link #read}: the events found, in order, and how many events before
+     * them were overwritten before the reader got to them.
+     */
+    public static final class Batch {
+
+        private final List<CacheEvent> events;
+        private final long missed;
+        private final long next;
+
+        Batch(List<CacheEvent> events, long missed, long next) {
+            this.events = events;
+            this.missed = missed;
+            this.next = next;
+        }
+
+        public List<CacheEvent> getEvents() {
+            return events;
+        }
+
+        public long getMissed() {
+            return missed;
+        }
+
+        /**
+         * @return the sequence to read from next
+         */
+        public long getNext() {
+            return next;
+        }
+    }
+
+    private final AtomicReferenceArray<CacheEvent> slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity number of events kept, rounded up to a power of two; 0 publishes nothing
+     */
+    public ChangeFeed(int capacity) {
+        int size = capacity <= 0 ? 0 : capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = size == 0 ? null : new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public boolean isEnabled() {
+        return slots != null;
+    }
+
+    void publish(CacheEvent.Type type, AddressKey key, long now) {
+        if (slots == null)
+            return;
+        long sequence = head.getAndIncrement();
+        slots.lazySet((int) (sequence & mask), new CacheEvent(sequence, type, key, now));
+    }
+
+    /**
+     * @return the sequence the next event will be published with
+     */
+    public long head() {
+        return head.get();
+    }
+
+    /**
+     * Reads up to {@code max} events starting at sequence {@code from}. Stops early at a slot
+     * whose writer has claimed it but not stored its event yet, so events always come out in
+     * sequence order without gaps.
+     */
+    public Batch read(long from, int max) {
+        long published = head.get();
+        if (slots == null || from >= published)
+            return new Batch(new ArrayList<>(0), 0, Math.max(from, published));
+        long oldest = Math.max(0, published - slots.length());
+        long missed = Math.max(0, oldest - from);
+        long next = from + missed;
+        List<CacheEvent> events = new ArrayList<>((int) Math.min(max, published - next));
+        while (events.size() < max && next < published) {
+            CacheEvent event = slots.get((int) (next & mask));
+            if (event == null || event.sequence < next)
+                break;
+            if (event.sequence > next) {
+                // Lapped while reading; the next call reports the gap.
+                break;
+            }
+            events.add(event);
+            next++;
+        }
+        return new Batch(events, missed, next);
+    }
+}
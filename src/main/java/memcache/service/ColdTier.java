@@ -0,0 +1,298 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * A segment's entries that have gone cold, kept off the heap. Each entry is one fixed-size record
+ * of its address, times, sequence and time to live in an {@link OffHeapSlab}, indexed by two
+ * {@link OffHeapTrie}s: one by address, for lookups and ranges, and one by sequence, for take
+ * order and expiry. Entries handed over by another node may share a sequence, so the sequence
+ * index breaks ties by record. Nothing here is a Java object per entry, so a cold entry costs the
+ * collector nothing.
+ * <p>
+ * Entries leave as {@link ColdEntry} copies. All access holds the tier's monitor, which the
+ * segment also holds while moving an entry between tiers.
+ */
+final class ColdTier {
+
+    /**
+     * Cold entries handed out per lock hold while iterating.
+     */
+    private static final int BATCH = 256;
+    private static final int INITIAL_RECORDS = 1024;
+    private static final int RECORD_BYTES = 48;
+    private static final int HIGH = 0;
+    private static final int LOW = 8;
+    private static final int CREATED = 16;
+    private static final int EXPIRES = 24;
+    /**
+     * Zero for a free record; sequences start at one.
+     */
+    private static final int SEQUENCE = 32;
+    private static final int TTL = 40;
+
+    /**
+     * A copy of a cold entry, detached from the tier. It is never mapped, so it is never removed
+     * in the sense of {@link CacheObject#isRemoved()}; taking it means removing its record.
+     */
+    static final class ColdEntry extends CacheObject {
+
+        /**
+         * The record copied, which places the entry among others with the same sequence.
+         */
+        final int record;
+
+        ColdEntry(int record, AddressKey key, long createdTime, long expiresAt, long sequence, long ttl) {
+            super(key, createdTime);
+            this.record = record;
+            this.expiresAt = expiresAt;
+            this.sequence = sequence;
+            this.ttl = ttl;
+        }
+    }
+
+    private final OffHeapSlab records;
+    private final OffHeapTrie byAddress;
+    private final OffHeapTrie bySequence;
+    private int sweepCursor;
+    private int lastScanned;
+
+    /**
+     * @param directory where to map the tier's memory, or null for direct memory
+     */
+    ColdTier(File directory) {
+        this.records = new OffHeapSlab(RECORD_BYTES, INITIAL_RECORDS, directory);
+        this.byAddress = new OffHeapTrie(record -> records.getLong(record, HIGH),
+                record -> records.getLong(record, LOW), INITIAL_RECORDS, directory);
+        this.bySequence = new OffHeapTrie(record -> records.getLong(record, SEQUENCE),
+                record -> record, INITIAL_RECORDS, directory);
+    }
+
+    synchronized int size() {
+        return records.allocated();
+    }
+
+    /**
+     * Stores a copy of an entry, replacing any cold entry for its address.
+     */
+    synchronized void insert(CacheObject entry) {
+        int existing = byAddress.find(entry.key.high, entry.key.low);
+        if (existing != OffHeapTrie.NONE)
+            delete(existing);
+        int record = records.allocate();
+        records.putLong(record, HIGH, entry.key.high);
+        records.putLong(record, LOW, entry.key.low);
+        records.putLong(record, CREATED, entry.createdTime);
+        records.putLong(record, EXPIRES, entry.expiresAt);
+        records.putLong(record, SEQUENCE, entry.sequence);
+        records.putLong(record, TTL, entry.ttl);
+        byAddress.insert(record);
+        bySequence.insert(record);
+    }
+
+    /**
+     * @return the entry for the address, expired or not, or null if it is not cold
+     */
+    synchronized ColdEntry get(AddressKey key) {
+        int record = byAddress.find(key.high, key.low);
+        return record == OffHeapTrie.NONE ? null : copy(record);
+    }
+
+    /**
+     * @return the entry removed for the address, expired or not, or null if it was not cold
+     */
+    synchronized ColdEntry remove(AddressKey key) {
+        int record = byAddress.find(key.high, key.low);
+        if (record == OffHeapTrie.NONE)
+            return null;
+        ColdEntry entry = copy(record);
+        delete(record);
+        return entry;
+    }
+
+    /**
+     * Removes the entry a copy was made from, if it is still cold.
+     */
+    synchronized boolean remove(ColdEntry entry) {
+        int record = byAddress.find(entry.key.high, entry.key.low);
+        if (record == OffHeapTrie.NONE || records.getLong(record, SEQUENCE) != entry.sequence)
+            return false;
+        delete(record);
+        return true;
+    }
+
+    /**
+     * @return the entry with the lowest sequence, or the highest if {@code newest}, or null if
+     * the tier is empty
+     */
+    synchronized ColdEntry first(boolean newest) {
+        int record = newest ? bySequence.last() : bySequence.first();
+        return record == OffHeapTrie.NONE ? null : copy(record);
+    }
+
+    /**
+     * @return the entry sharing the longest prefix with {@code key}, or null if the tier is empty
+     */
+    synchronized ColdEntry closest(AddressKey key) {
+        int record = byAddress.closest(key.high, key.low);
+        return record == OffHeapTrie.NONE ? null : copy(record);
+    }
+
+    /**
+     * Live entries after {@code from} ({@code inclusive} of it) up to {@code to}, in address
+     * order, fetched a batch at a time like {@link PrefixIndex#range}.
+     */
+    Iterator<CacheObject> range(AddressKey from, boolean inclusive, AddressKey to) {
+        long now = System.currentTimeMillis();
+        return new Batches(fetchRange(from, inclusive, to, now)) {
+            @Override
+            List<CacheObject> fetchAfter(CacheObject last) {
+                return fetchRange(last.key, false, to, now);
+            }
+        };
+    }
+
+    /**
+     * Live entries in sequence order, fetched a batch at a time.
+     */
+    Iterator<CacheObject> entries() {
+        long now = System.currentTimeMillis();
+        return new Batches(fetchEntries(0, 0, now)) {
+            @Override
+            List<CacheObject> fetchAfter(CacheObject last) {
+                return fetchEntries(last.sequence, ((ColdEntry) last).record, now);
+            }
+        };
+    }
+
+    /**
+     * Removes expired entries: those at the old end of the sequence order, which under a single
+     * maximum age are the first to expire, and then any found by a sweep of up to {@code sweep}
+     * records that resumes where the previous one stopped. The sweep is what finds entries with
+     * a time to live of their own, or one refreshed before they were demoted.
+     *
+     * @param expired handed each expired entry, with the tier's monitor held
+     * @return the number of entries removed
+     */
+    synchronized int expire(long now, int sweep, Consumer<CacheObject> expired) {
+        int removed = 0;
+        int scanned = 0;
+        int oldest;
+        while ((oldest = bySequence.first()) != OffHeapTrie.NONE) {
+            scanned++;
+            if (now < records.getLong(oldest, EXPIRES))
+                break;
+            expired.accept(copy(oldest));
+            delete(oldest);
+            removed++;
+        }
+        int swept = Math.min(sweep, records.highWater());
+        lastScanned = scanned + swept;
+        for (int i = 0; i < swept; i++) {
+            if (sweepCursor >= records.highWater())
+                sweepCursor = 0;
+            int record = sweepCursor++;
+            if (records.getLong(record, SEQUENCE) != 0 && now >= records.getLong(record, EXPIRES)) {
+                expired.accept(copy(record));
+                delete(record);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of records the latest {@link #expire} looked at, at the old end and in
+     * its sweep
+     */
+    synchronized int lastScanned() {
+        return lastScanned;
+    }
+
+    private synchronized List<CacheObject> fetchRange(AddressKey from, boolean inclusive, AddressKey to, long now) {
+        List<CacheObject> batch = new ArrayList<>();
+        int next = byAddress.successor(from.high, from.low, inclusive);
+        while (next != OffHeapTrie.NONE) {
+            long high = records.getLong(next, HIGH);
+            long low = records.getLong(next, LOW);
+            int byHigh = Long.compareUnsigned(high, to.high);
+            if (byHigh > 0 || byHigh == 0 && Long.compareUnsigned(low, to.low) > 0)
+                break;
+            if (now < records.getLong(next, EXPIRES)) {
+                batch.add(copy(next));
+                if (batch.size() == BATCH)
+                    break;
+            }
+            next = byAddress.successor(high, low, false);
+        }
+        return batch;
+    }
+
+    private synchronized List<CacheObject> fetchEntries(long afterSequence, int afterRecord, long now) {
+        List<CacheObject> batch = new ArrayList<>();
+        int next = bySequence.successor(afterSequence, afterRecord, false);
+        while (next != OffHeapTrie.NONE) {
+            long sequence = records.getLong(next, SEQUENCE);
+            if (now < records.getLong(next, EXPIRES)) {
+                batch.add(copy(next));
+                if (batch.size() == BATCH)
+                    break;
+            }
+            next = bySequence.successor(sequence, next, false);
+        }
+        return batch;
+    }
+
+    private ColdEntry copy(int record) {
+        return new ColdEntry(record, new AddressKey(records.getLong(record, HIGH), records.getLong(record, LOW)),
+                records.getLong(record, CREATED), records.getLong(record, EXPIRES), records.getLong(record, SEQUENCE),
+                records.getLong(record, TTL));
+    }
+
+    private void delete(int record) {
+        byAddress.remove(record);
+        bySequence.remove(record);
+        records.putLong(record, SEQUENCE, 0);
+        records.free(record);
+    }
+
+    /**
+     * Hands out batches, fetching the next one after the last entry of a full batch. A short
+     * batch means the end.
+     */
+    private abstract static class Batches implements Iterator<CacheObject> {
+
+        private List<CacheObject> batch;
+        private int position;
+
+        Batches(List<CacheObject> first) {
+            this.batch = first;
+        }
+
+        abstract List<CacheObject> fetchAfter(CacheObject last);
+
+        @Override
+        public boolean hasNext() {
+            if (position == batch.size() && batch.size() == BATCH) {
+                batch = fetchAfter(batch.get(BATCH - 1));
+                position = 0;
+            }
+            return position < batch.size();
+        }
+
+        @Override
+        public CacheObject next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return batch.get(position++);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package memcache.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch of how often each key was seen. Each key bumps one full 64-bit counter in
+ * each of four rows and its estimate is the smallest of them: never below the true count, and
+ * above it by at most a small fraction of all increments with high probability. Increments are
+ * single atomic adds, so the sketch takes no lock.
+ */
+class CountMinSketch {
+
+    private static final long[] SEEDS = {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+
+    private final AtomicLongArray table;
+    private final int width;
+    private final int mask;
+
+    /**
+     * @param width counters per row, rounded up to a power of two
+     */
+    CountMinSketch(int width) {
+        this.width = width <= 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+        this.mask = this.width - 1;
+        this.table = new AtomicLongArray(SEEDS.length * this.width);
+    }
+
+    /**
+     * @return the key's estimated count including this increment
+     */
+    long increment(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++)
+            estimate = Math.min(estimate, table.incrementAndGet(index(hash, i)));
+        return estimate;
+    }
+
+    long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++)
+            estimate = Math.min(estimate, table.get(index(hash, i)));
+        return estimate;
+    }
+
+    private int index(long hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[(row + 1) & 3];
+        return row * width + ((int) (h ^ (h >>> 29)) & mask);
+    }
+}
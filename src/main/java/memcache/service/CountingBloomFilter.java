@@ -0,0 +1,106 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counting Bloom filter over address keys, so lookups of addresses that are not cached can be
+ * answered without touching the map.
+ * <p>
+ * The filter is blocked: all {@value #PROBES} counters of a key sit in one 64 byte block, so a
+ * lookup costs a single cache miss however large the filter is. Counters are 4 bits, packed 16
+ * to a long and updated with a compare-and-set, so adds and removes never lock. A counter that
+ * reaches 15 stays there, since decrementing it could turn a key that is still present into a
+ * false negative; the filter only ever errs towards a false positive, which the map lookup then
+ * settles.
+ */
+final class CountingBloomFilter {
+
+    private static final int PROBES = 4;
+    private static final int COUNTER_BITS = 4;
+    private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+    private static final int COUNTERS_PER_LONG = Long.SIZE / COUNTER_BITS;
+    private static final int LONGS_PER_BLOCK = 8;
+    private static final int COUNTERS_PER_BLOCK = LONGS_PER_BLOCK * COUNTERS_PER_LONG;
+    private static final int PROBE_BITS = Integer.numberOfTrailingZeros(COUNTERS_PER_BLOCK);
+
+    /**
+     * Counters per expected entry before rounding the block count up to a power of two, which
+     * keeps the false positive rate around one percent at the expected size.
+     */
+    private static final int COUNTERS_PER_ENTRY = 12;
+
+    private static final int MAX_BLOCKS = 1 << 24;
+
+    private final AtomicLongArray counters;
+    private final int blockMask;
+
+    CountingBloomFilter(long expectedEntries) {
+        long wanted = Math.max(1, expectedEntries * COUNTERS_PER_ENTRY / COUNTERS_PER_BLOCK);
+        int blocks = (int) Math.max(1, Math.min(MAX_BLOCKS, Long.highestOneBit(wanted - 1) << 1));
+        this.counters = new AtomicLongArray(blocks * LONGS_PER_BLOCK);
+        this.blockMask = blocks - 1;
+    }
+
+    void add(AddressKey key) {
+        long hash = key.hash64();
+        int block = block(hash);
+        for (int i = 0; i < PROBES; i++)
+            update(block, probe(hash, i), 1);
+    }
+
+    /**
+     * Takes back one {@link #add} of {@code key}; every remove must follow its add.
+     */
+    void remove(AddressKey key) {
+        long hash = key.hash64();
+        int block = block(hash);
+        for (int i = 0; i < PROBES; i++)
+            update(block, probe(hash, i), -1);
+    }
+
+    /**
+     * @return false only if {@code key} was never added or has been removed as often as added
+     */
+    boolean mightContain(AddressKey key) {
+        long hash = key.hash64();
+        int block = block(hash);
+        for (int i = 0; i < PROBES; i++) {
+            int counter = probe(hash, i);
+            long word = counters.get(block + counter / COUNTERS_PER_LONG);
+            if ((word >>> shift(counter) & COUNTER_MASK) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return index of the first long of the key's block; taken from the high bits of the hash,
+     * which the probes do not use
+     */
+    private int block(long hash) {
+        return ((int) (hash >>> 40) & blockMask) * LONGS_PER_BLOCK;
+    }
+
+    private static int probe(long hash, int i) {
+        return (int) (hash >>> (i * PROBE_BITS)) & (COUNTERS_PER_BLOCK - 1);
+    }
+
+    private static int shift(int counter) {
+        return (counter % COUNTERS_PER_LONG) * COUNTER_BITS;
+    }
+
+    private void update(int block, int counter, int delta) {
+        int index = block + counter / COUNTERS_PER_LONG;
+        int shift = shift(counter);
+        while (true) {
+            long word = counters.get(index);
+            long count = word >>> shift & COUNTER_MASK;
+            if (count == COUNTER_MASK || (count == 0 && delta < 0))
+                return;
+            if (counters.compareAndSet(index, word, word + ((long) delta << shift)))
+                return;
+        }
+    }
+}
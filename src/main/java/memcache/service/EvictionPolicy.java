@@ -0,0 +1,16 @@
+package memcache.service;
+
+/**
+ * Which entry {@link AddressCache} drops once it is over capacity.
+ */
+public enum EvictionPolicy {
+    /** Least recently added or peeked entry. */
+    LRU,
+    /** Oldest entry, regardless of access. */
+    FIFO,
+    /**
+     * Window TinyLFU: new entries pass through a small LRU window and are only admitted to the
+     * main region if they have been seen more often than the entry they would displace.
+     */
+    TINY_LFU
+}
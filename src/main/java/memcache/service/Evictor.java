@@ -0,0 +1,110 @@
+package memcache.service;
+
+import memcache.domain.CacheObject;
+
+/**
+ * Tracks entries for an {@link EvictionPolicy} and picks the next one to drop.
+ * <p>
+ * All bookkeeping goes through lock-free {@link AccessOrderQueue}s. {@link #nextVictim()} only
+ * nominates an entry; the cache still has to claim it, so concurrent evictors racing for the same
+ * victim are harmless.
+ */
+abstract class Evictor {
+
+    static Evictor create(EvictionPolicy policy, long capacity) {
+        switch (policy) {
+            case FIFO:
+                return new Fifo();
+            case TINY_LFU:
+                return new TinyLfu(capacity);
+            default:
+                return new Lru();
+        }
+    }
+
+    abstract void onAdd(CacheObject entry);
+
+    abstract void onAccess(CacheObject entry);
+
+    void onRemove(CacheObject entry) {
+        AccessOrderQueue.detach(entry);
+    }
+
+    /**
+     * @return an entry to evict, or null if nothing is tracked
+     */
+    abstract CacheObject nextVictim();
+
+    private static class Fifo extends Evictor {
+        final AccessOrderQueue queue = new AccessOrderQueue();
+
+        @Override
+        void onAdd(CacheObject entry) {
+            queue.append(entry);
+        }
+
+        @Override
+        void onAccess(CacheObject entry) {
+        }
+
+        @Override
+        CacheObject nextVictim() {
+            return queue.poll();
+        }
+    }
+
+    private static class Lru extends Fifo {
+        @Override
+        void onAccess(CacheObject entry) {
+            if (!entry.isRemoved())
+                queue.append(entry);
+        }
+    }
+
+    private static class TinyLfu extends Evictor {
+        final FrequencySketch sketch;
+        final AccessOrderQueue window = new AccessOrderQueue();
+        final AccessOrderQueue main = new AccessOrderQueue();
+        final long windowCapacity;
+
+        TinyLfu(long capacity) {
+            this.sketch = new FrequencySketch(capacity);
+            this.windowCapacity = Math.max(1, capacity / 100);
+        }
+
+        @Override
+        void onAdd(CacheObject entry) {
+            sketch.increment(entry.key.hash64());
+            window.append(entry);
+        }
+
+        @Override
+        void onAccess(CacheObject entry) {
+            sketch.increment(entry.key.hash64());
+            AccessOrderQueue owner = AccessOrderQueue.ownerOf(entry);
+            if (owner != null && !entry.isRemoved())
+                owner.append(entry);
+        }
+
+        @Override
+        CacheObject nextVictim() {
+            if (window.residentCount() <= windowCapacity) {
+                CacheObject victim = main.poll();
+                return victim != null ? victim : window.poll();
+            }
+            CacheObject candidate = window.poll();
+            if (candidate == null)
+                return main.poll();
+            CacheObject victim = main.peek();
+            if (victim == null) {
+                main.append(candidate);
+                return window.poll();
+            }
+            if (sketch.frequency(candidate.key.hash64()) > sketch.frequency(victim.key.hash64())) {
+                main.append(candidate);
+                return main.poll();
+            }
+            return candidate;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package memcache.service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 4-bit count-min sketch used as the TinyLFU popularity estimate.
+ * <p>
+ * Each long packs sixteen 4-bit counters and every key touches four of them. Counters saturate at
+ * 15 and are all halved once the number of increments reaches ten times the table width, so the
+ * estimate follows recent rather than all-time popularity. Updates are CAS loops; the halving
+ * pass is not atomic across the table, which only costs a little accuracy.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_WIDTH = 1 << 24;
+
+    private final AtomicLongArray table;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+    private final AtomicBoolean resetting = new AtomicBoolean();
+
+    FrequencySketch(long capacity) {
+        int width = Integer.highestOneBit((int) Math.min(MAX_WIDTH, Math.max(16, capacity)) * 2 - 1);
+        this.table = new AtomicLongArray(width);
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    void increment(long hash) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = rehash(hash, i);
+            added |= incrementAt((int) h & mask, (int) (h >>> 60) << 2);
+        }
+        if (added && additions.incrementAndGet() >= sampleSize)
+            reset();
+    }
+
+    int frequency(long hash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = rehash(hash, i);
+            int count = (int) (table.get((int) h & mask) >>> ((int) (h >>> 60) << 2)) & 0xF;
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        while (true) {
+            long value = table.get(index);
+            if (((value >>> offset) & 0xF) == 0xF)
+                return false;
+            if (table.compareAndSet(index, value, value + (1L << offset)))
+                return true;
+        }
+    }
+
+    private void reset() {
+        if (!resetting.compareAndSet(false, true))
+            return;
+        try {
+            for (int i = 0; i < table.length(); i++) {
+                long value;
+                do {
+                    value = table.get(i);
+                } while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+            }
+            additions.set(0);
+        } finally {
+            resetting.set(false);
+        }
+    }
+
+    private static long rehash(long hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[(i + 1) & 3];
+        return h ^ (h >>> 29);
+    }
+}
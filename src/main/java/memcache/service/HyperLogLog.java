@@ -0,0 +1,46 @@
+package memcache.service;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * HyperLogLog estimate of the number of distinct keys seen, in 4096 registers: a standard error
+ * of about 1.6% however many keys there are. Each register only ever grows, by compare-and-set,
+ * so adds take no lock.
+ */
+class HyperLogLog {
+
+    private static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final AtomicIntegerArray registers = new AtomicIntegerArray(REGISTERS);
+
+    /**
+     * @param hash a well mixed 64-bit hash of the key
+     */
+    void add(long hash) {
+        int index = (int) (hash >>> (64 - PRECISION));
+        // Position of the first set bit in the rest of the hash, capped by a sentinel bit.
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        int current;
+        while ((current = registers.get(index)) < rank && !registers.compareAndSet(index, current, rank)) {
+            // Lost to a concurrent add; look again.
+        }
+    }
+
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < REGISTERS; i++) {
+            int rank = registers.get(i);
+            sum += 1.0 / (1L << rank);
+            if (rank == 0)
+                zeros++;
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        // Small cardinalities are counted more exactly from the registers still empty.
+        if (estimate <= 2.5 * REGISTERS && zeros > 0)
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        return Math.round(estimate);
+    }
+}
@@ -0,0 +1,84 @@
+package memcache.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Independently configured caches looked up by name. Each has its own entries, capacity, shards
+ * and metrics; expiry for all of them runs on one scheduler owned here, so adding a cache adds
+ * tasks rather than threads.
+ */
+public class NamedCaches implements AutoCloseable {
+
+    private final ScheduledExecutorService maintenance;
+    private final Map<String, AddressCache> caches = new LinkedHashMap<>();
+
+    /**
+     * @param maintenanceThreads size of the scheduler shared by every cache's expiry, 0 to leave
+     *                           expiry to explicit cleanup calls
+     */
+    public NamedCaches(int maintenanceThreads) {
+        if (maintenanceThreads > 0) {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.maintenance = Executors.newScheduledThreadPool(maintenanceThreads, r -> {
+                Thread t = new Thread(r, "address-cache-expiry-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.maintenance = null;
+        }
+    }
+
+    /**
+     * @return the scheduler shared by the caches here, for other caches to join, or null if
+     * expiry is not scheduled
+     */
+    public ScheduledExecutorService getMaintenance() {
+        return maintenance;
+    }
+
+    /**
+     * Creates a cache whose expiry runs on the shared scheduler.
+     *
+     * @throws IllegalArgumentException if a cache already has the name
+     */
+    public synchronized AddressCache create(String name, CacheSettings settings) {
+        if (caches.containsKey(name))
+            throw new IllegalArgumentException("Cache " + name + " is already defined");
+        AddressCache cache = new AddressCache(maintenance != null
+                ? settings.maintenance(maintenance)
+                : settings.maintenanceThreads(0));
+        caches.put(name, cache);
+        return cache;
+    }
+
+    /**
+     * @return the cache with the name, or null if there is none
+     */
+    public synchronized AddressCache get(String name) {
+        return caches.get(name);
+    }
+
+    /**
+     * @return every cache by name, in the order they were created
+     */
+    public synchronized Map<String, AddressCache> asMap() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(caches));
+    }
+
+    /**
+     * Closes every cache, then the shared scheduler.
+     */
+    @Override
+    public synchronized void close() {
+        for (AddressCache cache : caches.values())
+            cache.close();
+        if (maintenance != null)
+            maintenance.shutdownNow();
+    }
+}
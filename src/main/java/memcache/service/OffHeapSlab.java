@@ -0,0 +1,134 @@
+package memcache.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-size records outside the Java heap, addressed by index. Records never move between
+ * allocation and {@link #free}, so an index can stand in for a pointer. The slab starts small and
+ * doubles when full, copying its records into the new region; freed records are reused first.
+ * <p>
+ * Memory is either direct, and so bounded by {@code -XX:MaxDirectMemorySize}, or mapped from a
+ * temporary file under {@code directory}, which leaves paging to the operating system. The file
+ * is unlinked as soon as it is mapped and goes away with its mapping.
+ * <p>
+ * Not thread safe; its owner serializes all access.
+ */
+final class OffHeapSlab {
+
+    private static final int NONE = -1;
+
+    private final int recordBytes;
+    private final int maxRecords;
+    private final File directory;
+    private ByteBuffer buffer;
+    private int capacity;
+    private int highWater;
+    private int freeHead = NONE;
+    private int allocated;
+
+    /**
+     * @param recordBytes size of each record, at least 4 so a freed record can link the next
+     * @param directory   where to map the slab's file, or null for direct memory
+     */
+    OffHeapSlab(int recordBytes, int initialRecords, File directory) {
+        this.recordBytes = recordBytes;
+        this.maxRecords = Integer.MAX_VALUE / recordBytes;
+        this.directory = directory;
+        this.capacity = Math.max(1, Math.min(initialRecords, maxRecords));
+        this.buffer = allocate(capacity);
+    }
+
+    /**
+     * @return the index of a record whose contents are unspecified
+     */
+    int allocate() {
+        int record;
+        if (freeHead != NONE) {
+            record = freeHead;
+            freeHead = getInt(record, 0);
+        } else {
+            if (highWater == capacity)
+                grow();
+            record = highWater++;
+        }
+        allocated++;
+        return record;
+    }
+
+    /**
+     * Returns a record for reuse. Its first four bytes are overwritten; the rest keep their
+     * contents until it is allocated again.
+     */
+    void free(int record) {
+        putInt(record, 0, freeHead);
+        freeHead = record;
+        allocated--;
+    }
+
+    /**
+     * @return number of records currently allocated
+     */
+    int allocated() {
+        return allocated;
+    }
+
+    /**
+     * @return one past the highest index ever allocated; every allocated record is below it
+     */
+    int highWater() {
+        return highWater;
+    }
+
+    long getLong(int record, int offset) {
+        return buffer.getLong(record * recordBytes + offset);
+    }
+
+    void putLong(int record, int offset, long value) {
+        buffer.putLong(record * recordBytes + offset, value);
+    }
+
+    int getInt(int record, int offset) {
+        return buffer.getInt(record * recordBytes + offset);
+    }
+
+    void putInt(int record, int offset, int value) {
+        buffer.putInt(record * recordBytes + offset, value);
+    }
+
+    private void grow() {
+        if (capacity == maxRecords)
+            throw new IllegalStateException("Off-heap slab is full at " + capacity + " records");
+        int grown = (int) Math.min(maxRecords, 2L * capacity);
+        ByteBuffer copy = allocate(grown);
+        ByteBuffer used = buffer.duplicate();
+        // Through Buffer, whose methods return the same type on every Java version.
+        ((Buffer) used).position(0).limit(capacity * recordBytes);
+        copy.put(used);
+        buffer = copy;
+        capacity = grown;
+    }
+
+    private ByteBuffer allocate(int records) {
+        int bytes = records * recordBytes;
+        if (directory == null)
+            return ByteBuffer.allocateDirect(bytes);
+        try {
+            File file = File.createTempFile("address-cache-", ".slab", directory);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(bytes);
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            } finally {
+                if (!file.delete())
+                    file.deleteOnExit();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map a slab under " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package memcache.service;
+
+import java.io.File;
+import java.util.function.IntToLongFunction;
+
+/**
+ * The crit-bit trie of {@link PrefixIndex}, with its inner nodes in an {@link OffHeapSlab}
+ * instead of on the heap. Leaves are record indexes into some other slab and their 128-bit keys
+ * are read from there, so the trie itself holds twelve bytes per entry beyond the first and no
+ * object at all.
+ * <p>
+ * A child is either a leaf, stored as its record index, or an inner node, stored as the
+ * complement of its node index, which is always negative. Not thread safe; its owner serializes
+ * all access.
+ */
+final class OffHeapTrie {
+
+    static final int NONE = -1;
+
+    private static final int BITS = 128;
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private static final int NODE_BYTES = 12;
+    private static final int BIT = 0;
+    private static final int ZERO = 4;
+    private static final int ONE = 8;
+
+    private final IntToLongFunction highOf;
+    private final IntToLongFunction lowOf;
+    private final OffHeapSlab nodes;
+    private int root = EMPTY;
+
+    /**
+     * @param highOf reads the high 64 bits of a leaf record's key
+     * @param lowOf  reads the low 64 bits of a leaf record's key
+     */
+    OffHeapTrie(IntToLongFunction highOf, IntToLongFunction lowOf, int initialNodes, File directory) {
+        this.highOf = highOf;
+        this.lowOf = lowOf;
+        this.nodes = new OffHeapSlab(NODE_BYTES, initialNodes, directory);
+    }
+
+    /**
+     * Indexes a record, replacing any earlier record with the same key.
+     */
+    void insert(int record) {
+        long high = highOf.applyAsLong(record);
+        long low = lowOf.applyAsLong(record);
+        if (root == EMPTY) {
+            root = record;
+            return;
+        }
+        int leaf = leafFor(high, low);
+        int bit = commonPrefixLength(high, low, highOf.applyAsLong(leaf), lowOf.applyAsLong(leaf));
+        int parent = NONE;
+        int child = root;
+        while (child < 0 && nodes.getInt(~child, BIT) < bit) {
+            parent = ~child;
+            child = child(parent, high, low);
+        }
+        int replacement = record;
+        if (bit < BITS) {
+            int split = nodes.allocate();
+            nodes.putInt(split, BIT, bit);
+            boolean set = bit(high, low, bit);
+            nodes.putInt(split, set ? ONE : ZERO, record);
+            nodes.putInt(split, set ? ZERO : ONE, child);
+            replacement = ~split;
+        }
+        if (parent == NONE)
+            root = replacement;
+        else
+            nodes.putInt(parent, side(parent, high, low), replacement);
+    }
+
+    /**
+     * @return false if the record was not indexed under its key
+     */
+    boolean remove(int record) {
+        if (root == EMPTY)
+            return false;
+        long high = highOf.applyAsLong(record);
+        long low = lowOf.applyAsLong(record);
+        int grandparent = NONE;
+        int parent = NONE;
+        int child = root;
+        while (child < 0) {
+            grandparent = parent;
+            parent = ~child;
+            child = child(parent, high, low);
+        }
+        if (child != record)
+            return false;
+        if (parent == NONE) {
+            root = EMPTY;
+            return true;
+        }
+        int sibling = nodes.getInt(parent, side(parent, high, low) == ONE ? ZERO : ONE);
+        if (grandparent == NONE)
+            root = sibling;
+        else
+            nodes.putInt(grandparent, side(grandparent, high, low), sibling);
+        nodes.free(parent);
+        return true;
+    }
+
+    /**
+     * @return the record with exactly this key, or {@link #NONE}
+     */
+    int find(long high, long low) {
+        if (root == EMPTY)
+            return NONE;
+        int leaf = leafFor(high, low);
+        return highOf.applyAsLong(leaf) == high && lowOf.applyAsLong(leaf) == low ? leaf : NONE;
+    }
+
+    /**
+     * @return the record sharing the longest prefix with the key, or {@link #NONE} if empty
+     */
+    int closest(long high, long low) {
+        return root == EMPTY ? NONE : leafFor(high, low);
+    }
+
+    /**
+     * @return the record with the lowest key, or {@link #NONE} if empty
+     */
+    int first() {
+        if (root == EMPTY)
+            return NONE;
+        int child = root;
+        while (child < 0)
+            child = nodes.getInt(~child, ZERO);
+        return child;
+    }
+
+    /**
+     * @return the record with the highest key, or {@link #NONE} if empty
+     */
+    int last() {
+        if (root == EMPTY)
+            return NONE;
+        int child = root;
+        while (child < 0)
+            child = nodes.getInt(~child, ONE);
+        return child;
+    }
+
+    /**
+     * @return the first record at or after ({@code inclusive}) or strictly after the key, or
+     * {@link #NONE}
+     */
+    int successor(long high, long low, boolean inclusive) {
+        if (root == EMPTY)
+            return NONE;
+        int closest = leafFor(high, low);
+        long closestHigh = highOf.applyAsLong(closest);
+        long closestLow = lowOf.applyAsLong(closest);
+        int bit = commonPrefixLength(high, low, closestHigh, closestLow);
+        if (bit == BITS && inclusive)
+            return closest;
+        int turn = NONE;
+        int child = root;
+        while (child < 0 && nodes.getInt(~child, BIT) < bit) {
+            int inner = ~child;
+            boolean set = bit(high, low, nodes.getInt(inner, BIT));
+            if (!set)
+                turn = inner;
+            child = nodes.getInt(inner, set ? ONE : ZERO);
+        }
+        if (bit < BITS && bit(closestHigh, closestLow, bit))
+            return leftmost(child);
+        return turn == NONE ? NONE : leftmost(nodes.getInt(turn, ONE));
+    }
+
+    private int leafFor(long high, long low) {
+        int child = root;
+        while (child < 0)
+            child = child(~child, high, low);
+        return child;
+    }
+
+    private int leftmost(int child) {
+        while (child < 0)
+            child = nodes.getInt(~child, ZERO);
+        return child;
+    }
+
+    private int child(int node, long high, long low) {
+        return nodes.getInt(node, side(node, high, low));
+    }
+
+    private int side(int node, long high, long low) {
+        return bit(high, low, nodes.getInt(node, BIT)) ? ONE : ZERO;
+    }
+
+    private static boolean bit(long high, long low, int index) {
+        long word = index < 64 ? high >>> (63 - index) : low >>> (127 - index);
+        return (word & 1) != 0;
+    }
+
+    private static int commonPrefixLength(long high, long low, long otherHigh, long otherLow) {
+        if (high != otherHigh)
+            return Long.numberOfLeadingZeros(high ^ otherHigh);
+        return 64 + Long.numberOfLeadingZeros(low ^ otherLow);
+    }
+}
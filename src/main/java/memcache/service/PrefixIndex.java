@@ -0,0 +1,220 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Compressed binary radix (crit-bit) trie over the 128 address bits of a segment's entries.
+ * Every inner node records the first bit on which its two subtrees differ, so there is exactly
+ * one inner node per entry beyond the first, the depth is bounded by the number of distinct bit
+ * positions rather than by 128, and the entries sit in address order from left to right.
+ * <p>
+ * Entries are indexed while they are mapped by the segment and dropped when it forgets them.
+ * All access holds the index's monitor; the segments it belongs to never share one.
+ */
+final class PrefixIndex {
+
+    /**
+     * Entries handed out per lock hold while iterating, so a large range never blocks writers for
+     * long.
+     */
+    private static final int BATCH = 256;
+
+    private static final class Node {
+
+        final int bit;
+        Object zero;
+        Object one;
+
+        Node(int bit) {
+            this.bit = bit;
+        }
+
+        Object child(boolean set) {
+            return set ? one : zero;
+        }
+
+        void child(boolean set, Object child) {
+            if (set)
+                one = child;
+            else
+                zero = child;
+        }
+    }
+
+    /**
+     * A {@link Node}, a {@link CacheObject} leaf, or null when empty.
+     */
+    private Object root;
+
+    /**
+     * Indexes an entry, replacing any earlier entry for the same address.
+     */
+    synchronized void insert(CacheObject entry) {
+        AddressKey key = entry.key;
+        if (root == null) {
+            root = entry;
+            return;
+        }
+        int bit = key.commonPrefixLength(leafFor(key).key);
+        Node parent = null;
+        Object node = root;
+        while (node instanceof Node && ((Node) node).bit < bit) {
+            parent = (Node) node;
+            node = parent.child(key.bit(parent.bit));
+        }
+        Object replacement = entry;
+        if (bit < AddressKey.BITS) {
+            Node split = new Node(bit);
+            split.child(key.bit(bit), entry);
+            split.child(!key.bit(bit), node);
+            replacement = split;
+        }
+        if (parent == null)
+            root = replacement;
+        else
+            parent.child(key.bit(parent.bit), replacement);
+    }
+
+    /**
+     * Drops an entry. Does nothing if its address is now indexed by a newer entry.
+     */
+    synchronized void remove(CacheObject entry) {
+        AddressKey key = entry.key;
+        Node grandparent = null;
+        Node parent = null;
+        Object node = root;
+        while (node instanceof Node) {
+            grandparent = parent;
+            parent = (Node) node;
+            node = parent.child(key.bit(parent.bit));
+        }
+        if (node != entry)
+            return;
+        if (parent == null) {
+            root = null;
+            return;
+        }
+        Object sibling = parent.child(!key.bit(parent.bit));
+        if (grandparent == null)
+            root = sibling;
+        else
+            grandparent.child(key.bit(grandparent.bit), sibling);
+    }
+
+    /**
+     * @return the indexed entry sharing the longest prefix with {@code key}, or null if empty
+     */
+    synchronized CacheObject closest(AddressKey key) {
+        return root == null ? null : leafFor(key);
+    }
+
+    /**
+     * Live entries from {@code from} to {@code to} inclusive, in address order. Entries are
+     * fetched a batch at a time, each batch resuming after the last address handed out, so the
+     * iterator is weakly consistent and stays valid while entries are removed under it.
+     */
+    Iterator<CacheObject> range(AddressKey from, AddressKey to) {
+        return range(from, true, to);
+    }
+
+    /**
+     * Like {@link #range(AddressKey, AddressKey)}, leaving out {@code from} itself unless
+     * {@code inclusive}.
+     */
+    Iterator<CacheObject> range(AddressKey from, boolean inclusive, AddressKey to) {
+        long now = System.currentTimeMillis();
+        return new Iterator<CacheObject>() {
+            private List<CacheObject> batch = fetch(from, inclusive, to, now);
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                if (position == batch.size() && batch.size() == BATCH) {
+                    batch = fetch(batch.get(BATCH - 1).key, false, to, now);
+                    position = 0;
+                }
+                return position < batch.size();
+            }
+
+            @Override
+            public CacheObject next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return batch.get(position++);
+            }
+        };
+    }
+
+    /**
+     * @return up to {@link #BATCH} live entries after {@code from} and not after {@code to}. A
+     * short batch means the range is exhausted.
+     */
+    private synchronized List<CacheObject> fetch(AddressKey from, boolean inclusive, AddressKey to, long now) {
+        List<CacheObject> batch = new ArrayList<>();
+        AddressKey cursor = from;
+        CacheObject next = successor(cursor, inclusive);
+        while (next != null && next.key.compareTo(to) <= 0) {
+            // Expired and removed entries still advance the cursor, but full batches only count
+            // live ones so a short batch always means the end.
+            if (!next.isRemoved() && !next.isExpired(now)) {
+                batch.add(next);
+                if (batch.size() == BATCH)
+                    break;
+            }
+            cursor = next.key;
+            next = successor(cursor, false);
+        }
+        return batch;
+    }
+
+    /**
+     * @return the first entry at or after ({@code inclusive}) or strictly after {@code key}
+     */
+    private CacheObject successor(AddressKey key, boolean inclusive) {
+        if (root == null)
+            return null;
+        CacheObject closest = leafFor(key);
+        int bit = key.commonPrefixLength(closest.key);
+        if (bit == AddressKey.BITS && inclusive)
+            return closest;
+        // Walk down to the subtree whose entries all share the first bit bits with key. The
+        // deepest node where the walk went to the zero side holds the next larger subtree.
+        Node turn = null;
+        Object node = root;
+        while (node instanceof Node && ((Node) node).bit < bit) {
+            Node inner = (Node) node;
+            boolean set = key.bit(inner.bit);
+            if (!set)
+                turn = inner;
+            node = inner.child(set);
+        }
+        if (bit < AddressKey.BITS && closest.key.bit(bit))
+            return leftmost(node);
+        return turn == null ? null : leftmost(turn.one);
+    }
+
+    /**
+     * Follows {@code key}'s bits to a leaf. The leaf reached shares the longest prefix with
+     * {@code key} of all indexed entries.
+     */
+    private CacheObject leafFor(AddressKey key) {
+        Object node = root;
+        while (node instanceof Node) {
+            Node inner = (Node) node;
+            node = inner.child(key.bit(inner.bit));
+        }
+        return (CacheObject) node;
+    }
+
+    private static CacheObject leftmost(Object node) {
+        while (node instanceof Node)
+            node = ((Node) node).zero;
+        return (CacheObject) node;
+    }
+}
@@ -0,0 +1,19 @@
+package memcache.service;
+
+import memcache.domain.CacheEvent;
+
+import java.util.List;
+
+/**
+ * Learns about entries leaving an {@link AddressCache}: removed, taken, expired or evicted.
+ */
+public interface RemovalListener {
+
+    /**
+     * Called on the cache's listener thread, never on the thread that removed the entries, with
+     * the removals since the previous call in the order they happened. A listener that is slow
+     * here delays later batches but never the cache; removals it falls too far behind on are
+     * dropped and counted in {@link CacheMetrics#getListenerDropped}.
+     */
+    void onRemoval(List<CacheEvent> events);
+}
@@ -0,0 +1,100 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Hands removals to {@link RemovalListener}s in batches on a dedicated thread.
+ * <p>
+ * Removals are queued in a {@link ChangeFeed} ring of their own, so queueing is as cheap and
+ * non-blocking for the removing thread as publishing to the change feed. The listener thread
+ * drains it every interval. When listeners fall a whole ring behind, the oldest removals are
+ * overwritten and counted as dropped. Nothing is queued and no thread is started until the first
+ * listener is added.
+ */
+final class RemovalNotifier implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(RemovalNotifier.class);
+
+    /**
+     * Most removals handed to a listener in one call.
+     */
+    private static final int BATCH = 1024;
+
+    private final int queueSize;
+    private final long intervalMillis;
+    private final CacheMetrics metrics;
+    private final List<RemovalListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile ChangeFeed queue;
+    private ScheduledExecutorService executor;
+    private long next;
+
+    RemovalNotifier(int queueSize, long intervalMillis, CacheMetrics metrics) {
+        this.queueSize = queueSize;
+        this.intervalMillis = intervalMillis;
+        this.metrics = metrics;
+    }
+
+    synchronized void add(RemovalListener listener) {
+        if (queue == null) {
+            queue = new ChangeFeed(queueSize);
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "address-cache-listener");
+                t.setDaemon(true);
+                return t;
+            });
+            executor.scheduleWithFixedDelay(this::deliver, intervalMillis, intervalMillis, MILLISECONDS);
+        }
+        listeners.add(listener);
+    }
+
+    boolean remove(RemovalListener listener) {
+        return listeners.remove(listener);
+    }
+
+    void publish(CacheEvent.Type type, AddressKey key, long now) {
+        ChangeFeed queue = this.queue;
+        if (queue != null && type != CacheEvent.Type.ADDED && !listeners.isEmpty())
+            queue.publish(type, key, now);
+    }
+
+    /**
+     * Delivers everything queued so far. Runs on the listener thread only.
+     */
+    void deliver() {
+        List<CacheEvent> events;
+        do {
+            ChangeFeed.Batch batch = queue.read(next, BATCH);
+            next = batch.getNext();
+            if (batch.getMissed() > 0)
+                metrics.recordListenerDropped(batch.getMissed());
+            events = Collections.unmodifiableList(batch.getEvents());
+            if (events.isEmpty())
+                return;
+            for (RemovalListener listener : listeners) {
+                try {
+                    listener.onRemoval(events);
+                    metrics.recordListenerDelivered(events.size());
+                } catch (RuntimeException e) {
+                    log.warn("Removal listener {} failed", listener, e);
+                }
+            }
+        } while (events.size() == BATCH);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+}
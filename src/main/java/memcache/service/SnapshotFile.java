@@ -0,0 +1,118 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * Compacted image of a cache: a header, {@value #ENTRY_BYTES} bytes per entry (key, sequence,
+ * created time, time to live and the time it was last counted from) in take order, and a footer
+ * repeating the entry count. A snapshot is written to a temporary file and renamed into place
+ * once it is on disk, so a snapshot file is either complete or absent; the footer guards against
+ * one that was truncated anyway.
+ */
+final class SnapshotFile {
+
+    static final int ENTRY_BYTES = 48;
+
+    private static final long MAGIC = 0x41444452534e5033L;
+    private static final int HEADER_BYTES = 16;
+    private static final int FOOTER_BYTES = 16;
+    private static final int WRITE_BUFFER_BYTES = ENTRY_BYTES * 32768;
+    private static final long ENTRIES_PER_MAPPING = (1 << 30) / ENTRY_BYTES;
+
+    /**
+     * Receives the entries of a snapshot in the order they were written.
+     */
+    interface Reader {
+        void restore(AddressKey key, long sequence, long createdTime, long ttl, long touchedAt);
+    }
+
+    private SnapshotFile() {
+    }
+
+    static String fileName(long number) {
+        return String.format("snapshot-%020d.snap", number);
+    }
+
+    /**
+     * @return the number of entries written
+     */
+    static long write(File file, Iterator<CacheObject> entries) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+            buffer.putLong(MAGIC).putLong(0);
+            while (entries.hasNext()) {
+                CacheObject cacheObject = entries.next();
+                if (buffer.remaining() < ENTRY_BYTES)
+                    flush(channel, buffer);
+                buffer.putLong(cacheObject.key.high)
+                        .putLong(cacheObject.key.low)
+                        .putLong(cacheObject.sequence)
+                        .putLong(cacheObject.createdTime)
+                        .putLong(cacheObject.ttl)
+                        .putLong(cacheObject.touchedAt());
+                count++;
+            }
+            if (buffer.remaining() < FOOTER_BYTES)
+                flush(channel, buffer);
+            buffer.putLong(count).putLong(MAGIC);
+            flush(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Maps the snapshot and hands every entry to {@code reader}.
+     *
+     * @return false, without reading any entry, if the file is not a complete snapshot
+     */
+    static boolean read(File file, Reader reader) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + FOOTER_BYTES || (size - HEADER_BYTES - FOOTER_BYTES) % ENTRY_BYTES != 0)
+                return false;
+            long count = (size - HEADER_BYTES - FOOTER_BYTES) / ENTRY_BYTES;
+            ByteBuffer edges = ByteBuffer.allocate(FOOTER_BYTES);
+            channel.read(edges, size - FOOTER_BYTES);
+            if (edges.getLong(0) != count || edges.getLong(8) != MAGIC)
+                return false;
+            edges.clear();
+            channel.read(edges, 0);
+            if (edges.getLong(0) != MAGIC)
+                return false;
+
+            for (long first = 0; first < count; first += ENTRIES_PER_MAPPING) {
+                long entries = Math.min(ENTRIES_PER_MAPPING, count - first);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * ENTRY_BYTES, entries * ENTRY_BYTES);
+                for (long i = 0; i < entries; i++) {
+                    AddressKey key = new AddressKey(mapped.getLong(), mapped.getLong());
+                    reader.restore(key, mapped.getLong(), mapped.getLong(), mapped.getLong(), mapped.getLong());
+                }
+            }
+            return true;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
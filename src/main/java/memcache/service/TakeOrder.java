@@ -0,0 +1,11 @@
+package memcache.service;
+
+/**
+ * Order in which {@link AddressCache#peek()} and {@link AddressCache#take()} hand out entries.
+ */
+public enum TakeOrder {
+    /** Newest entry first. */
+    LIFO,
+    /** Oldest entry first. */
+    FIFO
+}
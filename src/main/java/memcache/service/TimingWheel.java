@@ -0,0 +1,147 @@
+package memcache.service;
+
+import memcache.domain.CacheObject;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel holding entries by expiry deadline.
+ * <p>
+ * Each level has 64 slots; a slot on level {@code n} spans {@code 64^n} ticks. Scheduling is a
+ * lock-free append to one slot and can run on any thread. {@link #advance} must only be called
+ * by one thread at a time: it fires the level 0 slot of every elapsed tick and cascades higher
+ * level slots down as their range comes up, so the work done is proportional to the number of
+ * entries expiring (plus one cascade per entry per level), not to the number of entries held.
+ * <p>
+ * Removed entries are not unlinked; they are dropped when their slot fires, or all at once by
+ * {@link #purge}, which the owner runs once enough have piled up that holding them until their
+ * deadline would cost more heap than a pass over the wheel costs time.
+ */
+class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = 1L << (SLOT_BITS * LEVELS);
+
+    /**
+     * Marks where a drain stops, so entries rescheduled into the slot being fired wait for the
+     * next rotation instead of being drained again.
+     */
+    private static final CacheObject DRAIN_MARKER = new CacheObject(null);
+
+    private final long tickMillis;
+    private final Queue<CacheObject>[][] slots;
+    private volatile long currentTick;
+    private int lastScanned;
+
+    /**
+     * @throws IllegalArgumentException if {@code tickMillis} is not positive
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(long tickMillis, long now) {
+        if (tickMillis <= 0)
+            throw new IllegalArgumentException("Tick must be positive, got " + tickMillis);
+        this.tickMillis = tickMillis;
+        this.currentTick = now / tickMillis;
+        this.slots = new Queue[LEVELS][SLOTS];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++)
+                slots[level][slot] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    long tickMillis() {
+        return tickMillis;
+    }
+
+    void schedule(CacheObject cacheObject) {
+        long current = currentTick;
+        // First tick boundary at or after the deadline.
+        long target = (cacheObject.expiresAt + tickMillis - 1) / tickMillis;
+        long delta = Math.max(1, target - current);
+        if (delta >= MAX_DELTA)
+            delta = MAX_DELTA - 1;
+        target = current + delta;
+
+        int level = 0;
+        while (delta >= 1L << (SLOT_BITS * (level + 1)))
+            level++;
+        slots[level][(int) (target >>> (SLOT_BITS * level)) & (SLOTS - 1)].add(cacheObject);
+    }
+
+    /**
+     * Fires every tick up to {@code now}.
+     *
+     * @return the number of entries handed to {@code expire}
+     */
+    int advance(long now, Consumer<CacheObject> expire) {
+        long nowTick = now / tickMillis;
+        int expired = 0;
+        int scanned = 0;
+        for (long tick = currentTick + 1; tick <= nowTick; tick++) {
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0)
+                    cascade(slots[level][(int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1)]);
+            }
+            Queue<CacheObject> slot = slots[0][(int) tick & (SLOTS - 1)];
+            slot.add(DRAIN_MARKER);
+            long deadline = tick * tickMillis;
+            CacheObject cacheObject;
+            while ((cacheObject = slot.poll()) != DRAIN_MARKER) {
+                scanned++;
+                if (cacheObject.isRemoved())
+                    continue;
+                if (cacheObject.expiresAt <= deadline) {
+                    expire.accept(cacheObject);
+                    expired++;
+                } else {
+                    schedule(cacheObject);
+                }
+            }
+            currentTick = tick;
+        }
+        lastScanned = scanned;
+        return expired;
+    }
+
+    /**
+     * @return the number of entries the latest {@link #advance} looked at in due slots
+     */
+    int lastScanned() {
+        return lastScanned;
+    }
+
+    /**
+     * Drops every removed entry from every slot. Like {@link #advance}, only one thread at a
+     * time may call this.
+     *
+     * @return the number of entries dropped
+     */
+    int purge() {
+        int dropped = 0;
+        for (Queue<CacheObject>[] level : slots) {
+            for (Queue<CacheObject> slot : level) {
+                for (Iterator<CacheObject> it = slot.iterator(); it.hasNext(); ) {
+                    if (it.next().isRemoved()) {
+                        it.remove();
+                        dropped++;
+                    }
+                }
+            }
+        }
+        return dropped;
+    }
+
+    private void cascade(Queue<CacheObject> slot) {
+        slot.add(DRAIN_MARKER);
+        CacheObject cacheObject;
+        while ((cacheObject = slot.poll()) != DRAIN_MARKER) {
+            if (!cacheObject.isRemoved())
+                schedule(cacheObject);
+        }
+    }
+}
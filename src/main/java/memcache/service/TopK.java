@@ -0,0 +1,84 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Space-saving summary of the keys with the highest counts, in a fixed number of slots. Counts
+ * come from a {@link CountMinSketch}; a key offered with a count above the smallest one held
+ * takes over that slot. Slots are swapped by compare-and-set and an offer that loses a race is
+ * dropped, since the next offer of a key that really is heavy carries a higher count anyway. A
+ * race can leave a key in two slots; {@link #top} reports it once.
+ */
+class TopK {
+
+    private static final class Slot {
+
+        final AddressKey key;
+        final long count;
+
+        Slot(AddressKey key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+
+    private final AtomicReferenceArray<Slot> slots;
+    /**
+     * A count no higher than any held once every slot is taken. Counts only grow, so it stays a
+     * lower bound and most offers are dropped on it without scanning the slots.
+     */
+    private volatile long floor;
+
+    TopK(int k) {
+        this.slots = new AtomicReferenceArray<>(Math.max(1, k));
+    }
+
+    void offer(AddressKey key, long count) {
+        if (count <= floor)
+            return;
+        int smallest = -1;
+        Slot smallestSlot = null;
+        for (int i = 0; i < slots.length(); i++) {
+            Slot held = slots.get(i);
+            // Slots fill from the front and are never emptied, so an empty one ends the scan.
+            if (held == null || held.key.equals(key)) {
+                if (held == null || held.count < count)
+                    slots.compareAndSet(i, held, new Slot(key, count));
+                return;
+            }
+            if (smallestSlot == null || held.count < smallestSlot.count) {
+                smallest = i;
+                smallestSlot = held;
+            }
+        }
+        if (count > smallestSlot.count)
+            slots.compareAndSet(smallest, smallestSlot, new Slot(key, count));
+        else
+            floor = smallestSlot.count;
+    }
+
+    /**
+     * @return the keys held and their counts, highest first
+     */
+    Map<AddressKey, Long> top() {
+        Map<AddressKey, Long> counts = new HashMap<>();
+        for (int i = 0; i < slots.length(); i++) {
+            Slot held = slots.get(i);
+            if (held != null)
+                counts.merge(held.key, held.count, Math::max);
+        }
+        List<Map.Entry<AddressKey, Long>> sorted = new ArrayList<>(counts.entrySet());
+        sorted.sort((entry, other) -> Long.compare(other.getValue(), entry.getValue()));
+        Map<AddressKey, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<AddressKey, Long> entry : sorted)
+            top.put(entry.getKey(), entry.getValue());
+        return top;
+    }
+}
@@ -0,0 +1,386 @@
+package memcache.cluster;
+
+import memcache.domain.AddressEntry;
+import memcache.protocol.BinaryProtocol;
+import memcache.protocol.TcpListener;
+import memcache.service.AddressCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Three nodes on loopback ports, each a local cache behind a TCP listener.
+ */
+public class ClusteredAddressCacheTest {
+
+    private static final int NODES = 3;
+
+    private final List<AddressCache> locals = new ArrayList<>();
+    private final List<TcpListener> listeners = new ArrayList<>();
+    private final List<ClusteredAddressCache> nodes = new ArrayList<>();
+    private final List<String> peers = new ArrayList<>();
+
+    @Before
+    public void setup() throws IOException {
+        for (int i = 0; i < NODES; i++) {
+            AddressCache local = new AddressCache(1, TimeUnit.MINUTES);
+            TcpListener listener = new TcpListener(local, 0, 1);
+            locals.add(local);
+            listeners.add(listener);
+            peers.add("127.0.0.1:" + listener.getPort());
+        }
+        for (int i = 0; i < NODES; i++)
+            nodes.add(new ClusteredAddressCache(locals.get(i), peers.get(i), peers, 64, 2, 1000));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (ClusteredAddressCache node : nodes)
+            node.close();
+        for (TcpListener listener : listeners)
+            listener.close();
+    }
+
+    private static InetAddress address(int i) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+    }
+
+    private int holderOf(InetAddress address) {
+        int holder = -1;
+        for (int i = 0; i < NODES; i++) {
+            if (locals.get(i).contains(address)) {
+                assertEquals("held by more than one node", -1, holder);
+                holder = i;
+            }
+        }
+        return holder;
+    }
+
+    @Test
+    public void testEveryNodeAgreesOnTheOwner() throws UnknownHostException {
+        for (int i = 0; i < 100; i++)
+            assertTrue(nodes.get(i % NODES).add(address(i)));
+
+        for (int i = 0; i < 100; i++) {
+            int holder = holderOf(address(i));
+            assertNotEquals(-1, holder);
+            for (ClusteredAddressCache node : nodes)
+                assertTrue(node.contains(address(i)));
+        }
+        for (AddressCache local : locals)
+            assertTrue("keys should spread over every node", local.size() > 0);
+    }
+
+    @Test
+    public void testDuplicateAddThroughAnotherNodeIsNotStored() throws UnknownHostException {
+        assertTrue(nodes.get(0).add(address(1)));
+        assertFalse(nodes.get(1).add(address(1)));
+        assertFalse(nodes.get(2).add(address(1)));
+    }
+
+    @Test
+    public void testRemoveIsForwardedToOwner() throws UnknownHostException {
+        for (int i = 0; i < 20; i++)
+            nodes.get(0).add(address(i));
+
+        for (int i = 0; i < 20; i++)
+            assertTrue(nodes.get(1).remove(address(i)));
+
+        assertEquals(0, nodes.get(2).size());
+    }
+
+    @Test
+    public void testBatchesAreSplitByOwner() throws UnknownHostException {
+        List<InetAddress> batch = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+            batch.add(address(i));
+
+        boolean[] added = nodes.get(0).addAll(batch);
+        boolean[] addedAgain = nodes.get(1).addAll(batch);
+
+        for (int i = 0; i < 30; i++) {
+            assertTrue(added[i]);
+            assertFalse(addedAgain[i]);
+        }
+        assertEquals(30, nodes.get(2).size());
+    }
+
+    @Test
+    public void testBatchesLongerThanThePipelineWindowAreAnsweredInOrder() throws UnknownHostException {
+        List<InetAddress> batch = new ArrayList<>();
+        for (int i = 0; i < 5 * PeerClient.PIPELINE_WINDOW; i++)
+            batch.add(address(i));
+        nodes.get(0).addAll(batch.subList(0, batch.size() / 2));
+
+        boolean[] added = nodes.get(1).addAll(batch);
+        boolean[] contained = nodes.get(2).containsAll(batch);
+        boolean[] removed = nodes.get(0).removeAll(batch.subList(0, batch.size() / 4));
+
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(i >= batch.size() / 2, added[i]);
+            assertTrue(contained[i]);
+        }
+        for (boolean wasRemoved : removed)
+            assertTrue(wasRemoved);
+        assertEquals(batch.size() - batch.size() / 4, nodes.get(1).size());
+    }
+
+    @Test
+    public void testLookupsAreForwardedToOwner() throws UnknownHostException {
+        List<InetAddress> batch = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            batch.add(address(i));
+            if (i % 2 == 0)
+                nodes.get(0).add(address(i));
+        }
+
+        boolean[] contained = nodes.get(1).containsAll(batch);
+
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i % 2 == 0, contained[i]);
+            AddressEntry entry = nodes.get(2).get(address(i));
+            assertEquals(i % 2 == 0, entry != null);
+            if (entry != null)
+                assertEquals(locals.get(holderOf(address(i))).get(address(i)).version, entry.version);
+        }
+    }
+
+    @Test
+    public void testSizeIsSummedAcrossNodes() throws UnknownHostException {
+        for (int i = 0; i < 50; i++)
+            nodes.get(0).add(address(i));
+
+        int localTotal = 0;
+        for (AddressCache local : locals)
+            localTotal += local.size();
+        assertEquals(50, localTotal);
+        for (ClusteredAddressCache node : nodes)
+            assertEquals(50, node.size());
+    }
+
+    @Test
+    public void testTakeFallsBackToPeers() throws UnknownHostException {
+        nodes.get(0).add(address(1));
+        int holder = holderOf(address(1));
+        ClusteredAddressCache other = nodes.get((holder + 1) % NODES);
+
+        assertEquals(address(1), other.peek());
+        assertEquals(address(1), other.poll());
+        assertNull(other.poll());
+        assertEquals(0, other.size());
+    }
+
+    @Test
+    public void testTakeNCollectsFromEveryNode() throws UnknownHostException {
+        for (int i = 0; i < 20; i++)
+            nodes.get(0).add(address(i));
+
+        List<InetAddress> taken = nodes.get(1).take(25);
+
+        assertEquals(20, taken.size());
+        assertEquals(0, nodes.get(2).size());
+    }
+
+    @Test
+    public void testRemovingAPeerMovesItsEntries() throws IOException {
+        for (int i = 0; i < 60; i++)
+            nodes.get(0).add(address(i));
+        int leaving = NODES - 1;
+        int held = locals.get(leaving).size();
+        List<String> remaining = peers.subList(0, leaving);
+
+        for (int i = 0; i < leaving; i++)
+            assertEquals(0, nodes.get(i).updatePeers(remaining));
+        assertEquals(held, nodes.get(leaving).updatePeers(remaining));
+
+        assertEquals(0, locals.get(leaving).size());
+        for (int i = 0; i < 60; i++) {
+            assertNotEquals(leaving, holderOf(address(i)));
+            assertTrue(nodes.get(0).contains(address(i)));
+        }
+    }
+
+    @Test
+    public void testMovingEntriesIsNotARemoval() throws IOException {
+        for (int i = 0; i < 60; i++)
+            nodes.get(0).add(address(i));
+        int leaving = NODES - 1;
+        List<String> remaining = peers.subList(0, leaving);
+
+        assertTrue(nodes.get(leaving).updatePeers(remaining) > 0);
+
+        assertEquals(0, locals.get(leaving).getMetrics().getRemoves());
+        assertEquals(0, locals.get(leaving).size());
+    }
+
+    @Test
+    public void testUnreachablePeerIsSkippedAndTheRestAreMoved() throws IOException {
+        for (int i = 0; i < 60; i++)
+            nodes.get(0).add(address(i));
+        int leaving = NODES - 1;
+        int held = locals.get(leaving).size();
+        List<String> withDeadPeer = new ArrayList<>(peers.subList(0, leaving));
+        withDeadPeer.add("127.0.0.1:1");
+
+        int moved = nodes.get(leaving).updatePeers(withDeadPeer);
+
+        assertTrue(moved > 0);
+        assertEquals(held - moved, locals.get(leaving).size());
+        for (int i = 0; i < 60; i++)
+            assertTrue(holderOf(address(i)) >= 0);
+    }
+
+    @Test
+    public void testAddingAPeerOnlyMovesKeysToIt() throws IOException {
+        for (int i = 0; i < 60; i++)
+            nodes.get(0).add(address(i));
+        List<String> smaller = peers.subList(0, 2);
+        for (int i = 0; i < 2; i++)
+            nodes.get(i).updatePeers(smaller);
+        int[] before = new int[60];
+        for (int i = 0; i < 60; i++)
+            before[i] = holderOf(address(i));
+
+        for (int i = 0; i < 2; i++)
+            nodes.get(i).updatePeers(peers);
+
+        for (int i = 0; i < 60; i++) {
+            int after = holderOf(address(i));
+            assertTrue(after == before[i] || after == 2);
+        }
+        assertTrue(locals.get(2).size() > 0);
+    }
+
+    @Test
+    public void testSubnetQueriesCoverEveryNode() throws UnknownHostException {
+        for (int i = 0; i < 60; i++)
+            nodes.get(0).add(address(i));
+        nodes.get(0).add(InetAddress.getByName("192.168.0.1"));
+
+        List<InetAddress> subnet = new ArrayList<>();
+        nodes.get(1).subnet(InetAddress.getByName("10.0.0.0"), 24).forEachRemaining(subnet::add);
+        assertEquals(60, subnet.size());
+        assertEquals(InetAddress.getByName("192.168.0.1"),
+                nodes.get(2).longestPrefixMatch(InetAddress.getByName("192.168.7.7")));
+
+        assertEquals(60, nodes.get(2).removeSubnet(InetAddress.getByName("10.0.0.0"), 8));
+        assertEquals(1, nodes.get(0).size());
+    }
+
+    @Test
+    public void testSubnetPagesThroughPeersInAddressOrder() throws UnknownHostException {
+        int count = 3 * BinaryProtocol.SUBNET_PAGE;
+        List<InetAddress> added = new ArrayList<>();
+        for (int i = count - 1; i >= 0; i--)
+            nodes.get(0).add(address(i));
+        for (int i = 0; i < count; i++)
+            added.add(address(i));
+
+        List<InetAddress> subnet = new ArrayList<>();
+        nodes.get(1).subnet(InetAddress.getByName("10.0.0.0"), 16).forEachRemaining(subnet::add);
+        assertEquals(added, subnet);
+
+        subnet.clear();
+        nodes.get(1).subnet(InetAddress.getByName("10.0.0.0"), 16, address(count - 11)).forEachRemaining(subnet::add);
+        assertEquals(added.subList(count - 10, count), subnet);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrefixIsRejectedBeforeAskingPeers() throws UnknownHostException {
+        nodes.get(0).removeSubnet(InetAddress.getByName("10.0.0.0"), 33);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testUnreachableOwnerFailsTheOperation() throws IOException {
+        ClusteredAddressCache lonely = new ClusteredAddressCache(new AddressCache(1, TimeUnit.MINUTES),
+                "127.0.0.1:1", Arrays.asList("127.0.0.1:1", "127.0.0.1:2"), 64, 1, 200);
+        try {
+            for (int i = 0; i < 50; i++)
+                lonely.add(address(i));
+        } finally {
+            lonely.close();
+        }
+    }
+
+    @Test
+    public void testEmptyPeerListLeavesOnlySelf() {
+        ClusteredAddressCache node = new ClusteredAddressCache(new AddressCache(1, TimeUnit.MINUTES),
+                "127.0.0.1:1", Collections.emptyList(), 64, 1, 200);
+
+        assertEquals(Collections.singletonList("127.0.0.1:1"), node.getPeers());
+        node.close();
+    }
+
+    @Test
+    public void testTtlIsForwardedToOwner() throws UnknownHostException {
+        long before = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++)
+            assertTrue(nodes.get(0).add(address(i), 1, TimeUnit.HOURS));
+
+        for (int i = 0; i < 20; i++) {
+            long expiresAt = locals.get(holderOf(address(i))).get(address(i)).expiresAt;
+            assertTrue(expiresAt >= before + TimeUnit.HOURS.toMillis(1));
+        }
+    }
+
+    @Test
+    public void testMovedEntriesKeepTheirTimesAndVersion() throws IOException {
+        for (int i = 0; i < 60; i++)
+            nodes.get(0).add(address(i), 10, TimeUnit.SECONDS);
+        Map<InetAddress, AddressEntry> before = new HashMap<>();
+        for (int i = 0; i < 60; i++)
+            before.put(address(i), locals.get(holderOf(address(i))).get(address(i)));
+        List<String> remaining = peers.subList(0, NODES - 1);
+
+        for (ClusteredAddressCache node : nodes)
+            node.updatePeers(remaining);
+
+        for (int i = 0; i < 60; i++) {
+            AddressEntry moving = before.get(address(i));
+            AddressEntry moved = locals.get(holderOf(address(i))).get(address(i));
+            assertEquals(moving.createdTime, moved.createdTime);
+            assertEquals(moving.expiresAt, moved.expiresAt);
+            assertEquals(moving.ttl, moved.ttl);
+            assertEquals(moving.version, moved.version);
+        }
+    }
+
+    @Test
+    public void testMovedEntriesKeepTheirPlaceInTakeOrder() throws Exception {
+        Map<InetAddress, Long> created = new HashMap<>();
+        for (int i = 0; i < 60; i++) {
+            nodes.get(0).add(address(i));
+            if (i % 20 == 19)
+                Thread.sleep(5);
+        }
+        for (int i = 0; i < 60; i++)
+            created.put(address(i), locals.get(holderOf(address(i))).get(address(i)).createdTime);
+        List<String> remaining = peers.subList(0, NODES - 1);
+
+        for (ClusteredAddressCache node : nodes)
+            node.updatePeers(remaining);
+
+        for (int i = 0; i < NODES - 1; i++) {
+            long previous = Long.MAX_VALUE;
+            InetAddress taken;
+            while ((taken = locals.get(i).poll()) != null) {
+                assertTrue("taken out of order", created.get(taken) <= previous);
+                previous = created.get(taken);
+            }
+        }
+    }
+}
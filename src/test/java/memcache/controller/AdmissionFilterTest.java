@@ -0,0 +1,110 @@
+package memcache.controller;
+
+import memcache.controller.AdmissionControl.Budget;
+import org.junit.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+
+import static org.junit.Assert.*;
+
+public class AdmissionFilterTest {
+
+    private final AdmissionControl admission = new AdmissionControl(1, 1, 1, 1, 2.0, 3);
+    private final AdmissionFilter filter = new AdmissionFilter(admission);
+
+    @Test
+    public void testClassifiesRequestsIntoBudgets() {
+        assertEquals(Budget.READ, AdmissionFilter.budgetFor(new MockHttpServletRequest("GET", "/address/peek")));
+        assertEquals(Budget.READ, AdmissionFilter.budgetFor(new MockHttpServletRequest("GET", "/address/10.0.0.1")));
+        assertEquals(Budget.READ, AdmissionFilter.budgetFor(new MockHttpServletRequest("GET", "/address/longest-match/10.0.0.1")));
+        assertEquals(Budget.WRITE, AdmissionFilter.budgetFor(new MockHttpServletRequest("PUT", "/address/10.0.0.1")));
+        assertEquals(Budget.WRITE, AdmissionFilter.budgetFor(new MockHttpServletRequest("DELETE", "/address/subnet/10.0.0.0/8")));
+        assertEquals(Budget.STREAM, AdmissionFilter.budgetFor(new MockHttpServletRequest("POST", "/address/lookup")));
+        assertEquals(Budget.STREAM, AdmissionFilter.budgetFor(new MockHttpServletRequest("DELETE", "/address")));
+        assertEquals(Budget.STREAM, AdmissionFilter.budgetFor(new MockHttpServletRequest("PUT", "/address")));
+        assertEquals(Budget.STREAM, AdmissionFilter.budgetFor(new MockHttpServletRequest("GET", "/address/subnet/10.0.0.0/8")));
+        assertEquals(Budget.STREAM, AdmissionFilter.budgetFor(new MockHttpServletRequest("GET", "/address/export")));
+        assertEquals(Budget.TAKE, AdmissionFilter.budgetFor(new MockHttpServletRequest("GET", "/address/take")));
+        MockHttpServletRequest takeN = new MockHttpServletRequest("GET", "/address/take");
+        takeN.setParameter("n", "10");
+        assertEquals(Budget.WRITE, AdmissionFilter.budgetFor(takeN));
+        assertNull(AdmissionFilter.budgetFor(new MockHttpServletRequest("GET", "/address/events")));
+        assertNull(AdmissionFilter.budgetFor(new MockHttpServletRequest("GET", "/metrics")));
+        assertEquals(Budget.TAKE, AdmissionFilter.budgetFor(new MockHttpServletRequest("GET", "/cache/blocklist/address/take")));
+        assertEquals(Budget.WRITE, AdmissionFilter.budgetFor(new MockHttpServletRequest("PUT", "/cache/blocklist/address/10.0.0.1")));
+        assertNull(AdmissionFilter.budgetFor(new MockHttpServletRequest("GET", "/cache/blocklist")));
+    }
+
+    @Test
+    public void testOnlyHostnamesInThePathAreResolved() {
+        assertTrue(AdmissionFilter.resolvesHostname(new MockHttpServletRequest("PUT", "/address/example.com")));
+        assertTrue(AdmissionFilter.resolvesHostname(new MockHttpServletRequest("GET", "/cache/blocklist/address/example.com")));
+        assertFalse(AdmissionFilter.resolvesHostname(new MockHttpServletRequest("PUT", "/address/10.0.0.1")));
+        assertFalse(AdmissionFilter.resolvesHostname(new MockHttpServletRequest("DELETE", "/address/::1")));
+        assertFalse(AdmissionFilter.resolvesHostname(new MockHttpServletRequest("GET", "/address/peek")));
+        assertFalse(AdmissionFilter.resolvesHostname(new MockHttpServletRequest("GET", "/address/subnet/10.0.0.0/8")));
+        assertFalse(AdmissionFilter.resolvesHostname(new MockHttpServletRequest("PUT", "/address")));
+    }
+
+    @Test
+    public void testSlowHostnameRequestLeavesWriteLimitAlone() throws Exception {
+        AdmissionControl adaptive = new AdmissionControl(4, 8, 1, 1, 2.0, 1);
+        AdmissionFilter adaptiveFilter = new AdmissionFilter(adaptive);
+        for (int i = 0; i < 4; i++)
+            adaptiveFilter.doFilter(new MockHttpServletRequest("PUT", "/address/10.0.0.1"), new MockHttpServletResponse(),
+                    new MockFilterChain());
+        FilterChain resolving = (request, response) -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        adaptiveFilter.doFilter(new MockHttpServletRequest("PUT", "/address/example.com"), new MockHttpServletResponse(),
+                resolving);
+
+        assertEquals(4, adaptive.limit(Budget.WRITE).getLimit());
+        assertEquals(0, adaptive.limit(Budget.WRITE).getInFlight());
+    }
+
+    @Test
+    public void testWritesOverBudgetGetServiceUnavailableButReadsStillPass() throws Exception {
+        MockHttpServletRequest write = new MockHttpServletRequest("PUT", "/address/10.0.0.1");
+        MockHttpServletResponse blocked = new MockHttpServletResponse();
+        FilterChain nested = (request, response) ->
+                filter.doFilter(new MockHttpServletRequest("PUT", "/address/10.0.0.2"), blocked, new MockFilterChain());
+
+        filter.doFilter(write, new MockHttpServletResponse(), nested);
+
+        assertEquals(503, blocked.getStatus());
+        assertEquals("3", blocked.getHeader("Retry-After"));
+        assertEquals(0, admission.limit(Budget.WRITE).getInFlight());
+        assertEquals(1, admission.limit(Budget.WRITE).getRejected());
+
+        MockHttpServletResponse read = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/address/peek"), read, new MockFilterChain());
+        assertEquals(200, read.getStatus());
+    }
+
+    @Test
+    public void testAsyncTakeHoldsItsPlaceUntilComplete() throws Exception {
+        MockHttpServletRequest take = new MockHttpServletRequest("GET", "/address/take");
+        take.setAsyncSupported(true);
+        FilterChain startAsync = (request, response) -> request.startAsync();
+
+        filter.doFilter(take, new MockHttpServletResponse(), startAsync);
+        assertEquals(1, admission.limit(Budget.TAKE).getInFlight());
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/address/take"), rejected, new MockFilterChain());
+        assertEquals(429, rejected.getStatus());
+
+        ((MockAsyncContext) take.getAsyncContext()).complete();
+        assertEquals(0, admission.limit(Budget.TAKE).getInFlight());
+    }
+}
@@ -0,0 +1,56 @@
+package memcache.controller;
+
+import memcache.service.AddressCache;
+import memcache.service.CacheSettings;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs against a real cache, since the statistics come from the cache's own operations.
+ */
+public class AnalyticsControllerTest {
+
+    private AddressCache addressCache;
+
+    @After
+    public void tearDown() {
+        addressCache.close();
+    }
+
+    private MockMvc mockMvc(CacheSettings settings) {
+        addressCache = new AddressCache(settings.maxAge(1, TimeUnit.MINUTES));
+        return MockMvcBuilders.standaloneSetup(new AnalyticsController(addressCache)).build();
+    }
+
+    @Test
+    public void testReportsHottestAddresses() throws Exception {
+        MockMvc mockMvc = mockMvc(new CacheSettings().analyticsWindow(1, TimeUnit.MINUTES));
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        addressCache.add(address);
+        addressCache.contains(address);
+
+        mockMvc.perform(get("/admin/analytics"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.windowMillis").value(60000))
+                .andExpect(jsonPath("$.current.accesses").value(2))
+                .andExpect(jsonPath("$.current.hottest[0].address").value("10.0.0.1"))
+                .andExpect(jsonPath("$.current.hottest[0].count").value(2))
+                .andExpect(jsonPath("$.previous.accesses").value(0));
+    }
+
+    @Test
+    public void testNotFoundWhenOff() throws Exception {
+        mockMvc(new CacheSettings())
+                .perform(get("/admin/analytics"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,176 @@
+package memcache.controller;
+
+import memcache.service.AddressStore;
+import memcache.service.AddressResolver;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(BatchController.class)
+@Import({BatchControllerTest.StubResolverConfig.class, RequestLatencies.class})
+public class BatchControllerTest {
+
+    @TestConfiguration
+    static class StubResolverConfig {
+
+        @Bean
+        public AddressResolver stubAddressResolver() {
+            return host -> {
+                CompletableFuture<InetAddress> future = new CompletableFuture<>();
+                future.completeExceptionally(new UnknownHostException(host));
+                return future;
+            };
+        }
+    }
+
+    @MockBean
+    private AddressStore addressCache;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    /**
+     * Streamed bodies are written to the original response while async processing runs, so
+     * this waits for it to finish and returns the response content.
+     */
+    private String performStreaming(RequestBuilder requestBuilder) throws Exception {
+        MvcResult result = mockMvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andExpect(status().isOk())
+                .andReturn();
+        result.getAsyncResult();
+        return result.getResponse().getContentAsString();
+    }
+
+    @Test
+    public void testAddAllAcceptsJsonArrayAndStreamsResultPerAddress() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("10.0.0.1");
+        InetAddress inetAddress1 = InetAddress.getByName("10.0.0.2");
+        when(addressCache.addAll(Arrays.asList(inetAddress, inetAddress1))).thenReturn(new boolean[]{true, false});
+
+        String content = performStreaming(put("/address")
+                .content("[\"10.0.0.1\", \"unknown.example\", \"10.0.0.2\"]")
+                .contentType(MediaType.APPLICATION_JSON));
+
+        assertEquals("{\"address\":\"10.0.0.1\",\"status\":\"added\"}\n"
+                + "{\"address\":\"unknown.example\",\"status\":\"invalid\"}\n"
+                + "{\"address\":\"10.0.0.2\",\"status\":\"exists\"}\n", content);
+
+        verify(addressCache, times(1)).addAll(Arrays.asList(inetAddress, inetAddress1));
+    }
+
+    @Test
+    public void testRemoveAllAcceptsOneAddressPerLine() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("10.0.0.1");
+        InetAddress inetAddress1 = InetAddress.getByName("::1");
+        when(addressCache.removeAll(Arrays.asList(inetAddress, inetAddress1))).thenReturn(new boolean[]{true, false});
+
+        String content = performStreaming(delete("/address")
+                .content("10.0.0.1\n\n::1\n")
+                .contentType(MediaType.TEXT_PLAIN));
+
+        assertEquals("{\"address\":\"10.0.0.1\",\"status\":\"removed\"}\n"
+                + "{\"address\":\"::1\",\"status\":\"not_found\"}\n", content);
+    }
+
+    @Test
+    public void testNdjsonBodyIsReadAsLines() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("10.0.0.1");
+        when(addressCache.addAll(Arrays.asList(inetAddress))).thenReturn(new boolean[]{true});
+
+        String content = performStreaming(put("/address")
+                .content("10.0.0.1\n")
+                .contentType(BatchController.NDJSON));
+
+        assertEquals("{\"address\":\"10.0.0.1\",\"status\":\"added\"}\n", content);
+    }
+
+    @Test
+    public void testJsonBodyThatIsNotAnArrayIsRefused() throws Exception {
+        mockMvc.perform(put("/address")
+                .content("{\"address\":\"10.0.0.1\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verify(addressCache, never()).addAll(anyListOf(InetAddress.class));
+    }
+
+    @Test
+    public void testMalformedArrayEndsTheStreamWithAnError() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("10.0.0.1");
+        when(addressCache.addAll(Arrays.asList(inetAddress))).thenReturn(new boolean[]{true});
+
+        String content = performStreaming(put("/address")
+                .content("[\"10.0.0.1\", 42, \"10.0.0.2\"]")
+                .contentType(MediaType.APPLICATION_JSON));
+
+        assertEquals("{\"address\":\"10.0.0.1\",\"status\":\"added\"}\n"
+                + "{\"error\":\"Expected a string address but found VALUE_NUMBER_INT\"}\n", content);
+    }
+
+    @Test
+    public void testAddAllAppliesLargeBodiesInChunks() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 600; i++)
+            body.append("10.0.").append(i / 256).append('.').append(i % 256).append('\n');
+        when(addressCache.addAll(anyListOf(InetAddress.class))).thenAnswer(
+                invocation -> new boolean[invocation.getArgumentAt(0, List.class).size()]);
+
+        String content = performStreaming(put("/address")
+                .content(body.toString())
+                .contentType(MediaType.TEXT_PLAIN));
+
+        assertEquals(600, content.split("\n").length);
+
+        verify(addressCache, times(3)).addAll(anyListOf(InetAddress.class));
+    }
+
+    @Test
+    public void testLookupStreamsWhetherEachAddressIsCached() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("10.0.0.1");
+        InetAddress inetAddress1 = InetAddress.getByName("10.0.0.2");
+        when(addressCache.containsAll(Arrays.asList(inetAddress, inetAddress1))).thenReturn(new boolean[]{false, true});
+
+        String content = performStreaming(post("/address/lookup")
+                .content("[\"10.0.0.1\", \"10.0.0.2\"]")
+                .contentType(MediaType.APPLICATION_JSON));
+
+        assertEquals("{\"address\":\"10.0.0.1\",\"status\":\"not_found\"}\n"
+                + "{\"address\":\"10.0.0.2\",\"status\":\"cached\"}\n", content);
+
+        verify(addressCache, never()).remove(any());
+    }
+
+    @Test
+    public void testTakeNStreamsTakenAddresses() throws Exception {
+        when(addressCache.take(2)).thenReturn(Arrays.asList(
+                InetAddress.getByName("10.0.0.2"), InetAddress.getByName("10.0.0.1")));
+
+        String content = performStreaming(get("/address/take?n=2"));
+
+        assertEquals("{\"address\":\"10.0.0.2\"}\n{\"address\":\"10.0.0.1\"}\n", content);
+    }
+}
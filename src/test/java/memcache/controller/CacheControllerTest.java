@@ -1,38 +1,91 @@
 package memcache.controller;
 
-import memcache.service.AddressCache;
+import memcache.domain.AddressEntry;
+import memcache.service.AddressStore;
+import memcache.service.AddressResolver;
 import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 
 import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
 @WebMvcTest(CacheController.class)
+@Import({CacheControllerTest.StubResolverConfig.class, RequestLatencies.class})
 public class CacheControllerTest {
 
+    @TestConfiguration
+    static class StubResolverConfig {
+
+        /**
+         * Knows a single hostname and is out of capacity for "busy.example".
+         */
+        @Bean
+        public AddressResolver stubAddressResolver() {
+            return host -> {
+                CompletableFuture<InetAddress> future = new CompletableFuture<>();
+                try {
+                    if (host.equals("cache.example"))
+                        future.complete(InetAddress.getByAddress(host, new byte[]{10, 0, 0, 7}));
+                    else if (host.equals("busy.example"))
+                        future.completeExceptionally(new RejectedExecutionException());
+                    else
+                        future.completeExceptionally(new UnknownHostException(host));
+                } catch (UnknownHostException e) {
+                    future.completeExceptionally(e);
+                }
+                return future;
+            };
+        }
+    }
+
     @MockBean
-    private AddressCache addressCache;
+    private AddressStore addressCache;
 
     @Autowired
     private MockMvc mockMvc;
 
+    private ResultActions performAsync(RequestBuilder requestBuilder) throws Exception {
+        MvcResult result = mockMvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result));
+    }
+
     @Test
     public void testAddIsSuccessWhenValidIPIsPassed() throws Exception {
         InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
 
-        mockMvc.perform(put("/address/127.0.0.1")
+        performAsync(put("/address/127.0.0.1")
                 .header("x-correlation-id", "correlationId")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
@@ -42,13 +95,32 @@ public class CacheControllerTest {
                 .add(eq(inetAddress));
     }
 
+    @Test
+    public void testAddPassesTtlInMilliseconds() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+
+        performAsync(put("/address/127.0.0.1").param("ttl", "5000"))
+                .andExpect(status().isOk());
+
+        verify(addressCache, times(1))
+                .add(eq(inetAddress), eq(5000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAddRejectsNegativeTtl() throws Exception {
+        performAsync(put("/address/127.0.0.1").param("ttl", "-1"))
+                .andExpect(status().isBadRequest());
+
+        verifyZeroInteractions(addressCache);
+    }
+
     @Test
     public void testAddIsThrowsBadRequestWhenInValidIPIsPassed() throws Exception {
 
         JSONObject body = new JSONObject();
         body.put("ipAddress", "invalidAddress");
 
-        mockMvc.perform(put("/address/invalidAddress")
+        performAsync(put("/address/invalidAddress")
                 .content(body.toString())
                 .header("x-correlation-id", "correlationId")
                 .contentType(MediaType.APPLICATION_JSON))
@@ -56,12 +128,46 @@ public class CacheControllerTest {
                 .andExpect(content().string("Address not found for the given ip  address"));
     }
 
+    @Test
+    public void testAddResolvesHostnameThroughResolver() throws Exception {
+        performAsync(put("/address/cache.example")
+                .header("x-correlation-id", "correlationId")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().string("Address added successfully"));
+
+        verify(addressCache, times(1))
+                .add(eq(InetAddress.getByName("10.0.0.7")));
+    }
+
+    @Test
+    public void testAddReturnsServiceUnavailableWhenResolverIsBusy() throws Exception {
+        performAsync(put("/address/busy.example")
+                .header("x-correlation-id", "correlationId")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(content().string("Address resolver is busy"));
+
+        verify(addressCache, never()).add(any());
+    }
+
+    @Test
+    public void testAddAcceptsIPv6Literal() throws Exception {
+        performAsync(put("/address/2001:db8::1")
+                .header("x-correlation-id", "correlationId")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        verify(addressCache, times(1))
+                .add(eq(InetAddress.getByName("2001:db8::1")));
+    }
+
     @Test
     public void testRemoveIsSuccessWhenValidIPIsPassed() throws Exception {
         InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
         when(addressCache.remove(inetAddress)).thenReturn(true);
 
-        mockMvc.perform(delete("/address/127.0.0.1")
+        performAsync(delete("/address/127.0.0.1")
                 .header("x-correlation-id", "correlationId")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
@@ -76,7 +182,7 @@ public class CacheControllerTest {
         InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
         when(addressCache.remove(inetAddress)).thenReturn(false);
 
-        mockMvc.perform(delete("/address/127.0.0.1")
+        performAsync(delete("/address/127.0.0.1")
                 .header("x-correlation-id", "correlationId")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isNotFound())
@@ -89,7 +195,7 @@ public class CacheControllerTest {
     @Test
     public void testRemoveIsThrowsBadRequestWhenInValidIPIsPassed() throws Exception {
 
-        mockMvc.perform(delete("/address/invalidAddress")
+        performAsync(delete("/address/invalidAddress")
                 .header("x-correlation-id", "correlationId")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isBadRequest())
@@ -126,19 +232,105 @@ public class CacheControllerTest {
                 .peek();
     }
 
+    @SuppressWarnings("unchecked")
+    private static Predicate<InetAddress> handoff(InvocationOnMock invocation) {
+        return (Predicate<InetAddress>) invocation.getArguments()[0];
+    }
+
     @Test
     public void testTakeIsSuccessWhenElementIsPresent() throws Exception {
         InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
-        when(addressCache.take()).thenReturn(inetAddress);
+        when(addressCache.takeAsync(Matchers.<Predicate<InetAddress>>any())).thenAnswer(invocation -> {
+            handoff(invocation).test(inetAddress);
+            return CompletableFuture.completedFuture(inetAddress);
+        });
 
-        mockMvc.perform(get("/address/take")
+        performAsync(get("/address/take")
                 .header("x-correlation-id", "correlationId")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
                 .andExpect(content().string("/127.0.0.1"));
 
         verify(addressCache, times(1))
-                .take();
+                .takeAsync(Matchers.<Predicate<InetAddress>>any());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testTakeWaitsUntilElementIsAdded() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+        AtomicReference<Predicate<InetAddress>> parked = new AtomicReference<>();
+        when(addressCache.takeAsync(Matchers.<Predicate<InetAddress>>any())).thenAnswer(invocation -> {
+            parked.set(handoff(invocation));
+            return new CompletableFuture<InetAddress>();
+        });
+
+        MvcResult result = mockMvc.perform(get("/address/take?timeout=60000")
+                .header("x-correlation-id", "correlationId")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertTrue(parked.get().test(inetAddress));
+        assertFalse(parked.get().test(inetAddress));
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string("/127.0.0.1"));
+    }
+
+    @Test
+    public void testTakeWithZeroTimeoutAnswersWithoutWaiting() throws Exception {
+        performAsync(get("/address/take?timeout=0"))
+                .andExpect(status().isNotFound())
+                .andExpect(content().string("No address added before timeout"));
+
+        verify(addressCache).poll();
+        verify(addressCache, never()).takeAsync(Matchers.<Predicate<InetAddress>>any());
+    }
+
+    @Test
+    public void testTakeRejectsNegativeTimeout() throws Exception {
+        performAsync(get("/address/take?timeout=-1"))
+                .andExpect(status().isBadRequest());
+
+        verifyZeroInteractions(addressCache);
+    }
+
+
+    @Test
+    public void testGetReturnsEntryWithETagWithoutRemovingIt() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("10.0.0.1");
+        when(addressCache.get(inetAddress)).thenReturn(new AddressEntry(inetAddress, 1000, Long.MAX_VALUE, 0, 42));
+
+        performAsync(get("/address/10.0.0.1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"2a\""))
+                .andExpect(header().string("Cache-Control", "no-cache"))
+                .andExpect(header().doesNotExist("Expires"))
+                .andExpect(content().string("Address present in cache"));
+
+        verify(addressCache, never()).remove(any());
+    }
+
+    @Test
+    public void testGetReturnsNotModifiedWhenETagMatches() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("10.0.0.1");
+        when(addressCache.get(inetAddress)).thenReturn(new AddressEntry(inetAddress, 1000, 61000, 60000, 42));
+
+        performAsync(get("/address/10.0.0.1").header("If-None-Match", "\"1\", W/\"2a\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"2a\""))
+                .andExpect(header().string("Expires", "Thu, 01 Jan 1970 00:01:01 GMT"))
+                .andExpect(content().string(""));
+
+        performAsync(get("/address/10.0.0.1").header("If-None-Match", "\"29\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void testGetReturnsNotFoundWhenAddressIsNotCached() throws Exception {
+        performAsync(get("/address/10.0.0.1"))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist("ETag"))
+                .andExpect(content().string("Address not present in cache"));
+    }
+}
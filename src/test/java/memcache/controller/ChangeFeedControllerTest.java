@@ -0,0 +1,136 @@
+package memcache.controller;
+
+import memcache.service.AddressCache;
+import memcache.service.CacheSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs against a real cache, since events come from the cache's own feed.
+ */
+public class ChangeFeedControllerTest {
+
+    private AddressCache addressCache;
+    private ChangeFeedController controller;
+    private MockMvc mockMvc;
+
+    @Before
+    public void setup() {
+        addressCache = new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.MINUTES)
+                .changeFeedCapacity(4));
+        controller = new ChangeFeedController(addressCache, 5, 1, 1000);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @After
+    public void tearDown() {
+        controller.close();
+        addressCache.close();
+    }
+
+    /**
+     * Waits for the streamed response to contain {@code expected}.
+     */
+    private static boolean awaitContent(MvcResult result, String expected)
+            throws UnsupportedEncodingException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (result.getResponse().getContentAsString().contains(expected))
+                return true;
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    @Test
+    public void testStreamsChangesMadeAfterSubscribing() throws Exception {
+        addressCache.add(InetAddress.getByName("10.0.0.1"));
+
+        MvcResult result = mockMvc.perform(get("/address/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        addressCache.add(InetAddress.getByName("10.0.0.2"));
+        addressCache.remove(InetAddress.getByName("10.0.0.2"));
+
+        assertTrue(awaitContent(result, "id:2\nevent:removed\ndata:{\"address\":\"10.0.0.2\""));
+        String content = result.getResponse().getContentAsString();
+        assertTrue(content.startsWith("id:1\nevent:added\ndata:{\"address\":\"10.0.0.2\""));
+        assertFalse(content.contains("10.0.0.1"));
+    }
+
+    @Test
+    public void testResumesAfterLastEventId() throws Exception {
+        addressCache.add(InetAddress.getByName("10.0.0.1"));
+        addressCache.add(InetAddress.getByName("10.0.0.2"));
+
+        MvcResult result = mockMvc.perform(get("/address/events").header("Last-Event-ID", "0"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertTrue(awaitContent(result, "id:1\nevent:added\ndata:{\"address\":\"10.0.0.2\""));
+        assertFalse(result.getResponse().getContentAsString().contains("10.0.0.1"));
+    }
+
+    @Test
+    public void testReportsEventsOverwrittenBeforeTheyWereSent() throws Exception {
+        for (int i = 0; i < 10; i++)
+            addressCache.add(InetAddress.getByName("10.0.0." + i));
+
+        MvcResult result = mockMvc.perform(get("/address/events?from=0"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertTrue(awaitContent(result, "event:dropped\ndata:6\n"));
+        assertTrue(awaitContent(result, "id:9\n"));
+    }
+
+    @Test
+    public void testDisconnectsSubscriberStillBehindAfterItsSendBudget() throws Exception {
+        AddressCache busyCache = new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.MINUTES)
+                .changeFeedCapacity(4096));
+        ChangeFeedController budgetedController = new ChangeFeedController(busyCache, 5, 1, 0);
+        for (int i = 0; i < 1000; i++)
+            busyCache.add(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i}));
+
+        MvcResult result = MockMvcBuilders.standaloneSetup(budgetedController).build()
+                .perform(get("/address/events?from=0"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertTrue(awaitContent(result, "id:511\n"));
+        Thread.sleep(50);
+        assertFalse(result.getResponse().getContentAsString().contains("id:512\n"));
+
+        budgetedController.close();
+        busyCache.close();
+    }
+
+    @Test
+    public void testNotFoundWhenFeedIsOff() throws Exception {
+        AddressCache quietCache = new AddressCache(1, TimeUnit.MINUTES);
+        ChangeFeedController quietController = new ChangeFeedController(quietCache, 5, 1, 1000);
+
+        MockMvcBuilders.standaloneSetup(quietController).build()
+                .perform(get("/address/events"))
+                .andExpect(status().isNotFound());
+
+        quietController.close();
+        quietCache.close();
+    }
+}
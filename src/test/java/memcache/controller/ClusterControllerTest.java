@@ -0,0 +1,40 @@
+package memcache.controller;
+
+import memcache.service.AddressStore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(ClusterController.class)
+public class ClusterControllerTest {
+
+    @MockBean
+    private AddressStore addressCache;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void testPeersIsNotFoundWithoutClusterMode() throws Exception {
+        mockMvc.perform(get("/cluster/peers"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void testUpdatePeersIsNotFoundWithoutClusterMode() throws Exception {
+        mockMvc.perform(put("/cluster/peers")
+                .content("[\"127.0.0.1:11211\"]")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,73 @@
+package memcache.controller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimitTest {
+
+    private static final long FAST = 100_000;
+    private static final long SLOW = 50_000_000;
+
+    @Test
+    public void testRejectsOverLimitUntilReleased() {
+        ConcurrencyLimit limit = ConcurrencyLimit.fixed(2);
+
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        limit.release(FAST);
+        assertTrue(limit.tryAcquire());
+
+        assertEquals(2, limit.getInFlight());
+        assertEquals(1, limit.getRejected());
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void testGrowsWhileFastAndFullyUsed() {
+        ConcurrencyLimit limit = ConcurrencyLimit.adaptive(10, 1, 12, 2.0);
+
+        for (int round = 0; round < 5; round++)
+            runRound(limit, FAST);
+
+        assertEquals(12, limit.getLimit());
+    }
+
+    @Test
+    public void testDoesNotGrowWhenBarelyUsed() {
+        ConcurrencyLimit limit = ConcurrencyLimit.adaptive(10, 1, 100, 2.0);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.release(FAST);
+        }
+
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void testBacksOffOncePerRoundWhenLatencyRises() {
+        ConcurrencyLimit limit = ConcurrencyLimit.adaptive(20, 5, 100, 2.0);
+        runRound(limit, FAST);
+        int before = limit.getLimit();
+
+        runRound(limit, SLOW);
+        assertEquals((int) (before * 0.9), limit.getLimit());
+
+        for (int round = 0; round < 20; round++)
+            runRound(limit, SLOW);
+        assertEquals(5, limit.getLimit());
+    }
+
+    /**
+     * Fills the limit and then completes every request with the given latency.
+     */
+    private static void runRound(ConcurrencyLimit limit, long latencyNanos) {
+        int inFlight = limit.getLimit();
+        for (int i = 0; i < inFlight; i++)
+            assertTrue(limit.tryAcquire());
+        for (int i = 0; i < inFlight; i++)
+            limit.release(latencyNanos);
+    }
+}
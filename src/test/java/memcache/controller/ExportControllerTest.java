@@ -0,0 +1,100 @@
+package memcache.controller;
+
+import memcache.domain.AddressEntry;
+import memcache.service.AddressStore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(ExportController.class)
+@Import(RequestLatencies.class)
+public class ExportControllerTest {
+
+    @MockBean
+    private AddressStore addressCache;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private String performStreaming(String url) throws Exception {
+        MvcResult result = mockMvc.perform(get(url))
+                .andExpect(request().asyncStarted())
+                .andExpect(status().isOk())
+                .andReturn();
+        result.getAsyncResult();
+        return result.getResponse().getContentAsString();
+    }
+
+    @Test
+    public void testExportStreamsEntriesWithRemainingTtl() throws Exception {
+        long now = System.currentTimeMillis();
+        when(addressCache.scan(null, 256)).thenReturn(page(1, 2, now + 60000));
+
+        String content = performStreaming("/address/export");
+
+        String[] lines = content.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].matches("\\{\"address\":\"10\\.0\\.0\\.1\",\"ttlMillis\":[0-9]{5}}"));
+        verify(addressCache, times(1)).scan(any(), anyInt());
+    }
+
+    @Test
+    public void testExportResumesAfterEachFullPage() throws Exception {
+        List<AddressEntry> first = page(0, 256, Long.MAX_VALUE);
+        InetAddress last = first.get(255).address;
+        when(addressCache.scan(null, 256)).thenReturn(first);
+        when(addressCache.scan(last, 256)).thenReturn(page(256, 10, Long.MAX_VALUE));
+
+        String content = performStreaming("/address/export");
+
+        assertEquals(266, content.split("\n").length);
+        assertEquals("{\"address\":\"10.0.1.9\"}", content.split("\n")[265]);
+    }
+
+    @Test
+    public void testExportStopsAtLimitAndStartsAfterCursor() throws Exception {
+        InetAddress after = InetAddress.getByName("10.0.0.5");
+        when(addressCache.scan(after, 3)).thenReturn(page(6, 3, Long.MAX_VALUE));
+
+        String content = performStreaming("/address/export?after=10.0.0.5&limit=3");
+
+        assertEquals(3, content.split("\n").length);
+        verify(addressCache, times(1)).scan(any(), anyInt());
+    }
+
+    @Test
+    public void testExportRejectsHostnameCursor() throws Exception {
+        mockMvc.perform(get("/address/export?after=cache.example"))
+                .andExpect(status().isBadRequest());
+
+        verifyZeroInteractions(addressCache);
+    }
+
+    private static List<AddressEntry> page(int from, int count, long expiresAt) throws UnknownHostException {
+        List<AddressEntry> page = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            InetAddress address = InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >>> 8), (byte) i});
+            page.add(new AddressEntry(address, 0, expiresAt, 0, i));
+        }
+        return page;
+    }
+}
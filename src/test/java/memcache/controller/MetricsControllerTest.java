@@ -0,0 +1,112 @@
+package memcache.controller;
+
+import memcache.service.AddressCache;
+import memcache.service.AddressStore;
+import memcache.service.CacheMetrics;
+import memcache.service.NamedCaches;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(MetricsController.class)
+@Import({RequestLatencies.class, AdmissionControl.class})
+public class MetricsControllerTest {
+
+    @MockBean
+    private AddressStore addressCache;
+
+    @MockBean
+    private NamedCaches namedCaches;
+
+    @Autowired
+    private RequestLatencies latencies;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Before
+    public void setup() {
+        when(addressCache.getMetrics()).thenReturn(new CacheMetrics());
+        when(addressCache.size()).thenReturn(3);
+        when(addressCache.waitingTakers()).thenReturn(2);
+    }
+
+    @Test
+    public void testMetricsAreExportedInPrometheusFormat() throws Exception {
+        mockMvc.perform(get("/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("text/plain"))
+                .andExpect(content().string(containsString("# TYPE address_cache_entries gauge\naddress_cache_entries 3\n")))
+                .andExpect(content().string(containsString("address_cache_waiting_takers 2\n")))
+                .andExpect(content().string(containsString("# TYPE address_cache_adds_total counter\naddress_cache_adds_total 0\n")))
+                .andExpect(content().string(containsString("address_cache_expiry_lag_max_seconds 0.0\n")));
+    }
+
+    @Test
+    public void testRequestLatencyIsExportedAsSummary() throws Exception {
+        latencies.recordNanos(RequestLatencies.Operation.PEEK, 2_000_000);
+
+        mockMvc.perform(get("/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("# TYPE address_cache_request_duration_seconds summary\n")))
+                .andExpect(content().string(containsString("address_cache_request_duration_seconds{operation=\"peek\",quantile=\"0.5\"} 0.002")))
+                .andExpect(content().string(containsString("address_cache_request_duration_seconds_count{operation=\"peek\"} 1\n")));
+    }
+
+    @Test
+    public void testAdmissionBudgetsAreExportedByBudget() throws Exception {
+        mockMvc.perform(get("/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("address_cache_admission_limit{budget=\"read\"} 64\n")))
+                .andExpect(content().string(containsString("address_cache_admission_limit{budget=\"stream\"} 64\n")))
+                .andExpect(content().string(containsString("address_cache_admission_limit{budget=\"take\"} 1024\n")))
+                .andExpect(content().string(containsString("address_cache_admission_rejected_total{budget=\"write\"} 0\n")));
+    }
+
+    @Test
+    public void testNamedCachesAreLabelledByName() throws Exception {
+        AddressCache blocklist = mock(AddressCache.class);
+        when(blocklist.getMetrics()).thenReturn(new CacheMetrics());
+        when(blocklist.size()).thenReturn(7);
+        when(namedCaches.asMap()).thenReturn(Collections.singletonMap("blocklist", blocklist));
+
+        mockMvc.perform(get("/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("# TYPE address_cache_entries gauge\naddress_cache_entries 3\n"
+                        + "address_cache_entries{cache=\"blocklist\"} 7\n")))
+                .andExpect(content().string(containsString("address_cache_adds_total{cache=\"blocklist\"} 0\n")));
+    }
+
+    @Test
+    public void testNamedCacheLatencyIsLabelledByName() throws Exception {
+        AddressCache blocklist = mock(AddressCache.class);
+        when(blocklist.getMetrics()).thenReturn(new CacheMetrics());
+        when(namedCaches.asMap()).thenReturn(Collections.singletonMap("blocklist", blocklist));
+        latencies.named("blocklist").recordNanos(RequestLatencies.Operation.TAKE, 2_000_000);
+
+        mockMvc.perform(get("/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString(
+                        "address_cache_request_duration_seconds{cache=\"blocklist\",operation=\"take\",quantile=\"0.5\"} 0.002")))
+                .andExpect(content().string(containsString(
+                        "address_cache_request_duration_seconds_count{cache=\"blocklist\",operation=\"take\"} 1\n")))
+                .andExpect(content().string(containsString(
+                        "address_cache_request_duration_seconds_count{operation=\"take\"} 0\n")));
+    }
+}
@@ -0,0 +1,129 @@
+package memcache.controller;
+
+import memcache.controller.RequestLatencies.Operation;
+import memcache.service.AddressCache;
+import memcache.service.CacheSettings;
+import memcache.service.NamedCaches;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs against real caches, to show that each name reaches its own.
+ */
+public class NamedCacheControllerTest {
+
+    private NamedCaches caches;
+    private RequestLatencies latencies;
+    private MockMvc mockMvc;
+
+    @Before
+    public void setup() {
+        caches = new NamedCaches(1);
+        caches.create("blocklist", new CacheSettings().maxAge(1, TimeUnit.MINUTES));
+        caches.create("allowlist", new CacheSettings().maxAge(1, TimeUnit.MINUTES).maxEntries(1));
+        latencies = new RequestLatencies();
+        NamedCacheController controller = new NamedCacheController(caches, host -> {
+            CompletableFuture<InetAddress> unknown = new CompletableFuture<>();
+            unknown.completeExceptionally(new UnknownHostException(host));
+            return unknown;
+        }, latencies);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @After
+    public void tearDown() {
+        caches.close();
+    }
+
+    private ResultActions performAsync(RequestBuilder requestBuilder) throws Exception {
+        MvcResult result = mockMvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result));
+    }
+
+    @Test
+    public void testEachNameReachesItsOwnCache() throws Exception {
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+
+        performAsync(put("/cache/blocklist/address/10.0.0.1"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("Address added successfully"));
+
+        AddressCache blocklist = caches.get("blocklist");
+        assertTrue(blocklist.contains(address));
+        assertFalse(caches.get("allowlist").contains(address));
+        performAsync(get("/cache/blocklist/address/10.0.0.1"))
+                .andExpect(status().isOk());
+        performAsync(get("/cache/allowlist/address/10.0.0.1"))
+                .andExpect(status().isNotFound())
+                .andExpect(content().string("Address not present in cache"));
+    }
+
+    @Test
+    public void testEachCacheRecordsItsOwnLatencies() throws Exception {
+        mockMvc.perform(get("/cache/blocklist/address/peek")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/cache/blocklist/address/peek")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/cache/allowlist/address/peek")).andExpect(status().isNotFound());
+
+        Operation peek = Operation.PEEK;
+        assertEquals(2, latencies.named("blocklist").snapshot().get(peek).getTotal().getTotalCount());
+        assertEquals(1, latencies.named("allowlist").snapshot().get(peek).getTotal().getTotalCount());
+        assertEquals(0, latencies.snapshot().get(peek).getTotal().getTotalCount());
+    }
+
+    @Test
+    public void testEachCacheKeepsItsOwnCapacity() throws Exception {
+        performAsync(put("/cache/allowlist/address/10.0.0.1")).andExpect(status().isOk());
+        performAsync(put("/cache/allowlist/address/10.0.0.2")).andExpect(status().isOk());
+        performAsync(put("/cache/blocklist/address/10.0.0.1")).andExpect(status().isOk());
+        performAsync(put("/cache/blocklist/address/10.0.0.2")).andExpect(status().isOk());
+
+        assertEquals(1, caches.get("allowlist").size());
+        assertEquals(2, caches.get("blocklist").size());
+        mockMvc.perform(get("/cache/allowlist/address/peek"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("/10.0.0.2"));
+    }
+
+    @Test
+    public void testTakeWaitsOnTheNamedCache() throws Exception {
+        caches.get("blocklist").add(InetAddress.getByName("10.0.0.3"));
+
+        performAsync(get("/cache/blocklist/address/take").param("timeout", "1000"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("/10.0.0.3"));
+        assertEquals(0, caches.get("blocklist").size());
+    }
+
+    @Test
+    public void testUnknownCacheIsNotFound() throws Exception {
+        mockMvc.perform(put("/cache/missing/address/10.0.0.1"))
+                .andExpect(status().isNotFound())
+                .andExpect(content().string("Cache not found"));
+        mockMvc.perform(get("/cache/missing/address/peek"))
+                .andExpect(status().isNotFound())
+                .andExpect(content().string("Cache not found"));
+    }
+}
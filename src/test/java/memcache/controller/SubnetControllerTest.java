@@ -0,0 +1,96 @@
+package memcache.controller;
+
+import memcache.service.AddressStore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(SubnetController.class)
+@Import(RequestLatencies.class)
+public class SubnetControllerTest {
+
+    @MockBean
+    private AddressStore addressCache;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void testSubnetStreamsAddresses() throws Exception {
+        when(addressCache.subnet(InetAddress.getByName("10.20.0.0"), 16)).thenReturn(Arrays.asList(
+                InetAddress.getByName("10.20.0.1"), InetAddress.getByName("10.20.3.4")).iterator());
+
+        MvcResult result = mockMvc.perform(get("/address/subnet/10.20.0.0/16"))
+                .andExpect(request().asyncStarted())
+                .andExpect(status().isOk())
+                .andReturn();
+        result.getAsyncResult();
+
+        assertEquals("{\"address\":\"10.20.0.1\"}\n{\"address\":\"10.20.3.4\"}\n",
+                result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testSubnetRejectsHostnamePrefix() throws Exception {
+        mockMvc.perform(get("/address/subnet/cache.example/16"))
+                .andExpect(status().isBadRequest());
+
+        verifyZeroInteractions(addressCache);
+    }
+
+    @Test
+    public void testSubnetRejectsPrefixLengthOutOfRange() throws Exception {
+        when(addressCache.subnet(InetAddress.getByName("10.0.0.0"), 40))
+                .thenThrow(new IllegalArgumentException("Prefix length must be between 0 and 32"));
+
+        mockMvc.perform(get("/address/subnet/10.0.0.0/40"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Prefix length must be between 0 and 32"));
+    }
+
+    @Test
+    public void testRemoveSubnetReportsCount() throws Exception {
+        when(addressCache.removeSubnet(InetAddress.getByName("2001:db8::"), 32)).thenReturn(3);
+
+        mockMvc.perform(delete("/address/subnet/2001:db8::/32"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("Removed 3 addresses"));
+    }
+
+    @Test
+    public void testLongestMatchReportsSharedPrefixLength() throws Exception {
+        when(addressCache.longestPrefixMatch(InetAddress.getByName("10.0.1.200")))
+                .thenReturn(InetAddress.getByName("10.0.1.1"));
+
+        mockMvc.perform(get("/address/longest-match/10.0.1.200"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"address\":\"10.0.1.1\",\"prefixLength\":24}"));
+    }
+
+    @Test
+    public void testLongestMatchIsNotFoundWithoutAddressOfSameFamily() throws Exception {
+        when(addressCache.longestPrefixMatch(InetAddress.getByName("10.0.0.1")))
+                .thenReturn(InetAddress.getByName("2001:db8::1"));
+
+        mockMvc.perform(get("/address/longest-match/10.0.0.1"))
+                .andExpect(status().isNotFound());
+    }
+}
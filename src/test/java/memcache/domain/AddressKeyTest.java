@@ -0,0 +1,97 @@
+package memcache.domain;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.*;
+
+public class AddressKeyTest {
+
+    @Test
+    public void testIPv4KeyRoundTripsToSameAddress() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("10.20.30.40");
+
+        AddressKey key = AddressKey.of(inetAddress);
+
+        assertTrue(key.isV4());
+        assertEquals(inetAddress, key.toInetAddress());
+        assertEquals("10.20.30.40", key.toString());
+    }
+
+    @Test
+    public void testIPv6KeyRoundTripsToSameAddress() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("2001:db8::ff00:42:8329");
+
+        AddressKey key = AddressKey.of(inetAddress);
+
+        assertFalse(key.isV4());
+        assertEquals(inetAddress, key.toInetAddress());
+    }
+
+    @Test
+    public void testKeysForSameAddressAreEqual() throws UnknownHostException {
+        AddressKey key = AddressKey.of(InetAddress.getByName("127.0.0.2"));
+        AddressKey key1 = AddressKey.of(new byte[]{127, 0, 0, 2});
+
+        assertEquals(key, key1);
+        assertEquals(key.hashCode(), key1.hashCode());
+    }
+
+    @Test
+    public void testIPv4KeyDoesNotCollideWithIPv4CompatibleIPv6Key() throws UnknownHostException {
+        AddressKey key = AddressKey.of(InetAddress.getByName("1.2.3.4"));
+        AddressKey key1 = AddressKey.of(InetAddress.getByName("::1.2.3.4"));
+
+        assertNotEquals(key, key1);
+    }
+
+    @Test
+    public void testParseAcceptsAddressLiterals() throws UnknownHostException {
+        assertEquals(AddressKey.of(InetAddress.getByName("192.168.0.1")), AddressKey.parse("192.168.0.1"));
+        assertEquals(AddressKey.of(InetAddress.getByName("::1")), AddressKey.parse("::1"));
+        assertEquals(AddressKey.of(InetAddress.getByName("::")), AddressKey.parse("::"));
+        assertEquals(AddressKey.of(InetAddress.getByName("fe80::1:2")), AddressKey.parse("[fe80::1:2]"));
+        assertEquals(AddressKey.of(InetAddress.getByName("1:2:3:4:5:6:7:8")), AddressKey.parse("1:2:3:4:5:6:7:8"));
+        assertEquals(AddressKey.of(InetAddress.getByName("1:2:3:4:5:6:7::")), AddressKey.parse("1:2:3:4:5:6:7::"));
+        assertEquals(AddressKey.of(InetAddress.getByName("64:ff9b::10.0.0.1")), AddressKey.parse("64:ff9b::10.0.0.1"));
+        assertEquals(AddressKey.parse("10.0.0.1"), AddressKey.parse("::ffff:10.0.0.1"));
+    }
+
+    @Test
+    public void testParseRejectsHostnamesAndMalformedLiterals() {
+        assertNull(AddressKey.parse("localhost"));
+        assertNull(AddressKey.parse("invalidAddress"));
+        assertNull(AddressKey.parse("1234"));
+        assertNull(AddressKey.parse("10.0.0"));
+        assertNull(AddressKey.parse("10.0.0.256"));
+        assertNull(AddressKey.parse("10.0.0.1."));
+        assertNull(AddressKey.parse("1::2::3"));
+        assertNull(AddressKey.parse("1:2:3:4:5:6:7:8:9"));
+        assertNull(AddressKey.parse("1:2"));
+        assertNull(AddressKey.parse("fe80::1%eth0"));
+    }
+
+    @Test
+    public void testPrefixBoundsAndBits() {
+        AddressKey key = AddressKey.parse("10.20.30.40");
+
+        assertEquals(AddressKey.parse("10.20.0.0"), key.firstInPrefix(AddressKey.V4_PREFIX_BITS + 16));
+        assertEquals(AddressKey.parse("10.20.255.255"), key.lastInPrefix(AddressKey.V4_PREFIX_BITS + 16));
+        assertEquals(AddressKey.parse("::"), key.firstInPrefix(0));
+        assertEquals(key, key.firstInPrefix(AddressKey.BITS));
+        assertEquals(AddressKey.V4_PREFIX_BITS + 14, key.commonPrefixLength(AddressKey.parse("10.22.0.0")));
+        assertEquals(AddressKey.BITS, key.commonPrefixLength(key));
+        assertFalse(key.bit(0));
+        assertTrue(key.bit(AddressKey.V4_PREFIX_BITS + 4));
+    }
+
+    @Test
+    public void testKeysOrderAsUnsignedAddresses() {
+        assertTrue(AddressKey.parse("10.0.0.1").compareTo(AddressKey.parse("10.0.0.2")) < 0);
+        assertTrue(AddressKey.parse("200.0.0.1").compareTo(AddressKey.parse("10.0.0.2")) > 0);
+        assertTrue(AddressKey.parse("8000::").compareTo(AddressKey.parse("::1")) > 0);
+        assertEquals(0, AddressKey.parse("::1").compareTo(AddressKey.parse("::1")));
+    }
+}
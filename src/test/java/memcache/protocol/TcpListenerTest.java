@@ -0,0 +1,240 @@
+package memcache.protocol;
+
+import memcache.service.AddressCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TcpListenerTest {
+
+    private AddressCache cache;
+    private TcpListener listener;
+    private Socket socket;
+
+    @Before
+    public void setup() throws IOException {
+        cache = new AddressCache(1, TimeUnit.MINUTES);
+        listener = new TcpListener(cache, 0, 2);
+        socket = new Socket(InetAddress.getLoopbackAddress(), listener.getPort());
+        socket.setSoTimeout(5000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socket.close();
+        listener.close();
+        cache.close();
+    }
+
+    private String exchangeText(String requests, int responseLines) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(requests.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        int lines = 0;
+        while (lines < responseLines) {
+            int b = in.read();
+            if (b < 0)
+                break;
+            response.write(b);
+            if (b == '\n')
+                lines++;
+        }
+        return new String(response.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testTextCommandsArePipelined() throws IOException {
+        String response = exchangeText("add 10.0.0.1\r\nadd 10.0.0.1\r\nadd ::1\r\nget 10.0.0.1\r\n"
+                + "peek\r\ndelete ::1\r\ndelete ::1\r\n", 11);
+
+        assertEquals("STORED\r\nNOT_STORED\r\nSTORED\r\n"
+                + "VALUE 10.0.0.1 0 0\r\n\r\nEND\r\n"
+                + "VALUE 0:0:0:0:0:0:0:1 0 0\r\n\r\nEND\r\n"
+                + "DELETED\r\nNOT_FOUND\r\n", response);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testTextTakeDoesNotWait() throws IOException {
+        cache.add(InetAddress.getByName("10.0.0.1"));
+
+        String response = exchangeText("take\ntake\n", 4);
+
+        assertEquals("VALUE 10.0.0.1 0 0\r\n\r\nEND\r\nEND\r\n", response);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTextRejectsHostnamesAndUnknownCommands() throws IOException {
+        String response = exchangeText("add localhost\r\nflush_all\r\nversion\r\n", 3);
+
+        assertEquals("CLIENT_ERROR bad address\r\nERROR\r\nVERSION 1.0\r\n", response);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTextStorageCommandConsumesDataBlockAndHonoursNoreply() throws IOException {
+        long before = System.currentTimeMillis();
+        String response = exchangeText("add 10.0.0.1 0 3600 5\r\nhello\r\n"
+                + "add 10.0.0.2 7 0 0 noreply\r\n\r\n"
+                + "add 10.0.0.1 0 0 2\r\nhi\r\n"
+                + "get 10.0.0.1 10.0.0.3 10.0.0.2\r\n", 7);
+
+        assertEquals("STORED\r\nNOT_STORED\r\n"
+                + "VALUE 10.0.0.1 0 0\r\n\r\nVALUE 10.0.0.2 0 0\r\n\r\nEND\r\n", response);
+        long expiresAt = cache.get(InetAddress.getByName("10.0.0.1")).expiresAt;
+        assertTrue(expiresAt >= before + 3_600_000 && expiresAt <= System.currentTimeMillis() + 3_600_000);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testTextDataBlockSplitAcrossWritesIsReassembled() throws IOException, InterruptedException {
+        OutputStream out = socket.getOutputStream();
+        out.write("add 10.0.0.1 0 0 4\r\nab".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        Thread.sleep(50);
+
+        String response = exchangeText("cd\r\nadd 10.0.0.2 0 -1 0\r\n\r\n", 2);
+
+        assertEquals("STORED\r\nSTORED\r\n", response);
+        assertTrue(cache.contains(InetAddress.getByName("10.0.0.1")));
+        assertFalse("a past exptime stores nothing", cache.contains(InetAddress.getByName("10.0.0.2")));
+    }
+
+    @Test
+    public void testTextMalformedStorageCommandClosesConnection() throws IOException {
+        String response = exchangeText("add 10.0.0.1 0 0 x\r\n", 1);
+
+        assertEquals("CLIENT_ERROR bad command line format\r\n", response);
+        assertEquals(-1, socket.getInputStream().read());
+    }
+
+    @Test
+    public void testTextQuitClosesConnection() throws IOException {
+        exchangeText("quit\r\n", 0);
+
+        assertEquals(-1, socket.getInputStream().read());
+    }
+
+    @Test
+    public void testBinaryCommandsArePipelined() throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[]{
+                BinaryProtocol.MAGIC, BinaryProtocol.ADD, 4, 10, 0, 0, 1,
+                BinaryProtocol.MAGIC, BinaryProtocol.ADD, 4, 10, 0, 0, 1,
+                BinaryProtocol.MAGIC, BinaryProtocol.GET, 4, 10, 0, 0, 1,
+                BinaryProtocol.MAGIC, BinaryProtocol.TAKE, 0,
+                BinaryProtocol.MAGIC, BinaryProtocol.REMOVE, 4, 10, 0, 0, 1});
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] response = new byte[3 * 5 + 4];
+        in.readFully(response);
+
+        assertArrayEquals(new byte[]{
+                BinaryProtocol.MAGIC, BinaryProtocol.OK, 0,
+                BinaryProtocol.MAGIC, BinaryProtocol.EXISTS, 0,
+                BinaryProtocol.MAGIC, BinaryProtocol.OK, 0,
+                BinaryProtocol.MAGIC, BinaryProtocol.OK, 4, 10, 0, 0, 1,
+                BinaryProtocol.MAGIC, BinaryProtocol.NOT_FOUND, 0}, response);
+    }
+
+    @Test
+    public void testBinaryRequestSplitAcrossWritesIsReassembled() throws IOException, InterruptedException {
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[]{BinaryProtocol.MAGIC, BinaryProtocol.ADD, 16, 0, 0, 0, 0});
+        out.flush();
+        Thread.sleep(50);
+        out.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1});
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] response = new byte[3];
+        in.readFully(response);
+
+        assertArrayEquals(new byte[]{BinaryProtocol.MAGIC, BinaryProtocol.OK, 0}, response);
+        assertTrue(cache.contains(InetAddress.getByName("::1")));
+    }
+
+    @Test
+    public void testBinaryMalformedRequestClosesConnection() throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[]{BinaryProtocol.MAGIC, 42, 0});
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] response = new byte[3];
+        in.readFully(response);
+
+        assertArrayEquals(new byte[]{BinaryProtocol.MAGIC, BinaryProtocol.INVALID, 0}, response);
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testBinarySubnetResumesAfterCursor() throws IOException {
+        for (int i = 1; i <= 3; i++)
+            cache.add(InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) i}));
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[]{BinaryProtocol.MAGIC, BinaryProtocol.SUBNET, 9, 10, 0, 0, 0, 24, 10, 0, 0, 1});
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] response = new byte[3 * 3 + 8];
+        in.readFully(response);
+
+        assertArrayEquals(new byte[]{
+                BinaryProtocol.MAGIC, BinaryProtocol.OK, 4, 10, 0, 0, 2,
+                BinaryProtocol.MAGIC, BinaryProtocol.OK, 4, 10, 0, 0, 3,
+                BinaryProtocol.MAGIC, BinaryProtocol.NOT_FOUND, 0}, response);
+    }
+
+    @Test
+    public void testBinaryRemoveSubnetSpanningPagesAnswersOnceAllAreGone() throws IOException {
+        for (int i = 0; i < 3 * BinaryProtocol.SUBNET_PAGE; i++)
+            cache.add(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i}));
+        cache.add(InetAddress.getByName("10.1.0.1"));
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[]{
+                BinaryProtocol.MAGIC, BinaryProtocol.REMOVE_SUBNET, 5, 10, 0, 0, 0, 16,
+                BinaryProtocol.MAGIC, BinaryProtocol.SIZE, 0});
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] header = new byte[3];
+        in.readFully(header);
+        assertArrayEquals(new byte[]{BinaryProtocol.MAGIC, BinaryProtocol.OK, 8}, header);
+        assertEquals(3 * BinaryProtocol.SUBNET_PAGE, in.readLong());
+        in.readFully(header);
+        assertEquals(1, in.readLong());
+    }
+
+    @Test
+    public void testBinaryAddCarriesTtl() throws IOException {
+        OutputStream out = socket.getOutputStream();
+        long before = System.currentTimeMillis();
+        out.write(new byte[]{BinaryProtocol.MAGIC, BinaryProtocol.ADD, 12, 10, 0, 0, 1, 0, 0, 0, 0, 0, 0x36, (byte) 0xEE, (byte) 0x80});
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] response = new byte[3];
+        in.readFully(response);
+
+        assertArrayEquals(new byte[]{BinaryProtocol.MAGIC, BinaryProtocol.OK, 0}, response);
+        long expiresAt = cache.get(InetAddress.getByName("10.0.0.1")).expiresAt;
+        assertTrue(expiresAt >= before + 3_600_000 && expiresAt <= System.currentTimeMillis() + 3_600_000);
+    }
+}
@@ -1,12 +1,25 @@
 package memcache.service;
 
+import memcache.domain.AddressEntry;
+import memcache.domain.CacheEvent;
+import memcache.domain.CacheObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -21,6 +34,7 @@ public class AddressCacheTest {
 
     @After
     public void tearDown() {
+        cache.close();
         cache = null;
     }
 
@@ -42,8 +56,82 @@ public class AddressCacheTest {
         cache.add(inetAddress);
         assertEquals(1, cache.size());
 
+        assertFalse(cache.add(inetAddress));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testContainsOnlyLiveElements() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+
+        assertFalse(cache.contains(inetAddress));
         cache.add(inetAddress);
+        assertTrue(cache.contains(inetAddress));
+        cache.remove(inetAddress);
+        assertFalse(cache.contains(inetAddress));
+    }
+
+    @Test
+    public void testGetReturnsEntryWithoutTakingIt() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+
+        assertNull(cache.get(inetAddress));
+        cache.add(inetAddress);
+        AddressEntry entry = cache.get(inetAddress);
+
+        assertEquals(inetAddress, entry.address);
+        assertEquals(entry.createdTime + 1000, entry.expiresAt);
         assertEquals(1, cache.size());
+        assertEquals(inetAddress, cache.poll());
+        assertNull(cache.get(inetAddress));
+    }
+
+    @Test
+    public void testGetVersionChangesWhenAddressIsAddedAgain() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+        cache.add(inetAddress);
+        long version = cache.get(inetAddress).version;
+
+        cache.add(inetAddress);
+        assertEquals(version, cache.get(inetAddress).version);
+        cache.remove(inetAddress);
+        cache.add(inetAddress);
+        assertNotEquals(version, cache.get(inetAddress).version);
+    }
+
+    @Test
+    public void testFilteredLookupsFollowAddsAndRemoves() throws UnknownHostException {
+        cache.close();
+        cache = new AddressCache(new CacheSettings().shards(4).filterExpectedEntries(1000));
+        List<InetAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            addresses.add(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >>> 8), (byte) i}));
+
+        cache.addAll(addresses.subList(0, 100));
+        cache.addAll(addresses.subList(0, 100));
+        cache.removeAll(addresses.subList(0, 50));
+        cache.take(25);
+
+        boolean[] contained = cache.containsAll(addresses);
+        int found = 0;
+        for (int i = 0; i < contained.length; i++) {
+            assertEquals(cache.get(addresses.get(i)) != null, contained[i]);
+            if (contained[i]) {
+                assertTrue(i >= 50 && i < 100);
+                found++;
+            }
+        }
+        assertEquals(25, found);
+    }
+
+    @Test
+    public void testAddAcceptsIPv6Element() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("::1");
+
+        cache.add(inetAddress);
+
+        assertEquals(inetAddress, cache.peek());
+        assertTrue(cache.remove(inetAddress));
     }
 
     @Test
@@ -114,7 +202,7 @@ public class AddressCacheTest {
     }
 
     @Test
-    public void testPeekReturnsNullIfLastAddedElementIsRemovedAlready() throws UnknownHostException {
+    public void testPeekReturnsPreviousElementIfLastAddedElementIsRemovedAlready() throws UnknownHostException {
         InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
         InetAddress inetAddress1 = InetAddress.getByName("127.0.0.2");
 
@@ -123,10 +211,20 @@ public class AddressCacheTest {
 
         cache.remove(inetAddress1);
         InetAddress peekedElement = cache.peek();
-        assertNull(peekedElement);
+        assertEquals("127.0.0.1", peekedElement.getHostAddress());
         assertEquals(1, cache.size());
     }
 
+    @Test
+    public void testPeekReturnsNullIfAllElementsAreRemoved() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+
+        cache.add(inetAddress);
+        cache.remove(inetAddress);
+
+        assertNull(cache.peek());
+    }
+
     @Test
     public void testTakeReturnsLastAddedElementAndRemovesIt() throws UnknownHostException, InterruptedException {
         InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
@@ -140,6 +238,36 @@ public class AddressCacheTest {
         assertEquals(1, cache.size());
     }
 
+    @Test
+    public void testConsecutiveTakesReturnElementsInReverseInsertionOrder() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+        InetAddress inetAddress1 = InetAddress.getByName("127.0.0.2");
+        InetAddress inetAddress2 = InetAddress.getByName("127.0.0.3");
+
+        cache.add(inetAddress);
+        cache.add(inetAddress1);
+        cache.add(inetAddress2);
+        cache.remove(inetAddress1);
+
+        assertEquals("127.0.0.3", cache.take().getHostAddress());
+        assertEquals("127.0.0.1", cache.take().getHostAddress());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testFifoCacheTakesOldestElementFirst() throws UnknownHostException {
+        AddressCache fifoCache = new AddressCache(0, TimeUnit.SECONDS, TakeOrder.FIFO);
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+        InetAddress inetAddress1 = InetAddress.getByName("127.0.0.2");
+
+        fifoCache.add(inetAddress);
+        fifoCache.add(inetAddress1);
+
+        assertEquals("127.0.0.1", fifoCache.peek().getHostAddress());
+        assertEquals("127.0.0.1", fifoCache.take().getHostAddress());
+        assertEquals("127.0.0.2", fifoCache.take().getHostAddress());
+    }
+
     @Test
     public void testElementsAreClearedAfterMaxAge() throws UnknownHostException, InterruptedException {
         InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
@@ -156,6 +284,267 @@ public class AddressCacheTest {
         Thread.yield();
     }
 
+    @Test
+    public void testExpiredElementIsNeverReturned() throws UnknownHostException, InterruptedException {
+        AddressCache slowCleanupCache = new AddressCache(new CacheSettings()
+                .maxAge(50, TimeUnit.MILLISECONDS)
+                .tickMillis(60000));
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+
+        slowCleanupCache.add(inetAddress);
+        Thread.sleep(100);
+
+        assertNull(slowCleanupCache.peek());
+        assertFalse(slowCleanupCache.remove(inetAddress));
+        slowCleanupCache.close();
+    }
+
+    @Test
+    public void testReAddAfterExpiryStartsNewEntry() throws UnknownHostException, InterruptedException {
+        AddressCache slowCleanupCache = new AddressCache(new CacheSettings()
+                .maxAge(50, TimeUnit.MILLISECONDS)
+                .tickMillis(60000));
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+
+        slowCleanupCache.add(inetAddress);
+        Thread.sleep(100);
+        slowCleanupCache.add(inetAddress);
+
+        assertEquals(inetAddress, slowCleanupCache.peek());
+        assertEquals(1, slowCleanupCache.size());
+        slowCleanupCache.close();
+    }
+
+    @Test
+    public void testLruEvictsLeastRecentlyUsedElement() throws UnknownHostException {
+        AddressCache boundedCache = new AddressCache(new CacheSettings()
+                .maxEntries(2)
+                .evictionPolicy(EvictionPolicy.LRU));
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+        InetAddress inetAddress1 = InetAddress.getByName("127.0.0.2");
+        InetAddress inetAddress2 = InetAddress.getByName("127.0.0.3");
+
+        boundedCache.add(inetAddress);
+        boundedCache.add(inetAddress1);
+        boundedCache.add(inetAddress);
+        boundedCache.add(inetAddress2);
+
+        assertEquals(2, boundedCache.size());
+        assertFalse(boundedCache.remove(inetAddress1));
+        assertTrue(boundedCache.remove(inetAddress));
+    }
+
+    @Test
+    public void testFifoEvictsOldestElement() throws UnknownHostException {
+        AddressCache boundedCache = new AddressCache(new CacheSettings()
+                .maxEntries(2)
+                .evictionPolicy(EvictionPolicy.FIFO));
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+        InetAddress inetAddress1 = InetAddress.getByName("127.0.0.2");
+        InetAddress inetAddress2 = InetAddress.getByName("127.0.0.3");
+
+        boundedCache.add(inetAddress);
+        boundedCache.add(inetAddress1);
+        boundedCache.add(inetAddress);
+        boundedCache.add(inetAddress2);
+
+        assertEquals(2, boundedCache.size());
+        assertFalse(boundedCache.remove(inetAddress));
+        assertTrue(boundedCache.remove(inetAddress1));
+    }
+
+    @Test
+    public void testTinyLfuKeepsFrequentlyAddedElements() throws UnknownHostException {
+        AddressCache boundedCache = new AddressCache(new CacheSettings()
+                .maxEntries(100)
+                .evictionPolicy(EvictionPolicy.TINY_LFU));
+        InetAddress hot = InetAddress.getByName("10.0.0.1");
+        for (int i = 0; i < 10; i++)
+            boundedCache.add(hot);
+
+        for (int i = 0; i < 1000; i++)
+            boundedCache.add(InetAddress.getByAddress(new byte[]{10, 1, (byte) (i >> 8), (byte) i}));
+
+        assertEquals(100, boundedCache.size());
+        assertTrue(boundedCache.remove(hot));
+    }
+
+    @Test
+    public void testMaxBytesBoundsNumberOfElements() throws UnknownHostException {
+        AddressCache boundedCache = new AddressCache(new CacheSettings()
+                .maxBytes(10 * AddressCache.ENTRY_BYTES));
+
+        for (int i = 0; i < 50; i++)
+            boundedCache.add(InetAddress.getByAddress(new byte[]{10, 1, 0, (byte) i}));
+
+        assertEquals(10, boundedCache.size());
+    }
+
+    @Test
+    public void testConcurrentAddsSettleWithinCapacity() throws InterruptedException {
+        AddressCache boundedCache = new AddressCache(new CacheSettings()
+                .maxEntries(64)
+                .evictionPolicy(EvictionPolicy.TINY_LFU));
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            int writer = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    try {
+                        boundedCache.add(InetAddress.getByAddress(
+                                new byte[]{10, (byte) writer, (byte) (i >> 8), (byte) i}));
+                    } catch (UnknownHostException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+
+        assertTrue(boundedCache.size() <= 64);
+    }
+
+    @Test
+    public void testShardedCacheKeepsGlobalTakeOrder() throws UnknownHostException {
+        AddressCache shardedCache = new AddressCache(new CacheSettings().shards(8));
+        for (int i = 0; i < 100; i++)
+            shardedCache.add(InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) i}));
+
+        assertEquals(100, shardedCache.size());
+        assertEquals("10.0.0.99", shardedCache.peek().getHostAddress());
+        for (int i = 99; i >= 0; i--)
+            assertEquals(i, shardedCache.take().getAddress()[3]);
+        assertEquals(0, shardedCache.size());
+    }
+
+    @Test
+    public void testShardedCacheExpiresElementsInEveryShard() throws UnknownHostException, InterruptedException {
+        AddressCache shardedCache = new AddressCache(new CacheSettings()
+                .maxAge(50, TimeUnit.MILLISECONDS)
+                .tickMillis(10)
+                .shards(4));
+        for (int i = 0; i < 100; i++)
+            shardedCache.add(InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) i}));
+
+        Thread.sleep(200);
+
+        assertEquals(0, shardedCache.size());
+        shardedCache.close();
+    }
+
+    @Test
+    public void testTakeAsyncIsCompletedByLaterAdd() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+
+        CompletableFuture<InetAddress> taken = cache.takeAsync();
+        assertFalse(taken.isDone());
+        assertEquals(1, cache.waitingTakers());
+
+        cache.add(inetAddress);
+
+        assertEquals(inetAddress, taken.get(1, TimeUnit.SECONDS));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.waitingTakers());
+    }
+
+    @Test
+    public void testCancelledTakeAsyncDoesNotConsumeElement() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+
+        CompletableFuture<InetAddress> cancelled = cache.takeAsync();
+        CompletableFuture<InetAddress> waiting = cache.takeAsync();
+        cancelled.cancel(false);
+        cache.add(inetAddress);
+
+        assertEquals(inetAddress, waiting.get(1, TimeUnit.SECONDS));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDeclinedTakeIsPutBackAsItWas() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+        cache.add(inetAddress, 1, TimeUnit.MINUTES);
+        AddressEntry before = cache.get(inetAddress);
+
+        assertEquals(inetAddress, cache.takeAsync(address -> false).get(1, TimeUnit.SECONDS));
+
+        AddressEntry after = cache.get(inetAddress);
+        assertNotNull(after);
+        assertEquals(before.createdTime, after.createdTime);
+        assertEquals(before.expiresAt, after.expiresAt);
+        assertEquals(before.version, after.version);
+    }
+
+    @Test
+    public void testDeclinedWaiterLeavesElementForTheNext() throws Exception {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+
+        CompletableFuture<InetAddress> declined = cache.takeAsync(address -> false);
+        CompletableFuture<InetAddress> waiting = cache.takeAsync();
+        cache.add(inetAddress);
+
+        assertEquals(inetAddress, declined.get(1, TimeUnit.SECONDS));
+        assertEquals(inetAddress, waiting.get(1, TimeUnit.SECONDS));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testManyWaitersAreServedByAdds() throws Exception {
+        List<CompletableFuture<InetAddress>> takers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            takers.add(cache.takeAsync());
+
+        for (int i = 0; i < 1000; i++)
+            cache.add(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i}));
+
+        for (CompletableFuture<InetAddress> taker : takers)
+            assertNotNull(taker.get(1, TimeUnit.SECONDS));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testAddAllReportsWhichElementsWereNew() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+        InetAddress inetAddress1 = InetAddress.getByName("127.0.0.2");
+        cache.add(inetAddress);
+
+        boolean[] added = cache.addAll(Arrays.asList(inetAddress, inetAddress1));
+
+        assertArrayEquals(new boolean[]{false, true}, added);
+        assertEquals(2, cache.size());
+        assertEquals(inetAddress1, cache.peek());
+    }
+
+    @Test
+    public void testRemoveAllReportsWhichElementsWereRemoved() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+        InetAddress inetAddress1 = InetAddress.getByName("127.0.0.2");
+        cache.add(inetAddress);
+
+        boolean[] removed = cache.removeAll(Arrays.asList(inetAddress, inetAddress1));
+
+        assertArrayEquals(new boolean[]{true, false}, removed);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTakeNTakesAtMostAvailableElements() throws UnknownHostException {
+        cache.addAll(Arrays.asList(InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.2")));
+
+        List<InetAddress> taken = cache.take(5);
+
+        assertEquals(2, taken.size());
+        assertEquals("127.0.0.2", taken.get(0).getHostAddress());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPollReturnsNullIfNoElements() {
+        assertNull(cache.poll());
+    }
+
     @Test
     public void testTakeWaitsForElementIfLastAddedElementIsNotPresent() throws UnknownHostException, InterruptedException {
         InetAddress inetAddress = InetAddress.getByName("127.78.76.1");
@@ -177,4 +566,601 @@ public class AddressCacheTest {
         assertEquals(1, cache.size());
         Thread.yield();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMetricsCountOperations() throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName("127.0.0.1");
+        InetAddress inetAddress1 = InetAddress.getByName("127.0.0.2");
+
+        cache.add(inetAddress);
+        cache.add(inetAddress);
+        cache.add(inetAddress1);
+        cache.remove(inetAddress);
+        cache.remove(inetAddress);
+        cache.poll();
+        cache.poll();
+
+        CacheMetrics metrics = cache.getMetrics();
+        assertEquals(2, metrics.getAdds());
+        assertEquals(1, metrics.getDuplicateAdds());
+        assertEquals(1, metrics.getRemoves());
+        assertEquals(1, metrics.getTakes());
+        assertEquals(2, metrics.getMisses());
+    }
+
+    @Test
+    public void testMetricsRecordExpiryLag() throws UnknownHostException, InterruptedException {
+        AddressCache manualCleanupCache = new AddressCache(new CacheSettings()
+                .maxAge(10, TimeUnit.MILLISECONDS)
+                .tickMillis(1)
+                .maintenanceThreads(0));
+        manualCleanupCache.add(InetAddress.getByName("127.0.0.1"));
+        Thread.sleep(60);
+
+        assertEquals(1, manualCleanupCache.cleanup());
+
+        CacheMetrics metrics = manualCleanupCache.getMetrics();
+        assertEquals(1, metrics.getExpirations());
+        assertTrue(metrics.getExpiryLagMillis() >= 40);
+        assertEquals(metrics.getExpiryLagMillis(), metrics.getAndResetMaxExpiryLagMillis());
+        assertEquals(0, metrics.getAndResetMaxExpiryLagMillis());
+        manualCleanupCache.close();
+    }
+
+    @Test
+    public void testMetricsCountEvictions() throws UnknownHostException {
+        AddressCache boundedCache = new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.SECONDS)
+                .maxEntries(1));
+        boundedCache.add(InetAddress.getByName("127.0.0.1"));
+        boundedCache.add(InetAddress.getByName("127.0.0.2"));
+
+        assertEquals(1, boundedCache.getMetrics().getEvictions());
+        boundedCache.close();
+    }
+
+    private static AddressCache tieredCache(int hotMaxEntries, TakeOrder order) {
+        return new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.MINUTES)
+                .takeOrder(order)
+                .maintenanceThreads(0)
+                .hotMaxEntries(hotMaxEntries));
+    }
+
+    private static InetAddress address(int last) throws UnknownHostException {
+        return InetAddress.getByName("10.0.0." + last);
+    }
+
+    @Test
+    public void testColdEntriesArePromotedOnLookup() throws UnknownHostException {
+        AddressCache tiered = tieredCache(2, TakeOrder.LIFO);
+        for (int i = 1; i <= 5; i++)
+            tiered.add(address(i));
+
+        assertEquals(5, tiered.size());
+        assertEquals(tiered.scan(null, 1).get(0).version, tiered.get(address(1)).version);
+        assertTrue(tiered.contains(address(1)));
+        assertFalse(tiered.add(address(2)));
+        assertTrue(tiered.remove(address(3)));
+        assertFalse(tiered.contains(address(3)));
+        assertFalse(tiered.remove(address(3)));
+        assertEquals(4, tiered.size());
+        tiered.close();
+    }
+
+    @Test
+    public void testTakesFollowInsertionOrderAcrossTiers() throws UnknownHostException {
+        for (TakeOrder order : TakeOrder.values()) {
+            AddressCache tiered = tieredCache(2, order);
+            for (int i = 1; i <= 6; i++)
+                tiered.add(address(i));
+            tiered.contains(address(2));
+
+            List<InetAddress> expected = new ArrayList<>();
+            for (int i = 1; i <= 6; i++)
+                expected.add(address(order == TakeOrder.LIFO ? 7 - i : i));
+            assertEquals(expected.get(0), tiered.peek());
+            assertEquals(expected, tiered.take(6));
+            assertEquals(0, tiered.size());
+            tiered.close();
+        }
+    }
+
+    @Test
+    public void testSubnetAndLongestPrefixMatchCoverBothTiers() throws UnknownHostException {
+        AddressCache tiered = tieredCache(3, TakeOrder.LIFO);
+        List<InetAddress> added = new ArrayList<>();
+        for (int i = 1; i <= 8; i++) {
+            tiered.add(address(i));
+            added.add(address(i));
+        }
+
+        assertEquals(added, toList(tiered.subnet(address(0), 24)));
+        assertEquals(added, toList(tiered.addresses()));
+        assertEquals(address(2), tiered.longestPrefixMatch(address(2)));
+        assertEquals(7, tiered.removeSubnet(address(0), 29));
+        assertEquals(Collections.singletonList(address(8)), toList(tiered.subnet(address(0), 24)));
+        tiered.close();
+    }
+
+    @Test
+    public void testColdEntriesExpire() throws UnknownHostException, InterruptedException {
+        AddressCache tiered = new AddressCache(new CacheSettings()
+                .maxAge(100, TimeUnit.MILLISECONDS)
+                .tickMillis(10)
+                .maintenanceThreads(0)
+                .hotMaxEntries(1));
+        for (int i = 1; i <= 3; i++)
+            tiered.add(address(i));
+        Thread.sleep(150);
+
+        assertEquals(3, tiered.cleanup());
+        assertEquals(0, tiered.size());
+        assertEquals(3, tiered.getMetrics().getExpirations());
+        assertTrue(tiered.add(address(1)));
+        tiered.close();
+    }
+
+    @Test
+    public void testEvictionTakesColdEntriesFirst() throws UnknownHostException {
+        AddressCache tiered = new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.MINUTES)
+                .maxEntries(4)
+                .hotMaxEntries(2));
+        for (int i = 1; i <= 4; i++)
+            tiered.add(address(i));
+        // Promotes 1 and demotes 3, the oldest left on the heap, so 2 is now the oldest cold entry.
+        tiered.contains(address(1));
+        tiered.add(address(5));
+
+        assertEquals(1, tiered.getMetrics().getEvictions());
+        assertFalse(tiered.contains(address(2)));
+        assertTrue(tiered.contains(address(1)));
+        assertTrue(tiered.contains(address(3)));
+        tiered.close();
+    }
+
+    private static List<InetAddress> toList(Iterator<InetAddress> addresses) {
+        List<InetAddress> list = new ArrayList<>();
+        addresses.forEachRemaining(list::add);
+        return list;
+    }
+
+    @Test
+    public void testSubnetListsAddressesInOrderAcrossShards() throws UnknownHostException {
+        AddressCache shardedCache = new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.MINUTES)
+                .shards(4));
+        for (int i = 255; i >= 0; i--)
+            shardedCache.add(InetAddress.getByName("10.20." + (i % 2) + "." + i));
+        shardedCache.add(InetAddress.getByName("10.21.0.1"));
+        shardedCache.add(InetAddress.getByName("2001:db8::1"));
+
+        List<InetAddress> subnet = toList(shardedCache.subnet(InetAddress.getByName("10.20.1.77"), 24));
+
+        assertEquals(128, subnet.size());
+        assertEquals(InetAddress.getByName("10.20.1.1"), subnet.get(0));
+        assertEquals(InetAddress.getByName("10.20.1.255"), subnet.get(127));
+        assertEquals(257, toList(shardedCache.subnet(InetAddress.getByName("10.0.0.0"), 8)).size());
+        assertEquals(258, toList(shardedCache.subnet(InetAddress.getByName("::"), 0)).size());
+        assertEquals(1, toList(shardedCache.subnet(InetAddress.getByName("2001:db8::"), 32)).size());
+        shardedCache.close();
+    }
+
+    @Test
+    public void testSubnetSkipsRemovedAndTakenAddresses() throws UnknownHostException {
+        cache.add(InetAddress.getByName("10.0.0.1"));
+        cache.add(InetAddress.getByName("10.0.0.2"));
+        cache.add(InetAddress.getByName("10.0.0.3"));
+        cache.remove(InetAddress.getByName("10.0.0.1"));
+        cache.poll();
+
+        assertEquals(Arrays.asList(InetAddress.getByName("10.0.0.2")),
+                toList(cache.subnet(InetAddress.getByName("10.0.0.0"), 24)));
+    }
+
+    @Test
+    public void testSubnetResumesAfterCursor() throws UnknownHostException {
+        for (int i = 1; i <= 5; i++)
+            cache.add(InetAddress.getByName("10.0.0." + i));
+
+        assertEquals(Arrays.asList(InetAddress.getByName("10.0.0.4"), InetAddress.getByName("10.0.0.5")),
+                toList(cache.subnet(InetAddress.getByName("10.0.0.0"), 24, InetAddress.getByName("10.0.0.3"))));
+        assertEquals(5, toList(cache.subnet(InetAddress.getByName("10.0.0.0"), 24, InetAddress.getByName("9.0.0.0"))).size());
+        assertTrue(toList(cache.subnet(InetAddress.getByName("10.0.0.0"), 24, InetAddress.getByName("10.0.1.0"))).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubnetRejectsPrefixLengthLongerThanFamily() throws UnknownHostException {
+        cache.subnet(InetAddress.getByName("10.0.0.0"), 33);
+    }
+
+    @Test
+    public void testRemoveSubnetOnlyRemovesMatchingAddresses() throws UnknownHostException {
+        for (int i = 0; i < 10; i++) {
+            cache.add(InetAddress.getByName("192.168.1." + i));
+            cache.add(InetAddress.getByName("192.168.2." + i));
+        }
+
+        assertEquals(10, cache.removeSubnet(InetAddress.getByName("192.168.1.0"), 24));
+
+        assertEquals(10, cache.size());
+        assertFalse(cache.contains(InetAddress.getByName("192.168.1.5")));
+        assertTrue(cache.contains(InetAddress.getByName("192.168.2.5")));
+        assertEquals(10, cache.getMetrics().getRemoves());
+    }
+
+    @Test
+    public void testScanPagesThroughEveryEntryOnceInAddressOrder() throws UnknownHostException {
+        cache.close();
+        cache = new AddressCache(new CacheSettings().shards(4));
+        for (int i = 999; i >= 0; i--)
+            cache.add(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >>> 8), (byte) i}));
+        cache.add(InetAddress.getByName("::1"));
+
+        List<InetAddress> scanned = new ArrayList<>();
+        InetAddress after = null;
+        List<AddressEntry> page;
+        do {
+            page = cache.scan(after, 300);
+            for (AddressEntry entry : page)
+                scanned.add(entry.address);
+            if (!page.isEmpty())
+                after = page.get(page.size() - 1).address;
+            // Removing entries already handed out never disturbs the rest of the scan.
+            if (page.size() > 1)
+                cache.remove(page.get(0).address);
+        } while (page.size() == 300);
+
+        assertEquals(1001, scanned.size());
+        assertEquals(InetAddress.getByName("::1"), scanned.get(0));
+        for (int i = 0; i < 1000; i++)
+            assertEquals(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >>> 8), (byte) i}), scanned.get(i + 1));
+        assertTrue(cache.scan(after, 10).isEmpty());
+    }
+
+    @Test
+    public void testLongestPrefixMatch() throws UnknownHostException {
+        assertNull(cache.longestPrefixMatch(InetAddress.getByName("10.0.0.1")));
+
+        cache.add(InetAddress.getByName("10.0.0.1"));
+        cache.add(InetAddress.getByName("10.0.1.1"));
+        cache.add(InetAddress.getByName("172.16.0.1"));
+
+        assertEquals(InetAddress.getByName("10.0.1.1"), cache.longestPrefixMatch(InetAddress.getByName("10.0.1.200")));
+        assertEquals(InetAddress.getByName("10.0.0.1"), cache.longestPrefixMatch(InetAddress.getByName("10.0.0.1")));
+        assertEquals(InetAddress.getByName("172.16.0.1"), cache.longestPrefixMatch(InetAddress.getByName("172.31.0.1")));
+
+        cache.remove(InetAddress.getByName("10.0.1.1"));
+        assertEquals(InetAddress.getByName("10.0.0.1"), cache.longestPrefixMatch(InetAddress.getByName("10.0.1.200")));
+    }
+
+    @Test
+    public void testLongestPrefixMatchSkipsExpiredAddresses() throws UnknownHostException, InterruptedException {
+        AddressCache manualCleanupCache = new AddressCache(new CacheSettings()
+                .maxAge(20, TimeUnit.MILLISECONDS)
+                .maintenanceThreads(0));
+        manualCleanupCache.add(InetAddress.getByName("10.0.0.1"));
+        Thread.sleep(40);
+        manualCleanupCache.add(InetAddress.getByName("10.1.0.1"));
+
+        assertEquals(InetAddress.getByName("10.1.0.1"),
+                manualCleanupCache.longestPrefixMatch(InetAddress.getByName("10.0.0.2")));
+        assertEquals(1, manualCleanupCache.getMetrics().getExpirations());
+        manualCleanupCache.close();
+    }
+
+    private static List<String> eventTypes(AddressCache feedCache) {
+        List<String> types = new ArrayList<>();
+        for (CacheEvent event : feedCache.getChangeFeed().read(0, 100).getEvents())
+            types.add(event.type + " " + event.key);
+        return types;
+    }
+
+    @Test
+    public void testChangeFeedRecordsEveryChange() throws UnknownHostException, InterruptedException {
+        AddressCache feedCache = new AddressCache(new CacheSettings()
+                .maxAge(20, TimeUnit.MILLISECONDS)
+                .tickMillis(1)
+                .maxEntries(2)
+                .maintenanceThreads(0)
+                .changeFeedCapacity(16));
+        feedCache.add(InetAddress.getByName("10.0.0.1"));
+        feedCache.add(InetAddress.getByName("10.0.0.1"));
+        feedCache.add(InetAddress.getByName("10.0.0.2"));
+        feedCache.remove(InetAddress.getByName("10.0.0.2"));
+        feedCache.add(InetAddress.getByName("10.0.0.3"));
+        feedCache.poll();
+        feedCache.add(InetAddress.getByName("10.0.0.4"));
+        feedCache.add(InetAddress.getByName("10.0.0.5"));
+        Thread.sleep(40);
+        feedCache.cleanup();
+
+        List<String> events = eventTypes(feedCache);
+        assertEquals(Arrays.asList(
+                "ADDED 10.0.0.1",
+                "ADDED 10.0.0.2",
+                "REMOVED 10.0.0.2",
+                "ADDED 10.0.0.3",
+                "TAKEN 10.0.0.3",
+                "ADDED 10.0.0.4",
+                "EVICTED 10.0.0.1",
+                "ADDED 10.0.0.5"), events.subList(0, 8));
+        assertEquals(new HashSet<>(Arrays.asList("EXPIRED 10.0.0.4", "EXPIRED 10.0.0.5")),
+                new HashSet<>(events.subList(8, events.size())));
+        feedCache.close();
+    }
+
+    @Test
+    public void testChangeFeedIsOffByDefault() throws UnknownHostException {
+        cache.add(InetAddress.getByName("10.0.0.1"));
+
+        assertFalse(cache.getChangeFeed().isEnabled());
+        assertEquals(0, cache.getChangeFeed().head());
+    }
+
+    /**
+     * Collects delivered removals and counts delivery calls.
+     */
+    private static class CollectingListener implements RemovalListener {
+
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final AtomicInteger batches = new AtomicInteger();
+
+        @Override
+        public void onRemoval(List<CacheEvent> removals) {
+            batches.incrementAndGet();
+            for (CacheEvent event : removals)
+                events.add(event.type + " " + event.key);
+        }
+
+        void awaitEvents(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (events.size() < count && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testRemovalListenerReceivesEveryKindOfRemovalInBatches()
+            throws UnknownHostException, InterruptedException {
+        AddressCache listenedCache = new AddressCache(new CacheSettings()
+                .maxAge(20, TimeUnit.MILLISECONDS)
+                .tickMillis(1)
+                .maxEntries(2)
+                .maintenanceThreads(0)
+                .listenerIntervalMillis(50));
+        CollectingListener listener = new CollectingListener();
+        listenedCache.addRemovalListener(listener);
+
+        listenedCache.add(InetAddress.getByName("10.0.0.1"));
+        listenedCache.add(InetAddress.getByName("10.0.0.2"));
+        listenedCache.remove(InetAddress.getByName("10.0.0.2"));
+        listenedCache.add(InetAddress.getByName("10.0.0.3"));
+        listenedCache.poll();
+        listenedCache.add(InetAddress.getByName("10.0.0.4"));
+        listenedCache.add(InetAddress.getByName("10.0.0.5"));
+        Thread.sleep(25);
+        listenedCache.cleanup();
+        listener.awaitEvents(5);
+
+        assertEquals(Arrays.asList("REMOVED 10.0.0.2", "TAKEN 10.0.0.3", "EVICTED 10.0.0.1"),
+                listener.events.subList(0, 3));
+        assertEquals(new HashSet<>(Arrays.asList("EXPIRED 10.0.0.4", "EXPIRED 10.0.0.5")),
+                new HashSet<>(listener.events.subList(3, 5)));
+        assertTrue(listener.batches.get() < listener.events.size());
+        assertEquals(5, listenedCache.getMetrics().getListenerDelivered());
+        listenedCache.close();
+    }
+
+    @Test
+    public void testSlowRemovalListenerDropsOldestRemovalsWithoutBlockingCache()
+            throws UnknownHostException, InterruptedException {
+        AddressCache listenedCache = new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.MINUTES)
+                .listenerQueueSize(4)
+                .listenerIntervalMillis(1));
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingListener collected = new CollectingListener();
+        listenedCache.addRemovalListener(removals -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        listenedCache.addRemovalListener(collected);
+
+        listenedCache.add(InetAddress.getByName("10.0.0.1"));
+        listenedCache.remove(InetAddress.getByName("10.0.0.1"));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            listenedCache.add(InetAddress.getByName("10.0.1." + i));
+            listenedCache.remove(InetAddress.getByName("10.0.1." + i));
+        }
+        release.countDown();
+        collected.awaitEvents(5);
+
+        assertEquals(5, collected.events.size());
+        assertEquals("REMOVED 10.0.1.16", collected.events.get(1));
+        assertEquals(16, listenedCache.getMetrics().getListenerDropped());
+        listenedCache.close();
+    }
+
+    @Test
+    public void testFailingRemovalListenerDoesNotStopDelivery() throws UnknownHostException, InterruptedException {
+        AddressCache listenedCache = new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.MINUTES)
+                .listenerIntervalMillis(1));
+        CollectingListener listener = new CollectingListener();
+        listenedCache.addRemovalListener(removals -> {
+            throw new IllegalStateException("listener failure");
+        });
+        listenedCache.addRemovalListener(listener);
+
+        listenedCache.add(InetAddress.getByName("10.0.0.1"));
+        listenedCache.remove(InetAddress.getByName("10.0.0.1"));
+        listener.awaitEvents(1);
+        listenedCache.add(InetAddress.getByName("10.0.0.2"));
+        listenedCache.remove(InetAddress.getByName("10.0.0.2"));
+        listener.awaitEvents(2);
+
+        assertEquals(Arrays.asList("REMOVED 10.0.0.1", "REMOVED 10.0.0.2"), listener.events);
+        assertTrue(listenedCache.removeRemovalListener(listener));
+        listenedCache.close();
+    }
+
+    private static AddressCache manualExpiryCache(boolean sliding, long maxAgeMillis) {
+        return new AddressCache(new CacheSettings()
+                .maxAge(maxAgeMillis, TimeUnit.MILLISECONDS)
+                .slidingExpiration(sliding)
+                .tickMillis(1)
+                .maintenanceThreads(0));
+    }
+
+    @Test
+    public void testTtlOfAnEntryOverridesMaxAge() throws Exception {
+        AddressCache ttlCache = manualExpiryCache(false, 60_000);
+        InetAddress shortLived = InetAddress.getByName("10.0.0.1");
+        InetAddress longLived = InetAddress.getByName("10.0.0.2");
+        ttlCache.add(shortLived, 10, TimeUnit.MILLISECONDS);
+        ttlCache.add(longLived);
+        Thread.sleep(40);
+
+        assertEquals(1, ttlCache.cleanup());
+        assertFalse(ttlCache.contains(shortLived));
+        assertTrue(ttlCache.contains(longLived));
+        ttlCache.close();
+    }
+
+    @Test
+    public void testTtlExpiresEntriesOfACacheWithoutMaxAge() throws Exception {
+        AddressCache ttlCache = manualExpiryCache(false, 0);
+        ttlCache.add(InetAddress.getByName("10.0.0.1"), 10, TimeUnit.MILLISECONDS);
+        ttlCache.add(InetAddress.getByName("10.0.0.2"));
+        Thread.sleep(40);
+
+        assertEquals(1, ttlCache.cleanup());
+        assertEquals(Long.MAX_VALUE, ttlCache.get(InetAddress.getByName("10.0.0.2")).expiresAt);
+        ttlCache.close();
+    }
+
+    @Test
+    public void testLookupsKeepAnEntryAliveUnderSlidingExpiration() throws Exception {
+        AddressCache slidingCache = manualExpiryCache(true, 200);
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        slidingCache.add(address);
+
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(50);
+            assertTrue(slidingCache.contains(address));
+            assertEquals(0, slidingCache.cleanup());
+        }
+        Thread.sleep(300);
+
+        assertEquals(1, slidingCache.cleanup());
+        assertFalse(slidingCache.contains(address));
+        slidingCache.close();
+    }
+
+    @Test
+    public void testLookupsDoNotMoveTheDeadlineWithoutSlidingExpiration() throws Exception {
+        AddressCache fixedCache = manualExpiryCache(false, 60_000);
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        fixedCache.add(address);
+        long expiresAt = fixedCache.get(address).expiresAt;
+        Thread.sleep(20);
+
+        fixedCache.contains(address);
+        assertFalse(fixedCache.add(address));
+
+        assertEquals(expiresAt, fixedCache.get(address).expiresAt);
+        fixedCache.close();
+    }
+
+    @Test
+    public void testReAddRestartsTheTtlUnderSlidingExpiration() throws Exception {
+        AddressCache slidingCache = manualExpiryCache(true, 60_000);
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        slidingCache.add(address);
+
+        // A shorter time to live replaces the longer one, and is scheduled to expire on time.
+        assertFalse(slidingCache.add(address, 10, TimeUnit.MILLISECONDS));
+        Thread.sleep(40);
+
+        assertEquals(1, slidingCache.cleanup());
+        assertFalse(slidingCache.contains(address));
+        slidingCache.close();
+    }
+
+    @Test
+    public void testColdEntryKeepsItsTtlThroughPromotion() throws Exception {
+        AddressCache tiered = new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.MINUTES)
+                .slidingExpiration(true)
+                .tickMillis(1)
+                .maintenanceThreads(0)
+                .hotMaxEntries(1));
+        tiered.add(address(1), 1, TimeUnit.HOURS);
+        tiered.add(address(2));
+        Thread.sleep(20);
+        long before = System.currentTimeMillis();
+
+        long expiresAt = tiered.get(address(1)).expiresAt;
+
+        assertTrue(expiresAt >= before + TimeUnit.HOURS.toMillis(1));
+        tiered.close();
+    }
+
+    @Test
+    public void testReAddUnderSlidingExpirationJournalsOneRefresh() throws Exception {
+        AddressCache slidingCache = manualExpiryCache(true, 60_000);
+        List<CacheObject> journaled = new ArrayList<>();
+        slidingCache.journal(new CacheJournal() {
+            @Override
+            public void added(CacheObject cacheObject) {
+                journaled.add(cacheObject);
+            }
+
+            @Override
+            public void refreshed(CacheObject cacheObject) {
+                journaled.add(cacheObject);
+            }
+
+            @Override
+            public void removed(CacheObject cacheObject) {
+            }
+        });
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        slidingCache.add(address);
+        Thread.sleep(20);
+
+        assertFalse(slidingCache.add(address));
+
+        assertEquals(2, journaled.size());
+        slidingCache.close();
+    }
+
+    @Test
+    public void testHandedOverEntryKeepsItsTimesAndPlaceInTakeOrder() throws Exception {
+        AddressCache source = manualExpiryCache(true, 60_000);
+        source.add(address(1), 10, TimeUnit.SECONDS);
+        Thread.sleep(20);
+        cache.add(address(2));
+        AddressEntry moving = source.get(address(1));
+
+        assertTrue(cache.handOver(moving));
+        assertFalse(cache.handOver(moving));
+
+        AddressEntry moved = cache.get(address(1));
+        assertEquals(moving.createdTime, moved.createdTime);
+        assertEquals(moving.expiresAt, moved.expiresAt);
+        assertEquals(moving.ttl, moved.ttl);
+        assertEquals(moving.version, moved.version);
+        assertEquals(address(2), cache.poll());
+        assertEquals(address(1), cache.poll());
+        source.close();
+    }
+}
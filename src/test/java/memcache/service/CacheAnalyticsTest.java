@@ -0,0 +1,117 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheEvent;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CacheAnalyticsTest {
+
+    private static AddressKey key(int i) {
+        return new AddressKey(0xFFFFL, 0x0A000000L + i);
+    }
+
+    @Test
+    public void testHottestAddressesComeFirst() {
+        CacheAnalytics analytics = new CacheAnalytics(TimeUnit.MINUTES.toMillis(1), 3);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            analytics.recordAccess(key(i % 100), now);
+            if (i % 4 == 0)
+                analytics.recordAccess(key(7), now);
+            if (i % 8 == 0)
+                analytics.recordAccess(key(42), now);
+        }
+
+        CacheAnalytics.WindowReport current = analytics.report().getCurrent();
+
+        assertEquals(1375, current.getAccesses());
+        assertEquals(3, current.getHottest().size());
+        assertEquals(key(7).toString(), current.getHottest().get(0).getAddress());
+        assertEquals(260, current.getHottest().get(0).getCount());
+        assertEquals(key(42).toString(), current.getHottest().get(1).getAddress());
+    }
+
+    @Test
+    public void testDistinctAddressesAreEstimated() {
+        CacheAnalytics analytics = new CacheAnalytics(TimeUnit.MINUTES.toMillis(1), 10);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100_000; i++)
+            analytics.recordAccess(key(i % 20_000), now);
+
+        long distinct = analytics.report().getCurrent().getDistinctAddresses();
+
+        assertTrue("estimated " + distinct, Math.abs(distinct - 20_000) < 1_000);
+    }
+
+    @Test
+    public void testOnlyAddsAfterADepartureAreReAdds() {
+        CacheAnalytics analytics = new CacheAnalytics(TimeUnit.MINUTES.toMillis(1), 10);
+        long now = System.currentTimeMillis();
+        analytics.record(CacheEvent.Type.EXPIRED, key(1), now);
+        analytics.record(CacheEvent.Type.TAKEN, key(2), now);
+        analytics.record(CacheEvent.Type.REMOVED, key(3), now);
+        for (int i = 1; i <= 4; i++)
+            analytics.record(CacheEvent.Type.ADDED, key(i), now);
+        analytics.record(CacheEvent.Type.ADDED, key(1), now);
+
+        CacheAnalytics.WindowReport current = analytics.report().getCurrent();
+
+        assertEquals(3, current.getReAdds());
+        assertEquals(key(1).toString(), current.getChurning().get(0).getAddress());
+        assertEquals(2, current.getChurning().get(0).getCount());
+        assertEquals(2, current.getChurning().size());
+    }
+
+    @Test
+    public void testWindowsRollOver() {
+        CacheAnalytics analytics = new CacheAnalytics(1000, 10);
+        long now = System.currentTimeMillis();
+        analytics.record(CacheEvent.Type.EXPIRED, key(1), now);
+        analytics.recordAccess(key(1), now);
+        analytics.record(CacheEvent.Type.ADDED, key(1), now + 1000);
+        analytics.record(CacheEvent.Type.ADDED, key(1), now + 3000);
+
+        CacheAnalytics.Report report = analytics.report();
+
+        assertEquals(1000, report.getWindowMillis());
+        // The re-add in the second window was moved back, then dropped as too old.
+        assertEquals(0, report.getPrevious().getReAdds());
+        assertEquals(0, report.getCurrent().getReAdds());
+        assertEquals(report.getCurrent().getStart(), report.getPrevious().getEnd());
+    }
+
+    @Test
+    public void testCacheFeedsItsAnalytics() throws UnknownHostException, InterruptedException {
+        AddressCache cache = new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.MINUTES)
+                .analyticsWindow(1, TimeUnit.MINUTES));
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        cache.add(address);
+        cache.contains(address);
+        cache.poll();
+        cache.add(address);
+
+        CacheAnalytics.WindowReport current = cache.getAnalytics().report().getCurrent();
+
+        assertEquals(3, current.getAccesses());
+        assertEquals(1, current.getDistinctAddresses());
+        assertEquals(1, current.getReAdds());
+        assertEquals("10.0.0.1", current.getHottest().get(0).getAddress());
+        cache.close();
+    }
+
+    @Test
+    public void testOffByDefault() {
+        AddressCache cache = new AddressCache(1, TimeUnit.SECONDS);
+
+        assertFalse(cache.getAnalytics().isEnabled());
+        assertNull(cache.getAnalytics().report());
+        cache.close();
+    }
+}
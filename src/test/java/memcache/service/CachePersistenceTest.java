@@ -0,0 +1,279 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CachePersistenceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<AutoCloseable> opened = new ArrayList<>();
+
+    private AddressCache cache;
+    private CachePersistence persistence;
+
+    @Before
+    public void setup() throws IOException {
+        restart();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (AutoCloseable closeable : opened)
+            closeable.close();
+    }
+
+    private void restart() throws IOException {
+        restart(new CacheSettings().maxAge(1, TimeUnit.MINUTES));
+    }
+
+    private void restart(CacheSettings settings) throws IOException {
+        if (persistence != null)
+            persistence.close();
+        cache = new AddressCache(settings);
+        persistence = new CachePersistence(cache, folder.getRoot(), 4096, 5, 0);
+        opened.add(cache);
+        opened.add(persistence);
+        persistence.start();
+    }
+
+    @Test
+    public void testAddsAndRemovesSurviveRestart() throws IOException {
+        cache.add(InetAddress.getByName("127.0.0.1"));
+        cache.add(InetAddress.getByName("127.0.0.2"));
+        cache.add(InetAddress.getByName("127.0.0.3"));
+        cache.remove(InetAddress.getByName("127.0.0.2"));
+
+        restart();
+
+        assertEquals(2, cache.size());
+        assertEquals("127.0.0.3", cache.poll().getHostAddress());
+        assertEquals("127.0.0.1", cache.poll().getHostAddress());
+    }
+
+    @Test
+    public void testTakenEntriesDoNotComeBack() throws IOException {
+        cache.add(InetAddress.getByName("127.0.0.1"));
+        cache.take();
+
+        restart();
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSnapshotAndLogTailAreBothRecovered() throws IOException {
+        cache.add(InetAddress.getByName("127.0.0.1"));
+        cache.add(InetAddress.getByName("127.0.0.2"));
+        assertEquals(2, persistence.snapshot());
+        cache.add(InetAddress.getByName("127.0.0.3"));
+        cache.remove(InetAddress.getByName("127.0.0.1"));
+
+        restart();
+
+        assertEquals(2, cache.size());
+        assertEquals("127.0.0.3", cache.poll().getHostAddress());
+        assertEquals("127.0.0.2", cache.poll().getHostAddress());
+    }
+
+    @Test
+    public void testRemovalJournaledBeforeItsAddStillWins() throws IOException {
+        persistence.close();
+        CacheObject removed = new CacheObject(AddressKey.of(InetAddress.getByName("127.0.0.1")));
+        removed.sequence = 1;
+        CacheObject readded = new CacheObject(removed.key);
+        readded.sequence = 2;
+        try (AppendLog log = new AppendLog(folder.getRoot(), 1, 4096, 5, 16, new CacheMetrics())) {
+            log.added(readded);
+            log.removed(removed);
+            log.added(removed);
+        }
+
+        restart();
+
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.entries().next().sequence);
+    }
+
+    @Test
+    public void testRefreshesOfOneAddressAreWrittenOnce() throws IOException {
+        persistence.close();
+        CacheObject entry = new CacheObject(AddressKey.of(InetAddress.getByName("127.0.0.1")));
+        entry.sequence = 1;
+        try (AppendLog log = new AppendLog(folder.getRoot(), 1, 4096, TimeUnit.HOURS.toMillis(1), 16,
+                new CacheMetrics())) {
+            log.added(entry);
+            for (int i = 0; i < 10; i++)
+                log.refreshed(entry);
+        }
+
+        List<AddressKey> records = new ArrayList<>();
+        AppendLog.replay(new File(folder.getRoot(), AppendLog.fileName(1)), new AppendLog.Replay() {
+            @Override
+            public void added(AddressKey key, long sequence, long createdTime, long ttl, long touchedAt) {
+                records.add(key);
+            }
+
+            @Override
+            public void removed(AddressKey key, long sequence) {
+            }
+        });
+        assertEquals(2, records.size());
+    }
+
+    @Test
+    public void testRefreshesPastCapacityAreDroppedAndCounted() throws IOException {
+        persistence.close();
+        CacheMetrics metrics = new CacheMetrics();
+        try (AppendLog log = new AppendLog(folder.getRoot(), 1, 4096, TimeUnit.HOURS.toMillis(1), 1, metrics)) {
+            CacheObject first = new CacheObject(AddressKey.of(InetAddress.getByName("127.0.0.1")));
+            CacheObject second = new CacheObject(AddressKey.of(InetAddress.getByName("127.0.0.2")));
+            log.refreshed(first);
+            log.refreshed(first);
+            log.refreshed(second);
+        }
+
+        assertEquals(1, metrics.getJournalDropped());
+    }
+
+    @Test
+    public void testEvictedEntriesDoNotComeBack() throws IOException {
+        persistence.close();
+        cache = new AddressCache(new CacheSettings().maxEntries(1));
+        persistence = new CachePersistence(cache, folder.getRoot(), 4096, 5, 0);
+        opened.add(cache);
+        opened.add(persistence);
+        persistence.start();
+        cache.add(InetAddress.getByName("127.0.0.1"));
+        cache.add(InetAddress.getByName("127.0.0.2"));
+
+        restart();
+
+        assertEquals(1, cache.size());
+        assertEquals("127.0.0.2", cache.peek().getHostAddress());
+    }
+
+    @Test
+    public void testSequencesContinueAfterRestart() throws IOException {
+        cache.add(InetAddress.getByName("127.0.0.1"));
+        restart();
+        cache.add(InetAddress.getByName("127.0.0.2"));
+
+        restart();
+
+        assertEquals(2, cache.size());
+        assertEquals("127.0.0.2", cache.poll().getHostAddress());
+        assertEquals("127.0.0.1", cache.poll().getHostAddress());
+    }
+
+    @Test
+    public void testSnapshotDeletesFilesItReplaces() throws IOException {
+        cache.add(InetAddress.getByName("127.0.0.1"));
+        persistence.snapshot();
+        persistence.snapshot();
+
+        String[] files = folder.getRoot().list();
+        assertEquals(2, files.length);
+    }
+
+    @Test
+    public void testLogRollsOverWhenFileIsFull() throws IOException {
+        for (int i = 0; i < 300; i++)
+            cache.add(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i}));
+
+        restart();
+
+        assertEquals(300, cache.size());
+        assertTrue(folder.getRoot().list().length > 2);
+    }
+
+    @Test
+    public void testRecoveryKeepsCreatedTime() throws IOException, InterruptedException {
+        cache.close();
+        persistence.close();
+        cache = new AddressCache(200, TimeUnit.MILLISECONDS);
+        persistence = new CachePersistence(cache, folder.getRoot(), 4096, 5, 0);
+        opened.add(cache);
+        opened.add(persistence);
+        persistence.start();
+        cache.add(InetAddress.getByName("127.0.0.1"));
+        Thread.sleep(300);
+
+        restart();
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRefreshedDeadlinesSurviveRestart() throws IOException, InterruptedException {
+        CacheSettings sliding = new CacheSettings().maxAge(1, TimeUnit.MINUTES).slidingExpiration(true).tickMillis(1);
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        restart(sliding);
+        cache.add(address, 10, TimeUnit.MINUTES);
+        Thread.sleep(20);
+        assertTrue(cache.contains(address));
+        long refreshed = cache.scan(null, 1).get(0).expiresAt;
+        assertEquals(1, persistence.snapshot());
+
+        restart(sliding);
+
+        assertEquals(refreshed, cache.scan(null, 1).get(0).expiresAt);
+        Thread.sleep(20);
+        long before = System.currentTimeMillis();
+        assertTrue(cache.contains(address));
+        long touched = cache.scan(null, 1).get(0).expiresAt;
+        assertTrue("a touch should count the full time to live", touched >= before + TimeUnit.MINUTES.toMillis(10));
+
+        restart(sliding);
+
+        assertEquals(touched, cache.scan(null, 1).get(0).expiresAt);
+    }
+
+    @Test
+    public void testTornRecordStopsReplay() throws IOException {
+        cache.add(InetAddress.getByName("127.0.0.1"));
+        cache.add(InetAddress.getByName("127.0.0.2"));
+        persistence.close();
+
+        File log = new File(folder.getRoot(), AppendLog.fileName(0));
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.seek(AppendLog.RECORD_BYTES + 12);
+            file.write(0xFF);
+        }
+        restart();
+
+        assertEquals(1, cache.size());
+        assertEquals("127.0.0.1", cache.peek().getHostAddress());
+    }
+
+    @Test
+    public void testTruncatedSnapshotIsIgnored() throws IOException {
+        cache.add(InetAddress.getByName("127.0.0.1"));
+        persistence.snapshot();
+        persistence.close();
+
+        File snapshot = new File(folder.getRoot(), SnapshotFile.fileName(1));
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        restart();
+
+        assertEquals(0, cache.size());
+    }
+}
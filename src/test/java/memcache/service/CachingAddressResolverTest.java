@@ -0,0 +1,130 @@
+package memcache.service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingAddressResolverTest {
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private CachingAddressResolver resolver;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        resolver.close();
+    }
+
+    private InetAddress stubLookup(String host) throws UnknownHostException {
+        lookups.incrementAndGet();
+        if (host.startsWith("slow"))
+            awaitRelease();
+        if (host.startsWith("missing"))
+            throw new UnknownHostException(host);
+        return InetAddress.getByAddress(host, new byte[]{10, 0, 0, 1});
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CachingAddressResolver newResolver(long positiveTtl, long negativeTtl) {
+        return new CachingAddressResolver(this::stubLookup, 1, 1,
+                positiveTtl, negativeTtl, TimeUnit.MILLISECONDS, 100);
+    }
+
+    @Test
+    public void testResolvedAddressIsCached() throws Exception {
+        resolver = newResolver(60000, 60000);
+
+        assertEquals("10.0.0.1", resolver.resolve("host.example").get().getHostAddress());
+        assertEquals("10.0.0.1", resolver.resolve("HOST.example").get().getHostAddress());
+
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void testFailedLookupIsCachedForNegativeTtl() throws Exception {
+        resolver = newResolver(60000, 60000);
+
+        assertFailsWithUnknownHost(resolver.resolve("missing.example"));
+        assertFailsWithUnknownHost(resolver.resolve("missing.example"));
+
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void testExpiredAnswerIsResolvedAgain() throws Exception {
+        resolver = newResolver(1, 1);
+
+        resolver.resolve("host.example").get();
+        Thread.sleep(10);
+        resolver.resolve("host.example").get();
+
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testFullCacheEvictsOnlyTheAnswersExpiringSoonest() throws Exception {
+        resolver = newResolver(60000, 60000);
+        for (int i = 0; i < 99; i++)
+            resolver.resolve("host" + i + ".example").get();
+        Thread.sleep(5);
+        resolver.resolve("host99.example").get();
+
+        resolver.resolve("host100.example").get();
+        resolver.resolve("host99.example").get();
+        assertEquals(101, lookups.get());
+
+        resolver.resolve("host0.example").get();
+        assertEquals(102, lookups.get());
+    }
+
+    @Test
+    public void testConcurrentLookupsOfSameNameAreCoalesced() throws Exception {
+        resolver = newResolver(60000, 60000);
+
+        CompletableFuture<InetAddress> first = resolver.resolve("slow.example");
+        CompletableFuture<InetAddress> second = resolver.resolve("slow.example");
+        release.countDown();
+
+        assertSame(first, second);
+        assertEquals("10.0.0.1", second.get().getHostAddress());
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void testLookupIsRejectedWhenQueueIsFull() throws Exception {
+        resolver = newResolver(60000, 60000);
+
+        resolver.resolve("slow1.example");
+        Thread.sleep(50);
+        resolver.resolve("slow2.example");
+        CompletableFuture<InetAddress> rejected = resolver.resolve("slow3.example");
+
+        assertTrue(rejected.isCompletedExceptionally());
+    }
+
+    private void assertFailsWithUnknownHost(CompletableFuture<InetAddress> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("Expected lookup to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UnknownHostException);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheEvent;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChangeFeedTest {
+
+    private static final AddressKey KEY = AddressKey.parse("10.0.0.1");
+
+    @Test
+    public void testReadReturnsEventsInOrderFromAnySequence() {
+        ChangeFeed feed = new ChangeFeed(8);
+        feed.publish(CacheEvent.Type.ADDED, KEY, 1);
+        feed.publish(CacheEvent.Type.TAKEN, KEY, 2);
+        feed.publish(CacheEvent.Type.ADDED, KEY, 3);
+
+        ChangeFeed.Batch batch = feed.read(1, 10);
+
+        List<CacheEvent> events = batch.getEvents();
+        assertEquals(2, events.size());
+        assertEquals(1, events.get(0).sequence);
+        assertEquals(CacheEvent.Type.TAKEN, events.get(0).type);
+        assertEquals(3, events.get(1).time);
+        assertEquals(0, batch.getMissed());
+        assertEquals(3, batch.getNext());
+        assertEquals(3, feed.head());
+    }
+
+    @Test
+    public void testReadStopsAtMax() {
+        ChangeFeed feed = new ChangeFeed(8);
+        for (int i = 0; i < 5; i++)
+            feed.publish(CacheEvent.Type.ADDED, KEY, i);
+
+        ChangeFeed.Batch batch = feed.read(0, 2);
+
+        assertEquals(2, batch.getEvents().size());
+        assertEquals(2, batch.getNext());
+    }
+
+    @Test
+    public void testLappedReaderSkipsOverwrittenEvents() {
+        ChangeFeed feed = new ChangeFeed(5);
+        for (int i = 0; i < 20; i++)
+            feed.publish(CacheEvent.Type.ADDED, KEY, i);
+
+        ChangeFeed.Batch batch = feed.read(3, 100);
+
+        assertEquals(9, batch.getMissed());
+        assertEquals(8, batch.getEvents().size());
+        assertEquals(12, batch.getEvents().get(0).sequence);
+        assertEquals(20, batch.getNext());
+    }
+
+    @Test
+    public void testReadingAheadOfHeadWaitsForIt() {
+        ChangeFeed feed = new ChangeFeed(4);
+        feed.publish(CacheEvent.Type.ADDED, KEY, 0);
+
+        ChangeFeed.Batch batch = feed.read(5, 10);
+
+        assertTrue(batch.getEvents().isEmpty());
+        assertEquals(5, batch.getNext());
+    }
+
+    @Test
+    public void testDisabledFeedPublishesNothing() {
+        ChangeFeed feed = new ChangeFeed(0);
+        feed.publish(CacheEvent.Type.ADDED, KEY, 0);
+
+        assertFalse(feed.isEnabled());
+        assertEquals(0, feed.head());
+        assertTrue(feed.read(0, 10).getEvents().isEmpty());
+    }
+}
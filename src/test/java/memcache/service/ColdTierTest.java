@@ -0,0 +1,146 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class ColdTierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ColdTier tier = new ColdTier(null);
+
+    private static CacheObject entry(long low, long sequence, long expiresAt) {
+        CacheObject entry = new CacheObject(new AddressKey(0, low), 1);
+        entry.sequence = sequence;
+        entry.expiresAt = expiresAt;
+        return entry;
+    }
+
+    private static List<Long> lows(Iterator<CacheObject> entries) {
+        List<Long> lows = new ArrayList<>();
+        while (entries.hasNext())
+            lows.add(entries.next().key.low);
+        return lows;
+    }
+
+    @Test
+    public void testEntriesKeepTheirTimesSequenceAndTtl() {
+        CacheObject inserted = entry(7, 3, 5000);
+        inserted.ttl = 4999;
+        tier.insert(inserted);
+
+        ColdTier.ColdEntry entry = tier.get(new AddressKey(0, 7));
+
+        assertEquals(1, entry.createdTime);
+        assertEquals(5000, entry.expiresAt);
+        assertEquals(3, entry.sequence);
+        assertEquals(4999, entry.ttl);
+        assertNull(tier.get(new AddressKey(0, 8)));
+        assertEquals(1, tier.size());
+    }
+
+    @Test
+    public void testFirstFollowsSequenceNotAddress() {
+        tier.insert(entry(1, 20, Long.MAX_VALUE));
+        tier.insert(entry(2, 10, Long.MAX_VALUE));
+        tier.insert(entry(3, 30, Long.MAX_VALUE));
+
+        assertEquals(2, tier.first(false).key.low);
+        assertEquals(3, tier.first(true).key.low);
+        assertTrue(tier.remove(tier.first(false)));
+        assertEquals(1, tier.first(false).key.low);
+    }
+
+    @Test
+    public void testStaleCopyDoesNotRemoveANewerEntry() {
+        tier.insert(entry(1, 1, Long.MAX_VALUE));
+        ColdTier.ColdEntry stale = tier.get(new AddressKey(0, 1));
+        tier.remove(new AddressKey(0, 1));
+        tier.insert(entry(1, 2, Long.MAX_VALUE));
+
+        assertFalse(tier.remove(stale));
+        assertEquals(1, tier.size());
+    }
+
+    @Test
+    public void testExpireTakesOldestAndSweepsTheRest() {
+        tier.insert(entry(1, 1, 100));
+        tier.insert(entry(2, 2, 100));
+        tier.insert(entry(3, 3, Long.MAX_VALUE));
+        // Out of sequence order, as after a restore; only the sweep finds it.
+        tier.insert(entry(4, 4, 100));
+        List<Long> expired = new ArrayList<>();
+
+        assertEquals(3, tier.expire(100, 16, entry -> expired.add(entry.key.low)));
+
+        // Three at the old end, the last of them still live, and the four records in the sweep.
+        assertEquals(7, tier.lastScanned());
+        assertEquals(3, expired.size());
+        assertEquals(1, tier.size());
+        assertNotNull(tier.get(new AddressKey(0, 3)));
+    }
+
+    @Test
+    public void testRangeAndEntriesSkipExpiredRecords() {
+        long later = System.currentTimeMillis() + 60_000;
+        for (int i = 0; i < 600; i++)
+            tier.insert(entry(i, 600 - i, i == 300 ? 1 : later));
+
+        List<Long> range = lows(tier.range(new AddressKey(0, 10), false, new AddressKey(0, 500)));
+        List<Long> bySequence = lows(tier.entries());
+
+        assertEquals(489, range.size());
+        assertEquals(11L, (long) range.get(0));
+        assertFalse(range.contains(300L));
+        assertEquals(599, bySequence.size());
+        assertEquals(599L, (long) bySequence.get(0));
+    }
+
+    @Test
+    public void testMatchesASortedMapUnderRandomChanges() {
+        Random random = new Random(42);
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        long sequence = 0;
+        for (int i = 0; i < 20_000; i++) {
+            long low = random.nextInt(4096);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(low) != null, tier.remove(new AddressKey(0, low)) != null);
+            } else {
+                tier.insert(entry(low, ++sequence, Long.MAX_VALUE));
+                expected.put(low, sequence);
+            }
+        }
+
+        assertEquals(expected.size(), tier.size());
+        List<Long> range = lows(tier.range(new AddressKey(0, 0), true, new AddressKey(0, 4095)));
+        assertEquals(new ArrayList<>(expected.keySet()), range);
+        long lowest = Long.MAX_VALUE;
+        for (Map.Entry<Long, Long> entry : expected.entrySet())
+            lowest = Math.min(lowest, entry.getValue());
+        assertEquals(lowest, tier.first(false).sequence);
+    }
+
+    @Test
+    public void testMappedTierGrowsPastItsFirstFile() throws Exception {
+        ColdTier mapped = new ColdTier(folder.newFolder());
+        for (int i = 0; i < 5000; i++)
+            mapped.insert(entry(i, i + 1, Long.MAX_VALUE));
+
+        assertEquals(5000, mapped.size());
+        assertEquals(4999, mapped.closest(new AddressKey(0, 4999)).key.low);
+        assertEquals(0, folder.getRoot().listFiles()[0].list().length);
+    }
+}
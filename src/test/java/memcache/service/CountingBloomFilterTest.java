@@ -0,0 +1,62 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CountingBloomFilterTest {
+
+    @Test
+    public void testAddedKeysAreNeverMissed() {
+        CountingBloomFilter filter = new CountingBloomFilter(1000);
+        for (int i = 0; i < 1000; i++)
+            filter.add(key(i));
+
+        for (int i = 0; i < 1000; i++)
+            assertTrue(filter.mightContain(key(i)));
+    }
+
+    @Test
+    public void testRemoveTakesBackOneAdd() {
+        CountingBloomFilter filter = new CountingBloomFilter(1000);
+        AddressKey key = key(1);
+        filter.add(key);
+        filter.add(key);
+
+        filter.remove(key);
+        assertTrue(filter.mightContain(key));
+        filter.remove(key);
+        assertFalse(filter.mightContain(key));
+    }
+
+    @Test
+    public void testFalsePositiveRateAtExpectedSize() {
+        CountingBloomFilter filter = new CountingBloomFilter(10000);
+        for (int i = 0; i < 10000; i++)
+            filter.add(key(i));
+
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            if (filter.mightContain(key(i)))
+                falsePositives++;
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 3000);
+    }
+
+    @Test
+    public void testSaturatedCountersStaySet() {
+        CountingBloomFilter filter = new CountingBloomFilter(1);
+        AddressKey key = key(1);
+        for (int i = 0; i < 20; i++)
+            filter.add(key);
+        for (int i = 0; i < 20; i++)
+            filter.remove(key);
+
+        assertTrue(filter.mightContain(key));
+    }
+
+    private static AddressKey key(int i) {
+        return AddressKey.of(new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i});
+    }
+}
@@ -0,0 +1,109 @@
+package memcache.service;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class FlightRecorderEventsTest {
+
+    private Recording recording;
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        file = Files.createTempFile("address-cache", ".jfr");
+        recording = new Recording();
+        for (String name : new String[]{"memcache.CacheOperation", "memcache.Cleanup", "memcache.Resolve"})
+            recording.enable(name).withThreshold(Duration.ZERO);
+        recording.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        recording.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testCacheOperationsAreRecorded() throws Exception {
+        try (AddressCache cache = new AddressCache(1, TimeUnit.SECONDS)) {
+            InetAddress address = InetAddress.getByName("10.0.0.1");
+            cache.add(address);
+            cache.add(address);
+            cache.poll();
+        }
+
+        List<RecordedEvent> events = events("memcache.CacheOperation");
+        assertEquals(3, events.size());
+        assertEquals("add", events.get(0).getString("operation"));
+        assertEquals("10.0.0.1", events.get(0).getString("address"));
+        assertFalse(events.get(0).getBoolean("hit"));
+        assertTrue(events.get(1).getBoolean("hit"));
+        assertEquals("poll", events.get(2).getString("operation"));
+    }
+
+    @Test
+    public void testCleanupPassesRecordScannedAndRemoved() throws Exception {
+        try (AddressCache cache = new AddressCache(new CacheSettings()
+                .maxAge(1, TimeUnit.MILLISECONDS).tickMillis(1).maintenanceThreads(0))) {
+            for (int i = 0; i < 10; i++)
+                cache.add(InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) i}));
+            Thread.sleep(10);
+            assertEquals(10, cache.cleanup());
+        }
+
+        // Recordings are JVM wide, so leave out passes run by other tests' maintenance threads.
+        String thread = Thread.currentThread().getName();
+        List<RecordedEvent> events = events("memcache.Cleanup").stream()
+                .filter(event -> event.getThread() != null && thread.equals(event.getThread().getJavaName()))
+                .collect(Collectors.toList());
+        assertEquals(1, events.size());
+        assertEquals(10, events.get(0).getInt("scanned"));
+        assertEquals(10, events.get(0).getInt("removed"));
+        assertEquals(0, events.get(0).getInt("remaining"));
+    }
+
+    @Test
+    public void testLookupsMissingTheResolverCacheAreRecorded() throws Exception {
+        try (CachingAddressResolver resolver = new CachingAddressResolver(host -> {
+            if (host.equals("cache.example"))
+                return InetAddress.getByAddress(host, new byte[]{10, 0, 0, 7});
+            throw new UnknownHostException(host);
+        }, 1, 4, 60, 60, TimeUnit.SECONDS, 100)) {
+            resolver.resolve("cache.example").join();
+            resolver.resolve("cache.example").join();
+            resolver.resolve("unknown.example").handle((address, failure) -> failure).join();
+        }
+
+        List<RecordedEvent> events = events("memcache.Resolve");
+        assertEquals(2, events.size());
+        assertEquals("cache.example", events.get(0).getString("host"));
+        assertTrue(events.get(0).getBoolean("resolved"));
+        assertFalse(events.get(1).getBoolean("resolved"));
+    }
+
+    private List<RecordedEvent> events(String name) throws IOException {
+        recording.stop();
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .sorted(Comparator.comparing(RecordedEvent::getStartTime))
+                .collect(Collectors.toList());
+    }
+}
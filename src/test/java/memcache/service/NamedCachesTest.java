@@ -0,0 +1,75 @@
+package memcache.service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NamedCachesTest {
+
+    private final NamedCaches caches = new NamedCaches(1);
+
+    @After
+    public void tearDown() {
+        caches.close();
+    }
+
+    @Test
+    public void testCachesExpireIndependentlyOnTheSharedScheduler() throws Exception {
+        AddressCache fast = caches.create("fast", new CacheSettings().maxAge(50, TimeUnit.MILLISECONDS).tickMillis(10));
+        AddressCache slow = caches.create("slow", new CacheSettings().maxAge(1, TimeUnit.MINUTES).tickMillis(10));
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        fast.add(address);
+        slow.add(address);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fast.getMetrics().getExpirations() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertEquals(1, fast.getMetrics().getExpirations());
+        assertEquals(0, fast.size());
+        assertTrue(slow.contains(address));
+    }
+
+    @Test
+    public void testClosingOneCacheLeavesTheSchedulerRunning() throws Exception {
+        AddressCache closed = caches.create("closed", new CacheSettings().maxAge(1, TimeUnit.MINUTES));
+        AddressCache open = caches.create("open", new CacheSettings().maxAge(50, TimeUnit.MILLISECONDS).tickMillis(10));
+        closed.close();
+        open.add(InetAddress.getByName("10.0.0.1"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (open.size() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertFalse(caches.getMaintenance().isShutdown());
+        assertEquals(0, open.size());
+    }
+
+    @Test
+    public void testLookupByName() {
+        AddressCache blocklist = caches.create("blocklist", new CacheSettings());
+
+        assertSame(blocklist, caches.get("blocklist"));
+        assertNull(caches.get("allowlist"));
+        assertEquals(1, caches.asMap().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNamesAreUnique() {
+        caches.create("blocklist", new CacheSettings());
+        caches.create("blocklist", new CacheSettings());
+    }
+
+    @Test
+    public void testCloseStopsTheScheduler() {
+        caches.create("blocklist", new CacheSettings().maxAge(1, TimeUnit.MINUTES));
+
+        caches.close();
+
+        assertTrue(caches.getMaintenance().isShutdown());
+    }
+}
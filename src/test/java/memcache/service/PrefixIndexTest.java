@@ -0,0 +1,126 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class PrefixIndexTest {
+
+    private final PrefixIndex index = new PrefixIndex();
+
+    private static CacheObject entry(long high, long low) {
+        return new CacheObject(new AddressKey(high, low));
+    }
+
+    private static List<AddressKey> keys(Iterator<CacheObject> entries) {
+        List<AddressKey> keys = new ArrayList<>();
+        while (entries.hasNext())
+            keys.add(entries.next().key);
+        return keys;
+    }
+
+    @Test
+    public void testEmptyIndexFindsNothing() {
+        AddressKey key = new AddressKey(0, 1);
+
+        assertNull(index.closest(key));
+        assertFalse(index.range(key.firstInPrefix(0), key.lastInPrefix(0)).hasNext());
+    }
+
+    @Test
+    public void testClosestSharesTheLongestPrefix() {
+        index.insert(entry(0, 0b1000));
+        index.insert(entry(0, 0b1100));
+        index.insert(entry(0, 0b0011));
+
+        assertEquals(new AddressKey(0, 0b1100), index.closest(new AddressKey(0, 0b1101)).key);
+        assertEquals(new AddressKey(0, 0b0011), index.closest(new AddressKey(0, 0b0111)).key);
+        assertEquals(new AddressKey(0, 0b1000), index.closest(new AddressKey(0, 0b1000)).key);
+    }
+
+    @Test
+    public void testRemoveOnlyDropsTheSameEntry() {
+        CacheObject first = entry(0, 7);
+        CacheObject second = entry(0, 7);
+        index.insert(first);
+        index.insert(second);
+
+        index.remove(first);
+        assertSame(second, index.closest(second.key));
+
+        index.remove(second);
+        assertNull(index.closest(second.key));
+    }
+
+    @Test
+    public void testRangeSkipsRemovedAndExpiredEntries() {
+        CacheObject removed = entry(0, 1);
+        CacheObject expired = entry(0, 2);
+        index.insert(removed);
+        index.insert(expired);
+        index.insert(entry(0, 3));
+        removed.markRemoved();
+        expired.expiresAt = 0;
+
+        assertEquals(1, keys(index.range(new AddressKey(0, 0), new AddressKey(0, 10))).size());
+    }
+
+    @Test
+    public void testRangeContinuesAcrossBatchesWhileRemoving() {
+        List<CacheObject> entries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            CacheObject entry = entry(0, i * 3L);
+            entries.add(entry);
+            index.insert(entry);
+        }
+
+        int seen = 0;
+        for (Iterator<CacheObject> it = index.range(new AddressKey(0, 0), new AddressKey(0, 3000)); it.hasNext(); ) {
+            index.remove(it.next());
+            seen++;
+        }
+
+        assertEquals(1000, seen);
+        assertNull(index.closest(new AddressKey(0, 0)));
+    }
+
+    @Test
+    public void testMatchesSortedMapOnRandomKeys() {
+        Random random = new Random(42);
+        TreeMap<AddressKey, CacheObject> expected = new TreeMap<>();
+        for (int i = 0; i < 5000; i++) {
+            // Few distinct high words so keys share long prefixes and also differ in the low word.
+            CacheObject entry = entry(random.nextInt(4), random.nextLong() >>> random.nextInt(64));
+            if (random.nextInt(4) == 0 && !expected.isEmpty()) {
+                CacheObject victim = expected.pollFirstEntry().getValue();
+                index.remove(victim);
+            } else {
+                expected.put(entry.key, entry);
+                index.insert(entry);
+            }
+        }
+
+        for (int i = 0; i < 200; i++) {
+            AddressKey probe = new AddressKey(random.nextInt(4), random.nextLong());
+            int length = random.nextInt(AddressKey.BITS + 1);
+            AddressKey first = probe.firstInPrefix(length);
+            AddressKey last = probe.lastInPrefix(length);
+
+            assertEquals(new ArrayList<>(expected.subMap(first, true, last, true).keySet()),
+                    keys(index.range(first, last)));
+
+            int best = -1;
+            for (AddressKey key : expected.keySet())
+                best = Math.max(best, probe.commonPrefixLength(key));
+            assertEquals(best, probe.commonPrefixLength(index.closest(probe).key));
+        }
+    }
+}
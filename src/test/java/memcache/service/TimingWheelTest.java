@@ -0,0 +1,108 @@
+package memcache.service;
+
+import memcache.domain.AddressKey;
+import memcache.domain.CacheObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+
+    private static CacheObject entry(long expiresAt) {
+        CacheObject cacheObject = new CacheObject(new AddressKey(0, expiresAt));
+        cacheObject.expiresAt = expiresAt;
+        return cacheObject;
+    }
+
+    @Test
+    public void testEntryFiresOnTheFirstTickAfterItsDeadline() {
+        TimingWheel wheel = new TimingWheel(10, 0);
+        List<CacheObject> expired = new ArrayList<>();
+        CacheObject cacheObject = entry(25);
+        wheel.schedule(cacheObject);
+
+        wheel.advance(29, expired::add);
+        assertTrue(expired.isEmpty());
+
+        wheel.advance(30, expired::add);
+        assertEquals(1, expired.size());
+        assertSame(cacheObject, expired.get(0));
+    }
+
+    @Test
+    public void testEntriesBeyondFirstLevelAreCascaded() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        List<CacheObject> expired = new ArrayList<>();
+        CacheObject near = entry(63);
+        CacheObject middle = entry(5000);
+        CacheObject far = entry(300000);
+        wheel.schedule(near);
+        wheel.schedule(middle);
+        wheel.schedule(far);
+
+        assertEquals(1, wheel.advance(4999, expired::add));
+        assertEquals(1, wheel.advance(5000, expired::add));
+        assertEquals(0, wheel.advance(299999, expired::add));
+        assertEquals(1, wheel.advance(300000, expired::add));
+        assertEquals(3, expired.size());
+    }
+
+    @Test
+    public void testRemovedEntriesAreSkipped() {
+        TimingWheel wheel = new TimingWheel(10, 0);
+        List<CacheObject> expired = new ArrayList<>();
+        CacheObject cacheObject = entry(20);
+        wheel.schedule(cacheObject);
+        cacheObject.markRemoved();
+
+        assertEquals(0, wheel.advance(100, expired::add));
+    }
+
+    @Test
+    public void testPurgeDropsOnlyRemovedEntries() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        List<CacheObject> expired = new ArrayList<>();
+        CacheObject removed = entry(20);
+        CacheObject demoted = entry(300000);
+        CacheObject live = entry(5000);
+        wheel.schedule(removed);
+        wheel.schedule(demoted);
+        wheel.schedule(live);
+        removed.markRemoved();
+        demoted.markDemoted();
+
+        assertEquals(2, wheel.purge());
+        assertEquals(0, wheel.purge());
+        assertEquals(1, wheel.advance(300000, expired::add));
+        assertSame(live, expired.get(0));
+    }
+
+    @Test
+    public void testEntryWithPastDeadlineFiresOnNextTick() {
+        TimingWheel wheel = new TimingWheel(10, 1000);
+        List<CacheObject> expired = new ArrayList<>();
+        wheel.schedule(entry(500));
+
+        assertEquals(1, wheel.advance(1010, expired::add));
+    }
+
+    @Test
+    public void testDeadlineMovedLaterIsRescheduledWhenItsSlotFires() {
+        TimingWheel wheel = new TimingWheel(10, 0);
+        List<CacheObject> expired = new ArrayList<>();
+        CacheObject cacheObject = entry(20);
+        wheel.schedule(cacheObject);
+        cacheObject.expiresAt = 70;
+
+        assertEquals(0, wheel.advance(60, expired::add));
+        assertEquals(1, wheel.advance(70, expired::add));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveTickIsRejected() {
+        new TimingWheel(0, 0);
+    }
+}